@@ -3,18 +3,28 @@
  */
 package sma.smython;
 
+import sma.smython.Python.Dict;
+import sma.smython.Python.Func;
+import sma.smython.Python.Method;
 import sma.smython.Python.Obj;
 import sma.smython.Python.Str;
 
 import java.util.ArrayList;
 import java.util.List;
 
-/** Represents all arguments for a call or class definition. */
+/**
+ * Represents all arguments for a call or class definition. For calls with keyword or star
+ * arguments, the argument list is also the call site's cache of the binding plan for the last
+ * function called, see <code>Params.Plan</code>.
+ */
 class Arglist {
-  private final List<Expr> positionals = new ArrayList<Expr>();
-  private final List<KwExpr> keywords = new ArrayList<KwExpr>();
+  final List<Expr> positionals = new ArrayList<Expr>();
+  final List<KwExpr> keywords = new ArrayList<KwExpr>();
   Expr restPositionals;
   Expr restKeywords;
+  /** The names of <code>keywords</code>, created on first use. */
+  private Str[] names;
+  private Params.Plan plan;
 
   void addPositional(Expr value) {
     positionals.add(value);
@@ -62,12 +72,123 @@ class Arglist {
     return s + "]";
   }
 
+  /**
+   * Evaluates the base classes of a class definition. Metaclasses aren't supported, so keyword
+   * arguments are rejected instead of being dropped.
+   */
   Obj[] eval(Frame f) {
-    Obj[] args = new Obj[positionals.size()];
-    for (int i = 0; i < args.length; i++) {
-      args[i] = positionals.get(i).eval(f);
+    if (!keywords.isEmpty() || restKeywords != null) {
+      throw Python.error(Python.TypeError, "keyword arguments in class definitions are not supported");
+    }
+    ArrayList<Obj> values = new ArrayList<Obj>(positionals.size());
+    for (Expr expr : positionals) {
+      values.add(expr.eval(f));
+    }
+    if (restPositionals != null) {
+      Obj iter = restPositionals.eval(f).iter();
+      for (Obj value = iter.next(); value != null; value = iter.next()) {
+        values.add(value);
+      }
+    }
+    return values.toArray(new Obj[values.size()]);
+  }
+
+  /** Calls the given object with all arguments. */
+  Obj call(Frame f, Obj callable) {
+    Str[] names = this.names;
+    if (names == null) {
+      names = new Str[keywords.size()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = keywords.get(i).name;
+      }
+      this.names = names;
+    }
+    Obj[] args;
+    if (restPositionals == null && restKeywords == null) {
+      args = new Obj[positionals.size() + names.length];
+      int i = 0;
+      for (Expr expr : positionals) {
+        args[i++] = expr.eval(f);
+      }
+      for (KwExpr kwExpr : keywords) {
+        args[i++] = kwExpr.value.eval(f);
+      }
+    } else {
+      ArrayList<Obj> values = new ArrayList<Obj>();
+      for (Expr expr : positionals) {
+        values.add(expr.eval(f));
+      }
+      if (restPositionals != null) {
+        Obj iter = restPositionals.eval(f).iter();
+        for (Obj value = iter.next(); value != null; value = iter.next()) {
+          values.add(value);
+        }
+      }
+      for (KwExpr kwExpr : keywords) {
+        values.add(kwExpr.value.eval(f));
+      }
+      if (restKeywords != null) {
+        names = expand(restKeywords.eval(f), names, values);
+      }
+      args = values.toArray(new Obj[values.size()]);
+    }
+    if (callable instanceof Method && ((Method) callable).func instanceof Func) {
+      Obj[] selfAndArgs = new Obj[args.length + 1];
+      selfAndArgs[0] = ((Method) callable).self;
+      System.arraycopy(args, 0, selfAndArgs, 1, args.length);
+      args = selfAndArgs;
+      callable = ((Method) callable).func;
+    }
+    if (callable instanceof Func) {
+      Func func = (Func) callable;
+      int count = args.length - names.length;
+      Params.Plan plan = this.plan;
+      if (plan == null || !plan.matches(func.params, count, names)) {
+        this.plan = plan = func.params.plan(func.name, count, names);
+      }
+      return func.call(f, plan, args);
+    }
+    return callable.callKeywords(f, args, names);
+  }
+
+  /** Adds the items of a "**" argument to the values and returns all keyword names. */
+  private static Str[] expand(Obj mapping, Str[] names, List<Obj> values) {
+    if (!(mapping instanceof Dict)) {
+      throw Python.error(Python.TypeError, "argument after ** must be a dict");
+    }
+    Dict dict = (Dict) mapping;
+    Str[] allNames = new Str[names.length + dict.len()];
+    System.arraycopy(names, 0, allNames, 0, names.length);
+    int i = names.length;
+    Obj iter = dict.iter();
+    for (Obj key = iter.next(); key != null; key = iter.next()) {
+      if (!(key instanceof Str)) {
+        throw Python.error(Python.TypeError, "keywords must be strings");
+      }
+      for (int j = 0; j < names.length; j++) {
+        if (names[j].equals(key)) {
+          throw Python.error(Python.TypeError, "got multiple values for keyword argument '" + key + "'");
+        }
+      }
+      allNames[i++] = (Str) key;
+      values.add(dict.getItem(key));
+    }
+    return allNames;
+  }
+
+  void resolve(Scope scope) {
+    for (Expr expr : positionals) {
+      expr.resolve(scope);
+    }
+    for (KwExpr kwExpr : keywords) {
+      kwExpr.value.resolve(scope);
+    }
+    if (restPositionals != null) {
+      restPositionals.resolve(scope);
+    }
+    if (restKeywords != null) {
+      restKeywords.resolve(scope);
     }
-    return args;
   }
 
   static class KwExpr {
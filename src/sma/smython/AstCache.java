@@ -0,0 +1,1387 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import sma.smython.Python.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Stores parsed modules as compact binary ".smyc" files so that they can be loaded without
+ * scanning and parsing the source again. A cache file starts with a header which records the
+ * format version and the source's size, modification time and CRC32. It is followed by a table of
+ * all names and strings and the tree itself, encoded as tagged nodes with variable-length ints.
+ * <p>
+ * Cache files are written next to the source or into a cache directory. They are memory-mapped
+ * for reading and replaced atomically, so concurrent loaders never see partial files.
+ */
+public class AstCache {
+  static final int MAGIC = 0x534d5943; // "SMYC"
+  static final int VERSION = 4;
+
+  private static final Charset UTF8 = Charset.forName("utf-8");
+
+  private final File cacheDir;
+
+  /** Constructs a cache which stores "foo.smyc" next to each "foo.py". */
+  public AstCache() {
+    this(null);
+  }
+
+  /** Constructs a cache which stores all files in the given directory. */
+  public AstCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Returns the module for the given source file, either from its cache file or by parsing the
+   * source and writing a new cache file.
+   */
+  public Suite load(File source) throws IOException {
+    Suite suite = read(source);
+    if (suite == null) {
+      Parser parser = new Parser(new Scanner(ParseService.open(source)));
+      suite = parser.parseFileInput();
+      write(source, suite);
+    }
+    return suite;
+  }
+
+  /**
+   * Returns the cached module for the given source file or <code>null</code> if it is missing or
+   * stale. A cache file which cannot be read or decoded is deleted.
+   */
+  public Suite read(File source) throws IOException {
+    File file = cacheFile(source);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      return read(source, file);
+    } catch (IOException e) {
+      // e.g. truncated or removed while reading
+    } catch (RuntimeException e) {
+      // corrupt, or written by an incompatible build which used the same version
+    }
+    file.delete();
+    return null;
+  }
+
+  private static Suite read(File source, File file) throws IOException {
+    long lastModified = source.lastModified();
+    Suite suite;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      if (buf.remaining() < 28 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+        return null;
+      }
+      long size = buf.getLong();
+      long mtime = buf.getLong();
+      int crc = buf.getInt();
+      if (size != source.length()) {
+        return null;
+      }
+      if (mtime == lastModified) {
+        return new Input(buf).readModule();
+      }
+      if (crc != crc(source)) {
+        return null;
+      }
+      suite = new Input(buf).readModule();
+    } finally {
+      raf.close();
+    }
+    touch(file, lastModified);
+    return suite;
+  }
+
+  /**
+   * Records the new modification time of a source whose content turned out to be unchanged, so
+   * that later loads need not compute its CRC again. Only the 8 bytes of the time are written in
+   * place; a concurrent reader seeing them half written just checks the CRC once more.
+   */
+  private static void touch(File file, long mtime) {
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.seek(16);
+        raf.writeLong(mtime);
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      // the cache may be read-only; loading is then just slower
+    }
+  }
+
+  /** Writes the given module parsed from the given source file into its cache file. */
+  public void write(File source, Suite suite) throws IOException {
+    long mtime = source.lastModified();
+    byte[] bytes = serialize(suite, source.length(), mtime, crc(source));
+    File file = cacheFile(source);
+    File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(file)) {
+      file.delete();
+      if (!temp.renameTo(file)) {
+        temp.delete();
+        throw new IOException("cannot write " + file);
+      }
+    }
+  }
+
+  /** Returns the cache file for the given source file. */
+  File cacheFile(File source) {
+    String name = source.getName();
+    if (name.endsWith(".py")) {
+      name = name.substring(0, name.length() - 3);
+    }
+    if (cacheDir == null) {
+      return new File(source.getParentFile(), name + ".smyc");
+    }
+    String dir = source.getAbsoluteFile().getParent();
+    return new File(cacheDir, name + "-" + Integer.toHexString(dir.hashCode()) + ".smyc");
+  }
+
+  private static int crc(File source) throws IOException {
+    CRC32 crc = new CRC32();
+    InputStream in = new FileInputStream(source);
+    try {
+      byte[] buf = new byte[8192];
+      int len = in.read(buf);
+      while (len != -1) {
+        crc.update(buf, 0, len);
+        len = in.read(buf);
+      }
+    } finally {
+      in.close();
+    }
+    return (int) crc.getValue();
+  }
+
+  /** Returns the complete cache file content for the given module. */
+  static byte[] serialize(Suite suite, long size, long mtime, int crc) {
+    Output tree = new Output();
+    tree.writeSuite(suite);
+    Output out = new Output();
+    out.writeFixedInt(MAGIC);
+    out.writeFixedInt(VERSION);
+    out.writeFixedLong(size);
+    out.writeFixedLong(mtime);
+    out.writeFixedInt(crc);
+    out.writeInt(tree.strings.size());
+    for (String s : tree.strings) {
+      byte[] bytes = s.getBytes(UTF8);
+      out.writeInt(bytes.length);
+      out.writeBytes(bytes, bytes.length);
+    }
+    out.writeBytes(tree.buf, tree.len);
+    byte[] bytes = new byte[out.len];
+    System.arraycopy(out.buf, 0, bytes, 0, out.len);
+    return bytes;
+  }
+
+  /** Returns the module of the given cache file content. */
+  static Suite deserialize(ByteBuffer buf) {
+    buf.position(28); // skip the header
+    return new Input(buf).readModule();
+  }
+
+  // --------------------------------------------------------------------------------
+
+  private static final int NULL = 0;
+  // expressions
+  private static final int LAMBDA = 1;
+  private static final int IF_ELSE = 2;
+  private static final int AND = 3;
+  private static final int OR = 4;
+  private static final int NOT = 5;
+  private static final int COMPARISON = 6;
+  private static final int STAR = 7;
+  private static final int BIT_OR = 8;
+  private static final int BIT_XOR = 9;
+  private static final int BIT_AND = 10;
+  private static final int BIT_SHIFT_LEFT = 11;
+  private static final int BIT_SHIFT_RIGHT = 12;
+  private static final int ADD = 13;
+  private static final int SUB = 14;
+  private static final int MUL = 15;
+  private static final int DIV = 16;
+  private static final int MOD = 17;
+  private static final int INT_DIV = 18;
+  private static final int UNARY_MINUS = 19;
+  private static final int UNARY_PLUS = 20;
+  private static final int BIT_NEG = 21;
+  private static final int CALL = 22;
+  private static final int INDEX = 23;
+  private static final int ATTR = 24;
+  private static final int POWER = 25;
+  private static final int LIT = 26;
+  private static final int VAR = 27;
+  private static final int YIELD = 28;
+  private static final int DICT_COMPR = 29;
+  private static final int DICT_CONSTR = 30;
+  private static final int SET_COMPR = 31;
+  private static final int SET_CONSTR = 32;
+  private static final int LIST_COMPR = 33;
+  private static final int LIST_CONSTR = 34;
+  private static final int GENERATOR_COMPR = 35;
+  private static final int TUPLE_CONSTR = 36;
+  private static final int SLICE = 37;
+  // comparison operators
+  private static final int LT = 40;
+  private static final int GT = 41;
+  private static final int LE = 42;
+  private static final int GE = 43;
+  private static final int EQ = 44;
+  private static final int NE = 45;
+  private static final int IN = 46;
+  private static final int NOT_IN = 47;
+  private static final int IS = 48;
+  private static final int IS_NOT = 49;
+  // comprehension clauses
+  private static final int COMPR_FOR = 50;
+  private static final int COMPR_IF = 51;
+  // literals
+  private static final int INT_VALUE = 55;
+  private static final int FLOAT_VALUE = 56;
+  private static final int STR_VALUE = 57;
+  private static final int NONE_VALUE = 58;
+  private static final int ELLIPSIS_VALUE = 59;
+  private static final int TUPLE_VALUE = 60;
+  private static final int BIG_INT_VALUE = 61;
+  // statements
+  private static final int BREAK = 64;
+  private static final int CONTINUE = 65;
+  private static final int DEL = 66;
+  private static final int PASS = 67;
+  private static final int RETURN = 68;
+  private static final int RAISE = 69;
+  private static final int YIELD_STMT = 70;
+  private static final int IMPORT = 71;
+  private static final int FROM = 72;
+  private static final int GLOBAL = 73;
+  private static final int NONLOCAL = 74;
+  private static final int ASSERT = 75;
+  private static final int ADD_ASSIGN = 76;
+  private static final int SUB_ASSIGN = 77;
+  private static final int MUL_ASSIGN = 78;
+  private static final int DIV_ASSIGN = 79;
+  private static final int INT_DIV_ASSIGN = 80;
+  private static final int MOD_ASSIGN = 81;
+  private static final int POWER_ASSIGN = 82;
+  private static final int RSHIFT_ASSIGN = 83;
+  private static final int LSHIFT_ASSIGN = 84;
+  private static final int AND_ASSIGN = 85;
+  private static final int XOR_ASSIGN = 86;
+  private static final int OR_ASSIGN = 87;
+  private static final int ASSIGN = 88;
+  private static final int EXPR_STMT = 89;
+  private static final int IF = 90;
+  private static final int WHILE = 91;
+  private static final int FOR = 92;
+  private static final int TRY = 93;
+  private static final int WITH = 94;
+  private static final int FUNC_DEF = 95;
+  private static final int CLASS_DEF = 96;
+
+  private static final Map<Class<?>, Integer> tags = new HashMap<Class<?>, Integer>();
+  static {
+    Class<?>[] classes = {
+        Expr.Lambda.class, Expr.IfElse.class, Expr.And.class, Expr.Or.class, Expr.Not.class,
+        Expr.Comparison.class, Expr.Star.class, Expr.BitOr.class, Expr.BitXor.class, Expr.BitAnd.class,
+        Expr.BitShiftLeft.class, Expr.BitShiftRight.class, Expr.Add.class, Expr.Sub.class, Expr.Mul.class,
+        Expr.Div.class, Expr.Mod.class, Expr.IntDiv.class, Expr.UnaryMinus.class, Expr.UnaryPlus.class,
+        Expr.BitNeg.class, Expr.Call.class, Expr.Index.class, Expr.Attr.class, Expr.Power.class, Expr.Lit.class,
+        Expr.Var.class, Expr.Yield.class, Expr.DictCompr.class, Expr.DictConstr.class, Expr.SetCompr.class,
+        Expr.SetConstr.class, Expr.ListCompr.class, Expr.ListConstr.class, Expr.GeneratorCompr.class,
+        Expr.TupleConstr.class, Expr.Slice.class};
+    for (int i = 0; i < classes.length; i++) {
+      tags.put(classes[i], LAMBDA + i);
+    }
+    classes = new Class<?>[]{
+        Expr.Comp.LT.class, Expr.Comp.GT.class, Expr.Comp.LE.class, Expr.Comp.GE.class, Expr.Comp.EQ.class,
+        Expr.Comp.NE.class, Expr.Comp.In.class, Expr.Comp.NotIn.class, Expr.Comp.Is.class, Expr.Comp.IsNot.class,
+        Expr.ComprFor.class, Expr.ComprIf.class};
+    for (int i = 0; i < classes.length; i++) {
+      tags.put(classes[i], LT + i);
+    }
+    classes = new Class<?>[]{
+        Stmt.Break.class, Stmt.Continue.class, Stmt.Del.class, Stmt.Pass.class, Stmt.Return.class,
+        Stmt.Raise.class, Stmt.Yield.class, Stmt.Import.class, Stmt.From.class, Stmt.Global.class,
+        Stmt.Nonlocal.class, Stmt.Assert.class, Stmt.AddAssign.class, Stmt.SubAssign.class, Stmt.MulAssign.class,
+        Stmt.DivAssign.class, Stmt.IntDivAssign.class, Stmt.ModAssign.class, Stmt.PowerAssign.class,
+        Stmt.RshiftAssign.class, Stmt.LshiftAssign.class, Stmt.AndAssign.class, Stmt.XorAssign.class,
+        Stmt.OrAssign.class, Stmt.Assign.class, Stmt.ExprStmt.class, Stmt.If.class, Stmt.While.class,
+        Stmt.For.class, Stmt.Try.class, Stmt.With.class, Stmt.FuncDef.class, Stmt.ClassDef.class};
+    for (int i = 0; i < classes.length; i++) {
+      tags.put(classes[i], BREAK + i);
+    }
+  }
+
+  private static int tag(Object node) {
+    Integer tag = tags.get(node.getClass());
+    if (tag == null) {
+      throw new IllegalArgumentException("cannot serialize " + node.getClass().getName());
+    }
+    return tag;
+  }
+
+  /** Encodes the AST into a growable byte array, collecting all names and strings in a table. */
+  private static class Output {
+    byte[] buf = new byte[4096];
+    int len;
+    final List<String> strings = new ArrayList<String>();
+    final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+    private void ensure(int n) {
+      if (len + n > buf.length) {
+        byte[] newBuf = new byte[Math.max(buf.length * 2, len + n)];
+        System.arraycopy(buf, 0, newBuf, 0, len);
+        buf = newBuf;
+      }
+    }
+
+    void writeByte(int b) {
+      ensure(1);
+      buf[len++] = (byte) b;
+    }
+
+    void writeBytes(byte[] bytes, int n) {
+      ensure(n);
+      System.arraycopy(bytes, 0, buf, len, n);
+      len += n;
+    }
+
+    void writeFixedInt(int v) {
+      writeByte(v >>> 24);
+      writeByte(v >>> 16);
+      writeByte(v >>> 8);
+      writeByte(v);
+    }
+
+    void writeFixedLong(long v) {
+      writeFixedInt((int) (v >>> 32));
+      writeFixedInt((int) v);
+    }
+
+    /** Writes a non-negative int using 7 bits per byte. */
+    void writeInt(int v) {
+      while ((v & ~0x7f) != 0) {
+        writeByte((v & 0x7f) | 0x80);
+        v >>>= 7;
+      }
+      writeByte(v);
+    }
+
+    void writeBoolean(boolean b) {
+      writeByte(b ? 1 : 0);
+    }
+
+    /** Writes the index of the given string in the string table, 0 represents <code>null</code>. */
+    void writeString(String s) {
+      if (s == null) {
+        writeInt(0);
+        return;
+      }
+      Integer index = indices.get(s);
+      if (index == null) {
+        strings.add(s);
+        index = strings.size();
+        indices.put(s, index);
+      }
+      writeInt(index);
+    }
+
+    void writeName(Str name) {
+      writeString(name == null ? null : name.value);
+    }
+
+    void writeStrings(List<String> strings) {
+      if (strings == null) {
+        writeInt(0);
+        return;
+      }
+      writeInt(strings.size() + 1);
+      for (String s : strings) {
+        writeString(s);
+      }
+    }
+
+    void writeSuite(Suite suite) {
+      if (suite == null) {
+        writeInt(0);
+        return;
+      }
+      writeInt(suite.stmts.size() + 1);
+      for (int i = 0; i < suite.stmts.size(); i++) {
+        writeInt(suite.line(i));
+        writeStmt(suite.stmts.get(i));
+      }
+    }
+
+    void writeExprList(ExprList exprList) {
+      if (exprList == null) {
+        writeInt(0);
+        return;
+      }
+      writeInt(exprList.exprs.size() + 1);
+      writeBoolean(exprList.single);
+      for (Expr expr : exprList.exprs) {
+        writeExpr(expr);
+      }
+    }
+
+    void writeParams(Params params) {
+      writeInt(params.params.size());
+      for (Params.Param param : params.params) {
+        writeParam(param);
+      }
+      writeInt(params.positionals);
+      writeBoolean(params.restPositional != null);
+      if (params.restPositional != null) {
+        writeParam(params.restPositional);
+      }
+      writeBoolean(params.restKeyword != null);
+      if (params.restKeyword != null) {
+        writeParam(params.restKeyword);
+      }
+      writeExpr(params.returnType);
+    }
+
+    void writeParam(Params.Param param) {
+      writeName(param.name);
+      writeExpr(param.type);
+      writeExpr(param.init);
+    }
+
+    void writeArglist(Arglist arglist) {
+      if (arglist == null) {
+        writeInt(0);
+        return;
+      }
+      writeInt(arglist.positionals.size() + 1);
+      for (Expr expr : arglist.positionals) {
+        writeExpr(expr);
+      }
+      writeInt(arglist.keywords.size());
+      for (Arglist.KwExpr kwExpr : arglist.keywords) {
+        writeName(kwExpr.name);
+        writeExpr(kwExpr.value);
+      }
+      writeExpr(arglist.restPositionals);
+      writeExpr(arglist.restKeywords);
+    }
+
+    void writeDecorators(List<Stmt.Decorator> decorators) {
+      if (decorators == null) {
+        writeInt(0);
+        return;
+      }
+      writeInt(decorators.size() + 1);
+      for (Stmt.Decorator decorator : decorators) {
+        writeStrings(decorator.dottedName);
+        writeArglist(decorator.arglist);
+      }
+    }
+
+    void writeLit(Obj value) {
+      if (value instanceof Int) {
+        writeByte(INT_VALUE);
+        int v = ((Int) value).value;
+        writeInt((v << 1) ^ (v >> 31));
+      } else if (value instanceof Python.BigInt) {
+        writeByte(BIG_INT_VALUE);
+        writeString(value.toString());
+      } else if (value instanceof Python.Float) {
+        writeByte(FLOAT_VALUE);
+        writeFixedLong(Double.doubleToRawLongBits(((Python.Float) value).value));
+      } else if (value instanceof Str) {
+        writeByte(STR_VALUE);
+        writeString(((Str) value).value);
+      } else if (value == Python.None) {
+        writeByte(NONE_VALUE);
+      } else if (value == Python.Ellipsis) {
+        writeByte(ELLIPSIS_VALUE);
+      } else if (value instanceof Tuple) {
+        writeByte(TUPLE_VALUE);
+      } else {
+        throw new IllegalArgumentException("cannot serialize " + value.getClass().getName());
+      }
+    }
+
+    void writeCompr(Expr.Compr compr) {
+      if (compr == null) {
+        writeByte(NULL);
+        return;
+      }
+      int tag = tag(compr);
+      writeByte(tag);
+      if (tag == COMPR_FOR) {
+        Expr.ComprFor c = (Expr.ComprFor) compr;
+        writeExprList(c.vars);
+        writeExpr(c.items);
+        writeCompr(c.compr);
+      } else {
+        Expr.ComprIf c = (Expr.ComprIf) compr;
+        writeExpr(c.cond);
+        writeCompr(c.compr);
+      }
+    }
+
+    void writeExpr(Expr e) {
+      if (e == null) {
+        writeByte(NULL);
+        return;
+      }
+      int tag = tag(e);
+      writeByte(tag);
+      switch (tag) {
+        case LAMBDA:
+          writeParams(((Expr.Lambda) e).params);
+          writeExpr(((Expr.Lambda) e).test);
+          break;
+        case IF_ELSE:
+          writeExpr(((Expr.IfElse) e).condition);
+          writeExpr(((Expr.IfElse) e).consequence);
+          writeExpr(((Expr.IfElse) e).alternative);
+          break;
+        case AND:
+          writeExpr(((Expr.And) e).left);
+          writeExpr(((Expr.And) e).right);
+          break;
+        case OR:
+          writeExpr(((Expr.Or) e).left);
+          writeExpr(((Expr.Or) e).right);
+          break;
+        case NOT:
+          writeExpr(((Expr.Not) e).test);
+          break;
+        case COMPARISON: {
+          Expr.Comparison c = (Expr.Comparison) e;
+          writeExpr(c.left);
+          writeInt(c.comps.size());
+          for (Expr.Comp comp : c.comps) {
+            writeByte(tag(comp));
+            writeExpr(comp.right);
+          }
+          break;
+        }
+        case STAR:
+          writeExpr(((Expr.Star) e).expr);
+          break;
+        case BIT_OR:
+          writeExpr(((Expr.BitOr) e).left);
+          writeExpr(((Expr.BitOr) e).right);
+          break;
+        case BIT_XOR:
+          writeExpr(((Expr.BitXor) e).left);
+          writeExpr(((Expr.BitXor) e).right);
+          break;
+        case BIT_AND:
+          writeExpr(((Expr.BitAnd) e).left);
+          writeExpr(((Expr.BitAnd) e).right);
+          break;
+        case BIT_SHIFT_LEFT:
+          writeExpr(((Expr.BitShiftLeft) e).left);
+          writeExpr(((Expr.BitShiftLeft) e).right);
+          break;
+        case BIT_SHIFT_RIGHT:
+          writeExpr(((Expr.BitShiftRight) e).left);
+          writeExpr(((Expr.BitShiftRight) e).right);
+          break;
+        case ADD:
+          writeExpr(((Expr.Add) e).left);
+          writeExpr(((Expr.Add) e).right);
+          break;
+        case SUB:
+          writeExpr(((Expr.Sub) e).left);
+          writeExpr(((Expr.Sub) e).right);
+          break;
+        case MUL:
+          writeExpr(((Expr.Mul) e).left);
+          writeExpr(((Expr.Mul) e).right);
+          break;
+        case DIV:
+          writeExpr(((Expr.Div) e).left);
+          writeExpr(((Expr.Div) e).right);
+          break;
+        case MOD:
+          writeExpr(((Expr.Mod) e).left);
+          writeExpr(((Expr.Mod) e).right);
+          break;
+        case INT_DIV:
+          writeExpr(((Expr.IntDiv) e).left);
+          writeExpr(((Expr.IntDiv) e).right);
+          break;
+        case UNARY_MINUS:
+          writeExpr(((Expr.UnaryMinus) e).expr);
+          break;
+        case UNARY_PLUS:
+          writeExpr(((Expr.UnaryPlus) e).expr);
+          break;
+        case BIT_NEG:
+          writeExpr(((Expr.BitNeg) e).expr);
+          break;
+        case CALL:
+          writeExpr(((Expr.Call) e).callable);
+          writeArglist(((Expr.Call) e).arglist);
+          break;
+        case INDEX:
+          writeExpr(((Expr.Index) e).obj);
+          writeExprList(((Expr.Index) e).index);
+          break;
+        case ATTR:
+          writeExpr(((Expr.Attr) e).obj);
+          writeName(((Expr.Attr) e).name);
+          break;
+        case POWER:
+          writeExpr(((Expr.Power) e).left);
+          writeExpr(((Expr.Power) e).right);
+          break;
+        case LIT:
+          writeLit(((Expr.Lit) e).value);
+          break;
+        case VAR:
+          writeName(((Expr.Var) e).name);
+          break;
+        case YIELD:
+          writeExprList(((Expr.Yield) e).exprList);
+          break;
+        case DICT_COMPR:
+          writeExpr(((Expr.DictCompr) e).key);
+          writeExpr(((Expr.DictCompr) e).value);
+          writeCompr(((Expr.DictCompr) e).compr);
+          break;
+        case DICT_CONSTR:
+          writeExprList(((Expr.DictConstr) e).exprList);
+          break;
+        case SET_COMPR:
+          writeExpr(((Expr.SetCompr) e).expr);
+          writeCompr(((Expr.SetCompr) e).compr);
+          break;
+        case SET_CONSTR:
+          writeExprList(((Expr.SetConstr) e).exprList);
+          break;
+        case LIST_COMPR:
+          writeExpr(((Expr.ListCompr) e).expr);
+          writeCompr(((Expr.ListCompr) e).compr);
+          break;
+        case LIST_CONSTR:
+          writeExprList(((Expr.ListConstr) e).exprList);
+          break;
+        case GENERATOR_COMPR:
+          writeExpr(((Expr.GeneratorCompr) e).expr);
+          writeCompr(((Expr.GeneratorCompr) e).compr);
+          break;
+        case TUPLE_CONSTR:
+          writeExprList(((Expr.TupleConstr) e).exprList);
+          break;
+        case SLICE:
+          writeExpr(((Expr.Slice) e).start);
+          writeExpr(((Expr.Slice) e).stop);
+          writeExpr(((Expr.Slice) e).step);
+          break;
+        default:
+          throw new IllegalArgumentException("cannot serialize " + e.getClass().getName());
+      }
+    }
+
+    void writeStmt(Stmt s) {
+      int tag = tag(s);
+      writeByte(tag);
+      switch (tag) {
+        case BREAK:
+        case CONTINUE:
+        case PASS:
+          break;
+        case DEL:
+          writeExprList(((Stmt.Del) s).exprList);
+          break;
+        case RETURN:
+          writeExprList(((Stmt.Return) s).exprList);
+          break;
+        case RAISE:
+          writeExpr(((Stmt.Raise) s).exception);
+          writeExpr(((Stmt.Raise) s).from);
+          break;
+        case YIELD_STMT:
+          writeExpr(((Stmt.Yield) s).expr);
+          break;
+        case IMPORT: {
+          List<Stmt.DottedName> dottedNames = ((Stmt.Import) s).dottedNames;
+          writeInt(dottedNames.size());
+          for (Stmt.DottedName dottedName : dottedNames) {
+            writeStrings(dottedName.dottedName);
+            writeString(dottedName.alias);
+          }
+          break;
+        }
+        case FROM: {
+          Stmt.From from = (Stmt.From) s;
+          writeInt(from.dots);
+          writeStrings(from.dottedName);
+          writeInt(from.importNames.size());
+          for (Stmt.NameAlias nameAlias : from.importNames) {
+            writeString(nameAlias.name);
+            writeString(nameAlias.alias);
+          }
+          break;
+        }
+        case GLOBAL:
+          writeStrings(((Stmt.Global) s).names);
+          break;
+        case NONLOCAL:
+          writeStrings(((Stmt.Nonlocal) s).names);
+          break;
+        case ASSERT:
+          writeExpr(((Stmt.Assert) s).test);
+          writeExpr(((Stmt.Assert) s).message);
+          break;
+        case ADD_ASSIGN:
+        case SUB_ASSIGN:
+        case MUL_ASSIGN:
+        case DIV_ASSIGN:
+        case INT_DIV_ASSIGN:
+        case MOD_ASSIGN:
+        case POWER_ASSIGN:
+        case RSHIFT_ASSIGN:
+        case LSHIFT_ASSIGN:
+        case AND_ASSIGN:
+        case XOR_ASSIGN:
+        case OR_ASSIGN:
+          writeExpr(((Stmt.AugAssign) s).left);
+          writeExprList(((Stmt.AugAssign) s).right);
+          break;
+        case ASSIGN: {
+          Stmt.Assign assign = (Stmt.Assign) s;
+          writeInt(assign.left.size());
+          for (ExprList exprList : assign.left) {
+            writeExprList(exprList);
+          }
+          writeExprList(assign.right);
+          break;
+        }
+        case EXPR_STMT:
+          writeExprList(((Stmt.ExprStmt) s).exprList);
+          break;
+        case IF:
+          writeExpr(((Stmt.If) s).testExpr);
+          writeSuite(((Stmt.If) s).thenSuite);
+          writeSuite(((Stmt.If) s).elseSuite);
+          break;
+        case WHILE:
+          writeExpr(((Stmt.While) s).testExpr);
+          writeSuite(((Stmt.While) s).bodySuite);
+          writeSuite(((Stmt.While) s).elseSuite);
+          break;
+        case FOR:
+          writeExprList(((Stmt.For) s).names);
+          writeExprList(((Stmt.For) s).items);
+          writeSuite(((Stmt.For) s).bodySuite);
+          writeSuite(((Stmt.For) s).elseSuite);
+          break;
+        case TRY: {
+          Stmt.Try t = (Stmt.Try) s;
+          writeSuite(t.bodySuite);
+          writeInt(t.exceptList.size());
+          for (Stmt.Except except : t.exceptList) {
+            writeExpr(except.clause);
+            writeString(except.name);
+            writeSuite(except.suite);
+          }
+          writeSuite(t.elseSuite);
+          writeSuite(t.finallySuite);
+          break;
+        }
+        case WITH:
+          writeExpr(((Stmt.With) s).expr);
+          writeExpr(((Stmt.With) s).binding);
+          writeSuite(((Stmt.With) s).bodySuite);
+          break;
+        case FUNC_DEF: {
+          Stmt.FuncDef funcDef = (Stmt.FuncDef) s;
+          writeName(funcDef.name);
+          writeParams(funcDef.params);
+          writeSuite(funcDef.body);
+          writeDecorators(funcDef.decorators);
+          break;
+        }
+        case CLASS_DEF: {
+          Stmt.ClassDef classDef = (Stmt.ClassDef) s;
+          writeName(classDef.name);
+          writeArglist(classDef.arglist);
+          writeSuite(classDef.body);
+          writeDecorators(classDef.decorators);
+          break;
+        }
+        default:
+          throw new IllegalArgumentException("cannot serialize " + s.getClass().getName());
+      }
+    }
+  }
+
+  /** Decodes the AST from a (memory-mapped) buffer; each name is represented by one shared Str. */
+  private static class Input {
+    private final ByteBuffer buf;
+    private String[] strings;
+    private Str[] names;
+
+    Input(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    Suite readModule() {
+      int count = readSize();
+      strings = new String[count + 1];
+      names = new Str[count + 1];
+      for (int i = 1; i <= count; i++) {
+        byte[] bytes = new byte[readSize()];
+        buf.get(bytes);
+        strings[i] = new String(bytes, UTF8);
+      }
+      Suite suite = readSuite();
+      Scope.resolve(suite);
+      return suite;
+    }
+
+    int readByte() {
+      return buf.get() & 0xff;
+    }
+
+    int readInt() {
+      int v = 0;
+      int shift = 0;
+      int b = readByte();
+      while ((b & 0x80) != 0) {
+        v |= (b & 0x7f) << shift;
+        shift += 7;
+        b = readByte();
+      }
+      return v | b << shift;
+    }
+
+    /**
+     * Reads the number of elements or bytes which follow, each taking at least one byte, or one
+     * more to encode <code>null</code>; so a corrupt file cannot make us allocate huge arrays.
+     */
+    int readSize() {
+      int size = readInt();
+      if (size < 0 || size > buf.remaining() + 1) {
+        throw new IllegalStateException("invalid size " + size);
+      }
+      return size;
+    }
+
+    boolean readBoolean() {
+      return readByte() != 0;
+    }
+
+    String readString() {
+      return strings[readInt()];
+    }
+
+    Str readName() {
+      int index = readInt();
+      if (index == 0) {
+        return null;
+      }
+      Str name = names[index];
+      if (name == null) {
+        name = names[index] = Python.intern(strings[index]);
+      }
+      return name;
+    }
+
+    List<String> readStrings() {
+      int size = readSize() - 1;
+      if (size == -1) {
+        return null;
+      }
+      List<String> list = new ArrayList<String>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(readString());
+      }
+      return list;
+    }
+
+    Suite readSuite() {
+      int size = readSize() - 1;
+      if (size == -1) {
+        return null;
+      }
+      Suite suite = new Suite();
+      for (int i = 0; i < size; i++) {
+        int line = readInt();
+        suite.add(readStmt(), line);
+      }
+      return suite;
+    }
+
+    ExprList readExprList() {
+      int size = readSize() - 1;
+      if (size == -1) {
+        return null;
+      }
+      ExprList exprList = new ExprList();
+      exprList.single = readBoolean();
+      for (int i = 0; i < size; i++) {
+        exprList.add(readExpr());
+      }
+      return exprList;
+    }
+
+    Params readParams() {
+      Params params = new Params();
+      int size = readSize();
+      for (int i = 0; i < size; i++) {
+        params.add(readParam());
+      }
+      params.positionals = readInt();
+      if (readBoolean()) {
+        params.restPositional = readParam();
+      }
+      if (readBoolean()) {
+        params.restKeyword = readParam();
+      }
+      params.returnType = readExpr();
+      return params;
+    }
+
+    Params.Param readParam() {
+      Str name = readName();
+      Expr type = readExpr();
+      return new Params.Param(name, type, readExpr());
+    }
+
+    Arglist readArglist() {
+      int size = readSize() - 1;
+      if (size == -1) {
+        return null;
+      }
+      Arglist arglist = new Arglist();
+      for (int i = 0; i < size; i++) {
+        arglist.addPositional(readExpr());
+      }
+      size = readSize();
+      for (int i = 0; i < size; i++) {
+        Str name = readName();
+        arglist.addKeyword(name, readExpr());
+      }
+      arglist.restPositionals = readExpr();
+      arglist.restKeywords = readExpr();
+      return arglist;
+    }
+
+    List<Stmt.Decorator> readDecorators() {
+      int size = readSize() - 1;
+      if (size == -1) {
+        return null;
+      }
+      List<Stmt.Decorator> decorators = new ArrayList<Stmt.Decorator>(size);
+      for (int i = 0; i < size; i++) {
+        List<String> dottedName = readStrings();
+        decorators.add(new Stmt.Decorator(dottedName, readArglist()));
+      }
+      return decorators;
+    }
+
+    Obj readLit() {
+      int tag = readByte();
+      switch (tag) {
+        case INT_VALUE: {
+          int v = readInt();
+          return Python.Int((v >>> 1) ^ -(v & 1));
+        }
+        case BIG_INT_VALUE:
+          return Python.Int(new BigInteger(readString()));
+        case FLOAT_VALUE:
+          return Python.Float(Double.longBitsToDouble(buf.getLong()));
+        case STR_VALUE:
+          return Python.Str(readString());
+        case NONE_VALUE:
+          return Python.None;
+        case ELLIPSIS_VALUE:
+          return Python.Ellipsis;
+        case TUPLE_VALUE:
+          return new Tuple();
+        default:
+          throw new IllegalStateException("invalid literal tag " + tag);
+      }
+    }
+
+    Expr.Compr readCompr() {
+      int tag = readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case COMPR_FOR: {
+          ExprList vars = readExprList();
+          Expr items = readExpr();
+          return new Expr.ComprFor(vars, items, readCompr());
+        }
+        case COMPR_IF: {
+          Expr cond = readExpr();
+          return new Expr.ComprIf(cond, readCompr());
+        }
+        default:
+          throw new IllegalStateException("invalid comprehension tag " + tag);
+      }
+    }
+
+    Expr.Comp readComp() {
+      int tag = readByte();
+      Expr right = readExpr();
+      switch (tag) {
+        case LT:
+          return new Expr.Comp.LT(right);
+        case GT:
+          return new Expr.Comp.GT(right);
+        case LE:
+          return new Expr.Comp.LE(right);
+        case GE:
+          return new Expr.Comp.GE(right);
+        case EQ:
+          return new Expr.Comp.EQ(right);
+        case NE:
+          return new Expr.Comp.NE(right);
+        case IN:
+          return new Expr.Comp.In(right);
+        case NOT_IN:
+          return new Expr.Comp.NotIn(right);
+        case IS:
+          return new Expr.Comp.Is(right);
+        case IS_NOT:
+          return new Expr.Comp.IsNot(right);
+        default:
+          throw new IllegalStateException("invalid comparison tag " + tag);
+      }
+    }
+
+    Expr readExpr() {
+      int tag = readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case LAMBDA: {
+          Params params = readParams();
+          return new Expr.Lambda(params, readExpr());
+        }
+        case IF_ELSE: {
+          Expr condition = readExpr();
+          Expr consequence = readExpr();
+          return new Expr.IfElse(condition, consequence, readExpr());
+        }
+        case AND: {
+          Expr left = readExpr();
+          return new Expr.And(left, readExpr());
+        }
+        case OR: {
+          Expr left = readExpr();
+          return new Expr.Or(left, readExpr());
+        }
+        case NOT:
+          return new Expr.Not(readExpr());
+        case COMPARISON: {
+          Expr.Comparison comparison = new Expr.Comparison(readExpr());
+          int size = readSize();
+          for (int i = 0; i < size; i++) {
+            comparison.add(readComp());
+          }
+          return comparison;
+        }
+        case STAR:
+          return new Expr.Star(readExpr());
+        case BIT_OR: {
+          Expr left = readExpr();
+          return new Expr.BitOr(left, readExpr());
+        }
+        case BIT_XOR: {
+          Expr left = readExpr();
+          return new Expr.BitXor(left, readExpr());
+        }
+        case BIT_AND: {
+          Expr left = readExpr();
+          return new Expr.BitAnd(left, readExpr());
+        }
+        case BIT_SHIFT_LEFT: {
+          Expr left = readExpr();
+          return new Expr.BitShiftLeft(left, readExpr());
+        }
+        case BIT_SHIFT_RIGHT: {
+          Expr left = readExpr();
+          return new Expr.BitShiftRight(left, readExpr());
+        }
+        case ADD: {
+          Expr left = readExpr();
+          return new Expr.Add(left, readExpr());
+        }
+        case SUB: {
+          Expr left = readExpr();
+          return new Expr.Sub(left, readExpr());
+        }
+        case MUL: {
+          Expr left = readExpr();
+          return new Expr.Mul(left, readExpr());
+        }
+        case DIV: {
+          Expr left = readExpr();
+          return new Expr.Div(left, readExpr());
+        }
+        case MOD: {
+          Expr left = readExpr();
+          return new Expr.Mod(left, readExpr());
+        }
+        case INT_DIV: {
+          Expr left = readExpr();
+          return new Expr.IntDiv(left, readExpr());
+        }
+        case UNARY_MINUS:
+          return new Expr.UnaryMinus(readExpr());
+        case UNARY_PLUS:
+          return new Expr.UnaryPlus(readExpr());
+        case BIT_NEG:
+          return new Expr.BitNeg(readExpr());
+        case CALL: {
+          Expr callable = readExpr();
+          return new Expr.Call(callable, readArglist());
+        }
+        case INDEX: {
+          Expr obj = readExpr();
+          return new Expr.Index(obj, readExprList());
+        }
+        case ATTR: {
+          Expr obj = readExpr();
+          return new Expr.Attr(obj, readName());
+        }
+        case POWER: {
+          Expr left = readExpr();
+          return new Expr.Power(left, readExpr());
+        }
+        case LIT:
+          return new Expr.Lit(readLit());
+        case VAR:
+          return new Expr.Var(readName());
+        case YIELD:
+          return new Expr.Yield(readExprList());
+        case DICT_COMPR: {
+          Expr key = readExpr();
+          Expr value = readExpr();
+          return new Expr.DictCompr(key, value, readCompr());
+        }
+        case DICT_CONSTR:
+          return new Expr.DictConstr(readExprList());
+        case SET_COMPR: {
+          Expr expr = readExpr();
+          return new Expr.SetCompr(expr, readCompr());
+        }
+        case SET_CONSTR:
+          return new Expr.SetConstr(readExprList());
+        case LIST_COMPR: {
+          Expr expr = readExpr();
+          return new Expr.ListCompr(expr, readCompr());
+        }
+        case LIST_CONSTR:
+          return new Expr.ListConstr(readExprList());
+        case GENERATOR_COMPR: {
+          Expr expr = readExpr();
+          return new Expr.GeneratorCompr(expr, readCompr());
+        }
+        case TUPLE_CONSTR:
+          return new Expr.TupleConstr(readExprList());
+        case SLICE: {
+          Expr start = readExpr();
+          Expr stop = readExpr();
+          return new Expr.Slice(start, stop, readExpr());
+        }
+        default:
+          throw new IllegalStateException("invalid expression tag " + tag);
+      }
+    }
+
+    Stmt readStmt() {
+      int tag = readByte();
+      switch (tag) {
+        case BREAK:
+          return new Stmt.Break();
+        case CONTINUE:
+          return new Stmt.Continue();
+        case DEL:
+          return new Stmt.Del(readExprList());
+        case PASS:
+          return new Stmt.Pass();
+        case RETURN:
+          return new Stmt.Return(readExprList());
+        case RAISE: {
+          Expr exception = readExpr();
+          return new Stmt.Raise(exception, readExpr());
+        }
+        case YIELD_STMT:
+          return new Stmt.Yield(readExpr());
+        case IMPORT: {
+          int size = readSize();
+          List<Stmt.DottedName> dottedNames = new ArrayList<Stmt.DottedName>(size);
+          for (int i = 0; i < size; i++) {
+            List<String> dottedName = readStrings();
+            dottedNames.add(new Stmt.DottedName(dottedName, readString()));
+          }
+          return new Stmt.Import(dottedNames);
+        }
+        case FROM: {
+          int dots = readInt();
+          List<String> dottedName = readStrings();
+          int size = readSize();
+          List<Stmt.NameAlias> importNames;
+          if (size == 0) {
+            importNames = Collections.emptyList();
+          } else {
+            importNames = new ArrayList<Stmt.NameAlias>(size);
+            for (int i = 0; i < size; i++) {
+              String name = readString();
+              importNames.add(new Stmt.NameAlias(name, readString()));
+            }
+          }
+          return new Stmt.From(dots, dottedName, importNames);
+        }
+        case GLOBAL:
+          return new Stmt.Global(readStrings());
+        case NONLOCAL:
+          return new Stmt.Nonlocal(readStrings());
+        case ASSERT: {
+          Expr test = readExpr();
+          return new Stmt.Assert(test, readExpr());
+        }
+        case ADD_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.AddAssign(left, readExprList());
+        }
+        case SUB_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.SubAssign(left, readExprList());
+        }
+        case MUL_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.MulAssign(left, readExprList());
+        }
+        case DIV_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.DivAssign(left, readExprList());
+        }
+        case INT_DIV_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.IntDivAssign(left, readExprList());
+        }
+        case MOD_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.ModAssign(left, readExprList());
+        }
+        case POWER_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.PowerAssign(left, readExprList());
+        }
+        case RSHIFT_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.RshiftAssign(left, readExprList());
+        }
+        case LSHIFT_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.LshiftAssign(left, readExprList());
+        }
+        case AND_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.AndAssign(left, readExprList());
+        }
+        case XOR_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.XorAssign(left, readExprList());
+        }
+        case OR_ASSIGN: {
+          Expr left = readExpr();
+          return new Stmt.OrAssign(left, readExprList());
+        }
+        case ASSIGN: {
+          int size = readSize();
+          List<ExprList> left = new ArrayList<ExprList>(size);
+          for (int i = 0; i < size; i++) {
+            left.add(readExprList());
+          }
+          return new Stmt.Assign(left, readExprList());
+        }
+        case EXPR_STMT:
+          return new Stmt.ExprStmt(readExprList());
+        case IF: {
+          Expr test = readExpr();
+          Suite thenSuite = readSuite();
+          return new Stmt.If(test, thenSuite, readSuite());
+        }
+        case WHILE: {
+          Expr test = readExpr();
+          Suite bodySuite = readSuite();
+          return new Stmt.While(test, bodySuite, readSuite());
+        }
+        case FOR: {
+          ExprList names = readExprList();
+          ExprList items = readExprList();
+          Suite bodySuite = readSuite();
+          return new Stmt.For(names, items, bodySuite, readSuite());
+        }
+        case TRY: {
+          Suite bodySuite = readSuite();
+          int size = readSize();
+          List<Stmt.Except> exceptList = new ArrayList<Stmt.Except>(size);
+          for (int i = 0; i < size; i++) {
+            Expr clause = readExpr();
+            String name = readString();
+            exceptList.add(new Stmt.Except(clause, name, readSuite()));
+          }
+          Suite elseSuite = readSuite();
+          return new Stmt.Try(bodySuite, exceptList, elseSuite, readSuite());
+        }
+        case WITH: {
+          Expr expr = readExpr();
+          Expr binding = readExpr();
+          return new Stmt.With(expr, binding, readSuite());
+        }
+        case FUNC_DEF: {
+          Str name = readName();
+          Params params = readParams();
+          Stmt.FuncDef funcDef = new Stmt.FuncDef(name, params, readSuite());
+          funcDef.setDecorators(readDecorators());
+          return funcDef;
+        }
+        case CLASS_DEF: {
+          Str name = readName();
+          Arglist arglist = readArglist();
+          Stmt.ClassDef classDef = new Stmt.ClassDef(name, arglist, readSuite());
+          classDef.setDecorators(readDecorators());
+          return classDef;
+        }
+        default:
+          throw new IllegalStateException("invalid statement tag " + tag);
+      }
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class AstCacheTest {
+  private static final String SOURCE = "" +
+      "import os.path as p, sys\n" +
+      "from .. import a as b\n" +
+      "@d.e(1, *f, k=-2, **g)\n" +
+      "def f(a, b: int = 1.5, *c, d, **e) -> None:\n" +
+      "  global x\n" +
+      "  x += [i for i in a if i < 2 > 3 not in b is not c]\n" +
+      "  return lambda y=..., *z: (y or z) and not {1: 2} if a else {a for a in b}\n" +
+      "class C(B, metaclass=M):\n" +
+      "  try:\n" +
+      "    del a[1:2:3], a.b\n" +
+      "  except E as e:\n" +
+      "    raise X from e\n" +
+      "  else:\n" +
+      "    a = b, = 'st\\u00e4r' '\\n'\n" +
+      "  finally:\n" +
+      "    while 1:\n" +
+      "      break\n" +
+      "    else:\n" +
+      "      for a, b in c: continue\n" +
+      "  with a as b: yield a << b | ~c ^ d & e >> -f ** +g % h // i / j * k - l\n" +
+      "assert a, b\n" +
+      "n = 4294967296 + 123456789012345678901234567890 - -9223372036854775807\n";
+
+  private File dir;
+
+  @Before
+  public void createDir() throws IOException {
+    dir = File.createTempFile("smython", "");
+    dir.delete();
+    dir.mkdir();
+  }
+
+  @After
+  public void deleteDir() {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        child.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void roundTrip() {
+    Suite suite = new Parser(new Scanner(SOURCE)).parseFileInput();
+    byte[] bytes = AstCache.serialize(suite, 0, 0, 0);
+    assertEquals(suite.toString(), AstCache.deserialize(ByteBuffer.wrap(bytes)).toString());
+  }
+
+  @Test
+  public void loadWritesCacheFile() throws IOException {
+    File source = new File(dir, "m.py");
+    write(source, SOURCE);
+    AstCache cache = new AstCache();
+    assertNull(cache.read(source));
+    String expected = cache.load(source).toString();
+    assertTrue(new File(dir, "m.smyc").isFile());
+    assertEquals(expected, cache.read(source).toString());
+    assertEquals(expected, cache.load(source).toString());
+  }
+
+  @Test
+  public void cacheDirectory() throws IOException {
+    File source = new File(dir, "m.py");
+    write(source, "pass\n");
+    File cacheDir = new File(dir, "cache");
+    cacheDir.mkdir();
+    try {
+      AstCache cache = new AstCache(cacheDir);
+      cache.load(source);
+      assertFalse(new File(dir, "m.smyc").exists());
+      assertEquals(1, cacheDir.listFiles().length);
+      assertEquals("Suite[Pass]", cache.read(source).toString());
+    } finally {
+      for (File file : cacheDir.listFiles()) {
+        file.delete();
+      }
+    }
+  }
+
+  @Test
+  public void staleCacheFile() throws IOException {
+    File source = new File(dir, "m.py");
+    write(source, "a = 1\n");
+    AstCache cache = new AstCache();
+    cache.load(source);
+
+    // same size and content, just touched
+    source.setLastModified(source.lastModified() - 10000);
+    assertNotNull(cache.read(source));
+
+    // same size but different content
+    write(source, "a = 2\n");
+    source.setLastModified(source.lastModified() - 20000);
+    assertNull(cache.read(source));
+    assertEquals("Suite[Assign((Var(a)), (Lit(2)))]", cache.load(source).toString());
+
+    // different size
+    write(source, "a = 10\n");
+    assertNull(cache.read(source));
+  }
+
+  @Test
+  public void touchedSourceIsRecorded() throws IOException {
+    File source = new File(dir, "m.py");
+    write(source, "a = 1\n");
+    AstCache cache = new AstCache();
+    cache.load(source);
+    source.setLastModified(source.lastModified() - 10000);
+    assertNotNull(cache.read(source));
+    ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(new File(dir, "m.smyc").toPath()));
+    assertEquals(source.lastModified(), header.getLong(16));
+    assertNotNull(cache.read(source));
+  }
+
+  @Test
+  public void corruptCacheFile() throws IOException {
+    File source = new File(dir, "m.py");
+    write(source, SOURCE);
+    AstCache cache = new AstCache();
+    String expected = cache.load(source).toString();
+    File file = new File(dir, "m.smyc");
+    byte[] bytes = Files.readAllBytes(file.toPath());
+
+    // truncated
+    Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+    assertNull(cache.read(source));
+    assertFalse(file.exists());
+    assertEquals(expected, cache.load(source).toString());
+    assertTrue(file.isFile());
+
+    // valid header, garbage tree
+    for (int i = 28; i < bytes.length; i++) {
+      bytes[i] = (byte) (i * 31);
+    }
+    Files.write(file.toPath(), bytes);
+    assertNull(cache.read(source));
+    assertFalse(file.exists());
+    assertEquals(expected, cache.load(source).toString());
+    assertEquals(expected, cache.read(source).toString());
+  }
+
+  private static void write(File file, String source) throws IOException {
+    Writer w = new FileWriter(file);
+    try {
+      w.write(source);
+    } finally {
+      w.close();
+    }
+  }
+}
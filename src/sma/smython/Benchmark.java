@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * Compares the AST interpreter, the bytecode <code>Compiler</code> and the <code>Jit</code> on a
+ * few CPU-bound functions, one of them creating instances and accessing their attributes, one
+ * probing a dictionary and catching the <code>KeyError</code> for half of the keys, one calling a
+ * small function in a loop, also reported as calls per second. Also measures the cost of resuming
+ * a generator, compared to handing values over from a producer thread. Run with the number of
+ * iterations as optional argument; set "smython.allocations" to also print how many numbers each
+ * call allocates.
+ */
+public class Benchmark {
+  private static final String SOURCE = "" +
+      "def fib(n):\n" +
+      "  if n < 2: return n\n" +
+      "  return fib(n - 1) + fib(n - 2)\n" +
+      "def loop(n):\n" +
+      "  i = s = 0\n" +
+      "  while i < n:\n" +
+      "    if i % 3 == 0 or i % 5 == 0:\n" +
+      "      s += i\n" +
+      "    i += 1\n" +
+      "  return s\n" +
+      "def arith(n):\n" +
+      "  i = s = 0\n" +
+      "  while i < n:\n" +
+      "    s = (s * 31 + i * 7 - (i >> 2)) % 1000003\n" +
+      "    i += 1\n" +
+      "  return s\n" +
+      "def count(n):\n" +
+      "  i = 0\n" +
+      "  while i < n:\n" +
+      "    yield i\n" +
+      "    i += 1\n" +
+      "def consume(n):\n" +
+      "  s = 0\n" +
+      "  for i in count(n):\n" +
+      "    s += i\n" +
+      "  return s\n" +
+      "class Point:\n" +
+      "  def __init__(self, x, y):\n" +
+      "    self.x = x\n" +
+      "    self.y = y\n" +
+      "  def norm(self):\n" +
+      "    return self.x * self.x + self.y * self.y\n" +
+      "def points(n):\n" +
+      "  i = s = 0\n" +
+      "  while i < n:\n" +
+      "    p = Point(i, 3)\n" +
+      "    s += p.norm() - p.x\n" +
+      "    i += 1\n" +
+      "  return s\n" +
+      "def add(a, b):\n" +
+      "  return a + b\n" +
+      "def calls(n):\n" +
+      "  i = s = 0\n" +
+      "  while i < n:\n" +
+      "    s = add(s, i) % 1000003\n" +
+      "    i += 1\n" +
+      "  return s\n" +
+      "def probe(n):\n" +
+      "  d = {k: k for k in range(0, 100, 2)}\n" +
+      "  i = s = 0\n" +
+      "  while i < n:\n" +
+      "    try:\n" +
+      "      s += d[i % 100]\n" +
+      "    except KeyError:\n" +
+      "      s -= 1\n" +
+      "    i += 1\n" +
+      "  return s\n";
+
+  private static final int COUNT = 100000;
+  private static final int CALLS = 300000;
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    run("fib(25)", iterations);
+    run("loop(300000)", iterations);
+    run("arith(300000)", iterations);
+    run("consume(" + COUNT + ")", iterations);
+    run("points(100000)", iterations);
+    run("calls(" + CALLS + ")", iterations);
+    run("probe(100000)", iterations);
+    handOff(iterations);
+  }
+
+  /** Measures passing values from a producer thread, the alternative to resumable frames. */
+  private static void handOff(int iterations) {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < iterations; i++) {
+      final SynchronousQueue<Integer> queue = new SynchronousQueue<Integer>();
+      Thread producer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j <= COUNT; j++) {
+              queue.put(j);
+            }
+          } catch (InterruptedException e) {
+            // done
+          }
+        }
+      };
+      long start = System.nanoTime();
+      producer.start();
+      try {
+        while (queue.take() < COUNT) {
+          // consume
+        }
+        producer.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("%-16s %-8s %8.2f ms%n", "thread(" + COUNT + ")", "queue", best / 1e6);
+  }
+
+  private static void run(String call, int iterations) {
+    for (String mode : new String[]{"ast", "bytecode", "jit"}) {
+      Compiler.enabled = !mode.equals("ast");
+      Jit.enabled = mode.equals("jit");
+      Jit.threshold = 2;
+      Python.Dict globals = new Python.Dict();
+      Frame frame = new Frame(globals, globals);
+      new Parser(new Scanner(SOURCE)).parseFileInput().execute(frame);
+      ExprList expr = new Parser(new Scanner(call)).parseEvalInput();
+      long best = Long.MAX_VALUE;
+      for (int i = 0; i < iterations; i++) {
+        long start = System.nanoTime();
+        expr.eval(frame);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.printf("%-16s %-8s %8.2f ms", call, mode, best / 1e6);
+      if (call.startsWith("calls(")) {
+        System.out.printf(" %6.2f M calls/s", CALLS / (best / 1e3));
+      }
+      System.out.println();
+      if (Python.countAllocations) {
+        Python.resetAllocations();
+        expr.eval(frame);
+        System.out.printf("%-25s %d ints, %d big ints, %d floats%n", "",
+            Python.intAllocations, Python.bigIntAllocations, Python.floatAllocations);
+      }
+    }
+  }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import sma.smython.Python.*;
+
+import java.util.ArrayList;
+
+/**
+ * Represents the body of a function compiled by the <code>Compiler</code> into a compact stack
+ * based bytecode. Instructions are stored in an <code>int[]</code>, each opcode directly followed
+ * by its operand if it has one. Locals and cells are kept in the frame's slots exactly like the
+ * AST interpreter does, so compiled and interpreted functions can call each other freely.
+ */
+final class Code {
+  // opcodes
+  static final int LOAD_CONST = 0; // const index
+  static final int LOAD_LOCAL = 1; // slot
+  static final int STORE_LOCAL = 2; // slot
+  static final int LOAD_CELL = 3; // slot
+  static final int STORE_CELL = 4; // slot
+  static final int LOAD_GLOBAL = 5; // name index
+  static final int STORE_GLOBAL = 6; // name index
+  static final int LOAD_NAME = 7; // name index
+  static final int STORE_NAME = 8; // name index
+  static final int POP = 9;
+  static final int DUP = 10;
+  static final int ROT2 = 11;
+  static final int ROT3 = 12;
+  static final int ADD = 13;
+  static final int SUB = 14;
+  static final int MUL = 15;
+  static final int DIV = 16;
+  static final int INT_DIV = 17;
+  static final int MOD = 18;
+  static final int POWER = 19;
+  static final int LSHIFT = 20;
+  static final int RSHIFT = 21;
+  static final int BIT_AND = 22;
+  static final int BIT_OR = 23;
+  static final int BIT_XOR = 24;
+  static final int NEG = 25;
+  static final int POS = 26;
+  static final int INVERT = 27;
+  static final int NOT = 28;
+  static final int LT = 29;
+  static final int GT = 30;
+  static final int LE = 31;
+  static final int GE = 32;
+  static final int EQ = 33;
+  static final int NE = 34;
+  static final int IN = 35;
+  static final int NOT_IN = 36;
+  static final int IS = 37;
+  static final int IS_NOT = 38;
+  static final int JUMP = 39; // target
+  static final int JUMP_IF_FALSE = 40; // target
+  static final int JUMP_IF_TRUE = 41; // target
+  static final int JUMP_IF_FALSE_OR_POP = 42; // target
+  static final int JUMP_IF_TRUE_OR_POP = 43; // target
+  static final int CALL = 44; // number of arguments
+  static final int GET_ATTR = 45; // name index
+  static final int SET_ATTR = 46; // name index
+  static final int GET_ITEM = 47;
+  static final int SET_ITEM = 48;
+  static final int BUILD_LIST = 49; // number of elements
+  static final int UNPACK = 50; // number of elements
+  static final int GET_ITER = 51;
+  static final int FOR_ITER = 52; // target
+  static final int MAKE_FUNCTION = 53; // def index
+  static final int MAKE_LAMBDA = 54; // lambda index
+  static final int ASSERT_FAIL = 55; // 1 if there is a message
+  static final int RETURN = 56;
+
+  private static final String[] NAMES = {
+      "LOAD_CONST", "LOAD_LOCAL", "STORE_LOCAL", "LOAD_CELL", "STORE_CELL", "LOAD_GLOBAL", "STORE_GLOBAL",
+      "LOAD_NAME", "STORE_NAME", "POP", "DUP", "ROT2", "ROT3", "ADD", "SUB", "MUL", "DIV", "INT_DIV", "MOD",
+      "POWER", "LSHIFT", "RSHIFT", "BIT_AND", "BIT_OR", "BIT_XOR", "NEG", "POS", "INVERT", "NOT", "LT", "GT",
+      "LE", "GE", "EQ", "NE", "IN", "NOT_IN", "IS", "IS_NOT", "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE",
+      "JUMP_IF_FALSE_OR_POP", "JUMP_IF_TRUE_OR_POP", "CALL", "GET_ATTR", "SET_ATTR", "GET_ITEM", "SET_ITEM",
+      "BUILD_LIST", "UNPACK", "GET_ITER", "FOR_ITER", "MAKE_FUNCTION", "MAKE_LAMBDA", "ASSERT_FAIL", "RETURN"
+  };
+
+  /** Marks function bodies the compiler doesn't support. */
+  static final Code UNSUPPORTED = new Code(null, new int[0], null, null, null, null, 0, null);
+
+  /** The scope of the function, which knows the names of the slots. */
+  final Scope scope;
+  final int[] code;
+  final Obj[] consts;
+  final Str[] names;
+  final Stmt.FuncDef[] defs;
+  final Expr.Lambda[] lambdas;
+  final int maxStack;
+  /** Pairs of the first instruction of each statement and its line, ordered by instruction. */
+  final int[] lines;
+  /** Number of calls so far, to decide when to translate the code into JVM bytecode. */
+  private int calls;
+  Jit.Body jit;
+
+  Code(Scope scope, int[] code, Obj[] consts, Str[] names, Stmt.FuncDef[] defs, Expr.Lambda[] lambdas,
+       int maxStack, int[] lines) {
+    this.scope = scope;
+    this.code = code;
+    this.consts = consts;
+    this.names = names;
+    this.defs = defs;
+    this.lambdas = lambdas;
+    this.maxStack = maxStack;
+    this.lines = lines;
+  }
+
+  /**
+   * Returns the line of the statement being executed when the program counter had the given value,
+   * which is already behind the instruction, or 0 if unknown.
+   */
+  int line(int pc) {
+    int line = 0;
+    for (int i = 0; i < lines.length && lines[i] < pc; i += 2) {
+      line = lines[i + 1];
+    }
+    return line;
+  }
+
+  /** Returns whether the given opcode is followed by an operand. */
+  static boolean hasOperand(int opcode) {
+    return opcode <= STORE_NAME || opcode >= JUMP && opcode <= SET_ATTR || opcode >= BUILD_LIST && opcode <= UNPACK ||
+        opcode >= FOR_ITER && opcode <= ASSERT_FAIL;
+  }
+
+  /**
+   * Runs the code in the given frame whose parameters have already been bound, using the
+   * <code>Jit</code> once the code has been called often enough.
+   */
+  Obj run(Frame f) {
+    if (jit == null && Jit.enabled && ++calls == Jit.threshold) {
+      jit = Jit.compile(this);
+    }
+    if (jit == null) {
+      return execute(f);
+    }
+    try {
+      return jit.execute(f);
+    } catch (PythonException e) {
+      e.at(f, this, 0); // unless the generated code knew the statement
+      throw e;
+    }
+  }
+
+  /** Executes the code in the given frame whose parameters have already been bound. */
+  Obj execute(Frame f) {
+    final int[] code = this.code;
+    final Obj[] slots = f.slots;
+    final Obj[] stack = new Obj[maxStack];
+    int sp = 0;
+    int pc = 0;
+    try {
+      while (true) {
+        switch (code[pc++]) {
+          case LOAD_CONST:
+            stack[sp++] = consts[code[pc++]];
+            break;
+          case LOAD_LOCAL: {
+            Obj value = slots[code[pc++]];
+            if (value == null) {
+              throw scope.unbound(code[pc - 1]);
+            }
+            stack[sp++] = value;
+            break;
+          }
+          case STORE_LOCAL:
+            slots[code[pc++]] = stack[--sp];
+            break;
+          case LOAD_CELL: {
+            Obj value = ((Cell) slots[code[pc++]]).value;
+            if (value == null) {
+              throw scope.unbound(code[pc - 1]);
+            }
+            stack[sp++] = value;
+            break;
+          }
+          case STORE_CELL:
+            ((Cell) slots[code[pc++]]).value = stack[--sp];
+            break;
+          case LOAD_GLOBAL:
+            stack[sp++] = f.getGlobal(names[code[pc++]]);
+            break;
+          case STORE_GLOBAL:
+            f.setGlobal(names[code[pc++]], stack[--sp]);
+            break;
+          case LOAD_NAME:
+            stack[sp++] = f.get(names[code[pc++]]);
+            break;
+          case STORE_NAME:
+            f.set(names[code[pc++]], stack[--sp]);
+            break;
+          case POP:
+            stack[--sp] = null;
+            break;
+          case DUP:
+            stack[sp] = stack[sp - 1];
+            sp++;
+            break;
+          case ROT2: {
+            Obj top = stack[sp - 1];
+            stack[sp - 1] = stack[sp - 2];
+            stack[sp - 2] = top;
+            break;
+          }
+          case ROT3: {
+            Obj top = stack[sp - 1];
+            stack[sp - 1] = stack[sp - 2];
+            stack[sp - 2] = stack[sp - 3];
+            stack[sp - 3] = top;
+            break;
+          }
+          case ADD: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].add(right);
+            break;
+          }
+          case SUB: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].sub(right);
+            break;
+          }
+          case MUL: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].mul(right);
+            break;
+          }
+          case DIV: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].div(right);
+            break;
+          }
+          case INT_DIV: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].intDiv(right);
+            break;
+          }
+          case MOD: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].mod(right);
+            break;
+          }
+          case POWER: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].power(right);
+            break;
+          }
+          case LSHIFT: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].lshift(right);
+            break;
+          }
+          case RSHIFT: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].rshift(right);
+            break;
+          }
+          case BIT_AND: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].and(right);
+            break;
+          }
+          case BIT_OR: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].or(right);
+            break;
+          }
+          case BIT_XOR: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].xor(right);
+            break;
+          }
+          case NEG:
+            stack[sp - 1] = stack[sp - 1].neg();
+            break;
+          case POS:
+            stack[sp - 1] = stack[sp - 1].pos();
+            break;
+          case INVERT:
+            stack[sp - 1] = stack[sp - 1].invert();
+            break;
+          case NOT:
+            stack[sp - 1] = Python.bool(!stack[sp - 1].truish());
+            break;
+          case LT: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].lt(right);
+            break;
+          }
+          case GT: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].gt(right);
+            break;
+          }
+          case LE: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].le(right);
+            break;
+          }
+          case GE: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].ge(right);
+            break;
+          }
+          case EQ: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].eq(right);
+            break;
+          }
+          case NE: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].ne(right);
+            break;
+          }
+          case IN: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = Python.bool(right.contains(stack[sp - 1]));
+            break;
+          }
+          case NOT_IN: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = Python.bool(!right.contains(stack[sp - 1]));
+            break;
+          }
+          case IS: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = Python.bool(stack[sp - 1] == right);
+            break;
+          }
+          case IS_NOT: {
+            Obj right = stack[--sp];
+            stack[sp - 1] = Python.bool(stack[sp - 1] != right);
+            break;
+          }
+          case JUMP:
+            pc = code[pc];
+            break;
+          case JUMP_IF_FALSE:
+            if (stack[--sp].truish()) {
+              pc++;
+            } else {
+              pc = code[pc];
+            }
+            break;
+          case JUMP_IF_TRUE:
+            if (stack[--sp].truish()) {
+              pc = code[pc];
+            } else {
+              pc++;
+            }
+            break;
+          case JUMP_IF_FALSE_OR_POP:
+            if (stack[sp - 1].truish()) {
+              sp--;
+              pc++;
+            } else {
+              pc = code[pc];
+            }
+            break;
+          case JUMP_IF_TRUE_OR_POP:
+            if (stack[sp - 1].truish()) {
+              pc = code[pc];
+            } else {
+              sp--;
+              pc++;
+            }
+            break;
+          case CALL: {
+            int n = code[pc++];
+            sp -= n;
+            switch (n) {
+              case 0:
+                stack[sp - 1] = stack[sp - 1].call0(f);
+                break;
+              case 1:
+                stack[sp - 1] = stack[sp - 1].call1(f, stack[sp]);
+                break;
+              case 2:
+                stack[sp - 1] = stack[sp - 1].call2(f, stack[sp], stack[sp + 1]);
+                break;
+              case 3:
+                stack[sp - 1] = stack[sp - 1].call3(f, stack[sp], stack[sp + 1], stack[sp + 2]);
+                break;
+              default:
+                Obj[] args = new Obj[n];
+                System.arraycopy(stack, sp, args, 0, n);
+                stack[sp - 1] = stack[sp - 1].call(f, args);
+            }
+            break;
+          }
+          case GET_ATTR:
+            stack[sp - 1] = stack[sp - 1].getAttr(names[code[pc++]]);
+            break;
+          case SET_ATTR: {
+            Obj obj = stack[--sp];
+            obj.setAttr(names[code[pc++]], stack[--sp]);
+            break;
+          }
+          case GET_ITEM: {
+            Obj index = stack[--sp];
+            stack[sp - 1] = stack[sp - 1].getItem(index);
+            break;
+          }
+          case SET_ITEM: {
+            Obj index = stack[--sp];
+            Obj obj = stack[--sp];
+            obj.setItem(index, stack[--sp]);
+            break;
+          }
+          case BUILD_LIST: {
+            int n = code[pc++];
+            Python.List list = new Python.List(n);
+            for (int i = sp - n; i < sp; i++) {
+              list.values.add(stack[i]);
+            }
+            sp -= n;
+            stack[sp++] = list;
+            break;
+          }
+          case UNPACK:
+            sp = unpack(stack, sp, code[pc++]);
+            break;
+          case GET_ITER:
+            stack[sp - 1] = stack[sp - 1].iter();
+            break;
+          case FOR_ITER: {
+            Obj next = stack[sp - 1].next();
+            if (next == null) {
+              stack[--sp] = null;
+              pc = code[pc];
+            } else {
+              stack[sp++] = next;
+              pc++;
+            }
+            break;
+          }
+          case MAKE_FUNCTION:
+            stack[sp++] = defs[code[pc++]].define(f);
+            break;
+          case MAKE_LAMBDA:
+            stack[sp++] = lambdas[code[pc++]].eval(f);
+            break;
+          case ASSERT_FAIL:
+            throw code[pc] != 0 ? Python.error(Python.AssertionError, stack[sp - 1]) : Python.error(Python.AssertionError);
+          case RETURN:
+            return stack[--sp];
+          default:
+            throw new IllegalStateException("invalid opcode " + code[pc - 1]);
+        }
+      }
+    } catch (PythonException e) {
+      e.at(f, this, pc);
+      throw e;
+    }
+  }
+
+  /** Replaces the sequence on top of the stack with its n elements, the first one on top. */
+  static int unpack(Obj[] stack, int sp, int n) {
+    Obj value = stack[--sp];
+    if (value instanceof Python.List) {
+      ArrayList<Obj> values = ((Python.List) value).values;
+      if (values.size() != n) {
+        throw ExprList.unpackError(n, values.size());
+      }
+      for (int i = n - 1; i >= 0; i--) {
+        stack[sp++] = values.get(i);
+      }
+      return sp;
+    }
+    Obj iter = value.iter();
+    for (int i = 0; i < n; i++) {
+      Obj next = iter.next();
+      if (next == null) {
+        throw ExprList.unpackError(n, i);
+      }
+      stack[sp + n - 1 - i] = next;
+    }
+    if (iter.next() != null) {
+      throw ExprList.unpackError(n, n + 1);
+    }
+    return sp + n;
+  }
+
+  /** Returns a human readable listing of the instructions. */
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder();
+    int pc = 0;
+    while (pc < code.length) {
+      int opcode = code[pc];
+      b.append(pc).append(' ').append(NAMES[opcode]);
+      pc++;
+      if (hasOperand(opcode)) {
+        b.append(' ').append(code[pc++]);
+      }
+      b.append('\n');
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import sma.smython.Python.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the body of a function into <code>Code</code>. Functions using statements the compiler
+ * doesn't support (yet) keep running on the AST interpreter. Set the system property
+ * "smython.compile" to <code>true</code> to compile all functions by default; otherwise, set
+ * <code>Func.compiled</code> for individual functions.
+ */
+class Compiler {
+  static boolean enabled = Boolean.getBoolean("smython.compile");
+
+  private final Scope scope;
+  private int[] code = new int[64];
+  private int length;
+  private int[] lines = new int[16];
+  private int lineLength;
+  private int depth;
+  private int maxDepth;
+  private final List<Obj> consts = new ArrayList<Obj>();
+  private final List<Str> names = new ArrayList<Str>();
+  private final Map<Object, Integer> indices = new HashMap<Object, Integer>();
+  private final List<Stmt.FuncDef> defs = new ArrayList<Stmt.FuncDef>();
+  private final List<Expr.Lambda> lambdas = new ArrayList<Expr.Lambda>();
+  private Loop loop;
+
+  private Compiler(Scope scope) {
+    this.scope = scope;
+  }
+
+  /**
+   * Returns the code for the given function body, compiling it on first use, or
+   * <code>null</code> if the body cannot be compiled.
+   */
+  static Code compile(Scope scope, Suite body) {
+    Code code = scope.code;
+    if (code == null) {
+      try {
+        code = new Compiler(scope).compile(body);
+      } catch (UnsupportedOperationException e) {
+        code = Code.UNSUPPORTED;
+      }
+      scope.code = code;
+    }
+    return code != Code.UNSUPPORTED ? code : null;
+  }
+
+  Code compile(Suite body) {
+    suite(body);
+    emit(Code.LOAD_CONST, constant(Python.None));
+    emit(Code.RETURN);
+    int[] code = new int[length];
+    System.arraycopy(this.code, 0, code, 0, length);
+    return new Code(
+        scope,
+        code,
+        consts.toArray(new Obj[consts.size()]),
+        names.toArray(new Str[names.size()]),
+        defs.toArray(new Stmt.FuncDef[defs.size()]),
+        lambdas.toArray(new Expr.Lambda[lambdas.size()]),
+        maxDepth,
+        Arrays.copyOf(lines, lineLength));
+  }
+
+  // --------------------------------------------------------------------------------
+
+  /** Appends an instruction without operand. */
+  private void emit(int opcode) {
+    append(opcode);
+    adjust(effect(opcode, 0));
+  }
+
+  /** Appends an instruction with operand. */
+  private void emit(int opcode, int operand) {
+    append(opcode);
+    append(operand);
+    adjust(effect(opcode, operand));
+  }
+
+  /** Appends a jump instruction and returns the position of its target to be patched later. */
+  private int emitJump(int opcode) {
+    emit(opcode, -1);
+    return length - 1;
+  }
+
+  /** Sets the target of the jump at the given position to the current position. */
+  private void patch(int position) {
+    code[position] = length;
+  }
+
+  private void append(int value) {
+    if (length == code.length) {
+      int[] newCode = new int[length * 2];
+      System.arraycopy(code, 0, newCode, 0, length);
+      code = newCode;
+    }
+    code[length++] = value;
+  }
+
+  private void adjust(int effect) {
+    depth += effect;
+    if (depth > maxDepth) {
+      maxDepth = depth;
+    }
+  }
+
+  /** Returns the stack effect of the given instruction when it doesn't jump. */
+  private static int effect(int opcode, int operand) {
+    switch (opcode) {
+      case Code.LOAD_CONST:
+      case Code.LOAD_LOCAL:
+      case Code.LOAD_CELL:
+      case Code.LOAD_GLOBAL:
+      case Code.LOAD_NAME:
+      case Code.DUP:
+      case Code.FOR_ITER:
+      case Code.MAKE_FUNCTION:
+      case Code.MAKE_LAMBDA:
+        return 1;
+      case Code.ROT2:
+      case Code.ROT3:
+      case Code.NEG:
+      case Code.POS:
+      case Code.INVERT:
+      case Code.NOT:
+      case Code.JUMP:
+      case Code.GET_ATTR:
+      case Code.GET_ITER:
+      case Code.ASSERT_FAIL:
+        return 0;
+      case Code.CALL:
+        return -operand;
+      case Code.BUILD_LIST:
+        return 1 - operand;
+      case Code.UNPACK:
+        return operand - 1;
+      case Code.SET_ATTR:
+        return -2;
+      case Code.SET_ITEM:
+        return -3;
+      default:
+        return -1; // stores, POP, binary operations, conditional jumps and RETURN
+    }
+  }
+
+  private int constant(Obj value) {
+    return index(value, consts, value);
+  }
+
+  private int name(Str name) {
+    return index(name.value, names, name);
+  }
+
+  private <T> int index(Object key, List<T> list, T value) {
+    Integer index = indices.get(key);
+    if (index == null) {
+      index = list.size();
+      list.add(value);
+      indices.put(key, index);
+    }
+    return index;
+  }
+
+  // --------------------------------------------------------------------------------
+
+  private void suite(Suite suite) {
+    for (int i = 0; i < suite.stmts.size(); i++) {
+      if (lineLength == lines.length) {
+        lines = Arrays.copyOf(lines, lineLength * 2);
+      }
+      lines[lineLength++] = length;
+      lines[lineLength++] = suite.line(i);
+      stmt(suite.stmts.get(i));
+    }
+  }
+
+  private void stmt(Stmt stmt) {
+    if (stmt instanceof Stmt.ExprStmt) {
+      exprList(((Stmt.ExprStmt) stmt).exprList);
+      emit(Code.POP);
+    } else if (stmt instanceof Stmt.Assign) {
+      Stmt.Assign assign = (Stmt.Assign) stmt;
+      exprList(assign.right);
+      for (int i = 0; i < assign.left.size(); i++) {
+        if (i < assign.left.size() - 1) {
+          emit(Code.DUP);
+        }
+        storeList(assign.left.get(i));
+      }
+    } else if (stmt instanceof Stmt.AugAssign) {
+      Stmt.AugAssign augAssign = (Stmt.AugAssign) stmt;
+      expr(augAssign.left);
+      exprList(augAssign.right);
+      emit(augOpcode(augAssign));
+      store(augAssign.left);
+    } else if (stmt instanceof Stmt.Return) {
+      exprList(((Stmt.Return) stmt).exprList);
+      emit(Code.RETURN);
+    } else if (stmt instanceof Stmt.If) {
+      Stmt.If s = (Stmt.If) stmt;
+      expr(s.testExpr);
+      int elseJump = emitJump(Code.JUMP_IF_FALSE);
+      suite(s.thenSuite);
+      int endJump = emitJump(Code.JUMP);
+      patch(elseJump);
+      if (s.elseSuite != null) {
+        suite(s.elseSuite);
+      }
+      patch(endJump);
+    } else if (stmt instanceof Stmt.While) {
+      Stmt.While s = (Stmt.While) stmt;
+      Loop loop = new Loop(length);
+      expr(s.testExpr);
+      int elseJump = emitJump(Code.JUMP_IF_FALSE);
+      loopBody(loop, s.bodySuite);
+      emit(Code.JUMP, loop.start);
+      patch(elseJump);
+      if (s.elseSuite != null) {
+        suite(s.elseSuite);
+      }
+      loop.patchBreaks();
+    } else if (stmt instanceof Stmt.For) {
+      Stmt.For s = (Stmt.For) stmt;
+      exprList(s.items);
+      emit(Code.GET_ITER);
+      Loop loop = new Loop(length);
+      int exitJump = emitJump(Code.FOR_ITER);
+      storeList(s.names);
+      loopBody(loop, s.bodySuite);
+      emit(Code.JUMP, loop.start);
+      patch(exitJump);
+      adjust(-1); // FOR_ITER popped the iterator
+      if (s.elseSuite != null) {
+        suite(s.elseSuite);
+      }
+      int endJump = emitJump(Code.JUMP);
+      loop.patchBreaks();
+      adjust(1); // break leaves the iterator on the stack
+      emit(Code.POP);
+      patch(endJump);
+    } else if (stmt instanceof Stmt.Break) {
+      if (loop == null) {
+        throw new UnsupportedOperationException();
+      }
+      loop.breaks.add(emitJump(Code.JUMP));
+    } else if (stmt instanceof Stmt.Continue) {
+      if (loop == null) {
+        throw new UnsupportedOperationException();
+      }
+      emit(Code.JUMP, loop.start);
+    } else if (stmt instanceof Stmt.FuncDef) {
+      Stmt.FuncDef funcDef = (Stmt.FuncDef) stmt;
+      defs.add(funcDef);
+      emit(Code.MAKE_FUNCTION, defs.size() - 1);
+      store(funcDef.var);
+    } else if (stmt instanceof Stmt.Assert) {
+      Stmt.Assert s = (Stmt.Assert) stmt;
+      expr(s.test);
+      int endJump = emitJump(Code.JUMP_IF_TRUE);
+      if (s.message != null) {
+        expr(s.message);
+        emit(Code.ASSERT_FAIL, 1);
+        adjust(-1);
+      } else {
+        emit(Code.ASSERT_FAIL, 0);
+      }
+      patch(endJump);
+    } else if (!(stmt instanceof Stmt.Pass || stmt instanceof Stmt.Global || stmt instanceof Stmt.Nonlocal)) {
+      throw new UnsupportedOperationException(stmt.getClass().getSimpleName());
+    }
+  }
+
+  private void loopBody(Loop loop, Suite body) {
+    Loop outer = this.loop;
+    this.loop = loop;
+    suite(body);
+    this.loop = outer;
+  }
+
+  private static int augOpcode(Stmt.AugAssign stmt) {
+    if (stmt instanceof Stmt.AddAssign) {
+      return Code.ADD;
+    } else if (stmt instanceof Stmt.SubAssign) {
+      return Code.SUB;
+    } else if (stmt instanceof Stmt.MulAssign) {
+      return Code.MUL;
+    } else if (stmt instanceof Stmt.DivAssign) {
+      return Code.DIV;
+    } else if (stmt instanceof Stmt.IntDivAssign) {
+      return Code.INT_DIV;
+    } else if (stmt instanceof Stmt.ModAssign) {
+      return Code.MOD;
+    } else if (stmt instanceof Stmt.PowerAssign) {
+      return Code.POWER;
+    } else if (stmt instanceof Stmt.RshiftAssign) {
+      return Code.RSHIFT;
+    } else if (stmt instanceof Stmt.LshiftAssign) {
+      return Code.LSHIFT;
+    } else if (stmt instanceof Stmt.AndAssign) {
+      return Code.BIT_AND;
+    } else if (stmt instanceof Stmt.XorAssign) {
+      return Code.BIT_XOR;
+    } else {
+      return Code.BIT_OR;
+    }
+  }
+
+  // --------------------------------------------------------------------------------
+
+  /** Compiles an expression list like <code>ExprList.eval</code> evaluates it. */
+  private void exprList(ExprList exprList) {
+    if (exprList.single && exprList.exprs.size() == 1) {
+      expr(exprList.exprs.get(0));
+      return;
+    }
+    for (Expr expr : exprList.exprs) {
+      expr(expr);
+    }
+    emit(Code.BUILD_LIST, exprList.exprs.size());
+  }
+
+  private void expr(Expr expr) {
+    if (expr instanceof Expr.Lit) {
+      emit(Code.LOAD_CONST, constant(((Expr.Lit) expr).value));
+    } else if (expr instanceof Expr.Var) {
+      Expr.Var var = (Expr.Var) expr;
+      switch (var.kind) {
+        case Expr.Var.LOCAL:
+          emit(Code.LOAD_LOCAL, var.slot);
+          break;
+        case Expr.Var.CELL:
+          emit(Code.LOAD_CELL, var.slot);
+          break;
+        case Expr.Var.GLOBAL:
+          emit(Code.LOAD_GLOBAL, name(var.name));
+          break;
+        default:
+          emit(Code.LOAD_NAME, name(var.name));
+      }
+    } else if (expr instanceof Expr.Add) {
+      binary(((Expr.Add) expr).left, ((Expr.Add) expr).right, Code.ADD);
+    } else if (expr instanceof Expr.Sub) {
+      binary(((Expr.Sub) expr).left, ((Expr.Sub) expr).right, Code.SUB);
+    } else if (expr instanceof Expr.Mul) {
+      binary(((Expr.Mul) expr).left, ((Expr.Mul) expr).right, Code.MUL);
+    } else if (expr instanceof Expr.Div) {
+      binary(((Expr.Div) expr).left, ((Expr.Div) expr).right, Code.DIV);
+    } else if (expr instanceof Expr.IntDiv) {
+      binary(((Expr.IntDiv) expr).left, ((Expr.IntDiv) expr).right, Code.INT_DIV);
+    } else if (expr instanceof Expr.Mod) {
+      binary(((Expr.Mod) expr).left, ((Expr.Mod) expr).right, Code.MOD);
+    } else if (expr instanceof Expr.Power) {
+      Expr.Power power = (Expr.Power) expr;
+      if (power.left == null) {
+        throw new UnsupportedOperationException();
+      }
+      binary(power.left, power.right, Code.POWER);
+    } else if (expr instanceof Expr.BitShiftLeft) {
+      binary(((Expr.BitShiftLeft) expr).left, ((Expr.BitShiftLeft) expr).right, Code.LSHIFT);
+    } else if (expr instanceof Expr.BitShiftRight) {
+      binary(((Expr.BitShiftRight) expr).left, ((Expr.BitShiftRight) expr).right, Code.RSHIFT);
+    } else if (expr instanceof Expr.BitAnd) {
+      binary(((Expr.BitAnd) expr).left, ((Expr.BitAnd) expr).right, Code.BIT_AND);
+    } else if (expr instanceof Expr.BitOr) {
+      binary(((Expr.BitOr) expr).left, ((Expr.BitOr) expr).right, Code.BIT_OR);
+    } else if (expr instanceof Expr.BitXor) {
+      binary(((Expr.BitXor) expr).left, ((Expr.BitXor) expr).right, Code.BIT_XOR);
+    } else if (expr instanceof Expr.UnaryMinus) {
+      expr(((Expr.UnaryMinus) expr).expr);
+      emit(Code.NEG);
+    } else if (expr instanceof Expr.UnaryPlus) {
+      expr(((Expr.UnaryPlus) expr).expr);
+      emit(Code.POS);
+    } else if (expr instanceof Expr.BitNeg) {
+      expr(((Expr.BitNeg) expr).expr);
+      emit(Code.INVERT);
+    } else if (expr instanceof Expr.Not) {
+      expr(((Expr.Not) expr).test);
+      emit(Code.NOT);
+    } else if (expr instanceof Expr.And) {
+      expr(((Expr.And) expr).left);
+      int endJump = emitJump(Code.JUMP_IF_FALSE_OR_POP);
+      expr(((Expr.And) expr).right);
+      patch(endJump);
+    } else if (expr instanceof Expr.Or) {
+      expr(((Expr.Or) expr).left);
+      int endJump = emitJump(Code.JUMP_IF_TRUE_OR_POP);
+      expr(((Expr.Or) expr).right);
+      patch(endJump);
+    } else if (expr instanceof Expr.IfElse) {
+      Expr.IfElse ifElse = (Expr.IfElse) expr;
+      expr(ifElse.condition);
+      int elseJump = emitJump(Code.JUMP_IF_FALSE);
+      expr(ifElse.consequence);
+      int endJump = emitJump(Code.JUMP);
+      patch(elseJump);
+      adjust(-1);
+      expr(ifElse.alternative);
+      patch(endJump);
+    } else if (expr instanceof Expr.Comparison) {
+      comparison((Expr.Comparison) expr);
+    } else if (expr instanceof Expr.Call) {
+      Expr.Call call = (Expr.Call) expr;
+      Arglist arglist = call.arglist;
+      if (!arglist.keywords.isEmpty() || arglist.restPositionals != null || arglist.restKeywords != null) {
+        throw new UnsupportedOperationException();
+      }
+      expr(call.callable);
+      for (Expr arg : arglist.positionals) {
+        expr(arg);
+      }
+      emit(Code.CALL, arglist.positionals.size());
+    } else if (expr instanceof Expr.Attr) {
+      expr(((Expr.Attr) expr).obj);
+      emit(Code.GET_ATTR, name(((Expr.Attr) expr).name));
+    } else if (expr instanceof Expr.Index) {
+      expr(((Expr.Index) expr).obj);
+      exprList(((Expr.Index) expr).index);
+      emit(Code.GET_ITEM);
+    } else if (expr instanceof Expr.Lambda) {
+      lambdas.add((Expr.Lambda) expr);
+      emit(Code.MAKE_LAMBDA, lambdas.size() - 1);
+    } else {
+      throw new UnsupportedOperationException(expr.getClass().getSimpleName());
+    }
+  }
+
+  private void binary(Expr left, Expr right, int opcode) {
+    expr(left);
+    expr(right);
+    emit(opcode);
+  }
+
+  /** Compiles "a op1 b op2 c" so that b is evaluated only once and c only if "a op1 b" holds. */
+  private void comparison(Expr.Comparison comparison) {
+    expr(comparison.left);
+    List<Integer> cleanupJumps = new ArrayList<Integer>();
+    int size = comparison.comps.size();
+    for (int i = 0; i < size; i++) {
+      Expr.Comp comp = comparison.comps.get(i);
+      expr(comp.right);
+      if (i < size - 1) {
+        emit(Code.DUP);
+        emit(Code.ROT3);
+        emit(compOpcode(comp));
+        cleanupJumps.add(emitJump(Code.JUMP_IF_FALSE_OR_POP));
+      } else {
+        emit(compOpcode(comp));
+      }
+    }
+    if (!cleanupJumps.isEmpty()) {
+      int endJump = emitJump(Code.JUMP);
+      for (int cleanupJump : cleanupJumps) {
+        patch(cleanupJump);
+      }
+      adjust(1);
+      emit(Code.ROT2);
+      emit(Code.POP);
+      patch(endJump);
+    }
+  }
+
+  private static int compOpcode(Expr.Comp comp) {
+    if (comp instanceof Expr.Comp.LT) {
+      return Code.LT;
+    } else if (comp instanceof Expr.Comp.GT) {
+      return Code.GT;
+    } else if (comp instanceof Expr.Comp.LE) {
+      return Code.LE;
+    } else if (comp instanceof Expr.Comp.GE) {
+      return Code.GE;
+    } else if (comp instanceof Expr.Comp.EQ) {
+      return Code.EQ;
+    } else if (comp instanceof Expr.Comp.NE) {
+      return Code.NE;
+    } else if (comp instanceof Expr.Comp.In) {
+      return Code.IN;
+    } else if (comp instanceof Expr.Comp.NotIn) {
+      return Code.NOT_IN;
+    } else if (comp instanceof Expr.Comp.Is) {
+      return Code.IS;
+    } else {
+      return Code.IS_NOT;
+    }
+  }
+
+  // --------------------------------------------------------------------------------
+
+  /** Compiles an assignment to an expression list like <code>ExprList.set</code> does it. */
+  private void storeList(ExprList exprList) {
+    if (exprList.single && exprList.exprs.size() == 1) {
+      store(exprList.exprs.get(0));
+      return;
+    }
+    emit(Code.UNPACK, exprList.exprs.size());
+    for (Expr expr : exprList.exprs) {
+      store(expr);
+    }
+  }
+
+  private void store(Expr expr) {
+    if (expr instanceof Expr.Var) {
+      Expr.Var var = (Expr.Var) expr;
+      switch (var.kind) {
+        case Expr.Var.LOCAL:
+          emit(Code.STORE_LOCAL, var.slot);
+          break;
+        case Expr.Var.CELL:
+          emit(Code.STORE_CELL, var.slot);
+          break;
+        case Expr.Var.GLOBAL:
+          emit(Code.STORE_GLOBAL, name(var.name));
+          break;
+        default:
+          emit(Code.STORE_NAME, name(var.name));
+      }
+    } else if (expr instanceof Expr.Attr) {
+      expr(((Expr.Attr) expr).obj);
+      emit(Code.SET_ATTR, name(((Expr.Attr) expr).name));
+    } else if (expr instanceof Expr.Index) {
+      expr(((Expr.Index) expr).obj);
+      exprList(((Expr.Index) expr).index);
+      emit(Code.SET_ITEM);
+    } else if (expr instanceof Expr.TupleConstr) {
+      storeList(((Expr.TupleConstr) expr).exprList);
+    } else if (expr instanceof Expr.ListConstr) {
+      storeList(((Expr.ListConstr) expr).exprList);
+    } else {
+      throw new UnsupportedOperationException(expr.getClass().getSimpleName());
+    }
+  }
+
+  /** Collects the jumps of "break" statements of a loop until the loop's end is known. */
+  private class Loop {
+    final int start;
+    final List<Integer> breaks = new ArrayList<Integer>();
+
+    Loop(int start) {
+      this.start = start;
+    }
+
+    void patchBreaks() {
+      for (int position : breaks) {
+        patch(position);
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompilerTest {
+  private boolean enabled;
+
+  @Before
+  public void enable() {
+    enabled = Compiler.enabled;
+    Compiler.enabled = true;
+  }
+
+  @After
+  public void restore() {
+    Compiler.enabled = enabled;
+  }
+
+  private Python.Obj exec(String source) {
+    Parser parser = new Parser(new Scanner(source));
+    Suite suite = parser.parseFileInput();
+    Python.Dict globals = new Python.Dict();
+    Frame frame = new Frame(globals, globals);
+    return suite.eval(frame);
+  }
+
+  private static Code compile(String source) {
+    Suite suite = new Parser(new Scanner(source)).parseFileInput();
+    Stmt.FuncDef def = (Stmt.FuncDef) suite.stmts.get(0);
+    return Compiler.compile(def.scope, def.body);
+  }
+
+  @Test
+  public void disassembly() {
+    assertEquals("" +
+        "0 LOAD_LOCAL 0\n" +
+        "2 LOAD_CONST 0\n" +
+        "4 ADD\n" +
+        "5 STORE_LOCAL 1\n" +
+        "7 LOAD_LOCAL 1\n" +
+        "9 RETURN\n" +
+        "10 LOAD_CONST 1\n" +
+        "12 RETURN\n",
+        compile("def f(a):\n  b = a + 1\n  return b\n").toString());
+  }
+
+  @Test
+  public void unsupportedStatements() {
+    assertNull(compile("def f():\n  try: pass\n  finally: pass\n"));
+    assertNull(compile("def f():\n  class C: pass\n"));
+  }
+
+  @Test
+  public void tracebacks() {
+    try {
+      exec("def f(a):\n  b = a\n  return 1 // b\ndef g(): return f(0) + 1\ng()\n");
+      fail();
+    } catch (PythonException e) {
+      assertEquals("" +
+          "Traceback (most recent call last):\n" +
+          "  line 5, in <module>\n" +
+          "  line 4, in g\n" +
+          "  line 3, in f\n" +
+          "ZeroDivisionError: integer division or modulo by zero", e.traceback());
+    }
+  }
+
+  @Test
+  public void functions() {
+    assertEquals(Python.None, exec("def f(): return\nf()\n"));
+    assertEquals(Python.Int(42), exec("def f(): return 42\nf()\n"));
+    assertEquals(new Python.List(Python.Int(3), Python.Int(4)), exec("def f(): return 3, 4\nf()\n"));
+    assertEquals(Python.Int(42), exec("def f(a=42): return a\nf()\n"));
+    assertEquals(Python.Int(4), exec("def f(a): return a + 1\ndef g(a): return f(a) + 2\ng(1)\n"));
+    assertEquals(Python.Int(5), exec("x = 1\ndef f():\n  global x\n  x = 5\nf()\nx\n"));
+  }
+
+  @Test
+  public void assignments() {
+    assertEquals(Python.Int(2), exec("def f():\n  a, b = 1, 2\n  return b\nf()\n"));
+    assertEquals(Python.Int(3), exec("def f(a):\n  a += 2\n  return a\nf(1)\n"));
+    assertEquals(Python.Int(2), exec("def f():\n  a = b = 1\n  return a + b\nf()\n"));
+    assertEquals(Python.Int(2), exec("def f(x):\n  [a, (b, c)] = x\n  return b\ny = 2, 3\nx = 1, y\nf(x)\n"));
+  }
+
+  @Test
+  public void unboundLocalVariables() {
+    String source = "" +
+        "def f(a):\n" +
+        "  if a: x = 1\n" +
+        "  return x\n" +
+        "def g(a):\n" +
+        "  def h(): return x\n" +
+        "  if a: x = 1\n" +
+        "  return h()\n" +
+        "n = f(1) + g(1)\n" +
+        "try: f(0)\n" +
+        "except UnboundLocalError: n += 10\n" +
+        "try: g(0)\n" +
+        "except NameError: n += 100\n" +
+        "n\n";
+    assertNotNull(compile(source));
+    assertEquals(Python.Int(112), exec(source));
+  }
+
+  @Test
+  public void closures() {
+    assertEquals(Python.Int(7), exec("def make(n):\n  def add(x): return x + n\n  return add\nmake(3)(4)\n"));
+    assertEquals(Python.Int(5), exec("def make(n): return lambda x: x + n\nmake(2)(3)\n"));
+    assertEquals(Python.Int(2), exec("" +
+        "def counter():\n" +
+        "  c = 0\n" +
+        "  def inc():\n" +
+        "    nonlocal c\n" +
+        "    c += 1\n" +
+        "    return c\n" +
+        "  inc()\n" +
+        "  return inc()\n" +
+        "counter()\n"));
+  }
+
+  @Test
+  public void controlFlow() {
+    assertEquals(Python.Int(55), exec("" +
+        "def fib(n):\n" +
+        "  if n < 2: return n\n" +
+        "  return fib(n - 1) + fib(n - 2)\n" +
+        "fib(10)\n"));
+    assertEquals(Python.Int(12), exec("" +
+        "def f():\n" +
+        "  i = s = 0\n" +
+        "  while True:\n" +
+        "    i += 1\n" +
+        "    if i % 2: continue\n" +
+        "    if i > 6: break\n" +
+        "    s += i\n" +
+        "  else:\n" +
+        "    s = -1\n" +
+        "  return s\n" +
+        "f()\n"));
+    String forLoop = "" +
+        "def f(l):\n" +
+        "  s = 0\n" +
+        "  for a, b in l:\n" +
+        "    if a > 2: break\n" +
+        "    s += a * b\n" +
+        "  else:\n" +
+        "    s = -1\n" +
+        "  return s\n";
+    assertNotNull(compile(forLoop));
+    assertEquals(Python.Int(14), exec(forLoop + "x = 1, 2\ny = 2, 6\nz = 3, 4\nl = x, y, z\nf(l)\n"));
+    assertEquals(Python.Int(-1), exec(forLoop + "x = 1, 2\nl = x,\nf(l)\n"));
+    assertEquals(Python.Int(45), exec("def f(n):\n  s = 0\n  for i in range(n): s += i\n  return s\nf(10)\n"));
+  }
+
+  @Test
+  public void expressions() {
+    assertEquals(Python.True, exec("def f(a): return 1 < a <= 3 != 4\nf(2)\n"));
+    assertEquals(Python.False, exec("def f(a): return 1 < a <= 3 != 4\nf(5)\n"));
+    assertEquals(Python.Int(2), exec("def f(a): return a and 2 or 3\nf(1)\n"));
+    assertEquals(Python.Int(3), exec("def f(a): return a and 2 or 3\nf(0)\n"));
+    assertEquals(Python.Int(-3), exec("def f(a): return -a if not a is None else 0\nf(3)\n"));
+    assertEquals(Python.Int(7), exec("def f(a): return a | 1 << 2\nf(3)\n"));
+  }
+}
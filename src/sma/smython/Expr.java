@@ -10,28 +10,68 @@ import java.util.List;
 
 /** Represents an AST expression. */
 abstract class Expr {
+  /** Returned by <code>evalLong</code> for values which are in the frame's <code>boxed</code> field. */
+  static final long BOXED = Long.MIN_VALUE;
+
   abstract Obj eval(Frame f);
 
+  /**
+   * Evaluates this expression to a primitive if its value is an integer which fits into a
+   * <code>long</code>. Otherwise, stores the value in the frame's <code>boxed</code> field and
+   * returns <code>BOXED</code>. Nested arithmetic uses this to pass intermediate results on
+   * without allocating them.
+   */
+  long evalLong(Frame f) {
+    return unbox(f, eval(f));
+  }
+
+  static long unbox(Frame f, Obj value) {
+    if (value instanceof Int) {
+      return ((Int) value).value;
+    }
+    f.boxed = value;
+    return BOXED;
+  }
+
   void set(Frame f, Obj value) {
     throw new UnsupportedOperationException();
   }
 
+  /** Declares all names used by this expression to the given scope. */
+  abstract void resolve(Scope scope);
+
+  /** Declares all names used by this expression as an assignment target to the given scope. */
+  void resolveTarget(Scope scope) {
+    resolve(scope);
+  }
+
   static class Lambda extends Expr {
+    private static final Str name = Python.intern("<lambda>");
+
     final Params params;
     final Expr test;
+    final Suite body;
+    Scope scope;
 
     Lambda(Params params, Expr test) {
       this.params = params;
       this.test = test;
+      ExprList exprList = new ExprList();
+      exprList.single = true;
+      exprList.add(test);
+      body = new Suite();
+      body.add(new Stmt.Return(exprList));
     }
 
     Obj eval(Frame f) {
-      ExprList exprList = new ExprList();
-      exprList.add(test);
-      Suite suite = new Suite();
-      suite.add(new Stmt.Return(exprList));
-      Str name = new Str("<lambda>");
-      return new Func(name, params, suite, f.globals);
+      return new Func(name, params, body, f.globals, scope, scope.closure(f), params.defaults(f));
+    }
+
+    void resolve(Scope scope) {
+      params.resolve(scope);
+      this.scope = scope.newScope(Scope.FUNCTION);
+      params.declare(this.scope);
+      body.resolve(this.scope);
     }
 
     @Override
@@ -55,6 +95,12 @@ abstract class Expr {
       return (condition.eval(f).truish() ? consequence : alternative).eval(f);
     }
 
+    void resolve(Scope scope) {
+      condition.resolve(scope);
+      consequence.resolve(scope);
+      alternative.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "IfElse(" + condition + ", " + consequence + ", " + alternative + ")";
@@ -75,6 +121,11 @@ abstract class Expr {
       return result.truish() ? right.eval(f) : result;
     }
 
+    void resolve(Scope scope) {
+      left.resolve(scope);
+      right.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "And(" + left + ", " + right + ")";
@@ -95,6 +146,11 @@ abstract class Expr {
       return result.truish() ? result : right.eval(f);
     }
 
+    void resolve(Scope scope) {
+      left.resolve(scope);
+      right.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "Or(" + left + ", " + right + ")";
@@ -109,7 +165,11 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      return Python.bool(test.eval(f).truish());
+      return Python.bool(!test.eval(f).truish());
+    }
+
+    void resolve(Scope scope) {
+      test.resolve(scope);
     }
 
     @Override
@@ -131,7 +191,24 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException();
+      Obj left = this.left.eval(f);
+      Obj result = null;
+      for (Comp comp : comps) {
+        Obj right = comp.right.eval(f);
+        result = comp.compare(left, right);
+        if (!result.truish()) {
+          break;
+        }
+        left = right;
+      }
+      return result;
+    }
+
+    void resolve(Scope scope) {
+      left.resolve(scope);
+      for (Comp comp : comps) {
+        comp.right.resolve(scope);
+      }
     }
 
     @Override
@@ -140,8 +217,10 @@ abstract class Expr {
     }
   }
 
+  /** Represents one comparison of a chain; specializes itself like <code>Binary</code> does. */
   static abstract class Comp {
     final Expr right;
+    int state;
 
     Comp(Expr right) {
       this.right = right;
@@ -154,6 +233,50 @@ abstract class Expr {
 
     abstract String op();
 
+    final Obj compare(Obj left, Obj right) {
+      switch (state) {
+        case Binary.INT:
+          if (left instanceof Int && right instanceof Int) {
+            return Python.bool(intOp(((Int) left).value, ((Int) right).value));
+          }
+          break;
+        case Binary.FLOAT:
+          if (left instanceof Python.Float && right instanceof Python.Float) {
+            return Python.bool(floatOp(((Python.Float) left).value, ((Python.Float) right).value));
+          }
+          break;
+        case Binary.GENERIC:
+          return op(left, right);
+        default:
+          if (numeric() && left instanceof Int && right instanceof Int) {
+            state = Binary.INT;
+          } else if (numeric() && left instanceof Python.Float && right instanceof Python.Float) {
+            state = Binary.FLOAT;
+          } else {
+            state = Binary.GENERIC;
+          }
+          return compare(left, right);
+      }
+      state = Binary.GENERIC;
+      return op(left, right);
+    }
+
+    /** Compares arbitrary objects. */
+    abstract Obj op(Obj left, Obj right);
+
+    /** Returns whether this comparison has specializations for ints and floats. */
+    boolean numeric() {
+      return false;
+    }
+
+    boolean intOp(int a, int b) {
+      throw new UnsupportedOperationException();
+    }
+
+    boolean floatOp(double a, double b) {
+      throw new UnsupportedOperationException();
+    }
+
     static class LT extends Comp {
       LT(Expr right) {
         super(right);
@@ -162,16 +285,54 @@ abstract class Expr {
       String op() {
         return "<";
       }
+
+      Obj op(Obj left, Obj right) {
+        return left.lt(right);
+      }
+
+      @Override
+      boolean numeric() {
+        return true;
+      }
+
+      @Override
+      boolean intOp(int a, int b) {
+        return a < b;
+      }
+
+      @Override
+      boolean floatOp(double a, double b) {
+        return a < b;
+      }
     }
 
     static class GT extends Comp {
       GT(Expr right) {
-       super(right);
+        super(right);
       }
 
       String op() {
         return ">";
       }
+
+      Obj op(Obj left, Obj right) {
+        return left.gt(right);
+      }
+
+      @Override
+      boolean numeric() {
+        return true;
+      }
+
+      @Override
+      boolean intOp(int a, int b) {
+        return a > b;
+      }
+
+      @Override
+      boolean floatOp(double a, double b) {
+        return a > b;
+      }
     }
 
     static class LE extends Comp {
@@ -182,6 +343,25 @@ abstract class Expr {
       String op() {
         return "<=";
       }
+
+      Obj op(Obj left, Obj right) {
+        return left.le(right);
+      }
+
+      @Override
+      boolean numeric() {
+        return true;
+      }
+
+      @Override
+      boolean intOp(int a, int b) {
+        return a <= b;
+      }
+
+      @Override
+      boolean floatOp(double a, double b) {
+        return a <= b;
+      }
     }
 
     static class GE extends Comp {
@@ -192,6 +372,25 @@ abstract class Expr {
       String op() {
         return ">=";
       }
+
+      Obj op(Obj left, Obj right) {
+        return left.ge(right);
+      }
+
+      @Override
+      boolean numeric() {
+        return true;
+      }
+
+      @Override
+      boolean intOp(int a, int b) {
+        return a >= b;
+      }
+
+      @Override
+      boolean floatOp(double a, double b) {
+        return a >= b;
+      }
     }
 
     static class EQ extends Comp {
@@ -202,6 +401,25 @@ abstract class Expr {
       String op() {
         return "==";
       }
+
+      Obj op(Obj left, Obj right) {
+        return left.eq(right);
+      }
+
+      @Override
+      boolean numeric() {
+        return true;
+      }
+
+      @Override
+      boolean intOp(int a, int b) {
+        return a == b;
+      }
+
+      @Override
+      boolean floatOp(double a, double b) {
+        return a == b;
+      }
     }
 
     static class NE extends Comp {
@@ -212,6 +430,25 @@ abstract class Expr {
       String op() {
         return "!=";
       }
+
+      Obj op(Obj left, Obj right) {
+        return left.ne(right);
+      }
+
+      @Override
+      boolean numeric() {
+        return true;
+      }
+
+      @Override
+      boolean intOp(int a, int b) {
+        return a != b;
+      }
+
+      @Override
+      boolean floatOp(double a, double b) {
+        return a != b;
+      }
     }
 
     static class In extends Comp {
@@ -222,6 +459,10 @@ abstract class Expr {
       String op() {
         return "in";
       }
+
+      Obj op(Obj left, Obj right) {
+        return Python.bool(right.contains(left));
+      }
     }
 
     static class NotIn extends Comp {
@@ -232,6 +473,10 @@ abstract class Expr {
       String op() {
         return "not in";
       }
+
+      Obj op(Obj left, Obj right) {
+        return Python.bool(!right.contains(left));
+      }
     }
 
     static class Is extends Comp {
@@ -242,6 +487,10 @@ abstract class Expr {
       String op() {
         return "is";
       }
+
+      Obj op(Obj left, Obj right) {
+        return Python.bool(left == right);
+      }
     }
 
     static class IsNot extends Comp {
@@ -252,6 +501,10 @@ abstract class Expr {
       String op() {
         return "is not";
       }
+
+      Obj op(Obj left, Obj right) {
+        return Python.bool(left != right);
+      }
     }
   }
 
@@ -266,218 +519,435 @@ abstract class Expr {
       throw new UnsupportedOperationException();
     }
 
+    void resolve(Scope scope) {
+      expr.resolve(scope);
+    }
+
+    @Override
+    void resolveTarget(Scope scope) {
+      expr.resolveTarget(scope);
+    }
+
     @Override
     public String toString() {
       return "Star(" + expr + ")";
     }
   }
 
-  static class BitOr extends Expr {
+  /**
+   * Base class of binary operators. Each node specializes itself on the types of the operands it
+   * sees first: if both are <code>Int</code>s or both are <code>Float</code>s, it computes the
+   * result directly from the primitive values, skipping the double dispatch through
+   * <code>Obj</code>. If an operand later doesn't match, the node falls back to the generic
+   * operation for good, so a node never flips back and forth between states.
+   */
+  static abstract class Binary extends Expr {
+    // specialization states
+    static final int UNINITIALIZED = 0;
+    static final int INT = 1;
+    static final int FLOAT = 2;
+    static final int GENERIC = 3;
+
     final Expr left;
     final Expr right;
+    int state;
 
-    BitOr(Expr left, Expr right) {
+    Binary(Expr left, Expr right) {
       this.left = left;
       this.right = right;
     }
 
     Obj eval(Frame f) {
-      return left.eval(f).or(right.eval(f));
+      if (state == INT) {
+        long result = evalLong(f);
+        return result != BOXED ? Python.Int(result) : f.boxed;
+      }
+      Obj left = this.left.eval(f);
+      Obj right = this.right.eval(f);
+      switch (state) {
+        case FLOAT:
+          if (left instanceof Python.Float && right instanceof Python.Float) {
+            return floatOp(((Python.Float) left).value, ((Python.Float) right).value);
+          }
+          break;
+        case GENERIC:
+          return op(left, right);
+        default:
+          return specialize(left, right);
+      }
+      state = GENERIC;
+      return op(left, right);
+    }
+
+    private Obj specialize(Obj left, Obj right) {
+      Obj result = null;
+      if (left instanceof Int && right instanceof Int) {
+        state = INT;
+        result = intOp(((Int) left).value, ((Int) right).value);
+      } else if (isInteger(left) && isInteger(right)) {
+        state = INT; // a big intermediate result may fit into a long next time
+        return op(left, right);
+      } else if (left instanceof Python.Float && right instanceof Python.Float) {
+        state = FLOAT;
+        result = floatOp(((Python.Float) left).value, ((Python.Float) right).value);
+      }
+      if (result == null) {
+        state = GENERIC;
+        result = op(left, right);
+      }
+      return result;
+    }
+
+    /**
+     * Once specialized for ints, evaluates both operands as primitives and only allocates if the
+     * result overflows or an operand isn't an integer, which also ends the specialization.
+     */
+    @Override
+    long evalLong(Frame f) {
+      if (state != INT) {
+        return super.evalLong(f);
+      }
+      long a = left.evalLong(f);
+      if (a == BOXED) {
+        Obj left = f.boxed;
+        if (!isInteger(left)) {
+          state = GENERIC;
+        }
+        return unbox(f, op(left, right.eval(f)));
+      }
+      long b = right.evalLong(f);
+      if (b == BOXED) {
+        if (!isInteger(f.boxed)) {
+          state = GENERIC;
+        }
+        return unbox(f, op(Python.Int(a), f.boxed));
+      }
+      long result = longOp(a, b);
+      if (result == BOXED) {
+        return unbox(f, op(Python.Int(a), Python.Int(b)));
+      }
+      return result;
+    }
+
+    static boolean isInteger(Obj value) {
+      return value instanceof Int || value instanceof Python.BigInt;
+    }
+
+    /** Applies the operator to arbitrary objects. */
+    abstract Obj op(Obj left, Obj right);
+
+    /**
+     * Applies the operator to two integers or returns <code>BOXED</code> if the result doesn't fit
+     * into a <code>long</code> or needs to be computed by <code>op</code> for other reasons.
+     */
+    long longOp(long a, long b) {
+      return BOXED;
+    }
+
+    /** Applies the operator to two ints or returns <code>null</code> if not specialized for ints. */
+    Obj intOp(int a, int b) {
+      return null;
+    }
+
+    /** Applies the operator to two floats or returns <code>null</code> if not specialized for floats. */
+    Obj floatOp(double a, double b) {
+      return null;
+    }
+
+    void resolve(Scope scope) {
+      left.resolve(scope);
+      right.resolve(scope);
     }
 
     @Override
     public String toString() {
-      return "BitOr(" + left + ", " + right + ")";
+      return getClass().getSimpleName() + "(" + left + ", " + right + ")";
     }
   }
 
-  static class BitXor extends Expr {
-    final Expr left;
-    final Expr right;
+  static class BitOr extends Binary {
+    BitOr(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    BitXor(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.or(right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).xor(right.eval(f));
+    @Override
+    long longOp(long a, long b) {
+      return a | b;
     }
 
     @Override
-    public String toString() {
-      return "BitXor(" + left + ", " + right + ")";
+    Obj intOp(int a, int b) {
+      return Python.Int(a | b);
     }
   }
 
-  static class BitAnd extends Expr {
-    final Expr left;
-    final Expr right;
+  static class BitXor extends Binary {
+    BitXor(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    BitAnd(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.xor(right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).and(right.eval(f));
+    @Override
+    long longOp(long a, long b) {
+      return a ^ b;
     }
 
     @Override
-    public String toString() {
-      return "BitAnd(" + left + ", " + right + ")";
+    Obj intOp(int a, int b) {
+      return Python.Int(a ^ b);
     }
   }
 
-  static class BitShiftLeft extends Expr {
-    final Expr left;
-    final Expr right;
+  static class BitAnd extends Binary {
+    BitAnd(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    BitShiftLeft(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.and(right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).lshift(right.eval(f));
+    @Override
+    long longOp(long a, long b) {
+      return a & b;
     }
 
     @Override
-    public String toString() {
-      return "BitShiftLeft(" + left + ", " + right + ")";
+    Obj intOp(int a, int b) {
+      return Python.Int(a & b);
     }
   }
 
-  static class BitShiftRight extends Expr {
-    final Expr left;
-    final Expr right;
+  static class BitShiftLeft extends Binary {
+    BitShiftLeft(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    BitShiftRight(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.lshift(right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).rshift(right.eval(f));
+    @Override
+    long longOp(long a, long b) {
+      return b >= 0 && b < 63 && (a << b) >> b == a ? a << b : BOXED;
     }
 
     @Override
-    public String toString() {
-      return "BitShiftRight(" + left + ", " + right + ")";
+    Obj intOp(int a, int b) {
+      return Int.lshift(a, b);
     }
   }
 
-  static class Add extends Expr {
-    final Expr left;
-    final Expr right;
+  static class BitShiftRight extends Binary {
+    BitShiftRight(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    Add(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.rshift(right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).add(right.eval(f));
+    @Override
+    long longOp(long a, long b) {
+      return b >= 0 ? a >> Math.min(b, 63) : BOXED;
     }
 
     @Override
-    public String toString() {
-      return "Add(" + left + ", " + right + ")";
+    Obj intOp(int a, int b) {
+      return Int.rshift(a, b);
     }
   }
 
-  static class Sub extends Expr {
-    final Expr left;
-    final Expr right;
+  static class Add extends Binary {
+    Add(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    Sub(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.add(right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).sub(right.eval(f));
+    @Override
+    long longOp(long a, long b) {
+      long r = a + b;
+      return ((a ^ r) & (b ^ r)) < 0 ? BOXED : r;
     }
 
     @Override
-    public String toString() {
-      return "Sub(" + left + ", " + right + ")";
+    Obj intOp(int a, int b) {
+      return Int.add(a, b);
+    }
+
+    @Override
+    Obj floatOp(double a, double b) {
+      return Python.Float(a + b);
     }
   }
 
-  static class Mul extends Expr {
-    final Expr left;
-    final Expr right;
+  static class Sub extends Binary {
+    Sub(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    Mul(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.sub(right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).mul(right.eval(f));
+    @Override
+    long longOp(long a, long b) {
+      long r = a - b;
+      return ((a ^ b) & (a ^ r)) < 0 ? BOXED : r;
     }
 
     @Override
-    public String toString() {
-      return "Mul(" + left + ", " + right + ")";
+    Obj intOp(int a, int b) {
+      return Int.sub(a, b);
+    }
+
+    @Override
+    Obj floatOp(double a, double b) {
+      return Python.Float(a - b);
     }
   }
 
-  static class Div extends Expr {
-    final Expr left;
-    final Expr right;
+  static class Mul extends Binary {
+    Mul(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    Div(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.mul(right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).div(right.eval(f));
+    @Override
+    long longOp(long a, long b) {
+      long r = a * b;
+      return Math.multiplyHigh(a, b) == r >> 63 ? r : BOXED;
     }
 
     @Override
-    public String toString() {
-      return "Div(" + left + ", " + right + ")";
+    Obj intOp(int a, int b) {
+      return Int.mul(a, b);
+    }
+
+    @Override
+    Obj floatOp(double a, double b) {
+      return Python.Float(a * b);
     }
   }
 
-  static class Mod extends Expr {
-    final Expr left;
-    final Expr right;
+  static class Div extends Binary {
+    Div(Expr left, Expr right) {
+      super(left, right);
+    }
 
-    Mod(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+    Obj op(Obj left, Obj right) {
+      return left.div(right);
     }
 
+    /**
+     * Once specialized for ints, evaluates both operands as primitives and divides them as floats
+     * like <code>op</code> would, allocating only the result.
+     */
+    @Override
     Obj eval(Frame f) {
-      return left.eval(f).mod(right.eval(f));
+      if (state != INT) {
+        return super.eval(f);
+      }
+      long a = left.evalLong(f);
+      if (a == BOXED) {
+        Obj left = f.boxed;
+        if (!isInteger(left)) {
+          state = GENERIC;
+        }
+        return op(left, right.eval(f));
+      }
+      long b = right.evalLong(f);
+      if (b == BOXED) {
+        if (!isInteger(f.boxed)) {
+          state = GENERIC;
+        }
+        return op(Python.Int(a), f.boxed);
+      }
+      return floatOp(a, b);
     }
 
+    /** The quotient is never an integer, so don't take the int route of <code>Binary</code>. */
     @Override
-    public String toString() {
-      return "Mod(" + left + ", " + right + ")";
+    long evalLong(Frame f) {
+      return unbox(f, eval(f));
+    }
+
+    @Override
+    Obj intOp(int a, int b) {
+      return floatOp(a, b);
+    }
+
+    @Override
+    Obj floatOp(double a, double b) {
+      if (b == 0.0) {
+        throw Python.error(Python.ZeroDivisionError, "division by zero");
+      }
+      return Python.Float(a / b);
     }
   }
 
-  static class IntDiv extends Expr {
-    final Expr left;
-    final Expr right;
+  static class Mod extends Binary {
+    Mod(Expr left, Expr right) {
+      super(left, right);
+    }
 
+    Obj op(Obj left, Obj right) {
+      return left.mod(right);
+    }
+
+    @Override
+    long longOp(long a, long b) {
+      if (b == 0) {
+        return BOXED; // let op() raise the error
+      }
+      if (a == (int) a && b == (int) b) {
+        return Math.floorMod((int) a, (int) b); // 32-bit division is much faster
+      }
+      return Math.floorMod(a, b);
+    }
+
+    @Override
+    Obj intOp(int a, int b) {
+      return Int.mod(a, b);
+    }
+  }
+
+  static class IntDiv extends Binary {
     IntDiv(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+      super(left, right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).intDiv(right.eval(f));
+    Obj op(Obj left, Obj right) {
+      return left.intDiv(right);
     }
 
     @Override
-    public String toString() {
-      return "IntDiv(" + left + ", " + right + ")";
+    long longOp(long a, long b) {
+      if (b == 0) {
+        return BOXED; // let op() raise the error
+      }
+      if (a == (int) a && b == (int) b && b != -1) {
+        return Math.floorDiv((int) a, (int) b); // 32-bit division is much faster
+      }
+      return b != -1 ? Math.floorDiv(a, b) : BOXED;
+    }
+
+    @Override
+    Obj intOp(int a, int b) {
+      return Int.intDiv(a, b);
     }
   }
 
@@ -492,6 +962,10 @@ abstract class Expr {
       return expr.eval(f).neg();
     }
 
+    void resolve(Scope scope) {
+      expr.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "Neg(" + expr + ")";
@@ -509,6 +983,10 @@ abstract class Expr {
       return expr.eval(f).pos();
     }
 
+    void resolve(Scope scope) {
+      expr.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "Pos(" + expr + ")";
@@ -526,6 +1004,10 @@ abstract class Expr {
       return expr.eval(f).invert();
     }
 
+    void resolve(Scope scope) {
+      expr.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "Invert(" + expr + ")";
@@ -535,14 +1017,43 @@ abstract class Expr {
   static class Call extends Expr {
     final Expr callable;
     final Arglist arglist;
+    /** Number of positional arguments if there are at most three and nothing else, otherwise -1. */
+    private final int arity;
+    private final Expr arg0;
+    private final Expr arg1;
+    private final Expr arg2;
 
     Call(Expr callable, Arglist arglist) {
       this.callable = callable;
       this.arglist = arglist;
+      List<Expr> args = arglist.positionals;
+      boolean positionalsOnly = arglist.keywords.isEmpty() &&
+          arglist.restPositionals == null && arglist.restKeywords == null;
+      arity = positionalsOnly && args.size() <= 3 ? args.size() : -1;
+      arg0 = arity > 0 ? args.get(0) : null;
+      arg1 = arity > 1 ? args.get(1) : null;
+      arg2 = arity > 2 ? args.get(2) : null;
     }
 
     Obj eval(Frame f) {
-      return callable.eval(f).call(f, arglist.eval(f));
+      Obj callable = this.callable.eval(f);
+      switch (arity) {
+        case 0:
+          return callable.call0(f);
+        case 1:
+          return callable.call1(f, arg0.eval(f));
+        case 2:
+          return callable.call2(f, arg0.eval(f), arg1.eval(f));
+        case 3:
+          return callable.call3(f, arg0.eval(f), arg1.eval(f), arg2.eval(f));
+        default:
+          return arglist.call(f, callable);
+      }
+    }
+
+    void resolve(Scope scope) {
+      callable.resolve(scope);
+      arglist.resolve(scope);
     }
 
     @Override
@@ -564,23 +1075,111 @@ abstract class Expr {
       return obj.eval(f).getItem(index.eval(f));
     }
 
+    @Override
+    void set(Frame f, Obj value) {
+      obj.eval(f).setItem(index.eval(f), value);
+    }
+
+    void resolve(Scope scope) {
+      obj.resolve(scope);
+      index.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "Index(" + obj + ", " + index + ")";
     }
   }
 
+  /**
+   * Represents an attribute access. On instances of classes, it remembers where the attribute was
+   * found for up to <code>CACHE_SIZE</code> receiver shapes: the slot of an instance attribute or
+   * the value of a class attribute, valid as long as the class's version doesn't change. An
+   * assignment remembers the slot and, for a new attribute, the shape the instance moves to.
+   */
   static class Attr extends Expr {
+    static final int CACHE_SIZE = 4;
+
     final Expr obj;
-    final String name;
+    final Str name;
+    private Cache getCache;
+    private Cache setCache;
 
-    Attr(Expr obj, String name) {
+    Attr(Expr obj, Str name) {
       this.obj = obj;
       this.name = name;
     }
 
     Obj eval(Frame f) {
-      return obj.eval(f).getAttr(new Str(name));
+      Obj obj = this.obj.eval(f);
+      if (obj instanceof Instance) {
+        Instance instance = (Instance) obj;
+        Shape shape = instance.shape;
+        for (Cache c = getCache; c != null; c = c.next) {
+          if (c.shape == shape) {
+            if (c.slot != -1) {
+              return instance.slots[c.slot];
+            }
+            if (c.version == shape.type.version) {
+              return instance.bind(c.value);
+            }
+            break;
+          }
+        }
+        return getAttr(instance);
+      }
+      return obj.getAttr(name);
+    }
+
+    private Obj getAttr(Instance instance) {
+      if (getCache == Cache.MEGAMORPHIC) {
+        return instance.getAttr(name);
+      }
+      Shape shape = instance.shape;
+      int slot = shape.indexOf(name);
+      if (slot != -1) {
+        getCache = Cache.add(getCache, new Cache(shape, slot, null, 0, null));
+        return instance.slots[slot];
+      }
+      Obj value = shape.type.lookup(name);
+      if (value == null) {
+        return instance.getAttr(name);
+      }
+      getCache = Cache.add(getCache, new Cache(shape, -1, value, shape.type.version, null));
+      return instance.bind(value);
+    }
+
+    @Override
+    void set(Frame f, Obj value) {
+      Obj obj = this.obj.eval(f);
+      if (obj instanceof Instance) {
+        Instance instance = (Instance) obj;
+        if (setCache == Cache.MEGAMORPHIC) {
+          instance.setAttr(name, value);
+          return;
+        }
+        Shape shape = instance.shape;
+        Cache cache = setCache;
+        while (cache != null && cache.shape != shape) {
+          cache = cache.next;
+        }
+        if (cache == null) {
+          int slot = shape.indexOf(name);
+          Shape extended = slot == -1 ? shape.add(name) : null;
+          cache = new Cache(shape, slot == -1 ? shape.size() : slot, null, 0, extended);
+          setCache = Cache.add(setCache, cache);
+        }
+        if (cache.extended != null) {
+          instance.extend(cache.extended);
+        }
+        instance.slots[cache.slot] = value;
+        return;
+      }
+      obj.setAttr(name, value);
+    }
+
+    void resolve(Scope scope) {
+      obj.resolve(scope);
     }
 
     @Override
@@ -589,22 +1188,71 @@ abstract class Expr {
     }
   }
 
-  static class Power extends Expr {
-    final Expr left;
-    final Expr right;
+  /** An entry of the inline cache of <code>Attr</code>; the entries form an immutable list. */
+  static final class Cache {
+    /** Marks a cache which has seen too many shapes; it never matches. */
+    static final Cache MEGAMORPHIC = new Cache(null, -1, null, 0, null);
+
+    final Shape shape;
+    /** The slot of the attribute or <code>-1</code> for a class attribute. */
+    final int slot;
+    /** The class attribute. */
+    final Obj value;
+    /** The version of the class when <code>value</code> was looked up. */
+    final int version;
+    /** The shape of the instance after assigning a new attribute. */
+    final Shape extended;
+    Cache next;
+
+    Cache(Shape shape, int slot, Obj value, int version, Shape extended) {
+      this.shape = shape;
+      this.slot = slot;
+      this.value = value;
+      this.version = version;
+      this.extended = extended;
+    }
 
+    /** Returns the given cache with the entry added, replacing an outdated one for the same shape. */
+    static Cache add(Cache cache, Cache entry) {
+      if (cache == MEGAMORPHIC) {
+        return cache;
+      }
+      int size = 0;
+      for (Cache c = cache; c != null; c = c.next) {
+        if (c.shape != entry.shape) {
+          size++;
+        }
+      }
+      if (size == Attr.CACHE_SIZE) {
+        return MEGAMORPHIC;
+      }
+      Cache head = entry;
+      for (Cache c = cache; c != null; c = c.next) {
+        if (c.shape != entry.shape) {
+          Cache copy = new Cache(c.shape, c.slot, c.value, c.version, c.extended);
+          copy.next = head;
+          head = copy;
+        }
+      }
+      return head;
+    }
+  }
+
+  static class Power extends Binary {
     Power(Expr left, Expr right) {
-      this.left = left;
-      this.right = right;
+      super(left, right);
     }
 
-    Obj eval(Frame f) {
-      return left.eval(f).power(right.eval(f));
+    Obj op(Obj left, Obj right) {
+      return left.power(right);
     }
 
     @Override
-    public String toString() {
-      return "Power(" + left + ", " + right + ")";
+    void resolve(Scope scope) {
+      if (left != null) { // "**" in dict displays
+        left.resolve(scope);
+      }
+      right.resolve(scope);
     }
   }
 
@@ -619,6 +1267,14 @@ abstract class Expr {
       return value;
     }
 
+    @Override
+    long evalLong(Frame f) {
+      return unbox(f, value);
+    }
+
+    void resolve(Scope scope) {
+    }
+
     @Override
     public String toString() {
       return "Lit(" + value.repr() + ")";
@@ -626,14 +1282,75 @@ abstract class Expr {
   }
 
   static class Var extends Expr {
+    // kinds of variables
+    static final int NAME = 0; // looked up in the frame's locals, then globals
+    static final int LOCAL = 1;
+    static final int CELL = 2;
+    static final int GLOBAL = 3;
+
     final Str name;
+    int kind;
+    int slot;
+    /** Whether a <code>CELL</code> variable is bound by an enclosing function. */
+    boolean free;
 
-    Var(String name) {
-      this.name = new Str(name); // TODO parser needs to generate Str not String
+    Var(Str name) {
+      this.name = name;
+    }
+
+    /** Returns the error to raise if a local or free variable is used before it has a value. */
+    static PythonException unbound(Str name, boolean free) {
+      if (free) {
+        return Python.error(Python.NameError,
+            "free variable '" + name + "' referenced before assignment in enclosing scope");
+      }
+      return Python.error(Python.UnboundLocalError, "local variable '" + name + "' referenced before assignment");
     }
 
     Obj eval(Frame f) {
-      return f.get(name); // TODO parser needs to distinguish locals and globals
+      Obj value;
+      switch (kind) {
+        case LOCAL:
+          value = f.slots[slot];
+          break;
+        case CELL:
+          value = ((Cell) f.slots[slot]).value;
+          break;
+        case GLOBAL:
+          return f.getGlobal(name);
+        default:
+          return f.get(name);
+      }
+      if (value == null) {
+        throw unbound(name, free);
+      }
+      return value;
+    }
+
+    @Override
+    void set(Frame f, Obj value) {
+      switch (kind) {
+        case LOCAL:
+          f.slots[slot] = value;
+          break;
+        case CELL:
+          ((Cell) f.slots[slot]).value = value;
+          break;
+        case GLOBAL:
+          f.setGlobal(name, value);
+          break;
+        default:
+          f.set(name, value);
+      }
+    }
+
+    void resolve(Scope scope) {
+      scope.use(this);
+    }
+
+    @Override
+    void resolveTarget(Scope scope) {
+      scope.bind(this);
     }
 
     @Override
@@ -649,8 +1366,41 @@ abstract class Expr {
       this.exprList = exprList;
     }
 
+    /** Only reached outside of functions, as <code>resolve()</code> rejects all other uses. */
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException();
+      throw outsideFunction();
+    }
+
+    /** Returns the value to yield. */
+    Obj value(Frame f) {
+      if (f.resume == null) {
+        throw outsideFunction();
+      }
+      return exprList.eval(f);
+    }
+
+    private static PythonException outsideFunction() {
+      return Python.error(Python.SyntaxError, "'yield' outside function");
+    }
+
+    /**
+     * Yield expressions are only supported as statements and as right side of assignments, which
+     * call <code>resolveYield()</code> instead, so functions using them otherwise are rejected.
+     * Module and class bodies may still contain them, which is an error once they are reached.
+     */
+    void resolve(Scope scope) {
+      if (scope.type == Scope.FUNCTION) {
+        throw new ParserException("'yield' is only supported as a statement or the right side of an assignment");
+      }
+      exprList.resolve(scope);
+    }
+
+    /** Declares the names used by a supported yield, which makes a function a generator. */
+    void resolveYield(Scope scope) {
+      if (scope.type == Scope.FUNCTION) {
+        scope.generator = true;
+      }
+      exprList.resolve(scope);
     }
 
     @Override
@@ -659,8 +1409,103 @@ abstract class Expr {
     }
   }
 
-  /** Represents the iterator and condition part of a comprehension. */
+  /**
+   * Represents the iterator and condition part of a comprehension. Like in Python 3, a
+   * comprehension runs in a scope of its own, so its variables don't leak into the enclosing
+   * function, module or class; only the first iterable is evaluated in the enclosing scope.
+   */
   static abstract class Compr {
+    /** Declares the names of just this part to the comprehension's scope. */
+    abstract void resolve(Scope scope, boolean first);
+
+    /** Returns the part to the left of this one, which the parser nests inside. */
+    abstract Compr outer();
+
+    /** Returns all parts in source order, the outermost loop first. */
+    Compr[] flatten() {
+      List<Compr> parts = new ArrayList<Compr>();
+      for (Compr part = this; part != null; part = part.outer()) {
+        parts.add(0, part);
+      }
+      return parts.toArray(new Compr[parts.size()]);
+    }
+
+    /** Returns the new scope of the comprehension after declaring the names of all parts. */
+    Scope resolveScope(Scope enclosing) {
+      Compr[] parts = flatten();
+      ((ComprFor) parts[0]).items.resolve(enclosing);
+      Scope scope = enclosing.newScope(Scope.FUNCTION);
+      for (int i = 0; i < parts.length; i++) {
+        parts[i].resolve(scope, i == 0);
+      }
+      return scope;
+    }
+  }
+
+  /**
+   * Runs the "for" and "if" parts of a comprehension step by step. Each call to
+   * <code>next()</code> continues with the innermost loop, binds the loop variables in the
+   * comprehension's own frame and returns the value of the element expression. The first iterable
+   * is evaluated in the enclosing frame on creation like in Python. A <code>null</code> element
+   * expression just returns <code>None</code>, for dict comprehensions which evaluate their key
+   * and value themselves in <code>frame</code>.
+   */
+  static class ComprIterator extends Obj {
+    final Frame f;
+    private final Expr expr;
+    private final Compr[] parts;
+    private final Obj[] iters;
+    private boolean started;
+
+    ComprIterator(Frame f, Scope scope, Expr expr, Compr[] parts) {
+      this.expr = expr;
+      this.parts = parts;
+      this.iters = new Obj[parts.length];
+      iters[0] = ((ComprFor) parts[0]).items.eval(f).iter();
+      this.f = new Frame(null, f.globals, new Obj[scope.size]);
+      scope.enter(this.f, scope.closure(f));
+    }
+
+    @Override
+    public Obj iter() {
+      return this;
+    }
+
+    @Override
+    public Obj next() {
+      // i is the part to enter next or, if backtracking, the part whose loop to continue
+      int i = started ? parts.length - 1 : 0;
+      boolean backtrack = started;
+      started = true;
+      while (i >= 0) {
+        if (i == parts.length) {
+          return expr != null ? expr.eval(f) : Python.None;
+        }
+        Compr part = parts[i];
+        if (part instanceof ComprFor) {
+          ComprFor comprFor = (ComprFor) part;
+          if (iters[i] == null) {
+            iters[i] = comprFor.items.eval(f).iter();
+          }
+          Obj next = iters[i].next();
+          if (next == null) {
+            iters[i] = null;
+            i--;
+            backtrack = true;
+          } else {
+            comprFor.vars.set(f, next);
+            i++;
+            backtrack = false;
+          }
+        } else if (!backtrack && ((ComprIf) part).cond.eval(f).truish()) {
+          i++;
+        } else {
+          i--;
+          backtrack = true;
+        }
+      }
+      return null;
+    }
   }
 
   static class ComprFor extends Compr {
@@ -674,6 +1519,17 @@ abstract class Expr {
       this.compr = compr;
     }
 
+    void resolve(Scope scope, boolean first) {
+      vars.resolveTarget(scope);
+      if (!first) {
+        items.resolve(scope);
+      }
+    }
+
+    Compr outer() {
+      return compr;
+    }
+
     @Override
     public String toString() {
       return (compr == null ? "" : compr) + " for " + vars + " in " + items;
@@ -689,6 +1545,14 @@ abstract class Expr {
       this.compr = compr;
     }
 
+    void resolve(Scope scope, boolean first) {
+      cond.resolve(scope);
+    }
+
+    Compr outer() {
+      return compr;
+    }
+
     @Override
     public String toString() {
       return compr + " if " + cond;
@@ -699,6 +1563,7 @@ abstract class Expr {
     final Expr key;
     final Expr value;
     final Compr compr;
+    Scope scope;
 
     public DictCompr(Expr key, Expr value, Compr compr) {
       this.key = key;
@@ -707,7 +1572,18 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException(); // TODO create a generator type
+      Dict dict = new Dict();
+      ComprIterator iter = new ComprIterator(f, scope, null, compr.flatten());
+      while (iter.next() != null) {
+        dict.setItem(key.eval(iter.f), value.eval(iter.f));
+      }
+      return dict;
+    }
+
+    void resolve(Scope scope) {
+      this.scope = compr.resolveScope(scope);
+      key.resolve(this.scope);
+      value.resolve(this.scope);
     }
 
     @Override
@@ -734,6 +1610,10 @@ abstract class Expr {
       return dict;
     }
 
+    void resolve(Scope scope) {
+      exprList.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "DictConstr" + exprList;
@@ -743,6 +1623,7 @@ abstract class Expr {
   static class SetCompr extends Expr {
     final Expr expr;
     final Compr compr;
+    Scope scope;
 
     SetCompr(Expr expr, Compr compr) {
       this.expr = expr;
@@ -750,7 +1631,17 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException(); // TODO create a generator type
+      Python.Set set = new Python.Set();
+      Obj iter = new ComprIterator(f, scope, expr, compr.flatten());
+      for (Obj next = iter.next(); next != null; next = iter.next()) {
+        set.put(next);
+      }
+      return set;
+    }
+
+    void resolve(Scope scope) {
+      this.scope = compr.resolveScope(scope);
+      expr.resolve(this.scope);
     }
 
     @Override
@@ -767,7 +1658,15 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException(); // TODO create a set type
+      Python.Set set = new Python.Set();
+      for (Expr expr : exprList.exprs) {
+        set.put(expr.eval(f));
+      }
+      return set;
+    }
+
+    void resolve(Scope scope) {
+      exprList.resolve(scope);
     }
 
     @Override
@@ -779,6 +1678,7 @@ abstract class Expr {
   static class ListCompr extends Expr {
     final Expr expr;
     final Compr compr;
+    Scope scope;
 
     ListCompr(Expr expr, Compr compr) {
       this.expr = expr;
@@ -786,7 +1686,17 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException(); // TODO create a generator type
+      Python.List list = new Python.List();
+      Obj iter = new ComprIterator(f, scope, expr, compr.flatten());
+      for (Obj next = iter.next(); next != null; next = iter.next()) {
+        list.values.add(next);
+      }
+      return list;
+    }
+
+    void resolve(Scope scope) {
+      this.scope = compr.resolveScope(scope);
+      expr.resolve(this.scope);
     }
 
     @Override
@@ -806,6 +1716,20 @@ abstract class Expr {
       throw new UnsupportedOperationException(); // TODO create a set type
     }
 
+    @Override
+    void set(Frame f, Obj value) {
+      exprList.set(f, value);
+    }
+
+    void resolve(Scope scope) {
+      exprList.resolve(scope);
+    }
+
+    @Override
+    void resolveTarget(Scope scope) {
+      exprList.resolveTarget(scope);
+    }
+
     @Override
     public String toString() {
       return "ListConstr" + exprList;
@@ -815,6 +1739,7 @@ abstract class Expr {
   static class GeneratorCompr extends Expr {
     final Expr expr;
     final Compr compr;
+    Scope scope;
 
     GeneratorCompr(Expr expr, Compr compr) {
       this.expr = expr;
@@ -822,7 +1747,12 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException(); // TODO create a generator type
+      return new ComprIterator(f, scope, expr, compr.flatten());
+    }
+
+    void resolve(Scope scope) {
+      this.scope = compr.resolveScope(scope);
+      expr.resolve(this.scope);
     }
 
     @Override
@@ -839,7 +1769,21 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException();
+      return exprList.eval(f); // tuples are lists for now
+    }
+
+    @Override
+    void set(Frame f, Obj value) {
+      exprList.set(f, value);
+    }
+
+    void resolve(Scope scope) {
+      exprList.resolve(scope);
+    }
+
+    @Override
+    void resolveTarget(Scope scope) {
+      exprList.resolveTarget(scope);
     }
 
     @Override
@@ -860,7 +1804,22 @@ abstract class Expr {
     }
 
     Obj eval(Frame f) {
-      throw new UnsupportedOperationException(); // TODO create a slice type
+      return new Python.Slice(
+          start != null ? start.eval(f) : Python.None,
+          stop != null ? stop.eval(f) : Python.None,
+          step != null ? step.eval(f) : Python.None);
+    }
+
+    void resolve(Scope scope) {
+      if (start != null) {
+        start.resolve(scope);
+      }
+      if (stop != null) {
+        stop.resolve(scope);
+      }
+      if (step != null) {
+        step.resolve(scope);
+      }
     }
 
     @Override
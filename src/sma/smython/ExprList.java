@@ -34,7 +34,51 @@ class ExprList {
     return list;
   }
   
+  /** Assigns the given value to the single target or unpacks it into all targets. */
   void set(Frame f, Python.Obj value) {
-    throw new UnsupportedOperationException();
+    if (single && exprs.size() == 1) {
+      exprs.get(0).set(f, value);
+      return;
+    }
+    if (value instanceof Python.List) {
+      ArrayList<Python.Obj> values = ((Python.List) value).values;
+      if (values.size() != exprs.size()) {
+        throw unpackError(exprs.size(), values.size());
+      }
+      for (int i = 0; i < values.size(); i++) {
+        exprs.get(i).set(f, values.get(i));
+      }
+      return;
+    }
+    Python.Obj iter = value.iter();
+    for (int i = 0; i < exprs.size(); i++) {
+      Python.Obj next = iter.next();
+      if (next == null) {
+        throw unpackError(exprs.size(), i);
+      }
+      exprs.get(i).set(f, next);
+    }
+    if (iter.next() != null) {
+      throw unpackError(exprs.size(), exprs.size() + 1);
+    }
+  }
+
+  /** Returns the ValueError for unpacking the given number of values into n targets. */
+  static PythonException unpackError(int n, int count) {
+    return Python.error(Python.ValueError, count > n
+        ? "too many values to unpack (expected " + n + ")"
+        : "not enough values to unpack (expected " + n + ", got " + count + ")");
+  }
+
+  void resolve(Scope scope) {
+    for (Expr expr : exprs) {
+      expr.resolve(scope);
+    }
+  }
+
+  void resolveTarget(Scope scope) {
+    for (Expr expr : exprs) {
+      expr.resolveTarget(scope);
+    }
   }
 }
@@ -5,31 +5,64 @@ package sma.smython;
 
 import sma.smython.Python.*;
 
-/** Represents an activation record for a user defined function. */
+/**
+ * Represents an activation record for a user defined function. Local variables of functions are
+ * kept in slots as determined by the function's <code>Scope</code>; module and class bodies use
+ * the <code>locals</code> dictionary instead.
+ */
 public class Frame {
+  private static final Obj[] NO_SLOTS = new Obj[0];
+
   Dict locals;
   Dict globals;
+  final Obj[] slots;
   Obj result;
+  /** The last value returned as <code>BOXED</code> by <code>Expr.evalLong</code>. */
+  Obj boxed;
+  /** The name of the function or class whose body runs in this frame, null for modules. */
+  Str name;
+  /** The exception being handled by an "except" clause, re-raised by a bare "raise". */
+  PythonException exception;
+
+  // state of a generator's frame, see Generator
+  /** Saved positions of suites and compound statements, or <code>null</code> for normal frames. */
+  int[] resume;
+  /** Saved iterators of "for" loops and exceptions handled by "except" clauses. */
+  Object[] iterators;
+  /** Whether execution resumes at the last "yield". */
+  boolean resuming;
+  /** The value sent into the generator, which becomes the value of the "yield" expression. */
+  Obj sent;
 
   Frame(Dict locals, Dict globals) {
+    this(locals, globals, NO_SLOTS);
+  }
+
+  Frame(Dict locals, Dict globals, Obj[] slots) {
     this.locals = locals;
     this.globals = globals;
+    this.slots = slots;
   }
 
   Obj get(Str name) {
-    Obj value = locals.getItem(name);
-    if (value != null) {
-      return value;
+    if (locals != null) {
+      Obj value = locals.get(name);
+      if (value != null) {
+        return value;
+      }
     }
     return getGlobal(name);
   }
 
   Obj getGlobal(Str name) {
-    Obj value = globals.getItem(name);
-    if (value != null) {
-      return value;
+    Obj value = globals.get(name);
+    if (value == null) {
+      value = Python.builtins.get(name);
+      if (value == null) {
+        throw Python.error(Python.NameError, "name '" + name + "' is not defined");
+      }
     }
-    return null;  //TODO check builtins, raise exception
+    return value;
   }
 
   void set(Str name, Obj value) {
@@ -0,0 +1,748 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import sma.smython.Python.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates <code>Code</code> which has been run often enough into JVM bytecode, so that HotSpot
+ * can inline and register allocate it. Each instruction maps to a short sequence of JVM
+ * instructions calling the same <code>Obj</code> methods the interpreter uses and the JVM operand
+ * stack takes the place of the interpreter's stack. The result is loaded as a hidden class
+ * which is unloaded together with its <code>Body</code>. An exception handler per statement
+ * records where a <code>PythonException</code> left the code, so tracebacks know the line at no
+ * cost for code which doesn't raise.
+ * <p>
+ * Set the system property "smython.jit" to <code>false</code> to disable the JIT and
+ * "smython.jit.threshold" to the number of calls after which a function is compiled.
+ */
+class Jit {
+  static boolean enabled = !"false".equals(System.getProperty("smython.jit"));
+  static int threshold = Integer.getInteger("smython.jit.threshold", 1000);
+
+  private static final String OBJ = "sma/smython/Python$Obj";
+  private static final String OBJ_TYPE = "L" + OBJ + ";";
+  private static final String BINARY = "(" + OBJ_TYPE + ")" + OBJ_TYPE;
+  private static final String UNARY = "()" + OBJ_TYPE;
+  private static final String FRAME = "sma/smython/Frame";
+  private static final String FRAME_TYPE = "L" + FRAME + ";";
+  private static final String STR_TYPE = "Lsma/smython/Python$Str;";
+  private static final String CELL = "sma/smython/Python$Cell";
+  private static final String CODE = "sma/smython/Code";
+  private static final String BODY = "sma/smython/Jit$Body";
+  private static final String JIT = "sma/smython/Jit";
+  private static final String EXCEPTION = "sma/smython/PythonException";
+
+  // local variables of the generated method
+  private static final int THIS = 0;
+  private static final int FRAME_VAR = 1;
+  private static final int SLOTS = 2;
+  private static final int CONSTS = 3;
+  private static final int NAMES = 4;
+  private static final int DEFS = 5;
+  private static final int LAMBDAS = 6;
+  private static final int TEMP = 7;
+
+  // JVM opcodes
+  private static final int ACONST_NULL = 0x01;
+  private static final int ICONST_0 = 0x03;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC_W = 0x13;
+  private static final int ALOAD = 0x19;
+  private static final int AALOAD = 0x32;
+  private static final int ASTORE = 0x3a;
+  private static final int AASTORE = 0x53;
+  private static final int POP = 0x57;
+  private static final int POP2 = 0x58;
+  private static final int DUP = 0x59;
+  private static final int DUP_X1 = 0x5a;
+  private static final int DUP_X2 = 0x5b;
+  private static final int DUP2_X1 = 0x5d;
+  private static final int SWAP = 0x5f;
+  private static final int IXOR = 0x82;
+  private static final int IFEQ = 0x99;
+  private static final int IFNE = 0x9a;
+  private static final int IF_ACMPEQ = 0xa5;
+  private static final int GOTO = 0xa7;
+  private static final int ARETURN = 0xb0;
+  private static final int RETURN = 0xb1;
+  private static final int GETFIELD = 0xb4;
+  private static final int PUTFIELD = 0xb5;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKESTATIC = 0xb8;
+  private static final int ANEWARRAY = 0xbd;
+  private static final int ATHROW = 0xbf;
+  private static final int CHECKCAST = 0xc0;
+  private static final int IFNONNULL = 0xc7;
+
+  /** The superclass of all generated classes. */
+  static abstract class Body {
+    final Code code;
+
+    Body(Code code) {
+      this.code = code;
+    }
+
+    abstract Obj execute(Frame f);
+  }
+
+  /** Returns a JVM compiled version of the given code or <code>null</code> if that's not possible. */
+  static Body compile(Code code) {
+    try {
+      byte[] bytes = new Jit().translate(code);
+      Class<?> c = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+      return (Body) c.getDeclaredConstructor(Code.class).newInstance(code);
+    } catch (UnsupportedOperationException e) {
+      return null;
+    } catch (ReflectiveOperationException e) {
+      return null;
+    } catch (LinkageError e) {
+      return null;
+    }
+  }
+
+  // --------------------------------------------------------------------------------
+  // runtime support for the generated code
+
+  static Obj list(Obj[] values) {
+    Python.List list = new Python.List(values.length);
+    for (Obj value : values) {
+      list.values.add(value);
+    }
+    return list;
+  }
+
+  /** Returns the elements of the given sequence in reverse order. */
+  static Obj[] unpack(Obj value, int n) {
+    Obj[] stack = new Obj[Math.max(n, 1)];
+    stack[0] = value;
+    Code.unpack(stack, 1, n);
+    return stack;
+  }
+
+  /** Records where the exception left the code, see <code>Code.line()</code>, and returns it. */
+  static PythonException raised(PythonException e, Frame f, Code code, int pc) {
+    e.at(f, code, pc);
+    return e;
+  }
+
+  /** Returns the <code>AssertionError</code> to raise, with the given message unless it's null. */
+  static PythonException assertionFailed(Obj message) {
+    return message != null ? Python.error(Python.AssertionError, message) : Python.error(Python.AssertionError);
+  }
+
+  // --------------------------------------------------------------------------------
+
+  private final ConstantPool pool = new ConstantPool();
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  private final List<int[]> fixups = new ArrayList<int[]>();
+
+  private byte[] translate(Code code) {
+    int[] offsets = new int[code.code.length + 1];
+
+    // prologue: load the frame's slots and the code's tables into local variables
+    local(ALOAD, FRAME_VAR);
+    field(GETFIELD, FRAME, "slots", "[" + OBJ_TYPE);
+    local(ASTORE, SLOTS);
+    local(ALOAD, THIS);
+    field(GETFIELD, BODY, "code", "L" + CODE + ";");
+    local(ASTORE, TEMP);
+    String[][] tables = {
+        {"consts", "[" + OBJ_TYPE}, {"names", "[" + STR_TYPE},
+        {"defs", "[Lsma/smython/Stmt$FuncDef;"}, {"lambdas", "[Lsma/smython/Expr$Lambda;"}};
+    for (int i = 0; i < tables.length; i++) {
+      local(ALOAD, TEMP);
+      field(GETFIELD, CODE, tables[i][0], tables[i][1]);
+      local(ASTORE, CONSTS + i);
+    }
+
+    int pc = 0;
+    while (pc < code.code.length) {
+      offsets[pc] = bytes.size();
+      int opcode = code.code[pc++];
+      int operand = Code.hasOperand(opcode) ? code.code[pc++] : 0;
+      instruction(opcode, operand);
+    }
+    offsets[pc] = bytes.size();
+
+    // one exception handler per statement, recording its position like the interpreter does
+    ByteArrayOutputStream handlers = new ByteArrayOutputStream();
+    int[] lines = code.lines;
+    for (int i = 0; i < lines.length; i += 2) {
+      int start = offsets[lines[i]];
+      int end = i + 2 < lines.length ? offsets[lines[i + 2]] : offsets[pc];
+      if (start < end) {
+        int[] entry = {start, end, bytes.size(), pool.type(EXCEPTION)};
+        for (int value : entry) {
+          handlers.write(value >> 8);
+          handlers.write(value);
+        }
+        local(ALOAD, FRAME_VAR);
+        local(ALOAD, THIS);
+        field(GETFIELD, BODY, "code", "L" + CODE + ";");
+        push(lines[i] + 1);
+        method(INVOKESTATIC, JIT, "raised", "(L" + EXCEPTION + ";" + FRAME_TYPE + "L" + CODE + ";I)L" + EXCEPTION + ";");
+        op(ATHROW);
+      }
+    }
+
+    byte[] body = bytes.toByteArray();
+    for (int[] fixup : fixups) {
+      int offset = offsets[fixup[1]] - fixup[0];
+      body[fixup[0] + 1] = (byte) (offset >> 8);
+      body[fixup[0] + 2] = (byte) offset;
+    }
+    if (body.length > 65535) {
+      throw new UnsupportedOperationException();
+    }
+    return classFile(body, handlers.toByteArray(), code.maxStack + 4);
+  }
+
+  private void instruction(int opcode, int operand) {
+    switch (opcode) {
+      case Code.LOAD_CONST:
+        element(CONSTS, operand);
+        break;
+      case Code.LOAD_LOCAL:
+        element(SLOTS, operand);
+        checkBound(operand);
+        break;
+      case Code.STORE_LOCAL:
+        local(ASTORE, TEMP);
+        local(ALOAD, SLOTS);
+        push(operand);
+        local(ALOAD, TEMP);
+        op(AASTORE);
+        break;
+      case Code.LOAD_CELL:
+        element(SLOTS, operand);
+        type(CHECKCAST, CELL);
+        field(GETFIELD, CELL, "value", OBJ_TYPE);
+        checkBound(operand);
+        break;
+      case Code.STORE_CELL:
+        local(ASTORE, TEMP);
+        element(SLOTS, operand);
+        type(CHECKCAST, CELL);
+        local(ALOAD, TEMP);
+        field(PUTFIELD, CELL, "value", OBJ_TYPE);
+        break;
+      case Code.LOAD_GLOBAL:
+        local(ALOAD, FRAME_VAR);
+        element(NAMES, operand);
+        method(INVOKEVIRTUAL, FRAME, "getGlobal", "(" + STR_TYPE + ")" + OBJ_TYPE);
+        break;
+      case Code.STORE_GLOBAL:
+        storeName(operand, "setGlobal");
+        break;
+      case Code.LOAD_NAME:
+        local(ALOAD, FRAME_VAR);
+        element(NAMES, operand);
+        method(INVOKEVIRTUAL, FRAME, "get", "(" + STR_TYPE + ")" + OBJ_TYPE);
+        break;
+      case Code.STORE_NAME:
+        storeName(operand, "set");
+        break;
+      case Code.POP:
+        op(POP);
+        break;
+      case Code.DUP:
+        op(DUP);
+        break;
+      case Code.ROT2:
+        op(SWAP);
+        break;
+      case Code.ROT3:
+        op(DUP_X2);
+        op(POP);
+        break;
+      case Code.ADD:
+        objMethod("add", BINARY);
+        break;
+      case Code.SUB:
+        objMethod("sub", BINARY);
+        break;
+      case Code.MUL:
+        objMethod("mul", BINARY);
+        break;
+      case Code.DIV:
+        objMethod("div", BINARY);
+        break;
+      case Code.INT_DIV:
+        objMethod("intDiv", BINARY);
+        break;
+      case Code.MOD:
+        objMethod("mod", BINARY);
+        break;
+      case Code.POWER:
+        objMethod("power", BINARY);
+        break;
+      case Code.LSHIFT:
+        objMethod("lshift", BINARY);
+        break;
+      case Code.RSHIFT:
+        objMethod("rshift", BINARY);
+        break;
+      case Code.BIT_AND:
+        objMethod("and", BINARY);
+        break;
+      case Code.BIT_OR:
+        objMethod("or", BINARY);
+        break;
+      case Code.BIT_XOR:
+        objMethod("xor", BINARY);
+        break;
+      case Code.NEG:
+        objMethod("neg", UNARY);
+        break;
+      case Code.POS:
+        objMethod("pos", UNARY);
+        break;
+      case Code.INVERT:
+        objMethod("invert", UNARY);
+        break;
+      case Code.NOT:
+        objMethod("truish", "()Z");
+        negate();
+        bool();
+        break;
+      case Code.LT:
+        objMethod("lt", BINARY);
+        break;
+      case Code.GT:
+        objMethod("gt", BINARY);
+        break;
+      case Code.LE:
+        objMethod("le", BINARY);
+        break;
+      case Code.GE:
+        objMethod("ge", BINARY);
+        break;
+      case Code.EQ:
+        objMethod("eq", BINARY);
+        break;
+      case Code.NE:
+        objMethod("ne", BINARY);
+        break;
+      case Code.IN:
+        op(SWAP);
+        objMethod("contains", "(" + OBJ_TYPE + ")Z");
+        bool();
+        break;
+      case Code.NOT_IN:
+        op(SWAP);
+        objMethod("contains", "(" + OBJ_TYPE + ")Z");
+        negate();
+        bool();
+        break;
+      case Code.IS:
+      case Code.IS_NOT: {
+        branch(IF_ACMPEQ, 7);
+        push(opcode == Code.IS ? 0 : 1);
+        branch(GOTO, 4);
+        push(opcode == Code.IS ? 1 : 0);
+        bool();
+        break;
+      }
+      case Code.JUMP:
+        jump(GOTO, operand);
+        break;
+      case Code.JUMP_IF_FALSE:
+        objMethod("truish", "()Z");
+        jump(IFEQ, operand);
+        break;
+      case Code.JUMP_IF_TRUE:
+        objMethod("truish", "()Z");
+        jump(IFNE, operand);
+        break;
+      case Code.JUMP_IF_FALSE_OR_POP:
+        op(DUP);
+        objMethod("truish", "()Z");
+        jump(IFEQ, operand);
+        op(POP);
+        break;
+      case Code.JUMP_IF_TRUE_OR_POP:
+        op(DUP);
+        objMethod("truish", "()Z");
+        jump(IFNE, operand);
+        op(POP);
+        break;
+      case Code.CALL:
+        if (operand <= 3) {
+          // move the frame below the arguments, keeping all but the first one in temporaries
+          StringBuilder descriptor = new StringBuilder("(" + FRAME_TYPE);
+          for (int i = operand - 1; i > 0; i--) {
+            local(ASTORE, TEMP + i - 1);
+          }
+          local(ALOAD, FRAME_VAR);
+          if (operand > 0) {
+            op(SWAP);
+          }
+          for (int i = 0; i < operand; i++) {
+            if (i > 0) {
+              local(ALOAD, TEMP + i - 1);
+            }
+            descriptor.append(OBJ_TYPE);
+          }
+          objMethod("call" + operand, descriptor + ")" + OBJ_TYPE);
+          break;
+        }
+        array(operand);
+        local(ALOAD, FRAME_VAR);
+        op(SWAP);
+        objMethod("call", "(" + FRAME_TYPE + "[" + OBJ_TYPE + ")" + OBJ_TYPE);
+        break;
+      case Code.GET_ATTR:
+        element(NAMES, operand);
+        objMethod("getAttr", "(" + STR_TYPE + ")" + OBJ_TYPE);
+        break;
+      case Code.SET_ATTR:
+        op(SWAP);
+        element(NAMES, operand);
+        op(SWAP);
+        objMethod("setAttr", "(" + STR_TYPE + OBJ_TYPE + ")" + OBJ_TYPE);
+        op(POP);
+        break;
+      case Code.GET_ITEM:
+        objMethod("getItem", BINARY);
+        break;
+      case Code.SET_ITEM:
+        op(DUP2_X1);
+        op(POP2);
+        objMethod("setItem", "(" + OBJ_TYPE + OBJ_TYPE + ")V");
+        break;
+      case Code.BUILD_LIST:
+        array(operand);
+        method(INVOKESTATIC, JIT, "list", "([" + OBJ_TYPE + ")" + OBJ_TYPE);
+        break;
+      case Code.UNPACK:
+        push(operand);
+        method(INVOKESTATIC, JIT, "unpack", "(" + OBJ_TYPE + "I)[" + OBJ_TYPE);
+        for (int i = 0; i < operand; i++) {
+          op(DUP);
+          push(i);
+          op(AALOAD);
+          op(SWAP);
+        }
+        op(POP);
+        break;
+      case Code.GET_ITER:
+        objMethod("iter", UNARY);
+        break;
+      case Code.FOR_ITER:
+        op(DUP);
+        objMethod("next", UNARY);
+        op(DUP);
+        branch(IFNONNULL, 8);
+        op(POP);
+        op(POP);
+        jump(GOTO, operand);
+        break;
+      case Code.MAKE_FUNCTION:
+        element(DEFS, operand);
+        local(ALOAD, FRAME_VAR);
+        method(INVOKEVIRTUAL, "sma/smython/Stmt$FuncDef", "define", "(" + FRAME_TYPE + ")" + OBJ_TYPE);
+        break;
+      case Code.MAKE_LAMBDA:
+        element(LAMBDAS, operand);
+        local(ALOAD, FRAME_VAR);
+        method(INVOKEVIRTUAL, "sma/smython/Expr$Lambda", "eval", "(" + FRAME_TYPE + ")" + OBJ_TYPE);
+        break;
+      case Code.ASSERT_FAIL:
+        if (operand == 0) {
+          op(ACONST_NULL);
+        }
+        method(INVOKESTATIC, JIT, "assertionFailed", "(" + OBJ_TYPE + ")L" + EXCEPTION + ";");
+        op(ATHROW);
+        break;
+      case Code.RETURN:
+        op(ARETURN);
+        break;
+      default:
+        throw new UnsupportedOperationException("opcode " + opcode);
+    }
+  }
+
+  // --------------------------------------------------------------------------------
+  // instruction helpers
+
+  private void op(int opcode) {
+    bytes.write(opcode);
+  }
+
+  private void u2(int value) {
+    bytes.write(value >> 8);
+    bytes.write(value);
+  }
+
+  private void push(int value) {
+    if (value >= -1 && value <= 5) {
+      op(ICONST_0 + value);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      op(BIPUSH);
+      op(value & 0xff);
+    } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      op(SIPUSH);
+      u2(value);
+    } else {
+      op(LDC_W);
+      u2(pool.integer(value));
+    }
+  }
+
+  /** Returns the length of the instruction appended by <code>push()</code>. */
+  private static int pushLength(int value) {
+    return value >= -1 && value <= 5 ? 1 : value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ? 2 : 3;
+  }
+
+  private void local(int opcode, int index) {
+    op(opcode);
+    op(index);
+  }
+
+  /** Pushes the element of the array in the given local variable. */
+  private void element(int array, int index) {
+    local(ALOAD, array);
+    push(index);
+    op(AALOAD);
+  }
+
+  /** Raises the scope's error for the given slot if the value on top of the stack is null. */
+  private void checkBound(int slot) {
+    op(DUP);
+    branch(IFNONNULL, 15 + pushLength(slot));
+    local(ALOAD, THIS);
+    field(GETFIELD, BODY, "code", "L" + CODE + ";");
+    field(GETFIELD, CODE, "scope", "Lsma/smython/Scope;");
+    push(slot);
+    method(INVOKEVIRTUAL, "sma/smython/Scope", "unbound", "(I)L" + EXCEPTION + ";");
+    op(ATHROW);
+  }
+
+  private void storeName(int index, String name) {
+    local(ASTORE, TEMP);
+    local(ALOAD, FRAME_VAR);
+    element(NAMES, index);
+    local(ALOAD, TEMP);
+    method(INVOKEVIRTUAL, FRAME, name, "(" + STR_TYPE + OBJ_TYPE + ")V");
+  }
+
+  /** Replaces the given number of objects on top of the stack with an array containing them. */
+  private void array(int n) {
+    push(n);
+    type(ANEWARRAY, OBJ);
+    for (int i = n - 1; i >= 0; i--) {
+      op(DUP_X1);
+      op(SWAP);
+      push(i);
+      op(SWAP);
+      op(AASTORE);
+    }
+  }
+
+  private void negate() {
+    push(1);
+    op(IXOR);
+  }
+
+  private void bool() {
+    method(INVOKESTATIC, "sma/smython/Python", "bool", "(Z)" + OBJ_TYPE);
+  }
+
+  private void objMethod(String name, String descriptor) {
+    method(INVOKEVIRTUAL, OBJ, name, descriptor);
+  }
+
+  private void method(int opcode, String owner, String name, String descriptor) {
+    op(opcode);
+    u2(pool.member(10, owner, name, descriptor));
+  }
+
+  private void field(int opcode, String owner, String name, String descriptor) {
+    op(opcode);
+    u2(pool.member(9, owner, name, descriptor));
+  }
+
+  private void type(int opcode, String name) {
+    op(opcode);
+    u2(pool.type(name));
+  }
+
+  /** Appends a branch with the given offset relative to the branch instruction. */
+  private void branch(int opcode, int offset) {
+    op(opcode);
+    u2(offset);
+  }
+
+  /** Appends a branch to the translation of the given interpreter instruction. */
+  private void jump(int opcode, int target) {
+    fixups.add(new int[]{bytes.size(), target});
+    branch(opcode, 0);
+  }
+
+  // --------------------------------------------------------------------------------
+
+  private byte[] classFile(byte[] body, byte[] handlers, int maxStack) {
+    String name = "sma/smython/Jit$Compiled";
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      int thisClass = pool.type(name);
+      int superClass = pool.type(BODY);
+
+      // constructor calling Body(Code)
+      ByteArrayOutputStream init = new ByteArrayOutputStream();
+      init.write(new byte[]{0x2a, 0x2b, (byte) INVOKESPECIAL});
+      int superInit = pool.member(10, BODY, "<init>", "(L" + CODE + ";)V");
+      init.write(superInit >> 8);
+      init.write(superInit);
+      init.write(RETURN);
+
+      int[] methods = {
+          pool.utf8("<init>"), pool.utf8("(L" + CODE + ";)V"),
+          pool.utf8("execute"), pool.utf8("(" + FRAME_TYPE + ")" + OBJ_TYPE)};
+      int codeAttribute = pool.utf8("Code");
+
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(50); // Java 6 class files may omit stack map frames
+      pool.write(out);
+      out.writeShort(0x0031); // public final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+      out.writeShort(2);
+      method(out, methods[0], methods[1], codeAttribute, init.toByteArray(), new byte[0], 2, 2);
+      method(out, methods[2], methods[3], codeAttribute, body, handlers, maxStack, TEMP + 2);
+      out.writeShort(0); // attributes
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Writes a method; <code>handlers</code> holds the exception table, 8 bytes per entry. */
+  private static void method(DataOutputStream out, int name, int descriptor, int codeAttribute, byte[] code,
+                             byte[] handlers, int maxStack, int maxLocals) throws IOException {
+    out.writeShort(0x0001); // public
+    out.writeShort(name);
+    out.writeShort(descriptor);
+    out.writeShort(1);
+    out.writeShort(codeAttribute);
+    out.writeInt(12 + code.length + handlers.length);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(code.length);
+    out.write(code);
+    out.writeShort(handlers.length / 8);
+    out.write(handlers);
+    out.writeShort(0); // attributes
+  }
+
+  /** Collects the constants of the class file, sharing equal entries. */
+  private static class ConstantPool {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final Map<String, Integer> indices = new HashMap<String, Integer>();
+    private int count = 1;
+
+    int utf8(String value) {
+      Integer index = indices.get("U" + value);
+      if (index == null) {
+        index = add("U" + value);
+        write(1);
+        try {
+          out.writeUTF(value);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return index;
+    }
+
+    int integer(int value) {
+      Integer index = indices.get("I" + value);
+      if (index == null) {
+        index = add("I" + value);
+        write(3);
+        write(value >> 24);
+        write(value >> 16);
+        write(value >> 8);
+        write(value);
+      }
+      return index;
+    }
+
+    int type(String name) {
+      Integer index = indices.get("C" + name);
+      if (index == null) {
+        int utf8 = utf8(name);
+        index = add("C" + name);
+        write(7);
+        write2(utf8);
+      }
+      return index;
+    }
+
+    /** Returns the index of a field (tag 9) or method (tag 10) reference. */
+    int member(int tag, String owner, String name, String descriptor) {
+      String key = tag + owner + "." + name + descriptor;
+      Integer index = indices.get(key);
+      if (index == null) {
+        int type = type(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        index = add(key);
+        write(tag);
+        write2(type);
+        write2(nameAndType);
+      }
+      return index;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+      String key = "N" + name + descriptor;
+      Integer index = indices.get(key);
+      if (index == null) {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        index = add(key);
+        write(12);
+        write2(n);
+        write2(d);
+      }
+      return index;
+    }
+
+    private int add(String key) {
+      indices.put(key, count);
+      return count++;
+    }
+
+    private void write(int b) {
+      bytes.write(b);
+    }
+
+    private void write2(int value) {
+      write(value >> 8);
+      write(value);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeShort(count);
+      out.write(bytes.toByteArray());
+    }
+  }
+}
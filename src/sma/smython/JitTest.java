@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class JitTest {
+  private boolean enabled;
+  private int threshold;
+
+  @Before
+  public void enable() {
+    enabled = Jit.enabled;
+    threshold = Jit.threshold;
+    Jit.enabled = true;
+    Jit.threshold = 1;
+  }
+
+  @After
+  public void restore() {
+    Jit.enabled = enabled;
+    Jit.threshold = threshold;
+  }
+
+  private Python.Obj exec(String source) {
+    Parser parser = new Parser(new Scanner(source));
+    Suite suite = parser.parseFileInput();
+    Python.Dict globals = new Python.Dict();
+    Frame frame = new Frame(globals, globals);
+    return suite.eval(frame);
+  }
+
+  private static Code compile(String source) {
+    Suite suite = new Parser(new Scanner(source)).parseFileInput();
+    Stmt.FuncDef def = (Stmt.FuncDef) suite.stmts.get(0);
+    return Compiler.compile(def.scope, def.body);
+  }
+
+  @Test
+  public void hiddenClass() {
+    Jit.Body body = Jit.compile(compile("def f(a):\n  return a + 1\n"));
+    assertNotNull(body);
+    assertTrue(body.getClass().isHidden());
+    Frame frame = new Frame(null, new Python.Dict(), new Python.Obj[]{Python.Int(41)});
+    assertEquals(Python.Int(42), body.execute(frame));
+  }
+
+  @Test
+  public void hotFunctionsAreCompiled() {
+    Jit.threshold = 3;
+    Suite suite = new Parser(new Scanner("def f(a): return a * 2\nf(1)\nf(2)\n")).parseFileInput();
+    Python.Dict globals = new Python.Dict();
+    Frame frame = new Frame(globals, globals);
+    suite.execute(frame);
+    Stmt.FuncDef def = (Stmt.FuncDef) suite.stmts.get(0);
+    assertNull(def.scope.code);
+    assertEquals(Python.Int(6), new Parser(new Scanner("f(3)")).parseEvalInput().eval(frame).getItem(Python.Int(0)));
+    assertNull(def.scope.code.jit);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Python.Int(8), new Parser(new Scanner("f(4)")).parseEvalInput().eval(frame).getItem(Python.Int(0)));
+    }
+    assertNotNull(def.scope.code.jit);
+  }
+
+  @Test
+  public void disabled() {
+    Jit.enabled = false;
+    Suite suite = new Parser(new Scanner("def f(a): return a\nf(1)\nf(2)\n")).parseFileInput();
+    Python.Dict globals = new Python.Dict();
+    suite.execute(new Frame(globals, globals));
+    assertNull(((Stmt.FuncDef) suite.stmts.get(0)).scope.code);
+  }
+
+  @Test
+  public void assertionsRaisePythonExceptions() {
+    assertEquals(Python.Str("negative"), exec("" +
+        "def f(a):\n" +
+        "  assert a >= 0, 'negative'\n" +
+        "  return a\n" +
+        "f(1)\n" +
+        "try: f(-1)\n" +
+        "except AssertionError as e: x = e.args[0]\n" +
+        "x\n"));
+  }
+
+  @Test
+  public void unsupportedFunctionsAreInterpreted() {
+    assertEquals(Python.Int(2), exec("def f(a):\n  del a\n  return 2\nf(1)\n"));
+  }
+
+  @Test
+  public void functions() {
+    assertEquals(Python.None, exec("def f(): return\nf()\n"));
+    assertEquals(new Python.List(Python.Int(3), Python.Int(4)), exec("def f(): return 3, 4\nf()\n"));
+    assertEquals(Python.Int(42), exec("def f(a=42): return a\nf()\n"));
+    assertEquals(Python.Int(5), exec("x = 1\ndef f():\n  global x\n  x = 5\nf()\nx\n"));
+    assertEquals(Python.Int(2), exec("def f(x):\n  [a, (b, c)] = x\n  return b\ny = 2, 3\nx = 1, y\nf(x)\n"));
+    assertEquals(Python.Int(55), exec("" +
+        "def fib(n):\n" +
+        "  if n < 2: return n\n" +
+        "  return fib(n - 1) + fib(n - 2)\n" +
+        "fib(10)\n"));
+  }
+
+  @Test
+  public void callsWithAnyNumberOfArguments() {
+    assertEquals(Python.Int(3211), exec("" +
+        "def f0(): return 1\n" +
+        "def f1(a): return a\n" +
+        "def f2(a, b): return a + b\n" +
+        "def f3(a, b, c=0): return a + b + c\n" +
+        "def f4(a, b, c, d): return a + b + c + d\n" +
+        "def g(): return f0() + f1(1) * 10 + f2(1, 1) * 100 + f3(1, 1, 1) * 1000 + f4(0, 0, 0, 0) + f3(0, 0)\n" +
+        "g()\n"));
+  }
+
+  @Test
+  public void unboundLocalVariables() {
+    String source = "" +
+        "def f(a):\n" +
+        "  if a: x = 1\n" +
+        "  return x\n" +
+        "def g(a):\n" +
+        "  def h(): return x\n" +
+        "  if a: x = 1\n" +
+        "  return h()\n" +
+        "n = f(1) + g(1)\n" +
+        "try: f(0)\n" +
+        "except UnboundLocalError: n += 10\n" +
+        "try: g(0)\n" +
+        "except NameError: n += 100\n" +
+        "n\n";
+    assertNotNull(compile(source));
+    assertEquals(Python.Int(112), exec(source));
+  }
+
+  @Test
+  public void closures() {
+    assertEquals(Python.Int(7), exec("def make(n):\n  def add(x): return x + n\n  return add\nmake(3)(4)\n"));
+    assertEquals(Python.Int(5), exec("def make(n): return lambda x: x + n\nmake(2)(3)\n"));
+    assertEquals(Python.Int(2), exec("" +
+        "def counter():\n" +
+        "  c = 0\n" +
+        "  def inc():\n" +
+        "    nonlocal c\n" +
+        "    c += 1\n" +
+        "    return c\n" +
+        "  inc()\n" +
+        "  return inc()\n" +
+        "counter()\n"));
+  }
+
+  @Test
+  public void expressions() {
+    assertEquals(Python.Int(12), exec("" +
+        "def f():\n" +
+        "  i = s = 0\n" +
+        "  while True:\n" +
+        "    i += 1\n" +
+        "    if i % 2: continue\n" +
+        "    if i > 6: break\n" +
+        "    s += i\n" +
+        "  else:\n" +
+        "    s = -1\n" +
+        "  return s\n" +
+        "f()\n"));
+    assertEquals(Python.Int(952), exec("" +
+        "def f(s):\n" +
+        "  n = 0\n" +
+        "  for c in s:\n" +
+        "    for i in range(3, 0, -1):\n" +
+        "      if c == \"b\": continue\n" +
+        "      n = n * 3 + i\n" +
+        "  return n\n" +
+        "f(\"abc\")\n"));
+    assertEquals(Python.True, exec("def f(a): return 1 < a <= 3 != 4\nf(2)\n"));
+    assertEquals(Python.False, exec("def f(a): return 1 < a <= 3 != 4\nf(5)\n"));
+    assertEquals(Python.Int(3), exec("def f(a): return a and 2 or 3\nf(0)\n"));
+    assertEquals(Python.Int(-3), exec("def f(a): return -a if not a is None else 0\nf(3)\n"));
+    assertEquals(Python.True, exec("def f(a): return a is not None and not a is None\nf(3)\n"));
+    assertEquals(Python.Int(7), exec("def f(a): return a | 1 << 2\nf(3)\n"));
+  }
+}
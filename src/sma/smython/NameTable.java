@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import sma.smython.Python.Str;
+
+/**
+ * Maps identifiers, given as slices of the scanner's char buffer, to their token kind and a shared
+ * <code>Str</code> instance. A name is only materialized as a <code>String</code> the first time
+ * it is seen, so that every further occurrence of the same name neither allocates nor copies.
+ * Keywords are preloaded. Each scanner owns its table, so it needs no synchronization; the names
+ * themselves are interned, see <code>Python.intern()</code>.
+ */
+class NameTable {
+  private Str[] names = new Str[512];
+  private int[] kinds = new int[512];
+  private int[] hashes = new int[512];
+  private int size;
+
+  NameTable() {
+    for (int kind = Token.AND; kind <= Token.FALSE; kind++) {
+      String keyword = Token.toString(kind);
+      add(Python.intern(keyword), kind, keyword.hashCode());
+    }
+  }
+
+  /**
+   * Returns the index of the given name, adding it if necessary. The <code>hash</code> must be
+   * computed like <code>String.hashCode()</code>.
+   */
+  int lookup(char[] buffer, int offset, int length, int hash) {
+    int mask = names.length - 1;
+    int i = hash & mask;
+    Str name = names[i];
+    while (name != null) {
+      if (hashes[i] == hash && matches(name.value, buffer, offset, length)) {
+        return i;
+      }
+      i = (i + 1) & mask;
+      name = names[i];
+    }
+    if ((size + 1) * 2 > names.length) {
+      grow();
+      return add(Python.intern(new String(buffer, offset, length)), Token.NAME, hash);
+    }
+    names[i] = Python.intern(new String(buffer, offset, length));
+    kinds[i] = Token.NAME;
+    hashes[i] = hash;
+    size += 1;
+    return i;
+  }
+
+  /** Returns the token kind of the name at the given index, either NAME or a keyword. */
+  int kind(int index) {
+    return kinds[index];
+  }
+
+  /** Returns the shared name at the given index. */
+  Str name(int index) {
+    return names[index];
+  }
+
+  private static boolean matches(String name, char[] buffer, int offset, int length) {
+    if (name.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(i) != buffer[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int add(Str name, int kind, int hash) {
+    int mask = names.length - 1;
+    int i = hash & mask;
+    while (names[i] != null) {
+      i = (i + 1) & mask;
+    }
+    names[i] = name;
+    kinds[i] = kind;
+    hashes[i] = hash;
+    size += 1;
+    return i;
+  }
+
+  private void grow() {
+    Str[] oldNames = names;
+    int[] oldKinds = kinds;
+    int[] oldHashes = hashes;
+    names = new Str[oldNames.length * 2];
+    kinds = new int[oldNames.length * 2];
+    hashes = new int[oldNames.length * 2];
+    size = 0;
+    for (int i = 0; i < oldNames.length; i++) {
+      if (oldNames[i] != null) {
+        add(oldNames[i], oldKinds[i], oldHashes[i]);
+      }
+    }
+  }
+}
@@ -5,38 +5,207 @@ package sma.smython;
 
 import sma.smython.Python.*;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
-// TODO support bare "*"
-
-/** Presents the (optionall typed) arguments list of functions and lambda expressions. */
+/**
+ * Presents the (optionall typed) arguments list of functions and lambda expressions. Parameters
+ * after "*" or "*args" are keyword-only; a bare "*" is a <code>restPositional</code> without name.
+ * <p>
+ * Calls with positional arguments only bind them directly if there are no rest parameters.
+ * Otherwise, a {@link Plan} computed once for the call site's number of positional arguments and
+ * keyword names tells where each argument goes.
+ */
 class Params {
+  private static final Obj[] NO_DEFAULTS = new Obj[0];
+
   final List<Param> params = new ArrayList<Param>();
+  /** Number of parameters which may be passed by position. */
+  int positionals;
+  /** Number of leading parameters without default, which must be passed if there are no rest parameters. */
+  private int required;
 
   Param restPositional;
   Param restKeyword;
   Expr returnType;
+  /** The last plan for positional arguments only, used by calls without a call site cache. */
+  private Plan positionalPlan;
 
   void add(Param param) {
     params.add(param);
+    if (restPositional == null) {
+      positionals++;
+      if (param.init == null) {
+        required = params.size();
+      }
+    }
+  }
+
+  /** Returns whether calls can bind positional arguments without a plan. */
+  boolean simple() {
+    return restPositional == null && restKeyword == null;
   }
 
   void setReturnType(Expr returnType) {
     this.returnType = returnType;
   }
 
-  Dict bind(Frame f, Obj[] args) {
-    Dict locals = new Dict();
-    for (int i = 0; i < args.length; i++) {
-      Param param = params.get(i);
-      locals.setItem(param.name, args[i]);
+  /**
+   * Evaluates the defaults in the scope defining the function; the result has a value for each
+   * parameter with a default and <code>null</code> for the others.
+   */
+  Obj[] defaults(Frame f) {
+    Obj[] defaults = NO_DEFAULTS;
+    for (int i = 0; i < params.size(); i++) {
+      Expr init = params.get(i).init;
+      if (init != null) {
+        if (defaults == NO_DEFAULTS) {
+          defaults = new Obj[params.size()];
+        }
+        defaults[i] = init.eval(f);
+      }
+    }
+    return defaults;
+  }
+
+  /**
+   * Binds the parameters of a new frame which follow the given number of positional arguments to
+   * the given defaults; the caller stores the arguments into the first slots.
+   */
+  void bind(Obj[] defaults, Frame frame, int count, Str name) {
+    int size = params.size();
+    if (count > size) {
+      throw Python.error(Python.TypeError,
+          name + "() takes " + size + " positional arguments but " + count + " were given");
+    }
+    if (count < required) {
+      throw Python.error(Python.TypeError, name + "() missing required argument '" + params.get(count).name + "'");
+    }
+    if (count < size) {
+      System.arraycopy(defaults, count, frame.slots, count, size - count);
+    }
+  }
+
+  /**
+   * Binds the given arguments, the positional ones followed by the values of the keywords of the
+   * given plan, to the parameter slots of a new frame.
+   */
+  void bind(Obj[] defaults, Frame frame, Plan plan, Obj[] args) {
+    Obj[] slots = frame.slots;
+    int count = plan.count;
+    int n = Math.min(count, positionals);
+    System.arraycopy(args, 0, slots, 0, n);
+    int slot = params.size();
+    if (restPositional != null && restPositional.name != null) {
+      Python.List rest = new Python.List(count - n);
+      for (int i = n; i < count; i++) {
+        rest.values.add(args[i]);
+      }
+      slots[slot++] = rest;
+    }
+    Dict restKeywords = null;
+    if (restKeyword != null) {
+      slots[slot] = restKeywords = new Dict();
+    }
+    int[] targets = plan.targets;
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i] != -1) {
+        slots[targets[i]] = args[count + i];
+      } else {
+        restKeywords.setItem(plan.names[i], args[count + i]);
+      }
+    }
+    for (int i : plan.defaults) {
+      slots[i] = defaults[i];
+    }
+  }
+
+  /**
+   * Returns the plan to bind the given number of positional arguments and the given keywords to
+   * these parameters, raising a <code>TypeError</code> if they don't fit.
+   */
+  Plan plan(Str function, int count, Str[] names) {
+    if (names.length == 0 && positionalPlan != null && positionalPlan.count == count) {
+      return positionalPlan;
+    }
+    if (count > positionals && (restPositional == null || restPositional.name == null)) {
+      throw Python.error(Python.TypeError,
+          function + "() takes " + positionals + " positional arguments but " + count + " were given");
+    }
+    int size = params.size();
+    boolean[] bound = new boolean[size];
+    Arrays.fill(bound, 0, Math.min(count, positionals), true);
+    int[] targets = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      int index = indexOf(names[i]);
+      if (index == -1 && restKeyword == null) {
+        throw Python.error(Python.TypeError,
+            function + "() got an unexpected keyword argument '" + names[i] + "'");
+      }
+      if (index != -1 && bound[index]) {
+        throw Python.error(Python.TypeError,
+            function + "() got multiple values for argument '" + names[i] + "'");
+      }
+      if (index != -1) {
+        bound[index] = true;
+      }
+      targets[i] = index;
+    }
+    int[] defaults = new int[size];
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      if (!bound[i]) {
+        Param param = params.get(i);
+        if (param.init == null) {
+          throw Python.error(Python.TypeError, function + "() missing required argument '" + param.name + "'");
+        }
+        defaults[length++] = i;
+      }
+    }
+    Plan plan = new Plan(this, count, names, targets, Arrays.copyOf(defaults, length));
+    if (names.length == 0) {
+      positionalPlan = plan;
+    }
+    return plan;
+  }
+
+  private int indexOf(Str name) {
+    for (int i = 0; i < params.size(); i++) {
+      if (params.get(i).name.equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Resolves the names of the defaults and annotations, which are evaluated in the enclosing scope. */
+  void resolve(Scope scope) {
+    for (Param param : params) {
+      param.resolve(scope);
+    }
+    if (restPositional != null) {
+      restPositional.resolve(scope);
+    }
+    if (restKeyword != null) {
+      restKeyword.resolve(scope);
+    }
+    if (returnType != null) {
+      returnType.resolve(scope);
+    }
+  }
+
+  /** Declares the parameters in the function's own scope; they get the first slots, in order. */
+  void declare(Scope scope) {
+    for (Param param : params) {
+      scope.bind(param.name.value);
+    }
+    if (restPositional != null && restPositional.name != null) {
+      scope.bind(restPositional.name.value);
     }
-    for (int i = args.length; i < params.size(); i++) {
-      Param param = params.get(i);
-      locals.setItem(param.name, param.init.eval(f)); // TODO this should be evaluated on function declaration
+    if (restKeyword != null) {
+      scope.bind(restKeyword.name.value);
     }
-    return locals;
   }
 
   @Override
@@ -63,13 +232,42 @@ class Params {
     return s + "]" + (returnType == null ? "" : ":" + returnType);
   }
 
+  /**
+   * Tells how the arguments of a call go into the parameter slots: positional arguments into the
+   * first slots or the "*args" list, each keyword argument into its target slot or the "**kwargs"
+   * dictionary, and which parameters get their defaults.
+   */
+  static final class Plan {
+    final Params params;
+    final int count;
+    final Str[] names;
+    /** The parameter index of each keyword argument, -1 for the "**kwargs" dictionary. */
+    final int[] targets;
+    /** The indices of the parameters which are bound to their defaults. */
+    final int[] defaults;
+
+    Plan(Params params, int count, Str[] names, int[] targets, int[] defaults) {
+      this.params = params;
+      this.count = count;
+      this.names = names;
+      this.targets = targets;
+      this.defaults = defaults;
+    }
+
+    /** Returns whether this plan binds the given arguments to the given parameters. */
+    boolean matches(Params params, int count, Str[] names) {
+      return this.params == params && this.count == count &&
+          (this.names == names || Arrays.equals(this.names, names));
+    }
+  }
+
   static class Param {
     final Str name;
     final Expr type;
     final Expr init;
 
-    Param(String name, Expr type, Expr init) {
-      this.name = new Str(name);
+    Param(Str name, Expr type, Expr init) {
+      this.name = name;
       this.type = type;
       this.init = init;
     }
@@ -78,5 +276,14 @@ class Params {
     public String toString() {
       return name + (type != null ? ":" + type : "") + (init != null ? "=" + init : "");
     }
+
+    void resolve(Scope scope) {
+      if (type != null) {
+        type.resolve(scope);
+      }
+      if (init != null) {
+        init.resolve(scope);
+      }
+    }
   }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses many modules concurrently. Each file is read and parsed by its own scanner and parser
+ * on a work-stealing fork/join pool, so parsing scales with the number of cores.
+ */
+public class ParseService {
+  private static final int THRESHOLD = 4; // number of files parsed by a single task
+
+  private final ForkJoinPool pool;
+
+  /** Constructs a new service using the JVM's common fork/join pool. */
+  public ParseService() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /** Constructs a new service using the given fork/join pool. */
+  public ParseService(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /** Parses all ".py" files in the given directory and its subdirectories. */
+  public List<Result> parse(File dir) {
+    List<File> files = new ArrayList<File>();
+    collect(dir, files);
+    return parse(files);
+  }
+
+  /** Parses all given files and returns a result for each file, in the same order. */
+  public List<Result> parse(List<File> files) {
+    Result[] results = new Result[files.size()];
+    pool.invoke(new ParseTask(files, results, 0, results.length));
+    return Collections.unmodifiableList(Arrays.asList(results));
+  }
+
+  private static void collect(File dir, List<File> files) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      if (child.isDirectory()) {
+        collect(child, files);
+      } else if (child.getName().endsWith(".py")) {
+        files.add(child);
+      }
+    }
+  }
+
+  /**
+   * Opens the given UTF-8 encoded source file for scanning. A final newline is appended in case
+   * the file doesn't end with one.
+   */
+  static Reader open(File file) throws FileNotFoundException {
+    InputStream in = new SequenceInputStream(new FileInputStream(file), new ByteArrayInputStream(new byte[]{'\n'}));
+    try {
+      return new InputStreamReader(in, "utf-8");
+    } catch (IOException e) {
+      throw new AssertionError(e); // utf-8 is always supported
+    }
+  }
+
+  static Result parseFile(File file) {
+    long start = System.nanoTime();
+    Parser parser = null;
+    try {
+      Reader r = open(file);
+      try {
+        parser = new Parser(new Scanner(r));
+        Suite suite = parser.parseFileInput();
+        return new Result(file, suite, null, 0, System.nanoTime() - start);
+      } finally {
+        r.close();
+      }
+    } catch (Exception e) {
+      return new Result(file, null, e, parser != null ? parser.line() : 0, System.nanoTime() - start);
+    }
+  }
+
+  /** Parses a range of files, splitting it into smaller tasks other threads can steal. */
+  private static class ParseTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<File> files;
+    private final Result[] results;
+    private final int from;
+    private final int to;
+
+    ParseTask(List<File> files, Result[] results, int from, int to) {
+      this.files = files;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          results[i] = parseFile(files.get(i));
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ParseTask(files, results, from, mid), new ParseTask(files, results, mid, to));
+      }
+    }
+  }
+
+  /** Represents the outcome of parsing a single file. */
+  public static class Result {
+    private final File file;
+    private final Suite suite;
+    private final Exception error;
+    private final int line;
+    private final long nanos;
+
+    Result(File file, Suite suite, Exception error, int line, long nanos) {
+      this.file = file;
+      this.suite = suite;
+      this.error = error;
+      this.line = line;
+      this.nanos = nanos;
+    }
+
+    /** Returns the parsed file. */
+    public File file() {
+      return file;
+    }
+
+    /** Returns the parsed module or <code>null</code> if parsing failed. */
+    public Suite suite() {
+      return suite;
+    }
+
+    /** Returns the exception which caused parsing to fail or <code>null</code> on success. */
+    public Exception error() {
+      return error;
+    }
+
+    /** Returns the line where parsing failed or <code>0</code> if unknown. */
+    public int line() {
+      return line;
+    }
+
+    /** Returns the time it took to read and parse the file in nanoseconds. */
+    public long nanos() {
+      return nanos;
+    }
+
+    @Override
+    public String toString() {
+      return file + (error == null ? "" : ":" + line + ": " + error) + " (" + nanos / 1000 + " us)";
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+public class ParseServiceTest {
+  private File dir;
+
+  @Before
+  public void createFiles() throws IOException {
+    dir = File.createTempFile("smython", "");
+    dir.delete();
+    dir.mkdir();
+    new File(dir, "pkg").mkdir();
+    for (int i = 0; i < 20; i++) {
+      write(new File(dir, "pkg/m" + (char) ('a' + i) + ".py"), "def f(a):\n  return a + " + i + "\n");
+    }
+    write(new File(dir, "bad.py"), "a = 1\ndef\n");
+    write(new File(dir, "good.py"), "pass");
+    write(new File(dir, "readme.txt"), "not python");
+  }
+
+  @After
+  public void deleteFiles() {
+    delete(dir);
+  }
+
+  @Test
+  public void parseDirectory() {
+    List<ParseService.Result> results = new ParseService().parse(dir);
+    assertEquals(22, results.size());
+    ParseService.Result bad = results.get(0);
+    assertEquals("bad.py", bad.file().getName());
+    assertNull(bad.suite());
+    assertTrue(bad.error() instanceof ParserException);
+    assertEquals(2, bad.line());
+    ParseService.Result good = results.get(1);
+    assertEquals("good.py", good.file().getName());
+    assertNull(good.error());
+    assertEquals("Suite[Pass]", good.suite().toString());
+    for (int i = 0; i < 20; i++) {
+      ParseService.Result result = results.get(i + 2);
+      assertEquals("m" + (char) ('a' + i) + ".py", result.file().getName());
+      assertEquals("Suite[Def(f, [a], Suite[Return(Add(Var(a), Lit(" + i + ")))])]", result.suite().toString());
+      assertTrue(result.nanos() > 0);
+    }
+  }
+
+  @Test
+  public void parseMissingFile() {
+    List<ParseService.Result> results = new ParseService().parse(Arrays.asList(new File(dir, "missing.py")));
+    assertEquals(1, results.size());
+    assertTrue(results.get(0).error() instanceof IOException);
+  }
+
+  private static void write(File file, String source) throws IOException {
+    Writer w = new FileWriter(file);
+    try {
+      w.write(source);
+    } finally {
+      w.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -3,6 +3,8 @@
  */
 package sma.smython;
 
+import sma.smython.Python.Str;
+
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -10,13 +12,11 @@ import java.util.Collections;
 // TODO add messages to exceptions
 // TODO check that break/continue occur only in loops
 // TODO check that return occurs only in functions
-// TODO implement global and nonlocal so that Var becomes GlobalVar or NonLocalVar
-// TODO check whether Var is a LocalVar
 
 /** Parses a sequence of tokens provided by a scanner into AST nodes. */
 public class Parser {
   private final Scanner scanner;
-  private String token;
+  private int token;
 
   public Parser(Scanner scanner) {
     this.scanner = scanner;
@@ -24,30 +24,30 @@ public class Parser {
   }
 
   /** Returns <code>true</code> if the the currrent token is "t". */
-  private boolean is(String t) {
-    return token.equals(t);
+  private boolean is(int t) {
+    return token == t;
   }
 
   /** Returns <code>true</code> if the the currrent token is "t" and consumes it. */
-  private boolean at(String t) {
-    if (token.equals(t)) {
+  private boolean at(int t) {
+    if (token == t) {
       token = scanner.next();
       return true;
     }
     return false;
   }
 
-  /** Returns the current token's value and consumes it. */
-  private Object value() {
-    Object value = scanner.value();
+  /** Consumes the current token and returns its kind. */
+  private int advance() {
+    int t = token;
     token = scanner.next();
-    return value;
+    return t;
   }
 
   /** Throws an exception if the current token isn't "t" and otherwise consumes it. */
-  private void expect(String token) {
+  private void expect(int token) {
     if (!at(token)) {
-      throw new ParserException("expected " + token + " but found " + this.token);
+      throw new ParserException("expected " + Token.toString(token) + " but found " + Token.toString(this.token));
     }
   }
 
@@ -58,28 +58,31 @@ public class Parser {
   // file_input: (NEWLINE | stmt)* ENDMARKER
   Suite parseFileInput() {
     Suite suite = new Suite();
-    while (!at("END")) {
-      if (at("NEWLINE")) {
+    while (!at(Token.END)) {
+      if (at(Token.NEWLINE)) {
         continue;
       }
       parseStmt(suite);
     }
+    Scope.resolve(suite);
     return suite;
   }
 
   // eval_input: testlist NEWLINE* ENDMARKER
   ExprList parseEvalInput() {
     ExprList exprList = parseExprList();
-    while (at("NEWLINE"));
-    expect("END");
+    while (at(Token.NEWLINE));
+    expect(Token.END);
+    Scope.resolve(exprList);
     return exprList;
   }
 
   // stmt: simple_stmt | compound_stmt
   void parseStmt(Suite suite) {
+    int line = line();
     Stmt stmt = parseCompoundStmt();
     if (stmt != null) {
-      suite.add(stmt);
+      suite.add(stmt, line);
     } else {
       parseSimpleStmt(suite);
     }
@@ -87,100 +90,101 @@ public class Parser {
 
   // simple_stmt: small_stmt (';' small_stmt)* [';'] NEWLINE
   void parseSimpleStmt(Suite suite) {
-    suite.add(parseSmallStmt());
-    while (at(";")) {
-      if (is("NEWLINE")) {
+    int line = line();
+    suite.add(parseSmallStmt(), line);
+    while (at(Token.SEMI)) {
+      if (is(Token.NEWLINE)) {
         break;
       }
-      suite.add(parseSmallStmt());
+      suite.add(parseSmallStmt(), line);
     }
-    expect("NEWLINE");
+    expect(Token.NEWLINE);
   }
 
   // small_stmt: (expr_stmt | del_stmt | pass_stmt | flow_stmt | import_stmt | global_stmt | nonlocal_stmt | assert_stmt)
   Stmt parseSmallStmt() {
-    if (at("del")) {
+    if (at(Token.DEL)) {
       // del_stmt: 'del' exprlist
       return new Stmt.Del(parseExprList());
     }
-    if (at("pass")) {
+    if (at(Token.PASS)) {
       // pass_stmt: 'pass'
       return new Stmt.Pass();
     }
     // flow_stmt: break_stmt | continue_stmt | return_stmt | raise_stmt | yield_stmt
-    if (at("break")) {
+    if (at(Token.BREAK)) {
       // break_stmt: 'break'
       return new Stmt.Break();
     }
-    if (at("continue")) {
+    if (at(Token.CONTINUE)) {
       // continue_stmt: 'continue'
       return new Stmt.Continue();
     }
-    if (at("return")) {
+    if (at(Token.RETURN)) {
       // return_stmt: 'return' [testlist]
       return new Stmt.Return(parseOptionalTestList());
     }
-    if (at("raise")) {
+    if (at(Token.RAISE)) {
       // raise_stmt: 'raise' [test ['from' test]]
       Expr test1 = parseTest();
       Expr test2 = null;
-      if (test1 != null && at("from")) {
+      if (test1 != null && at(Token.FROM)) {
         test2 = parseTest();
       }
       return new Stmt.Raise(test1, test2);
     }
-    if (at("yield")) {
+    if (at(Token.YIELD)) {
       // yield_stmt: yield_expr
       return new Stmt.Yield(parseYieldExpr());
     }
     // import_stmt: import_name | import_from
-    if (at("import")) {
+    if (at(Token.IMPORT)) {
       // import_name: 'import' dotted_as_names
       return new Stmt.Import(parseDottedAsNames());
     }
-    if (at("from")) {
+    if (at(Token.FROM)) {
       // import_from: ('from' (('.' | '...')* dotted_name | ('.' | '...')+) 'import' ('*' | '(' import_as_names ')' | import_as_names))
       int dots = 0;
       while (true) {
-        if (at(".")) {
+        if (at(Token.DOT)) {
           dots += 1;
-        } else if (at("...")) {
+        } else if (at(Token.ELLIPSIS)) {
           dots += 3;
         } else {
           break;
         }
       }
       List<String> dottedName = null;
-      if (dots == 0 || is("NAME")) {
+      if (dots == 0 || is(Token.NAME)) {
         dottedName = parseDottedName();
       }
-      expect("import");
+      expect(Token.IMPORT);
       List<Stmt.NameAlias> names;
-      if (at("*")) {
+      if (at(Token.STAR)) {
         names = Collections.emptyList();
-      } else if (at("(")) {
+      } else if (at(Token.LPAR)) {
         names = parseImportAsNames();
-        expect(")");
+        expect(Token.RPAR);
       } else {
         names = parseImportAsNames();
       }
       return new Stmt.From(dots, dottedName, names);
     }
-    if (at("global")) {
+    if (at(Token.GLOBAL)) {
       // global_stmt: 'global' NAME (',' NAME)*
       return new Stmt.Global(parseNames());
     }
-    if (at("nonlocal")) {
+    if (at(Token.NONLOCAL)) {
       // nonlocal_stmt: 'nonlocal' NAME (',' NAME)*
       return new Stmt.Nonlocal(parseNames());
     }
-    if (at("assert")) {
+    if (at(Token.ASSERT)) {
       // assert_stmt: 'assert' test [',' test]
       Expr test1 = parseTest();
       if (test1 == null) {
         throw new ParserException();
       }
-      Expr test2 = at(",") ? parseTest() : null;
+      Expr test2 = at(Token.COMMA) ? parseTest() : null;
       return new Stmt.Assert(test1, test2);
     }
     return parseExprStmt();
@@ -190,36 +194,49 @@ public class Parser {
   Stmt parseExprStmt() {
     ExprList tl1 = parseTestList(true);
     Expr left = tl1.exprs.get(0);
-    if (at("+=")) {
-      return new Stmt.AddAssign(left, parseAssign());
-    } else if (at("-=")) {
-      return new Stmt.SubAssign(left, parseAssign());
-    } else if (at("*=")) {
-      return new Stmt.MulAssign(left, parseAssign());
-    } else if (at("/=")) {
-      return new Stmt.DivAssign(left, parseAssign());
-    } else if (at("//=")) {
-      return new Stmt.IntDivAssign(left, parseAssign());
-    } else if (at("%=")) {
-      return new Stmt.ModAssign(left, parseAssign());
-    } else if (at("**=")) {
-      return new Stmt.PowerAssign(left, parseAssign());
-    } else if (at(">>=")) {
-      return new Stmt.RshiftAssign(left, parseAssign());
-    } else if (at("<<=")) {
-      return new Stmt.LshiftAssign(left, parseAssign());
-    } else if (at("&=")) {
-      return new Stmt.AndAssign(left, parseAssign());
-    } else if (at("^=")) {
-      return new Stmt.XorAssign(left, parseAssign());
-    } else if (at("|=")) {
-      return new Stmt.OrAssign(left, parseAssign());
-    }
-    if (at("=")) {
+    switch (token) {
+      case Token.PLUSEQUAL:
+        advance();
+        return new Stmt.AddAssign(left, parseAssign());
+      case Token.MINEQUAL:
+        advance();
+        return new Stmt.SubAssign(left, parseAssign());
+      case Token.STAREQUAL:
+        advance();
+        return new Stmt.MulAssign(left, parseAssign());
+      case Token.SLASHEQUAL:
+        advance();
+        return new Stmt.DivAssign(left, parseAssign());
+      case Token.DOUBLESLASHEQUAL:
+        advance();
+        return new Stmt.IntDivAssign(left, parseAssign());
+      case Token.PERCENTEQUAL:
+        advance();
+        return new Stmt.ModAssign(left, parseAssign());
+      case Token.DOUBLESTAREQUAL:
+        advance();
+        return new Stmt.PowerAssign(left, parseAssign());
+      case Token.RIGHTSHIFTEQUAL:
+        advance();
+        return new Stmt.RshiftAssign(left, parseAssign());
+      case Token.LEFTSHIFTEQUAL:
+        advance();
+        return new Stmt.LshiftAssign(left, parseAssign());
+      case Token.AMPEREQUAL:
+        advance();
+        return new Stmt.AndAssign(left, parseAssign());
+      case Token.CIRCUMFLEXEQUAL:
+        advance();
+        return new Stmt.XorAssign(left, parseAssign());
+      case Token.VBAREQUAL:
+        advance();
+        return new Stmt.OrAssign(left, parseAssign());
+    }
+    if (at(Token.EQUAL)) {
       List<ExprList> lhs = new ArrayList<ExprList>();
       lhs.add(tl1);
       ExprList rhs = parseAssign();
-      while (at("=")) {
+      while (at(Token.EQUAL)) {
         if (rhs.exprs.size() == 1 && rhs.exprs.get(0) instanceof Expr.Yield) {
           throw new ParserException();
         }
@@ -235,7 +252,7 @@ public class Parser {
   List<Stmt.DottedName> parseDottedAsNames() {
     List<Stmt.DottedName> names = new ArrayList<Stmt.DottedName>();
     names.add(parseDottedAsName());
-    while (at(",")) {
+    while (at(Token.COMMA)) {
       names.add(parseDottedAsName());
     }
     return names;
@@ -244,7 +261,7 @@ public class Parser {
   // dotted_as_name: dotted_name ['as' NAME]
   Stmt.DottedName parseDottedAsName() {
     List<String> names = parseDottedName();
-    String alias = at("as") ? parseName() : null;
+    String alias = at(Token.AS) ? parseName().value : null;
     return new Stmt.DottedName(names, alias);
   }
 
@@ -252,8 +269,8 @@ public class Parser {
   List<Stmt.NameAlias> parseImportAsNames() {
     List<Stmt.NameAlias> names = new ArrayList<Stmt.NameAlias>();
     names.add(parseImportAsName());
-    while (at(",")) {
-      if (is(")")) {
+    while (at(Token.COMMA)) {
+      if (is(Token.RPAR)) {
         break;
       }
       names.add(parseImportAsName());
@@ -263,13 +280,13 @@ public class Parser {
 
   // import_as_name: NAME ['as' NAME]
   Stmt.NameAlias parseImportAsName() {
-    String name = parseName();
-    String alias = at("as") ? parseName() : null;
+    String name = parseName().value;
+    String alias = at(Token.AS) ? parseName().value : null;
     return new Stmt.NameAlias(name, alias);
   }
 
   ExprList parseAssign() {
-    if (at("yield")) {
+    if (at(Token.YIELD)) {
       ExprList exprList = new ExprList();
       exprList.single = true;
       exprList.add(parseYieldExpr());
@@ -280,61 +297,61 @@ public class Parser {
 
   // compound_stmt: if_stmt | while_stmt | for_stmt | try_stmt | with_stmt | funcdef | classdef | decorated
   Stmt parseCompoundStmt() {
-    if (at("if")) {
+    if (at(Token.IF)) {
       // if_stmt: 'if' test ':' suite ('elif' test ':' suite)* ['else' ':' suite]
       Expr cond = parseTest();
-      expect(":");
+      expect(Token.COLON);
       Suite thenSuite = parseSuite();
       return new Stmt.If(cond, thenSuite, parseIfCont());
     }
-    if (at("while")) {
+    if (at(Token.WHILE)) {
       // while_stmt: 'while' test ':' suite ['else' ':' suite]
       Expr test = parseTest();
-      expect(":");
+      expect(Token.COLON);
       Suite bodySuite = parseSuite();
       Suite elseSuite = null;
-      if (at("else")) {
-        expect(":");
+      if (at(Token.ELSE)) {
+        expect(Token.COLON);
         elseSuite = parseSuite();
       }
       return new Stmt.While(test, bodySuite, elseSuite);
     }
-    if (at("for")) {
+    if (at(Token.FOR)) {
       // for_stmt: 'for' exprlist 'in' testlist ':' suite ['else' ':' suite]
-      ExprList names = parseExprList();
-      expect("in");
+      ExprList names = parseExprList(true);
+      expect(Token.IN);
       ExprList items = parseExprList(true);
-      expect(":");
+      expect(Token.COLON);
       Suite bodySuite = parseSuite();
       Suite elseSuite = null;
-      if (at("else")) {
-        expect(":");
+      if (at(Token.ELSE)) {
+        expect(Token.COLON);
         elseSuite = parseSuite();
       }
       return new Stmt.For(names, items, bodySuite, elseSuite);
     }
-    if (at("try")) {
+    if (at(Token.TRY)) {
       // ('try' ':' suite ((except_clause ':' suite)+ ['else' ':' suite] ['finally' ':' suite] | 'finally' ':' suite))
-      expect(":");
+      expect(Token.COLON);
       Suite bodySuite = parseSuite();
       List<Stmt.Except> exceptList = new ArrayList<Stmt.Except>();
-      while (at("except")) {
+      while (at(Token.EXCEPT)) {
         // except_clause: 'except' [test ['as' NAME]]
         Expr clause = parseTest();
-        String name = at("as") ? parseName() : null;
-        expect(":");
+        String name = at(Token.AS) ? parseName().value : null;
+        expect(Token.COLON);
         exceptList.add(new Stmt.Except(clause, name, parseSuite()));
       }
       Suite elseSuite = null;
       if (exceptList.size() > 0) {
-        if (at("else")) {
-          expect(":");
+        if (at(Token.ELSE)) {
+          expect(Token.COLON);
           elseSuite = parseSuite();
         }
       }
       Suite finallySuite = null;
-      if (at("finally")) {
-        expect(":");
+      if (at(Token.FINALLY)) {
+        expect(Token.COLON);
         finallySuite = parseSuite();
       }
       if (exceptList.size() == 0 && finallySuite == null) {
@@ -343,31 +360,31 @@ public class Parser {
       // TODO split into TryExcept and TryFinally
       return new Stmt.Try(bodySuite, exceptList, elseSuite, finallySuite);
     }
-    if (at("with")) {
+    if (at(Token.WITH)) {
       // with_stmt: 'with' test [ with_var ] ':' suite
       Expr expr = parseTest();
       if (expr == null) {
         throw new ParserException();
       }
-      Expr binding = at("as") ? parseExpr() : null;
-      expect(":");
+      Expr binding = at(Token.AS) ? parseExpr() : null;
+      expect(Token.COLON);
       return new Stmt.With(expr, binding, parseSuite());
     }
-    if (at("def")) {
+    if (at(Token.DEF)) {
       return parseFuncDef();
     }
-    if (at("class")) {
+    if (at(Token.CLASS)) {
       return parseClassDef();
     }
-    if (at("@")) {
+    if (at(Token.AT)) {
       // decorated: decorators (classdef | funcdef)
       List<Stmt.Decorator> decorators = parseDecorators();
-      if (at("def")) {
+      if (at(Token.DEF)) {
         Stmt.FuncDef funcDef = parseFuncDef();
         funcDef.setDecorators(decorators);
         return funcDef;
       }
-      if (at("class")) {
+      if (at(Token.CLASS)) {
         Stmt.ClassDef classDef = parseClassDef();
         classDef.setDecorators(decorators);
         return classDef;
@@ -378,16 +395,17 @@ public class Parser {
   }
 
   Suite parseIfCont() {
-    if (at("elif")) {
+    int line = line();
+    if (at(Token.ELIF)) {
       Expr test = parseTest();
-      expect(":");
+      expect(Token.COLON);
       Suite thenSuite = parseSuite();
       Suite suite = new Suite();
-      suite.add(new Stmt.If(test, thenSuite, parseIfCont()));
+      suite.add(new Stmt.If(test, thenSuite, parseIfCont()), line);
       return suite;
     }
-    if (at("else")) {
-      expect(":");
+    if (at(Token.ELSE)) {
+      expect(Token.COLON);
       return parseSuite();
     }
     Suite suite = new Suite();
@@ -399,7 +417,7 @@ public class Parser {
   List<Stmt.Decorator> parseDecorators() {
     List<Stmt.Decorator> decorators = new ArrayList<Stmt.Decorator>();
     decorators.add(parseDecorator());
-    while (at("@")) {
+    while (at(Token.AT)) {
       decorators.add(parseDecorator());
     }
     return decorators;
@@ -409,38 +427,38 @@ public class Parser {
   Stmt.Decorator parseDecorator() {
     List<String> dottedName = parseDottedName();
     Arglist arglist = null;
-    if (at("(")) {
+    if (at(Token.LPAR)) {
       arglist = parseArglist();
-      expect(")");
+      expect(Token.RPAR);
     }
-    expect("NEWLINE");
+    expect(Token.NEWLINE);
     return new Stmt.Decorator(dottedName, arglist);
   }
 
   // dotted_name: NAME ('.' NAME)*
   List<String> parseDottedName() {
     List<String> names = new ArrayList<String>(1);
-    names.add(parseName());
-    while (at(".")) {
-      names.add(parseName());
+    names.add(parseName().value);
+    while (at(Token.DOT)) {
+      names.add(parseName().value);
     }
     return names;
   }
 
   // funcdef: 'def' NAME parameters ':' suite
   Stmt.FuncDef parseFuncDef() {
-    String name = parseName();
+    Str name = parseName();
     Params parameters = parseParameters();
-    expect(":");
+    expect(Token.COLON);
     return new Stmt.FuncDef(name, parameters, parseSuite());
   }
 
   // parameters: '(' [typedargslist] ')' ['->' test]
   Params parseParameters() {
-    expect("(");
+    expect(Token.LPAR);
     Params params = parseTypedArgsList();
-    expect(")");
-    if (at("->")) {
+    expect(Token.RPAR);
+    if (at(Token.RARROW)) {
       params.returnType = parseTest();
     }
     return params;
@@ -465,7 +483,7 @@ public class Parser {
     boolean kwseen = false;
     boolean starseen = false;
     while (true) {
-      if (is("NAME")) {
+      if (is(Token.NAME)) {
         Params.Param param = parseParam(typed, true);
         if (kwseen) {
           if (!starseen && param.init == null) {
@@ -475,18 +493,18 @@ public class Parser {
           kwseen = param.init != null;
         }
         params.add(param);
-      } else if (at("*")) {
+      } else if (at(Token.STAR)) {
         if (params.restPositional != null || params.restKeyword != null) {
           throw new ParserException();
         }
         starseen = true;
-        if (is("NAME")) {
+        if (is(Token.NAME)) {
           params.restPositional = parseParam(typed, false);
         } else {
           params.restPositional = new Params.Param(null, null, null);
           //throw new UnsupportedOperationException(); TODO removed to parse dist files
         }
-      } else if (at("**")) {
+      } else if (at(Token.DOUBLESTAR)) {
         if (params.restKeyword != null) {
           throw new ParserException();
         }
@@ -494,7 +512,7 @@ public class Parser {
       } else {
         break;
       }
-      if (!at(",")) {
+      if (!at(Token.COMMA)) {
         break;
       }
     }
@@ -502,32 +520,32 @@ public class Parser {
   }
 
   private Params.Param parseParam(boolean typed, boolean kwed) {
-    String name = parseName();
-    Expr type = typed && at(":") ? parseTest() : null;
-    Expr init = kwed && at("=") ? parseTest() : null;
+    Str name = parseName();
+    Expr type = typed && at(Token.COLON) ? parseTest() : null;
+    Expr init = kwed && at(Token.EQUAL) ? parseTest() : null;
     return new Params.Param(name, type, init);
   }
 
   // classdef: 'class' NAME ['(' [arglist] ')'] ':' suite
   Stmt.ClassDef parseClassDef() {
-    String name = parseName();
+    Str name = parseName();
     Arglist arglist;
-    if (at("(")) {
+    if (at(Token.LPAR)) {
       arglist = parseArglist();
-      expect(")");
+      expect(Token.RPAR);
     } else {
       arglist = new Arglist();
     }
-    expect(":");
+    expect(Token.COLON);
     return new Stmt.ClassDef(name, arglist, parseSuite());
   }
 
   // suite: simple_stmt | NEWLINE INDENT stmt+ DEDENT
   Suite parseSuite() {
-    if (at("NEWLINE")) {
-      expect("INDENT");
+    if (at(Token.NEWLINE)) {
+      expect(Token.INDENT);
       Suite suite = new Suite();
-      while (!at("DEDENT")) {
+      while (!at(Token.DEDENT)) {
         parseStmt(suite);
       }
       return suite;
@@ -541,31 +559,31 @@ public class Parser {
 
   List<String> parseNames() {
     List<String> names = new ArrayList<String>();
-    names.add(parseName());
-    while (at(",")) {
-      names.add(parseName());
+    names.add(parseName().value);
+    while (at(Token.COMMA)) {
+      names.add(parseName().value);
     }
     return names;
   }
 
-  String parseName() {
-    Object value = scanner.value();
-    expect("NAME");
-    return (String) value;
+  Str parseName() {
+    Str name = scanner.name();
+    expect(Token.NAME);
+    return name;
   }
 
   // ....
 
   // test: or_test ['if' or_test 'else' test] | lambdef
   Expr parseTest() {
-    if (at("lambda")) {
+    if (at(Token.LAMBDA)) {
       // lambdef: 'lambda' [varargslist] ':' test
       return new Expr.Lambda(parseLambdaVarargsList(), parseTest());
     }
     Expr expr = parseOrTest();
-    if (at("if")) {
+    if (at(Token.IF)) {
       Expr cond = parseOrTest();
-      expect("else");
+      expect(Token.ELSE);
       expr = new Expr.IfElse(cond, expr, parseTest());
     }
     return expr;
@@ -574,7 +592,7 @@ public class Parser {
   // or_test: and_test ('or' and_test)*
   Expr parseOrTest() {
     Expr t = parseAndTest();
-    while (at("or")) {
+    while (at(Token.OR)) {
       t = new Expr.Or(t, parseAndTest());
     }
     return t;
@@ -583,7 +601,7 @@ public class Parser {
   // and_test: not_test ('and' not_test)*
   Expr parseAndTest() {
     Expr e = parseNotTest();
-    while (at("and")) {
+    while (at(Token.AND)) {
       e = new Expr.And(e, parseNotTest());
     }
     return e;
@@ -591,7 +609,7 @@ public class Parser {
 
   // not_test: 'not' not_test | comparison 
   Expr parseNotTest() {
-    if (at("not")) {
+    if (at(Token.NOT)) {
       return new Expr.Not(parseNotTest());
     }
     return parseComparison();
@@ -603,34 +621,41 @@ public class Parser {
     if (isCompOp()) {
       Expr.Comparison comparison = new Expr.Comparison(e);
       while (isCompOp()) {
-        if (at("<")) {
-          comparison.add(new Expr.Comp.LT(parseStarExpr()));
-        } else if (at(">")) {
-          comparison.add(new Expr.Comp.GT(parseStarExpr()));
-        } else if (at("<=")) {
-          comparison.add(new Expr.Comp.LE(parseStarExpr()));
-        } else if (at(">=")) {
-          comparison.add(new Expr.Comp.GE(parseStarExpr()));
-        } else if (at("==")) {
-          comparison.add(new Expr.Comp.EQ(parseStarExpr()));
-        } else if (at("!=")) {
-          comparison.add(new Expr.Comp.NE(parseStarExpr()));
-        } else if (at("in")) {
-          comparison.add(new Expr.Comp.In(parseStarExpr()));
-        } else if (at("is")) {
-          if (at("not")) {
-            comparison.add(new Expr.Comp.IsNot(parseStarExpr()));
-          } else {
-            comparison.add(new Expr.Comp.Is(parseStarExpr()));
-          }
-        } else if (at("not")) {
-          if (at("in")) {
-            comparison.add(new Expr.Comp.NotIn(parseStarExpr()));
-          } else {
-            throw new ParserException();
-          }
-        } else {
-          throw new ParserException();
+        switch (advance()) {
+          case Token.LESS:
+            comparison.add(new Expr.Comp.LT(parseStarExpr()));
+            break;
+          case Token.GREATER:
+            comparison.add(new Expr.Comp.GT(parseStarExpr()));
+            break;
+          case Token.LESSEQUAL:
+            comparison.add(new Expr.Comp.LE(parseStarExpr()));
+            break;
+          case Token.GREATEREQUAL:
+            comparison.add(new Expr.Comp.GE(parseStarExpr()));
+            break;
+          case Token.EQEQUAL:
+            comparison.add(new Expr.Comp.EQ(parseStarExpr()));
+            break;
+          case Token.NOTEQUAL:
+            comparison.add(new Expr.Comp.NE(parseStarExpr()));
+            break;
+          case Token.IN:
+            comparison.add(new Expr.Comp.In(parseStarExpr()));
+            break;
+          case Token.IS:
+            if (at(Token.NOT)) {
+              comparison.add(new Expr.Comp.IsNot(parseStarExpr()));
+            } else {
+              comparison.add(new Expr.Comp.Is(parseStarExpr()));
+            }
+            break;
+          default: // Token.NOT
+            if (at(Token.IN)) {
+              comparison.add(new Expr.Comp.NotIn(parseStarExpr()));
+            } else {
+              throw new ParserException();
+            }
         }
       }
       e = comparison;
@@ -640,12 +665,25 @@ public class Parser {
 
   // comp_op: '<'|'>'|'=='|'>='|'<='|'<>'|'!='|'in'|'not' 'in'|'is'|'is' 'not'
   boolean isCompOp() {
-    return is("<") || is(">") || is("<=") || is(">=") || is("==") || is("!=") || is("in") || is("is") || is("not");
+    switch (token) {
+      case Token.LESS:
+      case Token.GREATER:
+      case Token.LESSEQUAL:
+      case Token.GREATEREQUAL:
+      case Token.EQEQUAL:
+      case Token.NOTEQUAL:
+      case Token.IN:
+      case Token.IS:
+      case Token.NOT:
+        return true;
+      default:
+        return false;
+    }
   }
 
   // star_expr: ['*'] expr
   Expr parseStarExpr() {
-    if (at("*")) {
+    if (at(Token.STAR)) {
       return new Expr.Star(parseExpr());
     }
     return parseExpr();
@@ -654,7 +692,7 @@ public class Parser {
   // expr: xor_expr ('|' xor_expr)*
   Expr parseExpr() {
     Expr e = parseXorExpr();
-    while (at("|")) {
+    while (at(Token.VBAR)) {
       e = new Expr.BitOr(e, parseXorExpr());
     }
     return e;
@@ -663,7 +701,7 @@ public class Parser {
   // xor_expr: and_expr ('^' and_expr)*
   Expr parseXorExpr() {
     Expr e = parseAndExpr();
-    while (at("^")) {
+    while (at(Token.CIRCUMFLEX)) {
       e = new Expr.BitXor(e, parseAndExpr());
     }
     return e;
@@ -672,7 +710,7 @@ public class Parser {
   // and_expr: shift_expr ('&' shift_expr)*
   Expr parseAndExpr() {
     Expr e = parseShiftExpr();
-    while (at("&")) {
+    while (at(Token.AMPER)) {
       e = new Expr.BitAnd(e, parseShiftExpr());
     }
     return e;
@@ -681,64 +719,83 @@ public class Parser {
   // shift_expr: arith_expr (('<<'|'>>') arith_expr)*
   Expr parseShiftExpr() {
     Expr e = parseArithExpr();
-    String t = token;
-    while (at("<<") || at(">>")) {
-      if (t.equals("<<")) {
-        e = new Expr.BitShiftLeft(e, parseArithExpr());
-      } else {
-        e = new Expr.BitShiftRight(e, parseArithExpr());
+    while (true) {
+      switch (token) {
+        case Token.LEFTSHIFT:
+          advance();
+          e = new Expr.BitShiftLeft(e, parseArithExpr());
+          break;
+        case Token.RIGHTSHIFT:
+          advance();
+          e = new Expr.BitShiftRight(e, parseArithExpr());
+          break;
+        default:
+          return e;
       }
-      t = token;
     }
-    return e;
   }
 
   // arith_expr: term (('+'|'-') term)*
   Expr parseArithExpr() {
     Expr e = parseTerm();
-    String t = token;
-    while (at("+") || at("-")) {
-      if (t.equals("+")) {
-        e = new Expr.Add(e, parseTerm());
-      } else {
-        e = new Expr.Sub(e, parseTerm());
+    while (true) {
+      switch (token) {
+        case Token.PLUS:
+          advance();
+          e = new Expr.Add(e, parseTerm());
+          break;
+        case Token.MINUS:
+          advance();
+          e = new Expr.Sub(e, parseTerm());
+          break;
+        default:
+          return e;
       }
-      t = token;
     }
-    return e;
   }
 
   // term: factor (('*'|'/'|'%'|'//') factor)*
   Expr parseTerm() {
     Expr e = parseFactor();
-    String t = token;
-    while (at("*") || at("/") || at("%") || at("//")) {
-      if (t.equals("*")) {
-        e = new Expr.Mul(e, parseFactor());
-      } else if (t.equals("/")) {
-        e = new Expr.Div(e, parseFactor());
-      } else if (t.equals("%")) {
-        e = new Expr.Mod(e, parseFactor());
-      } else {
-        e = new Expr.IntDiv(e, parseFactor());
+    while (true) {
+      switch (token) {
+        case Token.STAR:
+          advance();
+          e = new Expr.Mul(e, parseFactor());
+          break;
+        case Token.SLASH:
+          advance();
+          e = new Expr.Div(e, parseFactor());
+          break;
+        case Token.PERCENT:
+          advance();
+          e = new Expr.Mod(e, parseFactor());
+          break;
+        case Token.DOUBLESLASH:
+          advance();
+          e = new Expr.IntDiv(e, parseFactor());
+          break;
+        default:
+          return e;
       }
-      t = token;
     }
-    return e;
   }
 
   // factor: ('+'|'-'|'~') factor | power
   Expr parseFactor() {
-    if (at("+")) {
-      return new Expr.UnaryPlus(parseFactor());
-    }
-    if (at("-")) {
-      return new Expr.UnaryMinus(parseFactor());
+    switch (token) {
+      case Token.PLUS:
+        advance();
+        return new Expr.UnaryPlus(parseFactor());
+      case Token.MINUS:
+        advance();
+        return new Expr.UnaryMinus(parseFactor());
+      case Token.TILDE:
+        advance();
+        return new Expr.BitNeg(parseFactor());
+      default:
+        return parsePower();
     }
-    if (at("~")) {
-      return new Expr.BitNeg(parseFactor());
-    }
-    return parsePower();
   }
 
   // power: atom trailer* ['**' factor]
@@ -746,25 +803,25 @@ public class Parser {
     Expr a = parseAtom();
     // trailer: '(' [arglist] ')' | '[' subscriptlist ']' | '.' NAME
     while (true) {
-      if (at("(")) {
+      if (at(Token.LPAR)) {
         Arglist arglist = parseArglist();
         a = new Expr.Call(a, arglist);
-        expect(")");
+        expect(Token.RPAR);
         continue;
       }
-      if (at("[")) {
+      if (at(Token.LSQB)) {
         ExprList subscriptlist = parseSubscriptList();
         a = new Expr.Index(a, subscriptlist);
-        expect("]");
+        expect(Token.RSQB);
         continue;
       }
-      if (at(".")) {
+      if (at(Token.DOT)) {
         a = new Expr.Attr(a, parseName());
         continue;
       }
       break;
     }
-    if (at("**")) {
+    if (at(Token.DOUBLESTAR)) {
       return new Expr.Power(a, parseFactor());
     }
     return a;
@@ -773,47 +830,71 @@ public class Parser {
   // atom: ('(' [yield_expr|testlist_comp] ')' | '[' [testlist_comp] ']' | '{' [dictorsetmaker] '}' |
   //       NAME | NUMBER | STRING+ | '...' | 'None' | 'True' | 'False')
   Expr parseAtom() {
-    if (at("(")) {
-      Expr expr = parseYieldOrTupleOrGenerator();
-      expect(")");
-      return expr;
-    } else if (at("[")) {
-      Expr expr = parseTestListComp();
-      expect("]");
-      return expr;
-    } else if (at("{")) {
-      Expr expr = parseDictOrSetMaker();
-      expect("}");
-      return expr;
-    } else if (is("NAME")) {
-      return new Expr.Var(parseName());
-    } else if (is("INT")) {
-      return new Expr.Lit(Python.Int((Integer) value()));
-    } else if (is("FLOAT")) {
-      return new Expr.Lit(Python.Float((Double) value()));
-    } else if (is("STR")) {
-      String s = (String) value();
-      while (is("STR")) {
-        s += (String) value();
+    switch (token) {
+      case Token.LPAR: {
+        advance();
+        Expr expr = parseYieldOrTupleOrGenerator();
+        expect(Token.RPAR);
+        return expr;
+      }
+      case Token.LSQB: {
+        advance();
+        Expr expr = parseTestListComp();
+        expect(Token.RSQB);
+        return expr;
+      }
+      case Token.LBRACE: {
+        advance();
+        Expr expr = parseDictOrSetMaker();
+        expect(Token.RBRACE);
+        return expr;
+      }
+      case Token.NAME:
+        return new Expr.Var(parseName());
+      case Token.INT: {
+        Python.Obj value = scanner.bigValue() != null ?
+            Python.Int(scanner.bigValue()) : Python.Int(scanner.intValue());
+        advance();
+        return new Expr.Lit(value);
       }
-      return new Expr.Lit(Python.Str(s));
-    } else if (at("...")) {
-      return new Expr.Lit(Python.Ellipsis);
-    } else if (at("None")) {
-      return new Expr.Lit(Python.None);
-    } else if (at("True")) {
-      return new Expr.Lit(Python.True);
-    } else if (at("False")) {
-      return new Expr.Lit(Python.False);
+      case Token.FLOAT: {
+        double value = scanner.floatValue();
+        advance();
+        return new Expr.Lit(Python.Float(value));
+      }
+      case Token.STR: {
+        String s = scanner.string();
+        advance();
+        while (is(Token.STR)) {
+          s += scanner.string();
+          advance();
+        }
+        return new Expr.Lit(Python.Str(s));
+      }
+      case Token.ELLIPSIS:
+        advance();
+        return new Expr.Lit(Python.Ellipsis);
+      case Token.NONE:
+        advance();
+        return new Expr.Lit(Python.None);
+      case Token.TRUE:
+        advance();
+        return new Expr.Lit(Python.True);
+      case Token.FALSE:
+        advance();
+        return new Expr.Lit(Python.False);
+      default:
+        return null;
     }
-    return null;
   }
 
   // subscriptlist: subscript (',' subscript)* [',']
   ExprList parseSubscriptList() {
     ExprList subscriptlist = new ExprList();
+    subscriptlist.single = true;
     subscriptlist.add(parseSubscript());
-    while (at(",")) {
+    while (at(Token.COMMA)) {
+      subscriptlist.single = false;
       Expr t = parseSubscript();
       if (t == null) {
         break;
@@ -826,11 +907,11 @@ public class Parser {
   // subscript: test | [test] ':' [test] [sliceop]
   Expr parseSubscript() {
     Expr start = isTestStart() ? parseTest() : null;
-    if (at(":")) {
+    if (at(Token.COLON)) {
       Expr stop = isTestStart() ? parseTest() : null;
       Expr step = null;
       // sliceop: ':' [test]
-      if (at(":")) {
+      if (at(Token.COLON)) {
         if (isTestStart()) {
           step = parseTest();
         }
@@ -841,7 +922,7 @@ public class Parser {
   }
 
   boolean isTestStart() {
-    return !is(":") && !is(",") && !is("]");
+    return !is(Token.COLON) && !is(Token.COMMA) && !is(Token.RSQB);
   }
 
   // exprlist
@@ -854,25 +935,25 @@ public class Parser {
     if (key == null) {
       return new Expr.DictConstr(new ExprList());
     }
-    if (at(":")) {
+    if (at(Token.COLON)) {
       // dict
       Expr value = parseTest();
       if (value == null) {
           throw new ParserException();
         }
-      if (at("for")) {
+      if (at(Token.FOR)) {
         return new Expr.DictCompr(key, value, parseCompFor(null));
       }
       ExprList testList = new ExprList();
       testList.add(key);
       testList.add(value);
-      while (at(",")) {
+      while (at(Token.COMMA)) {
         key = parseTest();
         if (key == null) {
           break;
         }
         testList.add(key);
-        expect(":");
+        expect(Token.COLON);
         value = parseTest();
         if (value == null) {
           throw new ParserException();
@@ -882,12 +963,12 @@ public class Parser {
       return new Expr.DictConstr(testList);
     } else {
       // set
-      if (at("for")) {
+      if (at(Token.FOR)) {
         return new Expr.SetCompr(key, parseCompFor(null));
       }
       ExprList testList = new ExprList();
       testList.add(key);
-      while (at(",")) {
+      while (at(Token.COMMA)) {
         key = parseTest();
         if (key == null) {
           break;
@@ -905,7 +986,7 @@ public class Parser {
 
   // [yield_expr|testlist_comp]
   Expr parseYieldOrTupleOrGenerator() {
-    if (at("yield")) {
+    if (at(Token.YIELD)) {
       return parseYieldExpr();
     }
     //
@@ -913,16 +994,16 @@ public class Parser {
     if (t == null) {
       return new Expr.Lit(new Python.Tuple());
     }
-    if (at("for")) {
+    if (at(Token.FOR)) {
       return new Expr.GeneratorCompr(t, parseCompFor(null));
     }
-    if (is(")")) {
+    if (is(Token.RPAR)) {
       return t;
     }
     ExprList testList = new ExprList();
     testList.add(t);
-    while (at(",")) {
-      if (is(")")) {
+    while (at(Token.COMMA)) {
+      if (is(Token.RPAR)) {
         break;
       }
       testList.add(parseTest());
@@ -936,13 +1017,13 @@ public class Parser {
     if (t == null) {
       return new Expr.ListConstr(new ExprList());
     }
-    if (at("for")) {
+    if (at(Token.FOR)) {
       return new Expr.ListCompr(t, parseCompFor(null));
     }
     ExprList testList = new ExprList();
     testList.add(t);
-    while (at(",")) {
-      if (is("]")) {
+    while (at(Token.COMMA)) {
+      if (is(Token.RSQB)) {
         break;
       }
       testList.add(parseTest());
@@ -952,8 +1033,8 @@ public class Parser {
 
   // comp_for: 'for' exprlist 'in' or_test [comp_iter]
   Expr.Compr parseCompFor(Expr.Compr compr) {
-    ExprList vars = parseExprList();
-    expect("in");
+    ExprList vars = parseExprList(true);
+    expect(Token.IN);
     Expr items = parseOrTest();
     return  parseCompIter(new Expr.ComprFor(vars, items, compr));
 
@@ -961,10 +1042,10 @@ public class Parser {
 
   // comp_iter: comp_for | comp_if
   Expr.Compr parseCompIter(Expr.Compr compr) {
-    if (at("for")) {
+    if (at(Token.FOR)) {
       return parseCompFor(compr);
     }
-    if (at("if")) {
+    if (at(Token.IF)) {
       return parseCompIf(compr);
     }
     return compr;
@@ -977,7 +1058,7 @@ public class Parser {
 
   // test_nocond: or_test | lambdef_nocond
   Expr parseTestNoCond() {
-    if (at("lambda")) {
+    if (at(Token.LAMBDA)) {
       return new Expr.Lambda(parseLambdaVarargsList(), parseTestNoCond());
     }
     return parseOrTest();
@@ -985,7 +1066,7 @@ public class Parser {
 
   Params parseLambdaVarargsList() {
     Params params = parseVarArgsList();
-    expect(":");
+    expect(Token.COLON);
     return params;
   }
 
@@ -1002,7 +1083,7 @@ public class Parser {
       throw new ParserException();
     }
     exprList.add(expr);
-    while (at(",")) {
+    while (at(Token.COMMA)) {
       exprList.single = false;
       Expr e = parseStarExpr();
       if (e == null) {
@@ -1022,7 +1103,7 @@ public class Parser {
       return testlist;
     }
     testlist.add(test);
-    while (at(",")) {
+    while (at(Token.COMMA)) {
       testlist.single = false;
       Expr t = parseTest();
       if (t == null) {
@@ -1047,23 +1128,23 @@ public class Parser {
   Arglist parseArglist() {
     Arglist arglist = new Arglist();
     while (true) {
-      if (at("*")) {
+      if (at(Token.STAR)) {
         if (arglist.restPositionals != null || arglist.restKeywords != null) {
           throw new ParserException();
         }
         arglist.setRestPositionals(parseTest());
-      } else if (at("**")) {
+      } else if (at(Token.DOUBLESTAR)) {
         if (arglist.restKeywords != null) {
           throw new ParserException();
         }
         arglist.setRestKeywords(parseTest());
       } else {
-        if (is(",") || is(")")) {
+        if (is(Token.COMMA) || is(Token.RPAR)) {
           break;
         }
         parseArgument(arglist);
       }
-      if (!at(",")) {
+      if (!at(Token.COMMA)) {
         break;
       }
     }
@@ -1073,9 +1154,9 @@ public class Parser {
   // argument: test [comp_for] | test '=' test
   void parseArgument(Arglist arglist) {
     Expr test = parseTest();
-    if (at("for")) {
+    if (at(Token.FOR)) {
       arglist.addPositional(new Expr.GeneratorCompr(test, parseCompFor(null)));
-    } else if (at("=")) {
+    } else if (at(Token.EQUAL)) {
       if (!(test instanceof Expr.Var)) {
         throw new ParserException();
       }
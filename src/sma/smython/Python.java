@@ -3,142 +3,387 @@
  */
 package sma.smython;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Represents the Python runtime objects (first attempt). */
 public class Python {
-  static final Int[] INTS = new Int[1002];
+  /** Smallest and largest <code>Int</code> shared by all users; set with "smython.intcache.max". */
+  static final int INT_CACHE_MIN = -5;
+  static final int INT_CACHE_MAX = Math.max(Integer.getInteger("smython.intcache.max", 1023), 1);
+  static final Int[] INTS = new Int[INT_CACHE_MAX - INT_CACHE_MIN + 1];
   static {
-    for (int i = -2; i < 1000; i++) {
-      INTS[i + 2] = new Int(i);
+    for (int i = 0; i < INTS.length; i++) {
+      INTS[i] = new Int(i + INT_CACHE_MIN);
     }
   }
 
-  static final RuntimeException breakException = new RuntimeException();
-  static final RuntimeException continueException = new RuntimeException();
-  static final RuntimeException returnException = new RuntimeException();
+  /** Whether to count the numbers allocated by the factory methods below, see Benchmark. */
+  static boolean countAllocations = Boolean.getBoolean("smython.allocations");
+  static long intAllocations;
+  static long bigIntAllocations;
+  static long floatAllocations;
+
+  /** The interned names of all modules and threads; an entry goes away with its last user. */
+  private static final ConcurrentHashMap<String, Name> names = new ConcurrentHashMap<String, Name>();
+  private static final ReferenceQueue<Str> unusedNames = new ReferenceQueue<Str>();
+
+  private static class Name extends WeakReference<Str> {
+    final String value;
+
+    Name(Str name) {
+      super(name, unusedNames);
+      value = name.value;
+    }
+  }
 
   public static final Obj None = new None();
   public static final Obj True = Int(1);
   public static final Obj False = Int(0);
   public static final Obj Ellipsis = new Ellipsis();
 
+  /** The builtin names, looked up after the globals. */
+  static final Dict builtins = new Dict();
+
+  static final Str ARGS = intern("args");
+
+  /** The keyword names of calls without keyword arguments. */
+  static final Str[] NO_NAMES = new Str[0];
+
+  /** The builtin exception classes; Java code raises them with <code>error()</code>. */
+  public static final Type BaseException = exceptionType("BaseException");
+  public static final Type Exception = exceptionType("Exception", BaseException);
+  public static final Type AssertionError = exceptionType("AssertionError", Exception);
+  public static final Type ArithmeticError = exceptionType("ArithmeticError", Exception);
+  public static final Type OverflowError = exceptionType("OverflowError", ArithmeticError);
+  public static final Type ZeroDivisionError = exceptionType("ZeroDivisionError", ArithmeticError);
+  public static final Type AttributeError = exceptionType("AttributeError", Exception);
+  public static final Type LookupError = exceptionType("LookupError", Exception);
+  public static final Type IndexError = exceptionType("IndexError", LookupError);
+  public static final Type KeyError = exceptionType("KeyError", LookupError);
+  public static final Type NameError = exceptionType("NameError", Exception);
+  public static final Type UnboundLocalError = exceptionType("UnboundLocalError", NameError);
+  public static final Type RuntimeError = exceptionType("RuntimeError", Exception);
+  public static final Type SyntaxError = exceptionType("SyntaxError", Exception);
+  public static final Type TypeError = exceptionType("TypeError", Exception);
+  public static final Type ValueError = exceptionType("ValueError", Exception);
+
+  static {
+    BaseException.dict.setItem(intern("__init__"), new Builtin("__init__") {
+      @Override
+      public Obj call(Frame f, Obj... args) {
+        args[0].setAttr(ARGS, new List(Arrays.copyOfRange(args, 1, args.length)));
+        return None;
+      }
+    });
+    builtins.setItem(intern("range"), new Builtin("range") {
+      @Override
+      public Obj call(Frame f, Obj... args) {
+        switch (args.length) {
+          case 1:
+            return new Range(0, intValue(args[0]), 1);
+          case 2:
+            return new Range(intValue(args[0]), intValue(args[1]), 1);
+          case 3:
+            return new Range(intValue(args[0]), intValue(args[1]), intValue(args[2]));
+          default:
+            throw error(TypeError, "range expected 1 to 3 arguments");
+        }
+      }
+    });
+    builtins.setItem(intern("len"), new Builtin("len") {
+      @Override
+      public Obj call(Frame f, Obj... args) {
+        if (args.length != 1) {
+          throw error(TypeError, "len() takes exactly one argument");
+        }
+        return Int(args[0].len());
+      }
+    });
+  }
+
+  private static Type exceptionType(String name, Type... bases) {
+    Type type = new Type(intern(name), bases, new Dict());
+    builtins.setItem(type.name, type);
+    return type;
+  }
+
+  /** Returns a new exception of the given class without arguments, to throw. */
+  static PythonException error(Type type) {
+    return new PythonException((Instance) type.call(null));
+  }
+
+  /** Returns a new exception of the given class with the given message, to throw. */
+  static PythonException error(Type type, String message) {
+    return error(type, Str(message));
+  }
+
+  /** Returns a new exception of the given class with the given argument, to throw. */
+  static PythonException error(Type type, Obj arg) {
+    return new PythonException((Instance) type.call(null, arg));
+  }
+
   public static Int Int(int value) {
-    return value >= -2 && value < 1000 ? INTS[value + 2] : new Int(value);
+    if (value >= INT_CACHE_MIN && value <= INT_CACHE_MAX) {
+      return INTS[value - INT_CACHE_MIN];
+    }
+    if (countAllocations) {
+      intAllocations++;
+    }
+    return new Int(value);
+  }
+
+  /** Returns an <code>Int</code> if the value fits into an <code>int</code>, else a <code>BigInt</code>. */
+  public static Obj Int(long value) {
+    return value == (int) value ? Int((int) value) : Int(BigInteger.valueOf(value));
+  }
+
+  /** Returns an <code>Int</code> if the value fits into an <code>int</code>, else a <code>BigInt</code>. */
+  public static Obj Int(BigInteger value) {
+    if (value.bitLength() < 32) {
+      return Int(value.intValue());
+    }
+    if (countAllocations) {
+      bigIntAllocations++;
+    }
+    return new BigInt(value);
   }
 
   public static Float Float(double value) {
+    if (countAllocations) {
+      floatAllocations++;
+    }
     return new Float(value);
   }
 
+  /** Resets the allocation counters. */
+  static void resetAllocations() {
+    intAllocations = bigIntAllocations = floatAllocations = 0;
+  }
+
   public static Str Str(String value) {
     return new Str(value);
   }
 
+  /**
+   * Returns the one <code>Str</code> for the given identifier, so that names can be compared and
+   * looked up in dictionaries by identity.
+   */
+  public static Str intern(String value) {
+    for (Object ref; (ref = unusedNames.poll()) != null; ) {
+      names.remove(((Name) ref).value, ref);
+    }
+    while (true) {
+      Name name = names.get(value);
+      if (name != null) {
+        Str str = name.get();
+        if (str != null) {
+          return str;
+        }
+        names.remove(value, name);
+      } else {
+        Str str = new Str(value, true);
+        if (names.putIfAbsent(value, new Name(str)) == null) {
+          return str;
+        }
+      }
+    }
+  }
+
   public static Obj bool(boolean bool) {
     return bool ? True : False;
   }
 
+  /** Returns the value of an integer index or count, which must fit into an <code>int</code>. */
+  static int intValue(Obj obj) {
+    if (obj instanceof Int) {
+      return ((Int) obj).value;
+    }
+    if (obj instanceof BigInt) {
+      throw error(OverflowError, "integer too large");
+    }
+    throw error(TypeError, "integer expected");
+  }
+
   // --------------------------------------------------------------------------------
 
   static abstract class Obj {
 
+    /** Returns the name of this object's class for error messages. */
+    String typeName() {
+      return getClass().getSimpleName().toLowerCase();
+    }
+
+    /** Returns the <code>TypeError</code> to raise if a binary operator doesn't support its operands. */
+    PythonException unsupported(String operator, Obj other) {
+      return error(TypeError, "unsupported operand type(s) for " + operator + ": '" + typeName() + "' and '" +
+          other.typeName() + "'");
+    }
+
     public boolean truish() {
-      return false;  //To change body of created methods use File | Settings | File Templates.
+      return true;
     }
 
     public Str repr() {
-      throw new UnsupportedOperationException();
+      return Str("<" + typeName() + " object>");
     }
 
     public Obj getItem(Obj key) {
-      throw new UnsupportedOperationException();
+      throw error(TypeError, "'" + typeName() + "' object is not subscriptable");
     }
 
     public void setItem(Obj key, Obj value) {
-      throw new UnsupportedOperationException();
+      throw error(TypeError, "'" + typeName() + "' object does not support item assignment");
     }
 
     public Obj call(Frame f, Obj... args) {
-      throw new UnsupportedOperationException();
+      throw error(TypeError, "'" + typeName() + "' object is not callable");
+    }
+
+    /**
+     * Calls this object without arguments. This and the next three methods are used by call sites
+     * with a fixed number of positional arguments; functions override them to bind the arguments
+     * without allocating an array.
+     */
+    public Obj call0(Frame f) {
+      return call(f);
+    }
+
+    public Obj call1(Frame f, Obj a) {
+      return call(f, a);
+    }
+
+    public Obj call2(Frame f, Obj a, Obj b) {
+      return call(f, a, b);
+    }
+
+    public Obj call3(Frame f, Obj a, Obj b, Obj c) {
+      return call(f, a, b, c);
+    }
+
+    /** Calls this object with positional arguments followed by the values of the named keywords. */
+    public Obj callKeywords(Frame f, Obj[] args, Str[] names) {
+      if (names.length != 0) {
+        throw error(TypeError, "keyword arguments are not supported");
+      }
+      return call(f, args);
     }
 
     public Obj getAttr(Str name) {
-      throw new UnsupportedOperationException();
+      throw error(AttributeError, "'" + typeName() + "' object has no attribute '" + name + "'");
     }
 
     public Obj setAttr(Str name, Obj value) {
-      throw new UnsupportedOperationException();
+      throw error(AttributeError, "'" + typeName() + "' object has no attribute '" + name + "'");
     }
 
     public Obj iter() {
-      throw new UnsupportedOperationException();
+      throw error(TypeError, "'" + typeName() + "' object is not iterable");
     }
 
     public Obj next() {
-      throw new UnsupportedOperationException();
+      throw error(TypeError, "'" + typeName() + "' object is not an iterator");
     }
 
     public Obj or(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("|", other);
     }
 
     public Obj xor(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("^", other);
     }
 
     public Obj and(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("&", other);
     }
 
     public Obj lshift(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("<<", other);
     }
 
     public Obj rshift(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported(">>", other);
     }
 
     public Obj add(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("+", other);
     }
 
     public Obj sub(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("-", other);
     }
 
     public Obj mul(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("*", other);
     }
 
     public Obj div(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("/", other);
     }
 
     public Obj mod(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("%", other);
     }
 
     public Obj intDiv(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("//", other);
     }
 
     public Obj power(Obj other) {
-      throw new UnsupportedOperationException();
+      throw unsupported("** or pow()", other);
     }
 
     public Obj neg() {
-      throw new UnsupportedOperationException();
+      throw error(TypeError, "bad operand type for unary -: '" + typeName() + "'");
     }
 
     public Obj pos() {
-      throw new UnsupportedOperationException();
+      throw error(TypeError, "bad operand type for unary +: '" + typeName() + "'");
     }
 
     public Obj invert() {
-      throw new UnsupportedOperationException();
+      throw error(TypeError, "bad operand type for unary ~: '" + typeName() + "'");
+    }
+
+    public Obj lt(Obj other) {
+      throw error(TypeError, "'<' not supported between instances of '" + typeName() + "' and '" +
+          other.typeName() + "'");
+    }
+
+    public Obj gt(Obj other) {
+      throw error(TypeError, "'>' not supported between instances of '" + typeName() + "' and '" +
+          other.typeName() + "'");
+    }
+
+    public Obj le(Obj other) {
+      throw error(TypeError, "'<=' not supported between instances of '" + typeName() + "' and '" +
+          other.typeName() + "'");
+    }
+
+    public Obj ge(Obj other) {
+      throw error(TypeError, "'>=' not supported between instances of '" + typeName() + "' and '" +
+          other.typeName() + "'");
+    }
+
+    public Obj eq(Obj other) {
+      return bool(this == other);
+    }
+
+    public Obj ne(Obj other) {
+      return bool(!eq(other).truish());
+    }
+
+    public boolean contains(Obj item) {
+      throw error(TypeError, "argument of type '" + typeName() + "' is not iterable");
+    }
+
+    public int len() {
+      throw error(TypeError, "object of type '" + typeName() + "' has no len()");
     }
 
     @Override
@@ -148,6 +393,16 @@ public class Python {
   }
 
   static class None extends Obj {
+    @Override
+    String typeName() {
+      return "NoneType";
+    }
+
+    @Override
+    public boolean truish() {
+      return false;
+    }
+
     @Override
     public Str repr() {
       return Str("None");
@@ -159,6 +414,12 @@ public class Python {
     }
   }
 
+  /**
+   * Represents an integer which fits into an <code>int</code>. Operations compute their result
+   * as a <code>long</code>, which is exact for two ints, and continue with a <code>BigInt</code>
+   * if it doesn't fit, so both classes together implement Python's unbounded integers while small
+   * values stay cheap.
+   */
   static class Int extends Obj {
     final int value;
 
@@ -166,40 +427,67 @@ public class Python {
       this.value = value;
     }
 
-    @Override
-    public Str repr() {
-      return Str(String.valueOf(value));
+    static Obj add(int a, int b) {
+      return Int((long) a + b);
     }
 
-    @Override
-    public Obj add(Obj other) {
-      if (other instanceof Int) {
-        return Int(value + ((Int) other).value);
-      }
-      return super.add(other);
+    static Obj sub(int a, int b) {
+      return Int((long) a - b);
     }
 
-    @Override
-    public boolean equals(Object o) {
-      return o == this || o instanceof Int && ((Int) o).value == value;
+    static Obj mul(int a, int b) {
+      return Int((long) a * b);
     }
 
-    @Override
-    public int hashCode() {
-      return value;
+    static Obj intDiv(int a, int b) {
+      if (b == 0) {
+        throw error(ZeroDivisionError, "integer division or modulo by zero");
+      }
+      return b == -1 ? Int(-(long) a) : Int(Math.floorDiv(a, b));
     }
 
-    @Override
-    public String toString() {
-      return String.valueOf(value);
+    static Obj mod(int a, int b) {
+      if (b == 0) {
+        throw error(ZeroDivisionError, "integer division or modulo by zero");
+      }
+      return Int(Math.floorMod(a, b));
     }
-  }
 
-  static class Float extends Obj {
-    final double value;
+    static Obj lshift(int a, int b) {
+      if (b < 0) {
+        throw error(ValueError, "negative shift count");
+      }
+      if (b < 32) {
+        return Int((long) a << b);
+      }
+      return a == 0 ? Int(0) : Int(BigInteger.valueOf(a).shiftLeft(b));
+    }
 
-    Float(double value) {
-      this.value = value;
+    static Obj rshift(int a, int b) {
+      if (b < 0) {
+        throw error(ValueError, "negative shift count");
+      }
+      return Int(a >> Math.min(b, 31));
+    }
+
+    static Obj power(int a, int b) {
+      if (b < 0) {
+        return Float(Math.pow(a, b));
+      }
+      if (a == 0 || a == 1) {
+        return Int(b == 0 ? 1 : a);
+      }
+      if (a == -1) {
+        return Int((b & 1) == 0 ? 1 : -1);
+      }
+      long result = 1;
+      for (int i = 0; i < b; i++) { // overflows after at most 32 steps
+        result *= a;
+        if (result != (int) result) {
+          return Int(BigInteger.valueOf(a).pow(b));
+        }
+      }
+      return Int(result);
     }
 
     @Override
@@ -208,135 +496,1223 @@ public class Python {
     }
 
     @Override
-    public boolean equals(Object o) {
-      return o == this || o instanceof Float && ((Float) o).value == value;
+    public boolean truish() {
+      return value != 0;
     }
 
     @Override
-    public int hashCode() {
-      return (int) value;
+    public Obj add(Obj other) {
+      if (other instanceof Int) {
+        return add(value, ((Int) other).value);
+      }
+      if (other instanceof Float) {
+        return Float(value + ((Float) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.add(this);
+      }
+      return super.add(other);
     }
 
     @Override
-    public String toString() {
-      return String.valueOf(value);
+    public Obj sub(Obj other) {
+      if (other instanceof Int) {
+        return sub(value, ((Int) other).value);
+      }
+      if (other instanceof Float) {
+        return Float(value - ((Float) other).value);
+      }
+      if (other instanceof BigInt) {
+        return Int(BigInteger.valueOf(value).subtract(((BigInt) other).value));
+      }
+      return super.sub(other);
     }
-  }
-
-  static class Str extends Obj {
-    final String value;
 
-    Str(String value) {
-      this.value = value;
+    @Override
+    public Obj mul(Obj other) {
+      if (other instanceof Int) {
+        return mul(value, ((Int) other).value);
+      }
+      if (other instanceof Float) {
+        return Float(value * ((Float) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.mul(this);
+      }
+      return super.mul(other);
     }
 
     @Override
-    public Str repr() {
-      if (value.indexOf('\'') != -1) {
-        if (value.indexOf('"') == -1) {
-          return Str('"' + value + "'");
-        }
-        StringBuilder b = new StringBuilder(value.length() * 2);
-        b.append('\'');
-        for (int i = 0; i < value.length(); i++) {
-          char ch = value.charAt(i);
-          if (ch == '\'') {
-            b.append('\\');
-          }
-          b.append(ch);
-        }
-        b.append('\'');
-        return Str(b.toString());
+    public Obj div(Obj other) {
+      if (other instanceof Int || other instanceof Float || other instanceof BigInt) {
+        return Float(value).div(other);
       }
-      return Str('\'' + value + '\'');
+      return super.div(other);
     }
 
     @Override
-    public boolean equals(Object o) {
-      return o == this || o instanceof Str && ((Str) o).value.equals(value);
+    public Obj intDiv(Obj other) {
+      if (other instanceof Int) {
+        return intDiv(value, ((Int) other).value);
+      }
+      if (other instanceof BigInt) {
+        return new BigInt(BigInteger.valueOf(value)).intDiv(other);
+      }
+      return super.intDiv(other);
     }
 
     @Override
-    public int hashCode() {
-      return value.hashCode();
+    public Obj mod(Obj other) {
+      if (other instanceof Int) {
+        return mod(value, ((Int) other).value);
+      }
+      if (other instanceof BigInt) {
+        return new BigInt(BigInteger.valueOf(value)).mod(other);
+      }
+      return super.mod(other);
     }
 
     @Override
-    public String toString() {
-      return value;
+    public Obj power(Obj other) {
+      if (other instanceof Int) {
+        return power(value, ((Int) other).value);
+      }
+      return super.power(other);
     }
-  }
-
-  static class List extends Obj {
-    final ArrayList<Obj> values;
 
-    List() {
-      this(0);
+    @Override
+    public Obj neg() {
+      return Int(-(long) value);
     }
 
-    List(int capacity) {
-      this(new ArrayList<Obj>(capacity));
+    @Override
+    public Obj pos() {
+      return this;
     }
 
-    List(Obj... values) {
-      this(new ArrayList<Obj>(Arrays.asList(values)));
+    @Override
+    public Obj invert() {
+      return Int(~value);
     }
 
-    List(ArrayList<Obj> values) {
-      this.values = values;
+    @Override
+    public Obj and(Obj other) {
+      if (other instanceof Int) {
+        return Int(value & ((Int) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.and(this);
+      }
+      return super.and(other);
     }
 
     @Override
-    public Obj getItem(Obj key) {
-      return values.get(((Int) key).value);
+    public Obj or(Obj other) {
+      if (other instanceof Int) {
+        return Int(value | ((Int) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.or(this);
+      }
+      return super.or(other);
     }
 
     @Override
-    public void setItem(Obj key, Obj value) {
-      values.set(((Int) key).value, value);
+    public Obj xor(Obj other) {
+      if (other instanceof Int) {
+        return Int(value ^ ((Int) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.xor(this);
+      }
+      return super.xor(other);
     }
 
     @Override
-    public boolean equals(Object o) {
-      return o instanceof List && ((List) o).values.equals(values);
+    public Obj lshift(Obj other) {
+      if (other instanceof Int) {
+        return lshift(value, ((Int) other).value);
+      }
+      return super.lshift(other);
     }
-  }
-
-  static class Dict extends Obj {
-    final HashMap<Obj, Obj> values;
 
-    Dict() {
-      this(0);
+    @Override
+    public Obj rshift(Obj other) {
+      if (other instanceof Int) {
+        return rshift(value, ((Int) other).value);
+      }
+      return super.rshift(other);
     }
 
-    Dict(int capacity) {
-      this(new HashMap<Obj, Obj>(capacity));
+    @Override
+    public Obj lt(Obj other) {
+      if (other instanceof Int) {
+        return bool(value < ((Int) other).value);
+      }
+      if (other instanceof Float) {
+        return bool(value < ((Float) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.gt(this);
+      }
+      return super.lt(other);
     }
 
-    Dict(Obj... values) {
-      this(convertToHashMap(values));
+    @Override
+    public Obj gt(Obj other) {
+      if (other instanceof Int) {
+        return bool(value > ((Int) other).value);
+      }
+      if (other instanceof Float) {
+        return bool(value > ((Float) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.lt(this);
+      }
+      return super.gt(other);
     }
 
-    private static HashMap<Obj, Obj> convertToHashMap(Obj[] values) {
-      HashMap<Obj, Obj> dict = new HashMap<Obj, Obj>(values.length / 2);
-      for (int i = 0; i < values.length; i += 2) {
-        dict.put(values[i], values[i + 1]);
+    @Override
+    public Obj le(Obj other) {
+      if (other instanceof Int) {
+        return bool(value <= ((Int) other).value);
       }
-      return dict;
+      if (other instanceof Float) {
+        return bool(value <= ((Float) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.ge(this);
+      }
+      return super.le(other);
     }
 
-    Dict(HashMap<Obj, Obj> values) {
-      this.values = values;
+    @Override
+    public Obj ge(Obj other) {
+      if (other instanceof Int) {
+        return bool(value >= ((Int) other).value);
+      }
+      if (other instanceof Float) {
+        return bool(value >= ((Float) other).value);
+      }
+      if (other instanceof BigInt) {
+        return other.le(this);
+      }
+      return super.ge(other);
     }
 
     @Override
-    public Obj getItem(Obj key) {
-      return values.get(key);
+    public Obj eq(Obj other) {
+      if (other instanceof Int) {
+        return bool(value == ((Int) other).value);
+      }
+      if (other instanceof Float) {
+        return bool(value == ((Float) other).value);
+      }
+      return super.eq(other);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o == this || o instanceof Int && ((Int) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(value);
+    }
+  }
+
+  /**
+   * Represents an integer which doesn't fit into an <code>int</code>. Results are normalized by
+   * <code>Python.Int(BigInteger)</code>, so a value is either an <code>Int</code> or a
+   * <code>BigInt</code>, never both.
+   */
+  static class BigInt extends Obj {
+    final BigInteger value;
+
+    BigInt(BigInteger value) {
+      this.value = value;
+    }
+
+    @Override
+    String typeName() {
+      return "int";
+    }
+
+    /** Returns the value of an <code>Int</code> or <code>BigInt</code>, or null for other objects. */
+    static BigInteger big(Obj obj) {
+      if (obj instanceof Int) {
+        return BigInteger.valueOf(((Int) obj).value);
+      }
+      if (obj instanceof BigInt) {
+        return ((BigInt) obj).value;
+      }
+      return null;
+    }
+
+    @Override
+    public Str repr() {
+      return Str(value.toString());
+    }
+
+    @Override
+    public boolean truish() {
+      return value.signum() != 0;
+    }
+
+    @Override
+    public Obj add(Obj other) {
+      BigInteger b = big(other);
+      if (b != null) {
+        return Int(value.add(b));
+      }
+      if (other instanceof Float) {
+        return Float(value.doubleValue()).add(other);
+      }
+      return super.add(other);
+    }
+
+    @Override
+    public Obj sub(Obj other) {
+      BigInteger b = big(other);
+      if (b != null) {
+        return Int(value.subtract(b));
+      }
+      if (other instanceof Float) {
+        return Float(value.doubleValue()).sub(other);
+      }
+      return super.sub(other);
+    }
+
+    @Override
+    public Obj mul(Obj other) {
+      BigInteger b = big(other);
+      if (b != null) {
+        return Int(value.multiply(b));
+      }
+      if (other instanceof Float) {
+        return Float(value.doubleValue()).mul(other);
+      }
+      return super.mul(other);
+    }
+
+    @Override
+    public Obj div(Obj other) {
+      if (other instanceof Int || other instanceof Float || other instanceof BigInt) {
+        return Float(value.doubleValue()).div(other);
+      }
+      return super.div(other);
+    }
+
+    @Override
+    public Obj intDiv(Obj other) {
+      BigInteger b = big(other);
+      if (b != null) {
+        if (b.signum() == 0) {
+          throw error(ZeroDivisionError, "integer division or modulo by zero");
+        }
+        BigInteger[] qr = value.divideAndRemainder(b);
+        if (qr[1].signum() != 0 && qr[1].signum() != b.signum()) {
+          return Int(qr[0].subtract(BigInteger.ONE));
+        }
+        return Int(qr[0]);
+      }
+      return super.intDiv(other);
+    }
+
+    @Override
+    public Obj mod(Obj other) {
+      BigInteger b = big(other);
+      if (b != null) {
+        if (b.signum() == 0) {
+          throw error(ZeroDivisionError, "integer division or modulo by zero");
+        }
+        BigInteger r = value.remainder(b);
+        if (r.signum() != 0 && r.signum() != b.signum()) {
+          r = r.add(b);
+        }
+        return Int(r);
+      }
+      return super.mod(other);
+    }
+
+    @Override
+    public Obj power(Obj other) {
+      if (other instanceof Int) {
+        int exponent = ((Int) other).value;
+        if (exponent < 0) {
+          return Float(Math.pow(value.doubleValue(), exponent));
+        }
+        return Int(value.pow(exponent));
+      }
+      return super.power(other);
+    }
+
+    @Override
+    public Obj neg() {
+      return Int(value.negate());
+    }
+
+    @Override
+    public Obj pos() {
+      return this;
+    }
+
+    @Override
+    public Obj invert() {
+      return Int(value.not());
+    }
+
+    @Override
+    public Obj and(Obj other) {
+      BigInteger b = big(other);
+      return b != null ? Int(value.and(b)) : super.and(other);
+    }
+
+    @Override
+    public Obj or(Obj other) {
+      BigInteger b = big(other);
+      return b != null ? Int(value.or(b)) : super.or(other);
+    }
+
+    @Override
+    public Obj xor(Obj other) {
+      BigInteger b = big(other);
+      return b != null ? Int(value.xor(b)) : super.xor(other);
+    }
+
+    @Override
+    public Obj lshift(Obj other) {
+      if (other instanceof Int) {
+        int b = ((Int) other).value;
+        if (b < 0) {
+          throw error(ValueError, "negative shift count");
+        }
+        return Int(value.shiftLeft(b));
+      }
+      return super.lshift(other);
+    }
+
+    @Override
+    public Obj rshift(Obj other) {
+      if (other instanceof Int) {
+        int b = ((Int) other).value;
+        if (b < 0) {
+          throw error(ValueError, "negative shift count");
+        }
+        return Int(value.shiftRight(b));
+      }
+      return super.rshift(other);
+    }
+
+    private int compareTo(Obj other) {
+      BigInteger b = big(other);
+      if (b != null) {
+        return value.compareTo(b);
+      }
+      return Double.compare(value.doubleValue(), ((Float) other).value);
+    }
+
+    private static boolean isNumber(Obj obj) {
+      return obj instanceof Int || obj instanceof BigInt || obj instanceof Float;
+    }
+
+    @Override
+    public Obj lt(Obj other) {
+      return isNumber(other) ? bool(compareTo(other) < 0) : super.lt(other);
+    }
+
+    @Override
+    public Obj gt(Obj other) {
+      return isNumber(other) ? bool(compareTo(other) > 0) : super.gt(other);
+    }
+
+    @Override
+    public Obj le(Obj other) {
+      return isNumber(other) ? bool(compareTo(other) <= 0) : super.le(other);
+    }
+
+    @Override
+    public Obj ge(Obj other) {
+      return isNumber(other) ? bool(compareTo(other) >= 0) : super.ge(other);
+    }
+
+    @Override
+    public Obj eq(Obj other) {
+      return isNumber(other) ? bool(compareTo(other) == 0) : super.eq(other);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o == this || o instanceof BigInt && ((BigInt) o).value.equals(value);
+    }
+
+    @Override
+    public int hashCode() {
+      return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return value.toString();
+    }
+  }
+
+  static class Float extends Obj {
+    final double value;
+
+    Float(double value) {
+      this.value = value;
+    }
+
+    private static double toDouble(Obj obj) {
+      if (obj instanceof Int) {
+        return ((Int) obj).value;
+      }
+      if (obj instanceof BigInt) {
+        return ((BigInt) obj).value.doubleValue();
+      }
+      return ((Float) obj).value;
+    }
+
+    private static boolean isNumber(Obj obj) {
+      return obj instanceof Int || obj instanceof Float || obj instanceof BigInt;
+    }
+
+    @Override
+    public boolean truish() {
+      return value != 0.0;
+    }
+
+    @Override
+    public Obj add(Obj other) {
+      return isNumber(other) ? Float(value + toDouble(other)) : super.add(other);
+    }
+
+    @Override
+    public Obj sub(Obj other) {
+      return isNumber(other) ? Float(value - toDouble(other)) : super.sub(other);
+    }
+
+    @Override
+    public Obj mul(Obj other) {
+      return isNumber(other) ? Float(value * toDouble(other)) : super.mul(other);
+    }
+
+    @Override
+    public Obj div(Obj other) {
+      if (isNumber(other)) {
+        double divisor = toDouble(other);
+        if (divisor == 0.0) {
+          throw error(ZeroDivisionError, "division by zero");
+        }
+        return Float(value / divisor);
+      }
+      return super.div(other);
+    }
+
+    @Override
+    public Obj neg() {
+      return Float(-value);
+    }
+
+    @Override
+    public Obj pos() {
+      return this;
+    }
+
+    @Override
+    public Obj lt(Obj other) {
+      return isNumber(other) ? bool(value < toDouble(other)) : super.lt(other);
+    }
+
+    @Override
+    public Obj gt(Obj other) {
+      return isNumber(other) ? bool(value > toDouble(other)) : super.gt(other);
+    }
+
+    @Override
+    public Obj le(Obj other) {
+      return isNumber(other) ? bool(value <= toDouble(other)) : super.le(other);
+    }
+
+    @Override
+    public Obj ge(Obj other) {
+      return isNumber(other) ? bool(value >= toDouble(other)) : super.ge(other);
+    }
+
+    @Override
+    public Obj eq(Obj other) {
+      return isNumber(other) ? bool(value == toDouble(other)) : super.eq(other);
+    }
+
+    @Override
+    public Str repr() {
+      return Str(String.valueOf(value));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o == this || o instanceof Float && ((Float) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) value;
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(value);
+    }
+  }
+
+  static class Str extends Obj {
+    final String value;
+    /** Whether this is the shared instance returned by <code>intern()</code>. */
+    final boolean interned;
+    private int hash;
+
+    Str(String value) {
+      this.value = value;
+      this.interned = false;
+    }
+
+    private Str(String value, boolean interned) {
+      this.value = value;
+      this.interned = interned;
+      this.hash = value.hashCode();
+    }
+
+    @Override
+    public Str repr() {
+      if (value.indexOf('\'') != -1) {
+        if (value.indexOf('"') == -1) {
+          return Str('"' + value + "'");
+        }
+        StringBuilder b = new StringBuilder(value.length() * 2);
+        b.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+          char ch = value.charAt(i);
+          if (ch == '\'') {
+            b.append('\\');
+          }
+          b.append(ch);
+        }
+        b.append('\'');
+        return Str(b.toString());
+      }
+      return Str('\'' + value + '\'');
+    }
+
+    @Override
+    public boolean truish() {
+      return value.length() != 0;
+    }
+
+    @Override
+    public Obj add(Obj other) {
+      if (other instanceof Str) {
+        return Str(value + ((Str) other).value);
+      }
+      return super.add(other);
+    }
+
+    @Override
+    public Obj iter() {
+      return new StrIterator(value);
+    }
+
+    @Override
+    public int len() {
+      return value.length();
+    }
+
+    @Override
+    public Obj eq(Obj other) {
+      return bool(equals(other));
+    }
+
+    /** Two different interned strings are never equal. */
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+      if (!(o instanceof Str)) {
+        return false;
+      }
+      Str other = (Str) o;
+      return !(interned && other.interned) && other.value.equals(value);
+    }
+
+    @Override
+    public int hashCode() {
+      int h = hash;
+      if (h == 0) {
+        hash = h = value.hashCode();
+      }
+      return h;
+    }
+
+    @Override
+    public String toString() {
+      return value;
+    }
+  }
+
+  static class List extends Obj {
+    final ArrayList<Obj> values;
+
+    List() {
+      this(0);
+    }
+
+    List(int capacity) {
+      this(new ArrayList<Obj>(capacity));
+    }
+
+    List(Obj... values) {
+      this(new ArrayList<Obj>(Arrays.asList(values)));
+    }
+
+    List(ArrayList<Obj> values) {
+      this.values = values;
+    }
+
+    @Override
+    public boolean truish() {
+      return !values.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Obj item) {
+      for (Obj value : values) {
+        if (value == item || value.eq(item).truish()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Obj getItem(Obj key) {
+      return values.get(index(key));
     }
 
     @Override
     public void setItem(Obj key, Obj value) {
-      values.put(key, value);
+      values.set(index(key), value);
+    }
+
+    /** Returns the position of the given index, which may count from the end. */
+    private int index(Obj key) {
+      int i = intValue(key);
+      if (i < 0) {
+        i += values.size();
+      }
+      if (i < 0 || i >= values.size()) {
+        throw error(IndexError, "list index out of range");
+      }
+      return i;
+    }
+
+    @Override
+    public Obj iter() {
+      return new ListIterator(values);
+    }
+
+    @Override
+    public int len() {
+      return values.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof List && ((List) o).values.equals(values);
+    }
+  }
+
+  /**
+   * Represents a dictionary which keeps its keys in insertion order. Like CPython 3.6, it appends
+   * hashes, keys and values to dense arrays and finds them with an open-addressing table of
+   * indices into these arrays, so an entry costs no object of its own. Java's string hashes are
+   * too regular to use their low bits directly, so the table is indexed by the high bits of the
+   * hash times the golden ratio and probed linearly. Keys are compared by identity first, which
+   * is all it takes for the same name's <code>Str</code>.
+   */
+  static class Dict extends Obj {
+    private static final int EMPTY = -1;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    /** The open-addressing table; a power of two in size, each slot is empty or an entry. */
+    private int[] index;
+    private int[] hashes;
+    /** Keys and values, interleaved. */
+    private Obj[] entries;
+    private int size;
+    /** Turns a hash into a slot of the table. */
+    private int shift;
+
+    Dict() {
+      this(0);
+    }
+
+    Dict(int capacity) {
+      int length = 8;
+      while (usable(length) < capacity) {
+        length <<= 1;
+      }
+      allocate(length);
+    }
+
+    Dict(Obj... values) {
+      this(values.length / 2);
+      for (int i = 0; i < values.length; i += 2) {
+        setItem(values[i], values[i + 1]);
+      }
+    }
+
+    /** Returns the number of entries a table of the given size holds; it is kept 2/3 full at most. */
+    private static int usable(int length) {
+      return length * 2 / 3;
+    }
+
+    private void allocate(int length) {
+      index = new int[length];
+      Arrays.fill(index, EMPTY);
+      shift = Integer.numberOfLeadingZeros(length - 1);
+      hashes = new int[usable(length)];
+      entries = new Obj[usable(length) * 2];
+    }
+
+    /** Returns the position of the entry with the given key or <code>-1</code>. */
+    private int lookup(Obj key, int hash) {
+      int[] index = this.index;
+      int mask = index.length - 1;
+      for (int i = hash * GOLDEN_RATIO >>> shift; ; i = (i + 1) & mask) {
+        int entry = index[i];
+        if (entry == EMPTY) {
+          return -1;
+        }
+        Obj k = entries[entry * 2];
+        if (k == key || hashes[entry] == hash && k.equals(key)) {
+          return entry;
+        }
+      }
+    }
+
+    /** Returns the slot of the table where to insert an entry with the given new key. */
+    private int emptySlot(int hash) {
+      int mask = index.length - 1;
+      int i = hash * GOLDEN_RATIO >>> shift;
+      while (index[i] != EMPTY) {
+        i = (i + 1) & mask;
+      }
+      return i;
+    }
+
+    private void grow() {
+      int[] hashes = this.hashes;
+      Obj[] entries = this.entries;
+      allocate(index.length * 2);
+      System.arraycopy(hashes, 0, this.hashes, 0, size);
+      System.arraycopy(entries, 0, this.entries, 0, size * 2);
+      for (int entry = 0; entry < size; entry++) {
+        index[emptySlot(hashes[entry])] = entry;
+      }
+    }
+
+    /** Returns the key of the entry at the given position, see <code>KeyIterator</code>. */
+    Obj keyAt(int entry) {
+      return entry < size ? entries[entry * 2] : null;
+    }
+
+    @Override
+    public boolean truish() {
+      return size != 0;
+    }
+
+    @Override
+    public boolean contains(Obj item) {
+      return lookup(item, item.hashCode()) != -1;
+    }
+
+    /** Returns the value for the given key or <code>null</code>. */
+    Obj get(Obj key) {
+      int entry = lookup(key, key.hashCode());
+      return entry != -1 ? entries[entry * 2 + 1] : null;
+    }
+
+    @Override
+    public Obj getItem(Obj key) {
+      Obj value = get(key);
+      if (value == null) {
+        throw error(KeyError, key);
+      }
+      return value;
+    }
+
+    @Override
+    public void setItem(Obj key, Obj value) {
+      int hash = key.hashCode();
+      int entry = lookup(key, hash);
+      if (entry != -1) {
+        entries[entry * 2 + 1] = value;
+        return;
+      }
+      if (size == hashes.length) {
+        grow();
+      }
+      index[emptySlot(hash)] = size;
+      hashes[size] = hash;
+      entries[size * 2] = key;
+      entries[size * 2 + 1] = value;
+      size++;
+    }
+
+    @Override
+    public Obj iter() {
+      return new KeyIterator(this);
+    }
+
+    @Override
+    public int len() {
+      return size;
+    }
+  }
+
+  /** Represents a set as the keys of a dict, so it keeps its elements in insertion order. */
+  static class Set extends Obj {
+    private final Dict dict = new Dict();
+
+    void put(Obj value) {
+      dict.setItem(value, None);
+    }
+
+    @Override
+    public boolean truish() {
+      return dict.truish();
+    }
+
+    @Override
+    public boolean contains(Obj item) {
+      return dict.contains(item);
+    }
+
+    @Override
+    public Obj iter() {
+      return dict.iter();
+    }
+
+    @Override
+    public int len() {
+      return dict.len();
+    }
+
+    @Override
+    public Obj eq(Obj other) {
+      return bool(equals(other));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Set) || ((Set) o).len() != len()) {
+        return false;
+      }
+      Obj iter = iter();
+      for (Obj value = iter.next(); value != null; value = iter.next()) {
+        if (!((Set) o).contains(value)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  // --------------------------------------------------------------------------------
+
+  /**
+   * Base class of the runtime's iterators. They return <code>null</code> when exhausted, never
+   * allocate on <code>next()</code> besides the element they return, and return themselves on
+   * <code>iter()</code> so that they can be used in "for" loops.
+   */
+  static abstract class Iterator extends Obj {
+    @Override
+    public Obj iter() {
+      return this;
+    }
+
+    @Override
+    public abstract Obj next();
+  }
+
+  /** Iterates a list by index, seeing elements appended while iterating like Python does. */
+  static class ListIterator extends Iterator {
+    private final ArrayList<Obj> values;
+    private int index;
+
+    ListIterator(ArrayList<Obj> values) {
+      this.values = values;
+    }
+
+    @Override
+    public Obj next() {
+      return index < values.size() ? values.get(index++) : null;
+    }
+  }
+
+  /**
+   * Iterates the keys of a dict in insertion order. Like Python, it fails if keys were added
+   * since it was created.
+   */
+  static class KeyIterator extends Iterator {
+    private final Dict dict;
+    private final int size;
+    private int entry;
+
+    KeyIterator(Dict dict) {
+      this.dict = dict;
+      this.size = dict.len();
+    }
+
+    @Override
+    public Obj next() {
+      if (dict.len() != size) {
+        throw error(RuntimeError, "dictionary changed size during iteration");
+      }
+      Obj key = dict.keyAt(entry);
+      if (key != null) {
+        entry++;
+      }
+      return key;
+    }
+  }
+
+  /** Iterates the characters of a string, sharing the strings of Latin-1 characters. */
+  static class StrIterator extends Iterator {
+    private static final Str[] CHARS = new Str[256];
+    static {
+      for (int i = 0; i < CHARS.length; i++) {
+        CHARS[i] = Str(String.valueOf((char) i));
+      }
+    }
+
+    private final String value;
+    private int index;
+
+    StrIterator(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public Obj next() {
+      if (index == value.length()) {
+        return null;
+      }
+      char ch = value.charAt(index++);
+      return ch < CHARS.length ? CHARS[ch] : Str(String.valueOf(ch));
+    }
+  }
+
+  /**
+   * Represents the lazy sequence of integers created by <code>range()</code>. It has a constant
+   * size; length, membership, indexing and slicing are computed from start, stop and step.
+   */
+  static class Range extends Obj {
+    final int start;
+    final int stop;
+    final int step;
+    final int length;
+
+    Range(int start, int stop, int step) {
+      if (step == 0) {
+        throw error(ValueError, "range() arg 3 must not be zero");
+      }
+      this.start = start;
+      this.stop = stop;
+      this.step = step;
+      long length;
+      if (step > 0) {
+        length = start < stop ? ((long) stop - start - 1) / step + 1 : 0;
+      } else {
+        length = start > stop ? ((long) start - stop - 1) / -step + 1 : 0;
+      }
+      if (length > Integer.MAX_VALUE) {
+        throw error(OverflowError, "range too large");
+      }
+      this.length = (int) length;
+    }
+
+    /** Returns the i-th element without boxing it; <code>i</code> must be a valid index. */
+    int get(int i) {
+      return (int) (start + (long) i * step);
+    }
+
+    @Override
+    public boolean truish() {
+      return length != 0;
+    }
+
+    @Override
+    public int len() {
+      return length;
+    }
+
+    @Override
+    public boolean contains(Obj item) {
+      if (!(item instanceof Int)) {
+        return false;
+      }
+      long offset = (long) ((Int) item).value - start;
+      return offset % step == 0 && offset / step >= 0 && offset / step < length;
+    }
+
+    @Override
+    public Obj getItem(Obj key) {
+      if (key instanceof Slice) {
+        int[] indices = ((Slice) key).indices(length);
+        int n = Slice.length(indices);
+        long step = n > 1 ? (long) this.step * indices[2] : 1;
+        long start = n > 0 ? get(indices[0]) : this.start;
+        long stop = start + n * step;
+        if (step != (int) step || stop != (int) stop) {
+          throw error(OverflowError, "range too large");
+        }
+        return new Range((int) start, (int) stop, (int) step);
+      }
+      int i = intValue(key);
+      if (i < 0) {
+        i += length;
+      }
+      if (i < 0 || i >= length) {
+        throw error(IndexError, "range object index out of range");
+      }
+      return Int(get(i));
+    }
+
+    @Override
+    public Obj iter() {
+      return new RangeIterator(start, stop, step);
+    }
+
+    @Override
+    public Obj eq(Obj other) {
+      return bool(equals(other));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Range)) {
+        return false;
+      }
+      Range r = (Range) o;
+      return length == r.length && (length == 0 || start == r.start && (length == 1 || step == r.step));
+    }
+
+    @Override
+    public int hashCode() {
+      return length == 0 ? 0 : length == 1 ? start : start * 31 + step;
+    }
+
+    @Override
+    public Str repr() {
+      return Str("range(" + start + ", " + stop + (step == 1 ? "" : ", " + step) + ")");
+    }
+  }
+
+  /** Counts with a primitive, allocating only the <code>Int</code>s it returns. */
+  static class RangeIterator extends Iterator {
+    private final int stop;
+    private final int step;
+    private long next;
+
+    RangeIterator(long next, int stop, int step) {
+      this.stop = stop;
+      this.step = step;
+      this.next = next;
+    }
+
+    @Override
+    public Obj next() {
+      if (step > 0 ? next >= stop : next <= stop) {
+        return null;
+      }
+      int value = (int) next;
+      next += step;
+      return Int(value);
+    }
+  }
+
+  /** Represents a slice like <code>[start:stop:step]</code>; missing parts are <code>None</code>. */
+  static class Slice extends Obj {
+    final Obj start;
+    final Obj stop;
+    final Obj step;
+
+    Slice(Obj start, Obj stop, Obj step) {
+      this.start = start;
+      this.stop = stop;
+      this.step = step;
+    }
+
+    /** Returns start, stop and step adjusted to a sequence of the given length, like Python does. */
+    int[] indices(int length) {
+      int step = this.step == None ? 1 : intValue(this.step);
+      if (step == 0) {
+        throw error(ValueError, "slice step cannot be zero");
+      }
+      int lower = step < 0 ? -1 : 0;
+      int upper = step < 0 ? length - 1 : length;
+      int start = this.start == None ? (step < 0 ? upper : lower) : clamp(intValue(this.start), length, lower, upper);
+      int stop = this.stop == None ? (step < 0 ? lower : upper) : clamp(intValue(this.stop), length, lower, upper);
+      return new int[]{start, stop, step};
+    }
+
+    private static int clamp(int index, int length, int lower, int upper) {
+      if (index < 0) {
+        index += length;
+        return index < lower ? lower : index;
+      }
+      return index > upper ? upper : index;
+    }
+
+    /** Returns the number of elements selected by the given indices. */
+    static int length(int[] indices) {
+      int start = indices[0], stop = indices[1], step = indices[2];
+      if (step > 0) {
+        return start < stop ? (stop - start - 1) / step + 1 : 0;
+      }
+      return start > stop ? (start - stop - 1) / -step + 1 : 0;
+    }
+
+    @Override
+    public Str repr() {
+      return Str("slice(" + start.repr() + ", " + stop.repr() + ", " + step.repr() + ")");
+    }
+  }
+
+  /** Represents a function implemented in Java. */
+  static abstract class Builtin extends Obj {
+    final String name;
+
+    Builtin(String name) {
+      this.name = name;
+    }
+
+    @Override
+    String typeName() {
+      return "builtin_function_or_method";
+    }
+
+    @Override
+    public Str repr() {
+      return Str("<built-in function " + name + ">");
     }
   }
 
@@ -345,35 +1721,560 @@ public class Python {
     Params params;
     Suite body;
     Dict globals;
-
-    Func(Str name, Params params, Suite body, Dict globals) {
+    Scope scope;
+    Obj[] closure;
+    /** The values of the parameters' defaults, evaluated when the function was defined. */
+    final Obj[] defaults;
+    /** Whether to run the body as compiled <code>Code</code> if the compiler supports it. */
+    boolean compiled = Compiler.enabled;
+    /** Number of calls so far, to switch to compiled code if the <code>Jit</code> is enabled. */
+    int calls;
+
+    Func(Str name, Params params, Suite body, Dict globals, Scope scope, Obj[] closure, Obj[] defaults) {
       this.name = name;
       this.params = params;
       this.body = body;
       this.globals = globals;
+      this.scope = scope;
+      this.closure = closure;
+      this.defaults = defaults;
+    }
+
+    @Override
+    String typeName() {
+      return "function";
     }
 
     @Override
     public Obj call(Frame f, Obj... args) {
-      f = new Frame(params.bind(f, args), globals);
-      try {
-        body.execute(f);
-      } catch (RuntimeException e) {
-        return f.result;
+      if (!params.simple()) {
+        return call(f, params.plan(name, args.length, NO_NAMES), args);
+      }
+      Frame frame = frame(args.length);
+      System.arraycopy(args, 0, frame.slots, 0, args.length);
+      return execute(frame);
+    }
+
+    @Override
+    public Obj call0(Frame f) {
+      if (!params.simple()) {
+        return call(f);
+      }
+      return execute(frame(0));
+    }
+
+    @Override
+    public Obj call1(Frame f, Obj a) {
+      if (!params.simple()) {
+        return call(f, a);
+      }
+      Frame frame = frame(1);
+      frame.slots[0] = a;
+      return execute(frame);
+    }
+
+    @Override
+    public Obj call2(Frame f, Obj a, Obj b) {
+      if (!params.simple()) {
+        return call(f, a, b);
+      }
+      Frame frame = frame(2);
+      Obj[] slots = frame.slots;
+      slots[0] = a;
+      slots[1] = b;
+      return execute(frame);
+    }
+
+    @Override
+    public Obj call3(Frame f, Obj a, Obj b, Obj c) {
+      if (!params.simple()) {
+        return call(f, a, b, c);
+      }
+      Frame frame = frame(3);
+      Obj[] slots = frame.slots;
+      slots[0] = a;
+      slots[1] = b;
+      slots[2] = c;
+      return execute(frame);
+    }
+
+    /**
+     * Returns a new frame for a call with the given number of positional arguments, which the
+     * caller stores into the first slots; the other parameters are already bound.
+     */
+    private Frame frame(int count) {
+      Frame frame = new Frame(null, globals, new Obj[scope.size]);
+      frame.name = name;
+      params.bind(defaults, frame, count, name);
+      return frame;
+    }
+
+    /** Calls the function with the given arguments, which go where the given plan says. */
+    Obj call(Frame f, Params.Plan plan, Obj[] args) {
+      Frame frame = new Frame(null, globals, new Obj[scope.size]);
+      frame.name = name;
+      params.bind(defaults, frame, plan, args);
+      return execute(frame);
+    }
+
+    @Override
+    public Obj callKeywords(Frame f, Obj[] args, Str[] names) {
+      if (names.length == 0) {
+        return call(f, args);
+      }
+      return call(f, params.plan(name, args.length - names.length, names), args);
+    }
+
+    /** Runs the body in the given frame whose parameters have been bound. */
+    private Obj execute(Frame frame) {
+      scope.enter(frame, closure);
+      if (scope.generator) {
+        return new Generator(body, frame, scope.resumePoints);
+      }
+      if (!compiled && Jit.enabled && ++calls == Jit.threshold) {
+        compiled = true;
+      }
+      if (compiled) {
+        Code code = Compiler.compile(scope, body);
+        if (code != null) {
+          return code.run(frame);
+        }
+        compiled = false;
+      }
+      if (body.execute(frame) == Stmt.RETURN) {
+        return frame.result;
       }
       return Python.None;
     }
   }
 
+  /**
+   * Represents the suspended execution of a function containing "yield". The function body runs
+   * on the caller's stack up to the next "yield"; all statements on the way out save their
+   * position in the frame so that the next call can continue from there.
+   */
+  static class Generator extends Obj {
+    private final Suite body;
+    private Frame frame;
+    private boolean started;
+    private boolean running;
+
+    Generator(Suite body, Frame frame, int resumePoints) {
+      this.body = body;
+      this.frame = frame;
+      frame.resume = new int[resumePoints];
+      frame.iterators = new Object[resumePoints];
+    }
+
+    @Override
+    public Obj iter() {
+      return this;
+    }
+
+    @Override
+    public Obj next() {
+      return send(Python.None);
+    }
+
+    /** Resumes the generator with the given value and returns the next value or null if exhausted. */
+    Obj send(Obj value) {
+      if (frame == null) {
+        return null;
+      }
+      if (running) {
+        throw error(ValueError, "generator already executing");
+      }
+      frame.resuming = started;
+      frame.sent = value;
+      started = true;
+      running = true;
+      boolean suspended = false;
+      try {
+        if (body.execute(frame) == Stmt.YIELD) {
+          suspended = true;
+          Obj result = frame.result;
+          frame.result = null;
+          return result;
+        }
+        return null;
+      } finally {
+        running = false;
+        if (!suspended) {
+          frame = null; // exhausted or failed
+        }
+      }
+    }
+  }
+
+  /** Holds a variable which is shared by a function and the functions nested in it. */
+  static class Cell extends Obj {
+    Obj value;
+
+    Cell(Obj value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Represents a class. New instances start with the type's empty <code>Shape</code>. Attributes
+   * are looked up along the C3 method resolution order like Python does. The results are kept in
+   * a global cache keyed by the type's <code>version</code>, a tag which no other type shares.
+   * Changing an attribute of the class gives the class and all its subclasses new tags, which
+   * invalidates both that cache and what inline caches remember about class attributes.
+   */
   static class Type extends Obj {
+    private static final Str INIT = intern("__init__");
+    private static final AtomicInteger versions = new AtomicInteger();
+    private static final MethodCacheEntry[] methodCache = new MethodCacheEntry[4096];
+
     Str name;
     Obj[] bases;
     Dict dict;
+    /** The method resolution order, starting with this type. */
+    final Type[] mro;
+    /** The shape of new instances. */
+    final Shape shape = new Shape(this);
+    int version = versions.incrementAndGet();
+    /** The number of slots new instances get, the most any instance needed so far. */
+    int slots;
+    /** The direct subclasses; weak so that they can be collected, guarded by the list itself. */
+    private final ArrayList<WeakReference<Type>> subclasses = new ArrayList<WeakReference<Type>>(0);
 
     Type(Str name, Obj[] bases, Dict dict) {
       this.name = name;
       this.bases = bases;
       this.dict = dict;
+      this.mro = mro(this, bases);
+      for (Obj base : bases) {
+        ((Type) base).addSubclass(this);
+      }
+    }
+
+    private void addSubclass(Type subclass) {
+      synchronized (subclasses) {
+        for (int i = subclasses.size() - 1; i >= 0; i--) {
+          if (subclasses.get(i).get() == null) {
+            subclasses.remove(i);
+          }
+        }
+        subclasses.add(new WeakReference<Type>(subclass));
+      }
+    }
+
+    /** Computes the C3 linearization of the given type and its bases. */
+    private static Type[] mro(Type type, Obj[] bases) {
+      ArrayList<ArrayList<Type>> sequences = new ArrayList<ArrayList<Type>>(bases.length + 1);
+      for (Obj base : bases) {
+        if (!(base instanceof Type)) {
+          throw error(TypeError, "bases must be types");
+        }
+        sequences.add(new ArrayList<Type>(Arrays.asList(((Type) base).mro)));
+      }
+      ArrayList<Type> direct = new ArrayList<Type>(bases.length);
+      for (Obj base : bases) {
+        if (direct.contains(base)) {
+          throw error(TypeError, "duplicate base class " + ((Type) base).name);
+        }
+        direct.add((Type) base);
+      }
+      sequences.add(direct);
+      ArrayList<Type> mro = new ArrayList<Type>();
+      mro.add(type);
+      while (true) {
+        Type head = null;
+        for (ArrayList<Type> sequence : sequences) {
+          if (!sequence.isEmpty() && !inTail(sequence.get(0), sequences)) {
+            head = sequence.get(0);
+            break;
+          }
+        }
+        if (head == null) {
+          for (ArrayList<Type> sequence : sequences) {
+            if (!sequence.isEmpty()) {
+              throw error(TypeError, "cannot create a consistent method resolution order (MRO)");
+            }
+          }
+          return mro.toArray(new Type[mro.size()]);
+        }
+        mro.add(head);
+        for (ArrayList<Type> sequence : sequences) {
+          if (!sequence.isEmpty() && sequence.get(0) == head) {
+            sequence.remove(0);
+          }
+        }
+      }
+    }
+
+    private static boolean inTail(Type type, ArrayList<ArrayList<Type>> sequences) {
+      for (ArrayList<Type> sequence : sequences) {
+        if (sequence.indexOf(type) > 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Returns the attribute of this class or its bases or <code>null</code>. */
+    Obj lookup(Str name) {
+      int version = this.version;
+      int index = (version * 31 + name.hashCode()) & (methodCache.length - 1);
+      MethodCacheEntry entry = methodCache[index];
+      if (entry != null && entry.version == version && entry.name.equals(name)) {
+        return entry.value;
+      }
+      Obj value = null;
+      for (Type type : mro) {
+        value = type.dict.get(name);
+        if (value != null) {
+          break;
+        }
+      }
+      methodCache[index] = new MethodCacheEntry(version, name, value);
+      return value;
+    }
+
+    boolean isSubclassOf(Type type) {
+      for (Type t : mro) {
+        if (t == type) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void changed() {
+      version = versions.incrementAndGet();
+      ArrayList<Type> live;
+      synchronized (subclasses) {
+        live = new ArrayList<Type>(subclasses.size());
+        for (WeakReference<Type> ref : subclasses) {
+          Type subclass = ref.get();
+          if (subclass != null) {
+            live.add(subclass);
+          }
+        }
+      }
+      for (Type subclass : live) {
+        subclass.changed();
+      }
+    }
+
+    @Override
+    public Obj getAttr(Str name) {
+      Obj value = lookup(name);
+      if (value == null) {
+        throw error(AttributeError, "type object '" + this.name + "' has no attribute '" + name + "'");
+      }
+      return value;
+    }
+
+    @Override
+    public Obj setAttr(Str name, Obj value) {
+      dict.setItem(name, value);
+      changed();
+      return None;
+    }
+
+    @Override
+    public Obj call(Frame f, Obj... args) {
+      return callKeywords(f, args, NO_NAMES);
+    }
+
+    @Override
+    public Obj callKeywords(Frame f, Obj[] args, Str[] names) {
+      Instance instance = new Instance(this);
+      Obj init = lookup(INIT);
+      if (init != null) {
+        new Method(instance, init).callKeywords(f, args, names);
+      } else if (args.length != 0) {
+        throw error(TypeError, name + "() takes no arguments");
+      }
+      return instance;
+    }
+
+    @Override
+    public Str repr() {
+      return Str("<class '" + name + "'>");
+    }
+  }
+
+  /** Remembers the result of <code>Type.lookup()</code>, which may be <code>null</code>. */
+  private static final class MethodCacheEntry {
+    final int version;
+    final Str name;
+    final Obj value;
+
+    MethodCacheEntry(int version, Str name, Obj value) {
+      this.version = version;
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Describes the layout of instances which got the same attributes in the same order, so that
+   * their values can be kept in an array instead of a dict. Shapes form a tree per type; adding an
+   * attribute moves an instance to the child shape for that name, which is shared by all instances
+   * taking the same path. Inline caches compare shapes by identity.
+   */
+  static final class Shape {
+    private static final Shape[] NO_SHAPES = new Shape[0];
+
+    final Type type;
+    /** The attribute names; the position of a name is the slot of its value. */
+    private final Str[] names;
+    private Shape[] children = NO_SHAPES;
+
+    Shape(Type type) {
+      this(type, NO_NAMES);
+    }
+
+    private Shape(Type type, Str[] names) {
+      this.type = type;
+      this.names = names;
+    }
+
+    int size() {
+      return names.length;
+    }
+
+    /** Returns the slot of the given attribute or <code>-1</code>. */
+    int indexOf(Str name) {
+      for (int i = 0; i < names.length; i++) {
+        if (names[i] == name) {
+          return i;
+        }
+      }
+      if (!name.interned) {
+        for (int i = 0; i < names.length; i++) {
+          if (names[i].equals(name)) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+    /** Returns the shape with the given attribute added, creating it on first use. */
+    Shape add(Str name) {
+      name = intern(name.value);
+      for (Shape child : children) {
+        if (child.names[names.length] == name) {
+          return child;
+        }
+      }
+      Str[] names = Arrays.copyOf(this.names, this.names.length + 1);
+      names[this.names.length] = name;
+      Shape child = new Shape(type, names);
+      children = Arrays.copyOf(children, children.length + 1);
+      children[children.length - 1] = child;
+      if (type.slots < names.length) {
+        type.slots = names.length;
+      }
+      return child;
+    }
+  }
+
+  /** Represents an instance of a class; its attributes are laid out as described by its shape. */
+  static class Instance extends Obj {
+    Shape shape;
+    Obj[] slots;
+
+    Instance(Type type) {
+      shape = type.shape;
+      slots = new Obj[type.slots];
+    }
+
+    @Override
+    String typeName() {
+      return shape.type.name.value;
+    }
+
+    /** Moves this instance to the given shape, which must have one more attribute than the current. */
+    void extend(Shape shape) {
+      if (slots.length < shape.size()) {
+        slots = Arrays.copyOf(slots, Math.max(shape.size(), slots.length * 2));
+      }
+      this.shape = shape;
+    }
+
+    /** Returns the given class attribute as seen from this instance; functions become methods. */
+    Obj bind(Obj value) {
+      return value instanceof Func ? new Method(this, value) : value;
+    }
+
+    @Override
+    public Obj getAttr(Str name) {
+      int slot = shape.indexOf(name);
+      if (slot != -1) {
+        return slots[slot];
+      }
+      Obj value = shape.type.lookup(name);
+      if (value == null) {
+        throw error(AttributeError, "'" + shape.type.name + "' object has no attribute '" + name + "'");
+      }
+      return bind(value);
+    }
+
+    @Override
+    public Obj setAttr(Str name, Obj value) {
+      int slot = shape.indexOf(name);
+      if (slot == -1) {
+        extend(shape.add(name));
+        slot = shape.size() - 1;
+      }
+      slots[slot] = value;
+      return None;
+    }
+
+    @Override
+    public Str repr() {
+      return Str("<" + shape.type.name + " object>");
+    }
+  }
+
+  /** Represents a function bound to an instance, as returned by attribute access. */
+  static class Method extends Obj {
+    final Obj self;
+    final Obj func;
+
+    Method(Obj self, Obj func) {
+      this.self = self;
+      this.func = func;
+    }
+
+    @Override
+    public Obj call(Frame f, Obj... args) {
+      Obj[] selfAndArgs = new Obj[args.length + 1];
+      selfAndArgs[0] = self;
+      System.arraycopy(args, 0, selfAndArgs, 1, args.length);
+      return func.call(f, selfAndArgs);
+    }
+
+    @Override
+    public Obj callKeywords(Frame f, Obj[] args, Str[] names) {
+      if (names.length == 0) {
+        return call(f, args);
+      }
+      Obj[] selfAndArgs = new Obj[args.length + 1];
+      selfAndArgs[0] = self;
+      System.arraycopy(args, 0, selfAndArgs, 1, args.length);
+      return func.callKeywords(f, selfAndArgs, names);
+    }
+
+    @Override
+    public Obj call0(Frame f) {
+      return func.call1(f, self);
+    }
+
+    @Override
+    public Obj call1(Frame f, Obj a) {
+      return func.call2(f, self, a);
+    }
+
+    @Override
+    public Obj call2(Frame f, Obj a, Obj b) {
+      return func.call3(f, self, a, b);
     }
   }
 
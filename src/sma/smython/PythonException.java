@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import sma.smython.Python.*;
+
+/**
+ * Carries a raised Python exception through the Java stack. Python code never sees the Java stack
+ * trace, so none is recorded; raising and catching is then about as cheap as a non-local return,
+ * which matters for code that probes dictionaries or attributes and catches the error.
+ * <p>
+ * Instead, while the exception unwinds, the innermost suite or code of each interpreter frame it
+ * leaves records where it was. That costs one small object per frame; the line numbers and the
+ * text of the traceback are only computed by {@link #traceback()}.
+ */
+public class PythonException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  /** The exception object, an instance of <code>BaseException</code> or one of its subclasses. */
+  final Instance value;
+  /** The position in the outermost frame passed so far, linked to the positions of inner frames. */
+  private Position position;
+
+  PythonException(Instance value) {
+    this.value = value;
+  }
+
+  /** Returns the exception to raise for the given exception class or instance. */
+  static PythonException of(Frame f, Obj value) {
+    if (value instanceof Type && ((Type) value).isSubclassOf(Python.BaseException)) {
+      value = value.call(f);
+    }
+    if (value instanceof Instance && ((Instance) value).shape.type.isSubclassOf(Python.BaseException)) {
+      return new PythonException((Instance) value);
+    }
+    return Python.error(Python.TypeError, "exceptions must derive from BaseException");
+  }
+
+  /** Records the position of the failed statement of a suite, unless already known for the frame. */
+  void at(Frame f, Suite suite, int index) {
+    if (position == null || position.frame != f) {
+      position = new Position(f, suite, null, index, position);
+    }
+  }
+
+  /** Records the position of the failed instruction of some code, unless already known for the frame. */
+  void at(Frame f, Code code, int pc) {
+    if (position == null || position.frame != f) {
+      position = new Position(f, null, code, pc, position);
+    }
+  }
+
+  /** Returns the traceback of this exception in Python's format, the most recent call last. */
+  String traceback() {
+    StringBuilder b = new StringBuilder("Traceback (most recent call last):\n");
+    for (Position p = position; p != null; p = p.next) {
+      b.append("  ");
+      int line = p.line();
+      if (line > 0) {
+        b.append("line ").append(line).append(", ");
+      }
+      b.append("in ").append(p.frame.name != null ? p.frame.name.value : "<module>").append('\n');
+    }
+    return b.append(getMessage()).toString();
+  }
+
+  /** Returns the exception's class. */
+  Type type() {
+    return value.shape.type;
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+
+  @Override
+  public String getMessage() {
+    Obj args = value.getAttr(Python.ARGS);
+    switch (args.len()) {
+      case 0:
+        return type().name.value;
+      case 1:
+        Obj arg = args.getItem(Python.Int(0));
+        return type().name + ": " + (arg instanceof Str ? ((Str) arg).value : arg.repr().value);
+      default:
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < args.len(); i++) {
+          b.append(i == 0 ? "(" : ", ").append(args.getItem(Python.Int(i)).repr().value);
+        }
+        return type().name + ": " + b.append(')');
+    }
+  }
+
+  /** Where an exception passed through a frame: a statement of a suite or an instruction of code. */
+  private static final class Position {
+    final Frame frame;
+    final Suite suite;
+    final Code code;
+    final int index;
+    final Position next;
+
+    Position(Frame frame, Suite suite, Code code, int index, Position next) {
+      this.frame = frame;
+      this.suite = suite;
+      this.code = code;
+      this.index = index;
+      this.next = next;
+    }
+
+    int line() {
+      return suite != null ? suite.line(index) : code.line(index);
+    }
+  }
+}
@@ -4,6 +4,8 @@
 package sma.smython;
 
 import org.junit.Test;
+
+import java.math.BigInteger;
 import static org.junit.Assert.*;
 
 public class PythonTest {
@@ -18,7 +20,8 @@ public class PythonTest {
   private Python.Obj exec(String source) {
     Parser parser = new Parser(new Scanner(source));
     Suite suite = parser.parseFileInput();
-    Frame frame = new Frame(new Python.Dict(), new Python.Dict());
+    Python.Dict globals = new Python.Dict();
+    Frame frame = new Frame(globals, globals);
     Python.Obj result = suite.eval(frame);
     return result;
   }
@@ -42,4 +45,745 @@ public class PythonTest {
     assertEquals(Python.Int(42), exec("def f(a): return a\nf(42)\n"));
     assertEquals(Python.Int(42), exec("def f(a=42): return a\nf()\n"));
   }
+
+  @Test
+  public void localVariables() {
+    assertEquals(Python.Int(7), exec("def f(a, b):\n  c = a + b\n  return c\nf(3, 4)\n"));
+    assertEquals(Python.Int(2), exec("def f():\n  a, b = 1, 2\n  return b\nf()\n"));
+    assertEquals(Python.Int(3), exec("def f(a):\n  a += 2\n  return a\nf(1)\n"));
+  }
+
+  @Test
+  public void unboundLocalVariables() {
+    assertEquals(Python.Str("local variable 'x' referenced before assignment"), exec("" +
+        "def f():\n" +
+        "  y = x\n" +
+        "  x = 1\n" +
+        "try: f()\n" +
+        "except UnboundLocalError as e: r = e.args[0]\n" +
+        "r\n"));
+    assertEquals(Python.Str("free variable 'x' referenced before assignment in enclosing scope"), exec("" +
+        "def f():\n" +
+        "  def g(): return x\n" +
+        "  y = g()\n" +
+        "  x = 1\n" +
+        "try: f()\n" +
+        "except NameError as e: r = e.args[0]\n" +
+        "r\n"));
+  }
+
+  @Test
+  public void globalVariables() {
+    assertEquals(Python.Int(5), exec("x = 1\ndef f():\n  global x\n  x = 5\nf()\nx\n"));
+    assertEquals(Python.Int(3), exec("x = 1\ndef f(): return x + 2\nf()\n"));
+    assertEquals(Python.Int(4), exec("def f(a): return a + 1\ndef g(a): return f(a) + 2\ng(1)\n"));
+  }
+
+  @Test
+  public void closures() {
+    assertEquals(Python.Int(7), exec("def make(n):\n  def add(x): return x + n\n  return add\nmake(3)(4)\n"));
+    assertEquals(Python.Int(5), exec("def make(n): return lambda x: x + n\nmake(2)(3)\n"));
+    assertEquals(Python.Int(2), exec("" +
+        "def counter():\n" +
+        "  c = 0\n" +
+        "  def inc():\n" +
+        "    nonlocal c\n" +
+        "    c += 1\n" +
+        "    return c\n" +
+        "  inc()\n" +
+        "  return inc()\n" +
+        "counter()\n"));
+    assertEquals(Python.Int(6), exec("" +
+        "def f(a):\n" +
+        "  def g(b):\n" +
+        "    def h(c): return a + b + c\n" +
+        "    return h\n" +
+        "  return g\n" +
+        "f(1)(2)(3)\n"));
+  }
+
+  @Test
+  public void binaryOperatorsSpecializeThemselves() {
+    Python.Dict globals = new Python.Dict();
+    Frame frame = new Frame(globals, globals);
+    Expr.Add add = (Expr.Add) new Parser(new Scanner("a + b")).parseEvalInput().exprs.get(0);
+    assertEquals(Expr.Binary.UNINITIALIZED, add.state);
+    globals.setItem(new Python.Str("a"), Python.Int(3));
+    globals.setItem(new Python.Str("b"), Python.Int(4));
+    assertEquals(Python.Int(7), add.eval(frame));
+    assertEquals(Expr.Binary.INT, add.state);
+    globals.setItem(new Python.Str("b"), Python.Float(0.5));
+    assertEquals(Python.Float(3.5), add.eval(frame));
+    assertEquals(Expr.Binary.GENERIC, add.state);
+    globals.setItem(new Python.Str("b"), Python.Int(1));
+    assertEquals(Python.Int(4), add.eval(frame));
+    assertEquals(Expr.Binary.GENERIC, add.state);
+  }
+
+  @Test
+  public void comparisonsSpecializeThemselves() {
+    assertEquals(Python.True, exec("def f(a, b): return a < b\nf(1, 2) and f(1.5, 2.5) and not f(2, 1.5)\n"));
+    assertEquals(Python.False, exec("def f(a): return 1.0 < a < 3.0\nf(1.5) and f(4.0)\n"));
+  }
+
+  @Test
+  public void loopsAndReturns() {
+    assertEquals(Python.Int(4), exec("" +
+        "def f():\n" +
+        "  i = 0\n" +
+        "  while True:\n" +
+        "    i += 1\n" +
+        "    if i < 4: continue\n" +
+        "    break\n" +
+        "  else:\n" +
+        "    i = -1\n" +
+        "  return i\n" +
+        "f()\n"));
+    assertEquals(Python.Int(3), exec("" +
+        "def f():\n" +
+        "  i = 0\n" +
+        "  while True:\n" +
+        "    while True:\n" +
+        "      i += 1\n" +
+        "      if i == 3: return i\n" +
+        "f()\n"));
+    assertEquals(Python.Int(2), exec("def f():\n  try: return 1\n  finally: return 2\nf()\n"));
+    assertEquals(Python.None, exec("def f(a):\n  if a: return 1\nf(0)\n"));
+  }
+
+  @Test(expected = PythonException.class)
+  public void errorsAreNotReturns() {
+    exec("def f(): return 1 / 0\nf()\n");
+  }
+
+  @Test
+  public void exceptions() {
+    assertEquals(Python.Int(1), exec("" +
+        "try: 1 // 0\n" +
+        "except ZeroDivisionError: x = 1\n" +
+        "x\n"));
+    assertEquals(Python.Int(2), exec("" +
+        "try: 1 % 0\n" +
+        "except KeyError: x = 1\n" +
+        "except (ValueError, ArithmeticError): x = 2\n" +
+        "x\n"));
+    assertEquals(Python.Int(3), exec("" +
+        "d = {k: k + 1 for k in range(1, 2)}\n" +
+        "def get(k):\n" +
+        "  try: return d[k]\n" +
+        "  except LookupError: return 1\n" +
+        "  else: return 0\n" +
+        "get(1) + get(2)\n"));
+    assertEquals(Python.Str("boom"), exec("" +
+        "class MyError(Exception): pass\n" +
+        "try:\n" +
+        "  try: raise MyError('boom')\n" +
+        "  except MyError: raise\n" +
+        "except Exception as e:\n" +
+        "  x = e.args[0]\n" +
+        "x\n"));
+    assertEquals(Python.Int(5), exec("" +
+        "x = 0\n" +
+        "for i in range(5):\n" +
+        "  try:\n" +
+        "    try: undefined\n" +
+        "    finally: x += 1\n" +
+        "  except NameError: pass\n" +
+        "x\n"));
+    assertEquals(Python.Int(1110), exec("" +
+        "x = 0\n" +
+        "for i in range(4):\n" +
+        "  c = (KeyError, ZeroDivisionError) if i < 3 else (KeyError,)\n" +
+        "  try:\n" +
+        "    try: 1 // 0\n" +
+        "    except c: x = x * 10 + 1\n" +
+        "  except ArithmeticError: x = x * 10\n" +
+        "x\n"));
+    try {
+      exec("try: raise KeyError(1, 2)\nexcept ValueError: pass\n");
+      fail();
+    } catch (PythonException e) {
+      assertSame(Python.KeyError, e.type());
+      assertEquals("KeyError: (1, 2)", e.getMessage());
+    }
+    try {
+      exec("raise 42\n");
+      fail();
+    } catch (PythonException e) {
+      assertEquals("TypeError: exceptions must derive from BaseException", e.getMessage());
+    }
+  }
+
+  @Test
+  public void runtimeErrors() {
+    String[][] errors = {
+        {"1 + None", "TypeError", "unsupported operand type(s) for +: 'int' and 'NoneType'"},
+        {"-'a'", "TypeError", "bad operand type for unary -: 'str'"},
+        {"1 < 'a'", "TypeError", "'<' not supported between instances of 'int' and 'str'"},
+        {"None()", "TypeError", "'NoneType' object is not callable"},
+        {"len(1)", "TypeError", "object of type 'int' has no len()"},
+        {"(1).x", "AttributeError", "'int' object has no attribute 'x'"},
+        {"1[0]", "TypeError", "'int' object is not subscriptable"},
+        {"for i in 1: pass", "TypeError", "'int' object is not iterable"},
+        {"l = 1, 2\nl[2]", "IndexError", "list index out of range"},
+        {"assert 1 > 2, 'wrong'", "AssertionError", "wrong"},
+    };
+    for (String[] error : errors) {
+      String body = error[0].replace("\n", "\n  ");
+      assertEquals(error[0], Python.Str(error[2]), exec("" +
+          "try:\n" +
+          "  " + body + "\n" +
+          "except " + error[1] + " as e:\n" +
+          "  x = e.args[0]\n" +
+          "x\n"));
+      assertEquals(error[0], Python.Int(1), exec("x = 0\ntry:\n  " + body + "\nexcept:\n  x = 1\nx\n"));
+    }
+    assertEquals(Python.Int(2), exec("l = 1, 2\nl[-1]\n"));
+    assertEquals(Python.Int(0), exec("try: assert 0\nexcept AssertionError as e: x = len(e.args)\nx\n"));
+  }
+
+  @Test
+  public void calls() {
+    String defs = "" +
+        "def f0(): return 1\n" +
+        "def f1(a): return a\n" +
+        "def f2(a, b=2): return a * b\n" +
+        "def f3(a, b, c): return a + b + c\n" +
+        "def f4(a, b, c, d): return a - b - c - d\n" +
+        "class C:\n" +
+        "  def m0(self): return self\n" +
+        "  def m2(self, a, b): return a - b\n" +
+        "  def m3(self, a, b, c): return a * b * c\n" +
+        "c = C()\n";
+    assertEquals(Python.Int(1), exec(defs + "f0()\n"));
+    assertEquals(Python.Int(3), exec(defs + "f1(3)\n"));
+    assertEquals(Python.Int(8), exec(defs + "f2(4)\n"));
+    assertEquals(Python.Int(12), exec(defs + "f2(4, 3)\n"));
+    assertEquals(Python.Int(6), exec(defs + "f3(1, 2, 3)\n"));
+    assertEquals(Python.Int(-8), exec(defs + "f4(1, 2, 3, 4)\n"));
+    assertEquals(Python.True, exec(defs + "c.m0() is c\n"));
+    assertEquals(Python.Int(3), exec(defs + "c.m2(5, 2)\n"));
+    assertEquals(Python.Int(24), exec(defs + "c.m3(2, 3, 4)\n"));
+    try {
+      exec(defs + "f1(1, 2)\n");
+      fail();
+    } catch (PythonException e) {
+      assertEquals("TypeError: f1() takes 1 positional arguments but 2 were given", e.getMessage());
+    }
+    try {
+      exec(defs + "f3(1, 2)\n");
+      fail();
+    } catch (PythonException e) {
+      assertEquals("TypeError: f3() missing required argument 'c'", e.getMessage());
+    }
+  }
+
+  @Test
+  public void defaultsAreEvaluatedOnce() {
+    assertEquals(Python.Int(1), exec("n = 1\ndef f(a=n): return a\nn = 2\nf()\n"));
+    assertEquals(Python.Int(15), exec("" +
+        "calls = 0\n" +
+        "def count():\n" +
+        "  global calls\n" +
+        "  calls += 1\n" +
+        "  return calls\n" +
+        "def f(a=count(), *, b=count()): return a * 10 + b\n" +
+        "f()\n" +
+        "f(b=2)\n" +
+        "g = lambda x=count(): x\n" +
+        "g() + g() + f() - calls\n"));
+  }
+
+  @Test
+  public void keywordArguments() {
+    String defs = "" +
+        "def f(a, b=2, *args, c, d=4, **kwargs):\n" +
+        "  return a * 100000 + b * 10000 + len(args) * 1000 + c * 100 + d * 10 + len(kwargs)\n" +
+        "def g(a, *, b): return a - b\n" +
+        "def h(*args, **kwargs): return args, kwargs\n" +
+        "class C:\n" +
+        "  def __init__(self, x, y=0): self.z = x - y\n" +
+        "  def m(self, a, b): return a - b\n";
+    assertEquals(Python.Int(120340), exec(defs + "f(1, c=3)\n"));
+    assertEquals(Python.Int(152381), exec(defs + "f(1, 5, 6, 7, d=8, c=3, e=9)\n"));
+    assertEquals(Python.Int(120340), exec(defs + "f(c=3, a=1)\n"));
+    assertEquals(Python.Int(-1), exec(defs + "g(b=2, a=1)\n"));
+    assertEquals(Python.Int(3), exec(defs + "l = 2, 3\nd = h(x=4)[1]\nh(1, *l, **d)[0][2]\n"));
+    assertEquals(Python.Int(4), exec(defs + "l = 2, 3\nd = h(x=4)[1]\nh(1, *l, **d)[1]['x']\n"));
+    assertEquals(Python.Int(5), exec(defs + "C(y=2, x=7).z\n"));
+    assertEquals(Python.Int(-2), exec(defs + "C(0).m(b=3, a=1)\n"));
+    assertEquals(Python.Int(0), exec(defs + "def k(a, b): return a * b\ns = 0\n" +
+        "for fn in g, k, g: s += fn(1, b=2)\n" +
+        "s\n"));
+    String[][] errors = {
+        {"f(1)", "TypeError: f() missing required argument 'c'"},
+        {"g(1, 2)", "TypeError: g() takes 1 positional arguments but 2 were given"},
+        {"g(1, a=2)", "TypeError: g() got multiple values for argument 'a'"},
+        {"g(1, c=2)", "TypeError: g() got an unexpected keyword argument 'c'"},
+        {"len(x=1)", "TypeError: keyword arguments are not supported"},
+    };
+    for (String[] error : errors) {
+      try {
+        exec(defs + error[0] + "\n");
+        fail(error[0]);
+      } catch (PythonException e) {
+        assertEquals(error[1], e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void tracebacks() {
+    String source = "" +
+        "def f(x):\n" +
+        "  return 1 // x\n" +
+        "def g(x):\n" +
+        "  y = 1\n" +
+        "  if x:\n" +
+        "    pass\n" +
+        "  elif y: return f(x)\n" +
+        "class C:\n" +
+        "  z = 2; g(0)\n";
+    try {
+      exec(source);
+      fail();
+    } catch (PythonException e) {
+      assertEquals("" +
+          "Traceback (most recent call last):\n" +
+          "  line 8, in <module>\n" +
+          "  line 9, in C\n" +
+          "  line 7, in g\n" +
+          "  line 2, in f\n" +
+          "ZeroDivisionError: integer division or modulo by zero", e.traceback());
+    }
+    try {
+      exec("def f(x):\n  try: return 1 // x\n  except KeyError: pass\ntry: f(0)\nexcept ArithmeticError: raise\n");
+      fail();
+    } catch (PythonException e) {
+      assertEquals("" +
+          "Traceback (most recent call last):\n" +
+          "  line 4, in <module>\n" +
+          "  line 2, in f\n" +
+          "ZeroDivisionError: integer division or modulo by zero", e.traceback());
+    }
+    try {
+      exec(source.replace("g(0)", "\n  for i in range(" + 3 * Jit.threshold + "):\n    f(1)\n    g(i + 1)\n  g(0)"));
+      fail();
+    } catch (PythonException e) {
+      assertEquals("" +
+          "Traceback (most recent call last):\n" +
+          "  line 8, in <module>\n" +
+          "  line 13, in C\n" +
+          "  line 7, in g\n" +
+          "  line 2, in f\n" +
+          "ZeroDivisionError: integer division or modulo by zero", e.traceback());
+    }
+  }
+
+  @Test
+  public void generators() {
+    String count = "def count(n):\n  i = 0\n  while i < n:\n    yield i\n    i += 1\n";
+    assertEquals(Python.Int(30), exec(count + "s = 0\nfor x in count(5): s += x * x\ns\n"));
+    assertEquals(Python.Int(8360), exec("" +
+        count +
+        "def f(n):\n" +
+        "  for i in count(n):\n" +
+        "    if i % 2:\n" +
+        "      yield i\n" +
+        "    else:\n" +
+        "      try:\n" +
+        "        yield -i\n" +
+        "      finally:\n" +
+        "        pass\n" +
+        "  else:\n" +
+        "    yield 100\n" +
+        "s = 0\n" +
+        "for x in f(5): s = s * 10 + x\n" +
+        "s\n"));
+    assertEquals(Python.Int(12), exec("" +
+        "def f():\n" +
+        "  yield 1\n" +
+        "  return\n" +
+        "  yield 2\n" +
+        "s = 0\n" +
+        "for x in f(): s = s * 10 + x\n" +
+        "for x in f(): s = s * 10 + x * 2\n" +
+        "s\n"));
+    assertEquals(Python.Int(12), exec("" +
+        "def f():\n" +
+        "  try: raise ValueError(2)\n" +
+        "  except ValueError:\n" +
+        "    yield 1\n" +
+        "    raise\n" +
+        "s = 0\n" +
+        "try:\n" +
+        "  for x in f(): s = x\n" +
+        "except ValueError as e:\n" +
+        "  s = s * 10 + e.args[0]\n" +
+        "s\n"));
+  }
+
+  @Test
+  public void generatorsReceiveSentValues() {
+    Python.Generator g = (Python.Generator) exec("" +
+        "def f():\n" +
+        "  total = 0\n" +
+        "  while True:\n" +
+        "    x = yield total\n" +
+        "    if x is None: break\n" +
+        "    total += x\n" +
+        "f()\n");
+    assertEquals(Python.Int(0), g.next());
+    assertEquals(Python.Int(3), g.send(Python.Int(3)));
+    assertEquals(Python.Int(7), g.send(Python.Int(4)));
+    assertNull(g.next());
+    assertNull(g.next());
+  }
+
+  @Test
+  public void yieldOutsideFunction() {
+    assertEquals(Python.Str("'yield' outside function"), exec("" +
+        "try: yield 1\n" +
+        "except SyntaxError as e: r = e.args[0]\n" +
+        "r\n"));
+    assertEquals(Python.Int(1), exec("x = 0\nclass C:\n  try: y = (yield)\n  except SyntaxError: x = 1\nC.x\n"));
+  }
+
+  @Test
+  public void comprehensions() {
+    String count = "def count(n):\n  i = 0\n  while i < n:\n    yield i\n    i += 1\n";
+    assertEquals(new Python.List(Python.Int(10), Python.Int(30)),
+        exec(count + "[x * 10 for x in count(4) if x % 2]\n"));
+    assertEquals(new Python.List(Python.Int(1), Python.Int(2), Python.Int(3)),
+        exec(count + "[x + y for x in count(3) for y in count(x)]\n"));
+    assertEquals(Python.Int(10), exec(count + "s = 0\nfor x in (y + 1 for y in count(4)): s += x\ns\n"));
+    assertEquals(Python.Int(4), exec(count + "{x: x * x for x in count(3)}\n").getItem(Python.Int(2)));
+  }
+
+  @Test
+  public void comprehensionsHaveTheirOwnScope() {
+    assertEquals(Python.Int(1), exec("x = 1\nl = [x for x in range(3)]\nx\n"));
+    assertEquals(Python.Int(1), exec("def f():\n  x = 1\n  l = [x for x in range(3)]\n  return x\nf()\n"));
+    assertEquals(Python.Int(9), exec("" +
+        "def f(n):\n" +
+        "  s = 0\n" +
+        "  for x in (x + n for x in range(4)): s += x\n" +
+        "  return s - len({x: x for x in range(n)})\n" +
+        "f(1)\n"));
+    assertEquals(Python.Int(3), exec("class C:\n  n = 3\n  l = [i for i in range(n)]\nlen(C.l)\n"));
+    try {
+      exec("class C:\n  n = 3\n  l = [n for i in range(2)]\n");
+      fail();
+    } catch (PythonException e) {
+      assertEquals("NameError: name 'n' is not defined", e.getMessage());
+    }
+  }
+
+  @Test
+  public void sets() {
+    assertEquals(Python.Int(3), exec("x = 5\ns = {x % 3 for x in range(10)}\nlen(s) + (x in s)\n"));
+    assertEquals(Python.Int(321), exec("" +
+        "t = 0\n" +
+        "for x in {3, 2, 3, 1, 2}: t = t * 10 + x\n" +
+        "t\n"));
+    assertEquals(Python.True, exec("{i * i for i in range(-2, 3)} == {4, 1, 0}\n"));
+    assertEquals(Python.Str("'set' object is not subscriptable"), exec("s = {1}\ntry: s[0]\nexcept TypeError as e: r = e.args[0]\nr\n"));
+  }
+
+  @Test
+  public void iteration() {
+    assertEquals(Python.Int(45), exec("s = 0\nfor i in range(10): s += i\ns\n"));
+    assertEquals(Python.Int(10070401), exec("s = 0\nfor i in range(10, 0, -3): s = s * 100 + i\ns\n"));
+    assertEquals(Python.Int(0), exec("s = 0\nfor i in range(5, 5): s += 1\ns\n"));
+    assertEquals(Python.Int(14), exec("x = 1, 2\ny = 3, 4\ns = 0\nfor a, b in x, y: s += a * b\ns\n"));
+    assertEquals(Python.Str("cba"), exec("s = ''\nfor c in 'abc': s = c + s\ns\n"));
+    assertEquals(Python.Int(3), exec("s = 0\nfor k in {i: 0 for i in range(3)}: s += k\ns\n"));
+    Python.List list = new Python.List(Python.Int(1));
+    Python.Obj iter = list.iter();
+    assertSame(iter, iter.iter());
+    assertEquals(Python.Int(1), iter.next());
+    list.values.add(Python.Int(2));
+    assertEquals(Python.Int(2), iter.next());
+    assertNull(iter.next());
+  }
+
+  @Test
+  public void dictsKeepInsertionOrder() {
+    assertEquals(Python.Int(9876543), exec("" +
+        "d = {i * 7 % 10: i for i in range(9, 2, -1)}\n" +
+        "s = 0\n" +
+        "for k in d: s = s * 10 + d[k]\n" +
+        "s\n"));
+    Python.Dict dict = new Python.Dict();
+    for (int i = 0; i < 100; i++) {
+      dict.setItem(Python.Str("k" + i), Python.Int(i));
+      dict.setItem(Python.Int(i * -1000), Python.Int(i));
+    }
+    dict.setItem(Python.Str("k7"), Python.None);
+    assertEquals(200, dict.len());
+    assertEquals(Python.Int(99), dict.getItem(Python.Str("k99")));
+    assertEquals(Python.None, dict.getItem(Python.Str("k7")));
+    assertEquals(Python.Int(42), dict.getItem(Python.Int(-42000)));
+    assertNull(dict.get(Python.Str("k100")));
+    assertTrue(dict.contains(Python.Int(0)));
+    assertFalse(dict.contains(Python.Int(1)));
+    Python.Obj iter = dict.iter();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Python.Str("k" + i), iter.next());
+      assertEquals(Python.Int(i * -1000), iter.next());
+    }
+    assertNull(iter.next());
+  }
+
+  @Test
+  public void dictsMustNotGrowWhileIterating() {
+    assertEquals(Python.Int(3), exec("" +
+        "d = {k: 0 for k in range(1, 3)}\n" +
+        "for k in d: d[k] = k\n" +
+        "d[1] + d[2]\n"));
+    try {
+      exec("d = {k: 0 for k in range(1)}\nfor k in d: d[k + 1] = 0\n");
+      fail();
+    } catch (PythonException e) {
+      assertEquals("RuntimeError: dictionary changed size during iteration", e.getMessage());
+    }
+  }
+
+  @Test
+  public void namesAreInterned() {
+    Python.Str name = Python.intern("spam");
+    assertSame(name, Python.intern(new String("spam")));
+    assertSame(name, ((Expr.Var) new Parser(new Scanner("spam")).parseTest()).name);
+    Expr.Attr attr = (Expr.Attr) new Parser(new Scanner("eggs.spam")).parseTest();
+    assertSame(name, attr.name);
+    assertEquals(Python.Str("spam"), name);
+    assertEquals(name, Python.Str("spam"));
+    assertEquals(Python.Str("spam").hashCode(), name.hashCode());
+    assertFalse(name.equals(Python.intern("eggs")));
+    Python.Dict dict = new Python.Dict();
+    dict.setItem(Python.Str("spam"), Python.Int(1));
+    assertEquals(Python.Int(1), dict.getItem(name));
+    assertEquals(Python.Int(3), exec("spam = 3\nspam\n"));
+  }
+
+  @Test
+  public void classes() {
+    String point = "" +
+        "class Point:\n" +
+        "  z = 10\n" +
+        "  def __init__(self, x, y):\n" +
+        "    self.x = x\n" +
+        "    self.y = y\n" +
+        "  def norm(self): return self.x * self.x + self.y * self.y + self.z\n";
+    assertEquals(Python.Int(470), exec(point + "" +
+        "s = 0\n" +
+        "for i in range(10):\n" +
+        "  p = Point(i, 2)\n" +
+        "  s += p.norm() + p.x\n" +
+        "s\n"));
+    assertEquals(Python.Int(6), exec(point + "p = Point(1, 2)\np.z = 1\np.norm()\n"));
+    assertEquals(Python.Int(6), exec("" +
+        "class A:\n" +
+        "  def m(self): return 1\n" +
+        "class B(A): pass\n" +
+        "b = B()\n" +
+        "x = b.m()\n" +
+        "A.m = lambda self: 5\n" +
+        "x + b.m()\n"));
+  }
+
+  @Test
+  public void methodResolutionOrder() {
+    Python.Type z = (Python.Type) exec("" +
+        "class O: pass\n" +
+        "class A(O): pass\n" +
+        "class B(O): pass\n" +
+        "class C(O): pass\n" +
+        "class D(O): pass\n" +
+        "class E(O): pass\n" +
+        "class K1(A, B, C): pass\n" +
+        "class K2(D, B, E): pass\n" +
+        "class K3(D, A): pass\n" +
+        "class Z(K1, K2, K3): pass\n" +
+        "Z\n");
+    StringBuilder b = new StringBuilder();
+    for (Python.Type type : z.mro) {
+      b.append(type.name).append(' ');
+    }
+    assertEquals("Z K1 K2 K3 D A B C E O ", b.toString());
+    try {
+      exec("class A: pass\nclass B(A): pass\nclass C(A, B): pass\n");
+      fail();
+    } catch (PythonException e) {
+      assertEquals("TypeError: cannot create a consistent method resolution order (MRO)", e.getMessage());
+    }
+    assertEquals(Python.Int(1), exec("class A: v = 1\nbases = A,\nclass B(*bases): pass\nB.v\n"));
+    for (String header : new String[]{"A, metaclass=M", "**kw"}) {
+      try {
+        exec("class A: pass\nM = kw = None\nclass C(" + header + "): pass\n");
+        fail(header);
+      } catch (PythonException e) {
+        assertEquals("TypeError: keyword arguments in class definitions are not supported", e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void methodLookupsSeeChangedClasses() {
+    assertEquals(Python.Int(1234), exec("" +
+        "class A:\n" +
+        "  def m(self): return 1\n" +
+        "class B(A): pass\n" +
+        "class C(B): pass\n" +
+        "c = C()\n" +
+        "s = c.m()\n" +
+        "B.m = lambda self: 2\n" +
+        "s = s * 10 + c.m()\n" +
+        "C.m = lambda self: 3\n" +
+        "s = s * 10 + c.m()\n" +
+        "A.m = lambda self: 4\n" +
+        "s = s * 10 + C.m(c) + A.m(c) - 3\n" +
+        "s\n"));
+  }
+
+  @Test
+  public void instancesOfTheSameClassShareShapes() {
+    Python.Obj p = exec("" +
+        "class C: pass\n" +
+        "def make(a, b):\n" +
+        "  c = C()\n" +
+        "  c.a = a\n" +
+        "  c.b = b\n" +
+        "  return c\n" +
+        "def get(c): return c.a\n" +
+        "c1 = make(1, 2)\n" +
+        "c2 = make(3, 4)\n" +
+        "c3 = C()\n" +
+        "c3.b = 5\n" +
+        "c3.a = 6\n" +
+        "s = get(c1) * 100 + get(c2) * 10 + get(c3)\n" +
+        "c1, c2, c3, s\n");
+    Python.Instance c1 = (Python.Instance) p.getItem(Python.Int(0));
+    Python.Instance c2 = (Python.Instance) p.getItem(Python.Int(1));
+    Python.Instance c3 = (Python.Instance) p.getItem(Python.Int(2));
+    assertSame(c1.shape, c2.shape);
+    assertNotSame(c1.shape, c3.shape);
+    assertSame(c1.shape.type, c3.shape.type);
+    assertEquals(Python.Int(136), p.getItem(Python.Int(3)));
+  }
+
+  @Test
+  public void attributeCachesGoMegamorphic() {
+    assertEquals(Python.Int(19), exec("" +
+        "class A:\n" +
+        "  v = 0\n" +
+        "def get(o): return o.v\n" +
+        "s = 0\n" +
+        "for i in range(6):\n" +
+        "  class B(A): pass\n" +
+        "  b = B()\n" +
+        "  if i % 2: b.v = i\n" +
+        "  s += get(b) + get(A)\n" +
+        "s += get(b) + get(b)\n" +
+        "s\n"));
+    assertEquals(Python.Int(21), exec("" +
+        "def put(o, v): o.v = v\n" +
+        "s = 0\n" +
+        "for i in range(6):\n" +
+        "  class B: pass\n" +
+        "  b = B()\n" +
+        "  put(b, i)\n" +
+        "  put(b, b.v + 1)\n" +
+        "  s += b.v\n" +
+        "s\n"));
+  }
+
+  @Test
+  public void ranges() {
+    assertEquals(Python.Int(5), exec("len(range(10, 0, -2))\n"));
+    assertEquals(Python.Int(0), exec("len(range(3, 3))\n"));
+    assertEquals(Python.Int(2147483647), exec("len(range(-1, 2147483646))\n"));
+    assertEquals(Python.True, exec("4 in range(0, 10, 2)\n"));
+    assertEquals(Python.False, exec("5 in range(0, 10, 2)\n"));
+    assertEquals(Python.False, exec("10 in range(0, 10, 2)\n"));
+    assertEquals(Python.True, exec("-4 in range(0, -10, -2)\n"));
+    assertEquals(Python.Int(8), exec("range(0, 10, 2)[4]\n"));
+    assertEquals(Python.Int(6), exec("range(0, 10, 2)[-2]\n"));
+    assertEquals(new Python.Range(2, 8, 2), exec("range(0, 10, 2)[1:4]\n"));
+    assertEquals(new Python.Range(8, -2, -4), exec("range(0, 10, 2)[::-2]\n"));
+    assertEquals(new Python.Range(0, 0, 1), exec("range(10)[5:2]\n"));
+    assertEquals(Python.Str("range(0, 10, 2)"), exec("range(0, 10, 2)\n").repr());
+  }
+
+  @Test
+  public void forLoopsOverRanges() {
+    assertEquals(Python.Int(15), exec("s = 0\nfor i in range(2, 12, 3):\n  if i > 9: break\n  s += i\nelse:\n  s = -1\ns\n"));
+    assertEquals(Python.Int(-1), exec("s = 0\nfor i in range(3):\n  continue\nelse:\n  s = -1\ns\n"));
+    assertEquals(Python.Int(2147483646), exec("for i in range(2147483640, 2147483647): pass\ni\n"));
+    assertEquals(Python.Int(321), exec("" +
+        "def f():\n" +
+        "  for i in range(3, 0, -1):\n" +
+        "    yield i\n" +
+        "s = 0\n" +
+        "for x in f(): s = s * 10 + x\n" +
+        "s\n"));
+  }
+
+  @Test
+  public void integersGrowOnOverflow() {
+    assertEquals(new Python.BigInt(BigInteger.valueOf(2147483648L)), exec("2147483647 + 1\n"));
+    assertEquals(Python.Int(2147483647), exec("2147483647 + 1 - 1\n"));
+    assertEquals(Python.Int(2147483648L), exec("-(-2147483647 - 1)\n"));
+    assertEquals(Python.Int(4611686014132420609L), exec("2147483647 * 2147483647\n"));
+    assertEquals(Python.Int(1), exec("(-1) ** 1000000000 + 0 ** 0 - 1 ** 7\n"));
+    assertEquals(Python.Int(Long.MAX_VALUE), exec("9223372036854775807\n"));
+    assertEquals(new Python.BigInt(new BigInteger("9223372036854775808")), exec("9223372036854775807 + 1\n"));
+    assertEquals(Python.Int(Long.MIN_VALUE), exec("-9223372036854775807 - 1\n"));
+    assertEquals(Python.Int(Long.MIN_VALUE), exec("-9223372036854775808\n"));
+    assertEquals(Python.Int(new BigInteger("1267650600228229401496703205376")), exec("2 ** 100\n"));
+    assertEquals(Python.Int(new BigInteger("15511210043330985984000000")), exec("" +
+        "def fac(n):\n" +
+        "  if n < 2: return 1\n" +
+        "  return n * fac(n - 1)\n" +
+        "fac(25)\n"));
+    assertEquals(Python.Int(4), exec("(1 << 70) >> 68\n"));
+    assertEquals(Python.Int(5), exec("-(2 ** 70) % 7\n"));
+    assertEquals(Python.Int(-2), exec("-(2 ** 64) // (2 ** 63)\n"));
+    assertEquals(Python.Int(5), exec("a = 2 ** 70\na - a + 5\n"));
+    assertEquals(Python.True, exec("2 ** 64 > 5 and 5 < 2 ** 64 and 2 ** 64 == 2 ** 64 and 2 ** 64 != 1\n"));
+    assertEquals(Python.Int(new BigInteger("-9223372036854775808").negate()), exec("-(-9223372036854775807 - 1)\n"));
+    assertEquals(Python.Int(new BigInteger("-9223372036854775808").negate()), exec("(-9223372036854775807 - 1) // -1\n"));
+  }
+
+  @Test
+  public void smallIntegersAreCached() {
+    assertSame(Python.Int(-5), Python.Int(-5));
+    assertSame(Python.Int(Python.INT_CACHE_MAX), Python.Int(Python.INT_CACHE_MAX));
+    assertNotSame(Python.Int(-6), Python.Int(-6));
+    assertNotSame(Python.Int(Python.INT_CACHE_MAX + 1), Python.Int(Python.INT_CACHE_MAX + 1));
+  }
+
+  @Test
+  public void nestedArithmeticOnlyBoxesTheResult() {
+    boolean countAllocations = Python.countAllocations;
+    Python.countAllocations = true;
+    try {
+      String f = "def f(a, b, c): return (a + b * c) - c % 3 * 0\nf(5000, 6000, 7000)\n";
+      Python.resetAllocations();
+      Python.Obj result = exec(f + "f(5000, 6000, 7000)\n");
+      assertEquals(6 + 3 + 1, Python.intAllocations); // literals, unspecialized call, result
+      assertEquals(Python.Int(42005000), result);
+      Python.resetAllocations();
+      result = exec("def g(a): return a * a - a * a + 1\nfor i in range(3): r = g(2147483647)\nr\n");
+      assertEquals(1, Python.intAllocations); // the literal
+      assertEquals(2, Python.bigIntAllocations); // a * a in the unspecialized call
+      assertEquals(Python.Int(1), result);
+      Python.resetAllocations();
+      exec("def h(a, b): return a / b\nfor i in range(100): r = h(5000, 7000)\n");
+      assertEquals(2, Python.intAllocations); // the literals
+      assertEquals(100, Python.floatAllocations); // the quotients
+    } finally {
+      Python.countAllocations = countAllocations;
+    }
+  }
 }
@@ -3,51 +3,146 @@
  */
 package sma.smython;
 
-import java.util.Set;
-import java.util.HashSet;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
 
 // TODO bytes strings, raw strings
-// TODO bigints
 // TODO imaginary numbers (j)
 // TODO line continuations
 public class Scanner {
-  private static final Set<String> keywords = new HashSet<String>(Arrays.asList((
-      "and as assert break class continue def del elif else except finally for from global if import in is " +
-      "lambda nonlocal not or pass raise return try while with yield None True False").split(" ")));
-  private final String source;
-  private int index; // index to "source"
+  private static final int LOOKBEHIND = 4; // number of chars the scanner might need to reread
+
+  private Readable input; // the source not yet read into "buffer", null if everything has been read
+  private char[] buffer; // a window of the source
+  private int base; // index of the first char in "buffer"
+  private int count; // number of chars in "buffer"
+  private int index; // index to the source, "buffer[index - base]" is the next char
   private int level; // 0 = no open ([{, 1+ = some open ([{
   private int[] indents = new int[32];
   private int indent; // point behind the last indentation in "indents"
   private int dedent; // target indentation while dedenting
   private boolean beginOfLine = true;
-  private Object value;
+  private int kind; // kind of the current token
+  private final NameTable names = new NameTable();
+  private int name; // index of the current NAME in "names"
+  private int valueStart; // index of the current STR's first character unless "text" is used
+  private int valueEnd; // index behind the current STR's last character unless "text" is used
+  private String text; // the current STR if it contained escape sequences
+  private final StringBuilder builder = new StringBuilder(256); // to unescape strings
+  private long intValue; // the current INT
+  private BigInteger bigValue; // the current INT if it doesn't fit into a long, else null
+  private double floatValue; // the current FLOAT
+  private int start; // index of the current token's first character
+  private int end; // index behind the current token's last character
+  private int[] lines = new int[64]; // indices of the first character of each line seen so far
+  private int lineCount = 1;
 
   /**
    * Constructs a new scanner for the given source.
    * Call <code>next()</code> to generate the token.
    */
   public Scanner(String source) {
-    this.source = source;
+    this.buffer = source.toCharArray();
+    this.count = buffer.length;
+  }
+
+  /**
+   * Constructs a new scanner which incrementally reads its source from the given input, typically
+   * a <code>Reader</code> or a <code>CharBuffer</code>. Only a small window of the source is kept
+   * in memory. The scanner doesn't close the input.
+   * Call <code>next()</code> to generate the token.
+   */
+  public Scanner(Readable input) {
+    this.input = input;
+    this.buffer = new char[4096];
   }
 
   /**
    * Returns the next char from the source or <code>0</code> if no more characters are available.
    */
   private char get() {
-    return index++ < source.length() ? source.charAt(index - 1) : 0;
+    if (index - base < count || fill()) {
+      char ch = buffer[index++ - base];
+      if (ch == '\n' && index > lines[lineCount - 1]) {
+        addLine(index);
+      }
+      return ch;
+    }
+    index += 1;
+    return 0;
   }
 
   /**
-   * Returns the next token. END marks the end of the source.
-   * For INT, FLOAT, STR and NAME, call <code>value()</code> to get the actual value.
+   * Reads more chars from the input into the buffer, dropping all chars before the current token
+   * which are no longer needed. Returns <code>false</code> if the end of the input was reached.
    */
-  public String next() {
+  private boolean fill() {
+    if (input == null) {
+      return false;
+    }
+    int keep = index - LOOKBEHIND;
+    if (start >= base && start < keep) {
+      keep = start;
+    }
+    if (keep > base) {
+      System.arraycopy(buffer, keep - base, buffer, 0, count - (keep - base));
+      count -= keep - base;
+      base = keep;
+    }
+    if (count == buffer.length) {
+      char[] newBuffer = new char[buffer.length * 2];
+      System.arraycopy(buffer, 0, newBuffer, 0, count);
+      buffer = newBuffer;
+    }
+    try {
+      int n = 0;
+      while (n == 0) {
+        n = input.read(CharBuffer.wrap(buffer, count, buffer.length - count));
+      }
+      if (n == -1) {
+        input = null;
+        return false;
+      }
+      count += n;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return index - base < count;
+  }
+
+  /** Records the start of a new line, the first time its preceding newline is read. */
+  private void addLine(int lineStart) {
+    if (lineCount == lines.length) {
+      int[] newLines = new int[lineCount * 2];
+      System.arraycopy(lines, 0, newLines, 0, lineCount);
+      lines = newLines;
+    }
+    lines[lineCount++] = lineStart;
+  }
+
+  /**
+   * Returns the kind of the next token as defined by {@link Token}. END marks the end of the source.
+   * For INT, FLOAT, STR and NAME, call <code>intValue()</code>, <code>floatValue()</code>,
+   * <code>string()</code> and <code>name()</code> to get the actual value.
+   * Call <code>start()</code>, <code>end()</code>, <code>line()</code> and <code>column()</code>
+   * to get the token's position.
+   */
+  public int next() {
+    kind = scan();
+    end = index;
+    return kind;
+  }
+
+  private int scan() {
+    start = -1; // nothing of the source before the current index is needed anymore
+
     // if we're currently dedenting and haven't reached the final indentation level, continue to dedent
     if (indent > 0 && indents[indent - 1] > dedent) {
       indent -= 1;
-      return "DEDENT";
+      start = index;
+      return Token.DEDENT;
     }
 
     // skip white spaces and count them if at the begin of a logical line
@@ -58,7 +153,8 @@ public class Scanner {
         if (ch == '\n') {
           if (!beginOfLine) {
             beginOfLine= true; // with the next char, we're at the beginning of a line
-            return "NEWLINE";
+            start = index - 1;
+            return Token.NEWLINE;
           }
           ci = 0; // reset current line's indent
         } else if (ch == '#') {
@@ -85,12 +181,14 @@ public class Scanner {
 
     if (ch == 0) {
       // end of source, still some DEDENTs to do?
+      index -= 1;
+      start = index;
       dedent = 0;
       if (indent > 0) {
         indent -= 1;
-        return "DEDENT";
+        return Token.DEDENT;
       }
-      return "END"; // signal end of source
+      return Token.END; // signal end of source
     }
 
     if (beginOfLine && level == 0) {
@@ -100,21 +198,24 @@ public class Scanner {
         dedent = ci;
         indents[indent++] = ci;
         index -= 1;
-        return "INDENT";
+        start = index;
+        return Token.INDENT;
       }
       if (ci < li) {
         dedent = ci;
         indent -= 1;
         index -= 1;
-        return "DEDENT";
+        start = index;
+        return Token.DEDENT;
       }
     }
 
     // now dispatch based on the character read
+    start = index - 1;
     switch (ch) {
       case '!':
         if (get() == '=') {
-          return "!=";
+          return Token.NOTEQUAL;
         }
         index -= 1;
         ch = '!'; // invalid character
@@ -123,79 +224,79 @@ public class Scanner {
         return parseString(ch, false);
       case '%':
         if (get() == '=') {
-          return "%=";
+          return Token.PERCENTEQUAL;
         }
         index -= 1;
-        return "%";
+        return Token.PERCENT;
       case '&':
         if (get() == '=') {
-          return "&=";
+          return Token.AMPEREQUAL;
         }
         index -= 1;
-        return "&";
+        return Token.AMPER;
       case '\'':
         return parseString(ch, false);
       case '(':
         level += 1;
-        return "(";
+        return Token.LPAR;
       case ')':
         level -= 1;
-        return ")";
+        return Token.RPAR;
       case '*':
         ch = get();
         if (ch == '=') {
-          return "*=";
+          return Token.STAREQUAL;
         } else if (ch == '*') {
           if (get() == '=') {
-            return "**=";
+            return Token.DOUBLESTAREQUAL;
           }
           index -= 1;
-          return "**";
+          return Token.DOUBLESTAR;
         }
         index -= 1;
-        return "*";
+        return Token.STAR;
       case '+':
         if (get() == '=') {
-          return "+=";
+          return Token.PLUSEQUAL;
         }
         index -= 1;
-        return "+";
+        return Token.PLUS;
       case ',':
-        return ",";
+        return Token.COMMA;
       case '-':
         ch = get();
         if (ch == '=') {
-          return "-=";
+          return Token.MINEQUAL;
         } else if (ch == '>') {
-          return "->";
+          return Token.RARROW;
         }
         index -= 1;
-        return "-";
+        return Token.MINUS;
       case '.':
         ch = get();
         if (Character.isDigit(ch)) {
-          return parseFloat(0, ch);
+          return parseFloat(ch);
         } else if (ch == '.') {
           if (get() == '.') {
-            return "...";
+            return Token.ELLIPSIS;
           }
           index -= 1;
         }
         index -= 1;
-        return ".";
+        return Token.DOT;
       case '/':
         ch = get();
         if (ch == '/') {
           if (get() == '=') {
-            return "//=";
+            return Token.DOUBLESLASHEQUAL;
           }
           index -= 1;
-          return "//";
+          return Token.DOUBLESLASH;
         } else if (ch == '=') {
-          return "/=";
+          return Token.SLASHEQUAL;
         }
         index -= 1;
-        return "/";
+        return Token.SLASH;
       case '0':
       case '1':
       case '2':
@@ -208,43 +309,43 @@ public class Scanner {
       case '9':
         return parseNumber(ch);
       case ':':
-        return ":";
+        return Token.COLON;
       case ';':
-        return ";";
+        return Token.SEMI;
       case '<':
         ch = get();
         if (ch == '=') {
-          return "<=";
+          return Token.LESSEQUAL;
         } else if (ch == '<') {
           if (get() == '=') {
-            return "<<=";
+            return Token.LEFTSHIFTEQUAL;
           }
           index -= 1;
-          return "<<";
+          return Token.LEFTSHIFT;
         }
         index -= 1;
-        return "<";
+        return Token.LESS;
       case '=':
         if (get() == '=') {
-          return "==";
+          return Token.EQEQUAL;
         }
         index -= 1;
-        return "=";
+        return Token.EQUAL;
       case '>':
         ch = get();
         if (ch == '=') {
-          return ">=";
+          return Token.GREATEREQUAL;
         } else if (ch == '>') {
           if (get() == '=') {
-            return ">>=";
+            return Token.RIGHTSHIFTEQUAL;
           }
           index -= 1;
-          return ">>";
+          return Token.RIGHTSHIFT;
         }
         index -= 1;
-        return ">";
+        return Token.GREATER;
       case '@':
-        return "@";
+        return Token.AT;
       case 'A':
       case 'B':
       case 'C':
@@ -274,20 +375,20 @@ public class Scanner {
         return parseName(ch);
       case '[':
         level += 1;
-        return "[";
+        return Token.LSQB;
       case '\\':
         if (get() == '\n') {
-          return next();
+          return scan();
         }
       case ']':
         level -= 1;
-        return "]";
+        return Token.RSQB;
       case '^':
         if (get() == '=') {
-          return "^=";
+          return Token.CIRCUMFLEXEQUAL;
         }
         index -= 1;
-        return "^";
+        return Token.CIRCUMFLEX;
       case '_':
         return parseName(ch);
       case 'a':
@@ -339,18 +440,18 @@ public class Scanner {
         return parseName(ch);
       case '{':
         level += 1;
-        return "{";
+        return Token.LBRACE;
       case '|':
         if (get() == '=') {
-          return "|=";
+          return Token.VBAREQUAL;
         }
         index -= 1;
-        return "|";
+        return Token.VBAR;
       case '}':
         level -= 1;
-        return "}";
+        return Token.RBRACE;
       case '~':
-        return "~";
+        return Token.TILDE;
       default:
         if (Character.isDigit(ch)) {
           return parseNumber(ch);
@@ -361,11 +462,12 @@ public class Scanner {
     throw new ParserException("unexpected " + ch);
   }
 
-  private String parseString(char q, boolean raw) {
+  private int parseString(char q, boolean raw) {
     return parseString(q, raw, false);
   }
 
-  private String parseString(char q, boolean raw, boolean bytes) {
+  private int parseString(char q, boolean raw, boolean bytes) {
+    int contentStart = index;
     char ch = get();
     if (ch == q) {
       if (get() == q) {
@@ -373,19 +475,21 @@ public class Scanner {
       }
       index -= 1;
     }
-    StringBuilder b = new StringBuilder(256);
+    StringBuilder b = null; // only needed once an escape sequence is found
     while (ch != q) {
       if (ch == 0 || ch == '\n') {
         throw new ParserException("EOL while scanning string literal");
       }
       if (ch == '\\') {
         if (raw) {
-          b.append(ch);
           ch = get();
           if (ch == 0) {
             throw new ParserException("EOL while scanning string literal"); // TODO refactor
           }
         } else {
+          if (b == null) {
+            b = startText(contentStart, index - 1);
+          }
           ch = get();
           if (ch == '\n') {
             ch = get();
@@ -395,15 +499,18 @@ public class Scanner {
           ch = parseStringEscape(bytes);
         }
       }
-      b.append(ch);
+      if (b != null) {
+        b.append(ch);
+      }
       ch = get();
     }
-    value = b.toString();
-    return "STR";
+    setText(b, contentStart, index - 1);
+    return Token.STR;
   }
 
-  private String parseMultilineString(char q, boolean raw, boolean bytes) {
-    StringBuilder b = new StringBuilder(256);
+  private int parseMultilineString(char q, boolean raw, boolean bytes) {
+    int contentStart = index;
+    StringBuilder b = null; // only needed once an escape sequence is found
     char ch = get();
     while (true) {
       if (ch == 0) {
@@ -420,12 +527,14 @@ public class Scanner {
       }
       if (ch == '\\') {
         if (raw) {
-          b.append(ch);
           ch = get();
           if (ch == 0) {
             throw new ParserException("EOF while scanning triple-quoted string literal"); // TODO refactor
           }
         } else {
+          if (b == null) {
+            b = startText(contentStart, index - 1);
+          }
           ch = get();
           if (ch == '\n') {
             ch = get();
@@ -435,11 +544,31 @@ public class Scanner {
           ch = parseStringEscape(bytes);
         }
       }
-      b.append(ch);
+      if (b != null) {
+        b.append(ch);
+      }
       ch = get();
     }
-    value = b.toString();
-    return "STR";
+    setText(b, contentStart, index - 3);
+    return Token.STR;
+  }
+
+  /** Starts unescaping a string by copying its content from "from" up to (excluding) "to". */
+  private StringBuilder startText(int from, int to) {
+    builder.setLength(0);
+    builder.append(buffer, from - base, to - from);
+    return builder;
+  }
+
+  /** Sets the current STR either to the unescaped string or to the source from "from" to "to". */
+  private void setText(StringBuilder b, int from, int to) {
+    if (b != null) {
+      text = b.toString();
+    } else {
+      text = null;
+      valueStart = from;
+      valueEnd = to;
+    }
   }
 
   private char parseStringEscape(boolean bytes) {
@@ -508,7 +637,7 @@ public class Scanner {
     return (char) val;
   }
 
-  private String parseNumber(char ch) {
+  private int parseNumber(char ch) {
     if (ch == '0') {
       switch (get()) {
         case 'b':
@@ -528,14 +657,24 @@ public class Scanner {
     return parseInteger(ch, 10);
   }
 
-  private String parseInteger(char ch, int radix) {
+  private int parseInteger(char ch, int radix) {
     int digit = Character.digit(ch, radix);
     if (digit == -1) {
       throw new ParserException("invalid token " + ch);
     }
-    int intval = 0;
+    long intval = 0;
+    BigInteger bigval = null;
     while (digit != -1) {
-      intval = intval * radix + digit;
+      if (bigval == null) {
+        long next = intval * radix + digit;
+        if (next < 0 || (next - digit) / radix != intval) {
+          bigval = BigInteger.valueOf(intval).multiply(BigInteger.valueOf(radix)).add(BigInteger.valueOf(digit));
+        } else {
+          intval = next;
+        }
+      } else {
+        bigval = bigval.multiply(BigInteger.valueOf(radix)).add(BigInteger.valueOf(digit));
+      }
       ch = get();
       digit = Character.digit(ch, radix);
     }
@@ -543,81 +682,147 @@ public class Scanner {
       if (ch == '.') {
         ch = get();
         if (Character.isDigit(ch) || ch == 'e' || ch == 'E') {
-          return parseFloat(intval, ch);
+          return parseFloat(ch);
         }
+        floatValue = parseDouble(index - 1);
         if (ch == 'j') {
           index += 1; // TODO for now, ignore complex numbers
         }
         index -= 1;
-        value = new Double(intval);
-        return "FLOAT";
+        return Token.FLOAT;
       } else if (ch == 'e' || ch == 'E') {
-        return parseFloat(intval, ch);
+        return parseFloat(ch);
       } else if (ch == 'j') {
         index += 1; // TODO for now, ignore complex numbers
       }
     }
     index -= 1;
-    value = new Integer(intval);
-    return "INT";
+    intValue = intval;
+    bigValue = bigval;
+    return Token.INT;
   }
 
-  private String parseFloat(int val, char ch) {
-    StringBuilder b = new StringBuilder(32);
-    b.append(val);
+  private int parseFloat(char ch) {
     while (Character.isDigit(ch)) {
-      b.append(ch);
       ch = get();
     }
     if (ch == 'e' || ch == 'E') {
-      b.append(ch);
       ch = get();
       if (ch == '-' || ch == '+') {
-        b.append(ch);
         ch = get();
       }
       if (!Character.isDigit(ch)) {
         throw new ParserException("invalid token");
       }
       while (Character.isDigit(ch)) {
-        b.append(ch);
         ch = get();
       }
     }
+    floatValue = parseDouble(index - 1);
     if (ch == 'j') {
       index += 1; // TODO for now, ignore complex numbers
     }
     index -= 1;
-    value = new Double(b.toString());
-    return "FLOAT";
+    return Token.FLOAT;
   }
 
-  private String parseName(char ch) {
-    StringBuilder b = new StringBuilder(32);
+  /** Parses the current token up to (excluding) "end" as a floating point number. */
+  private double parseDouble(int end) {
+    return Double.parseDouble(new String(buffer, start - base, end - start));
+  }
+
+  private int parseName(char ch) {
+    int hash = 0; // computed like String.hashCode()
     while (Character.isLetterOrDigit(ch) || ch == '_') {
-      b.append(ch);
+      hash = 31 * hash + ch;
       ch = get();
     }
     index -= 1;
-    String keyword = b.toString();
-    value = keyword;
-    if (keywords.contains(keyword)) {
-      return keyword;
+    name = names.lookup(buffer, start - base, index - start, hash);
+    return names.kind(name);
+  }
+
+  /** Returns the current NAME. Each name is represented by exactly one instance per scanner. */
+  public Python.Str name() {
+    return names.name(name);
+  }
+
+  /** Returns the current STR. */
+  public String string() {
+    if (text != null) {
+      return text;
     }
-    return "NAME";
+    return new String(buffer, valueStart - base, valueEnd - valueStart);
+  }
+
+  /** Returns the current INT; only valid if <code>bigValue()</code> returns null. */
+  public long intValue() {
+    return intValue;
   }
 
+  /** Returns the current INT if it doesn't fit into a <code>long</code>, else null. */
+  public BigInteger bigValue() {
+    return bigValue;
+  }
+
+  /** Returns the current FLOAT. */
+  public double floatValue() {
+    return floatValue;
+  }
+
+  /** Returns the value of the current INT, FLOAT, STR or NAME as an object. */
   public Object value() {
-    return value;
+    switch (kind) {
+      case Token.NAME:
+        return name().value;
+      case Token.INT:
+        return bigValue != null ? bigValue : intValue;
+      case Token.FLOAT:
+        return floatValue;
+      case Token.STR:
+        return string();
+      default:
+        return null;
+    }
+  }
+
+  /** Returns the index of the current token's first character. */
+  public int start() {
+    return start;
   }
 
+  /** Returns the index behind the current token's last character. */
+  public int end() {
+    return end;
+  }
+
+  /** Returns the 1-based line of the current token. */
   public int line() {
-    int line = 1;
-    for (int i = 0; i < index; i++) {
-      if (source.charAt(i) == '\n') {
-        line += 1;
+    return line(start);
+  }
+
+  /** Returns the 0-based column of the current token. */
+  public int column() {
+    return column(start);
+  }
+
+  /** Returns the 1-based line of the given index which must not be behind the current token. */
+  public int line(int index) {
+    int lo = 0;
+    int hi = lineCount - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (lines[mid] <= index) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
       }
     }
-    return line;
+    return lo + 1;
+  }
+
+  /** Returns the 0-based column of the given index which must not be behind the current token. */
+  public int column(int index) {
+    return index - lines[line(index) - 1];
   }
 }
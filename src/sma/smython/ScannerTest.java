@@ -6,18 +6,24 @@ package sma.smython;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+
 public class ScannerTest {
 
   private String scan(String source) {
     StringBuilder b = new StringBuilder();
     Scanner scanner = new Scanner(source);
     while (true) {
-      String token = scanner.next();
-      if (token == "END") {
+      int token = scanner.next();
+      if (token == Token.END) {
         return b.toString();
       }
-      b.append(token);
-      if (token.equals("NAME")) {
+      b.append(Token.toString(token));
+      if (token == Token.NAME) {
         b.append('').append(scanner.value()).append('');
       }
       b.append(' ');
@@ -192,4 +198,102 @@ public class ScannerTest {
   public void testTab() {
     assertEquals("def NEWLINE INDENT INT NEWLINE INT DEDENT ", scan("def\n  \t1\n        2"));
   }
+
+  @Test
+  public void positions() {
+    Scanner scanner = new Scanner("a = 1\nif b:\n  c\n");
+    assertEquals(Token.NAME, scanner.next());
+    assertEquals(0, scanner.start());
+    assertEquals(1, scanner.end());
+    assertEquals(Token.EQUAL, scanner.next());
+    assertEquals(1, scanner.line());
+    assertEquals(2, scanner.column());
+    assertEquals(Token.INT, scanner.next());
+    assertEquals(Token.NEWLINE, scanner.next());
+    assertEquals(5, scanner.start());
+    assertEquals(Token.IF, scanner.next());
+    assertEquals(2, scanner.line());
+    assertEquals(0, scanner.column());
+    assertEquals(Token.NAME, scanner.next());
+    assertEquals(2, scanner.line());
+    assertEquals(3, scanner.column());
+    assertEquals(Token.COLON, scanner.next());
+    assertEquals(Token.NEWLINE, scanner.next());
+    assertEquals(Token.INDENT, scanner.next());
+    assertEquals(Token.NAME, scanner.next());
+    assertEquals(3, scanner.line());
+    assertEquals(2, scanner.column());
+    assertEquals(14, scanner.start());
+    assertEquals(1, scanner.line(0));
+    assertEquals(2, scanner.line(6));
+    assertEquals(4, scanner.column(10));
+  }
+
+  @Test
+  public void bigIntegers() {
+    Scanner scanner = new Scanner("9223372036854775807 9223372036854775808 0x1ffffffffffffffff");
+    scanner.next();
+    assertEquals(Long.MAX_VALUE, scanner.intValue());
+    assertNull(scanner.bigValue());
+    scanner.next();
+    assertEquals(new java.math.BigInteger("9223372036854775808"), scanner.bigValue());
+    scanner.next();
+    assertEquals(new java.math.BigInteger("1ffffffffffffffff", 16), scanner.value());
+  }
+
+  @Test
+  public void values() {
+    Scanner scanner = new Scanner("12.5 3.0 .5e1 42 'a\\tb' 'ab' foo bar foo");
+    scanner.next();
+    assertEquals(12.5, scanner.floatValue(), 0);
+    scanner.next();
+    assertEquals(3.0, scanner.floatValue(), 0);
+    scanner.next();
+    assertEquals(5.0, scanner.floatValue(), 0);
+    scanner.next();
+    assertEquals(42, scanner.intValue());
+    scanner.next();
+    assertEquals("a\tb", scanner.string());
+    scanner.next();
+    assertEquals("ab", scanner.string());
+    scanner.next();
+    Python.Str foo = scanner.name();
+    scanner.next();
+    assertEquals("bar", scanner.name().value);
+    scanner.next();
+    assertSame(foo, scanner.name());
+  }
+
+  @Test
+  public void streaming() {
+    String source = "class C:\n  '''doc\nstring'''\n  def m(self, a_long_name):\n" +
+        "    return a_long_name ... 1.5e3 0x1F 'a\\'b'  # comment\n";
+    assertSameTokens(new Scanner(source), new Scanner(new OneCharReader(new StringReader(source))));
+    assertSameTokens(new Scanner(source), new Scanner(CharBuffer.wrap(source)));
+  }
+
+  private static void assertSameTokens(Scanner expected, Scanner actual) {
+    while (true) {
+      int token = expected.next();
+      assertEquals(Token.toString(token), Token.toString(actual.next()));
+      assertEquals(expected.start(), actual.start());
+      assertEquals(expected.line(), actual.line());
+      if (token == Token.END) {
+        return;
+      }
+      assertEquals(expected.value(), actual.value());
+    }
+  }
+
+  /** Returns at most one char per read to force the scanner to refill its buffer all the time. */
+  private static class OneCharReader extends FilterReader {
+    OneCharReader(Reader in) {
+      super(in);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      return super.read(cbuf, off, Math.min(len, 1));
+    }
+  }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import sma.smython.Python.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents the symbol table of a module, function, lambda or class body. After parsing, all
+ * nodes declare their names to their scope; then {@link #analyze()} resolves each
+ * <code>Var</code> to a local slot, a cell, a global or a dynamically looked up name.
+ * <p>
+ * Function frames store their locals in an <code>Obj[]</code> indexed by slot. Parameters come
+ * first, then other locals, then free variables. Variables captured by inner functions live in
+ * <code>Cell</code>s which are created on entry or copied from the function's closure. Class and
+ * module bodies keep using dictionaries but get slots for the cells their inner functions need.
+ * Comprehensions get a function scope of their own, so their variables never overwrite those of
+ * the enclosing scope.
+ */
+class Scope {
+  static final int MODULE = 0;
+  static final int FUNCTION = 1;
+  static final int CLASS = 2;
+
+  // name flags
+  private static final int BOUND = 1;
+  private static final int GLOBAL = 2;
+  private static final int NONLOCAL = 4;
+
+  // name kinds, in addition to Var's kinds
+  private static final int FREE = -1;
+
+  private static final int[] NONE = new int[0];
+
+  final int type;
+  final Scope parent;
+  private final List<Scope> children = new ArrayList<Scope>();
+  private final Map<String, Integer> flags = new LinkedHashMap<String, Integer>();
+  private final List<Expr.Var> vars = new ArrayList<Expr.Var>();
+  private final Map<String, Integer> kinds = new HashMap<String, Integer>();
+  private final Set<String> cellNames = new LinkedHashSet<String>();
+  private final Set<String> freeNames = new LinkedHashSet<String>();
+  private final Map<String, Integer> slots = new HashMap<String, Integer>();
+
+  /** Number of slots of the frame. */
+  int size;
+  /** Slots which get a new cell on entry, wrapping a parameter if there is one. */
+  int[] cells = NONE;
+  /** Slots which get the cells of the closure on entry. */
+  int[] frees = NONE;
+  /** Slots of the enclosing frame from which the closure's cells are taken. */
+  int[] outer = NONE;
+  /** Compiled code of a function body, set by the <code>Compiler</code>. */
+  Code code;
+  /** Whether the function body contains "yield" and therefore creates a generator. */
+  boolean generator;
+  /** Number of suites and compound statements which can save their position in a generator. */
+  int resumePoints;
+
+  private Scope(int type, Scope parent) {
+    this.type = type;
+    this.parent = parent;
+  }
+
+  /** Resolves all names of the given module. */
+  static void resolve(Suite suite) {
+    Scope scope = new Scope(MODULE, null);
+    suite.resolve(scope);
+    scope.analyze();
+  }
+
+  /** Resolves all names of the given expressions, evaluated as a module. */
+  static void resolve(ExprList exprList) {
+    Scope scope = new Scope(MODULE, null);
+    exprList.resolve(scope);
+    scope.analyze();
+  }
+
+  /** Returns a new nested scope of the given type. */
+  Scope newScope(int type) {
+    Scope scope = new Scope(type, this);
+    children.add(scope);
+    return scope;
+  }
+
+  /** Returns the index of a new position to save when a generator is suspended. */
+  int newResumePoint() {
+    return resumePoints++;
+  }
+
+  /** Declares a use of a variable. */
+  void use(Expr.Var var) {
+    vars.add(var);
+  }
+
+  /** Declares a variable assignment. */
+  void bind(Expr.Var var) {
+    bind(var.name.value);
+    vars.add(var);
+  }
+
+  /** Declares an assignment which has no variable node, e.g. an import. */
+  void bind(String name) {
+    flag(name, BOUND);
+  }
+
+  void declareGlobal(String name) {
+    flag(name, GLOBAL);
+  }
+
+  void declareNonlocal(String name) {
+    flag(name, NONLOCAL); // ignored at module level
+  }
+
+  private void flag(String name, int flag) {
+    Integer f = flags.get(name);
+    flags.put(name, f == null ? flag : f | flag);
+  }
+
+  private int flags(String name) {
+    Integer f = flags.get(name);
+    return f == null ? 0 : f;
+  }
+
+  /** Resolves all variables of this scope and its nested scopes. */
+  void analyze() {
+    classify();
+    allocate();
+  }
+
+  private void classify() {
+    for (Expr.Var var : vars) {
+      String name = var.name.value;
+      if (!kinds.containsKey(name)) {
+        kinds.put(name, kind(name));
+      }
+    }
+    for (Scope child : children) {
+      child.classify();
+    }
+  }
+
+  private int kind(String name) {
+    if (type == MODULE) {
+      return Expr.Var.NAME;
+    }
+    int f = flags(name);
+    if ((f & GLOBAL) != 0) {
+      return Expr.Var.GLOBAL;
+    }
+    if ((f & NONLOCAL) != 0) {
+      if (!resolveFree(name)) {
+        throw new ParserException("no binding for nonlocal '" + name + "' found");
+      }
+      return FREE;
+    }
+    if ((f & BOUND) != 0) {
+      return type == FUNCTION ? Expr.Var.LOCAL : Expr.Var.NAME;
+    }
+    if (resolveFree(name)) {
+      return FREE;
+    }
+    return type == FUNCTION ? Expr.Var.GLOBAL : Expr.Var.NAME;
+  }
+
+  /**
+   * Searches the enclosing function scopes for a binding of the given name. If found, that scope
+   * must keep the variable in a cell and all scopes in between must pass the cell on.
+   */
+  private boolean resolveFree(String name) {
+    for (Scope s = parent; s != null && s.type != MODULE; s = s.parent) {
+      if (s.type == CLASS) {
+        continue;
+      }
+      int f = s.flags(name);
+      if ((f & GLOBAL) != 0) {
+        return false;
+      }
+      if ((f & NONLOCAL) != 0) {
+        continue;
+      }
+      if ((f & BOUND) != 0) {
+        s.cellNames.add(name);
+        for (Scope t = this; t != s; t = t.parent) {
+          t.freeNames.add(name);
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void allocate() {
+    if (type == FUNCTION) {
+      for (Map.Entry<String, Integer> entry : flags.entrySet()) {
+        if (entry.getValue() == BOUND) {
+          slots.put(entry.getKey(), size++);
+        }
+      }
+    }
+    for (String name : freeNames) {
+      slots.put(name, size++);
+    }
+    cells = new int[cellNames.size()];
+    int i = 0;
+    for (String name : cellNames) {
+      cells[i++] = slots.get(name);
+    }
+    frees = new int[freeNames.size()];
+    outer = new int[freeNames.size()];
+    i = 0;
+    for (String name : freeNames) {
+      frees[i] = slots.get(name);
+      outer[i] = parent.slots.get(name);
+      i++;
+    }
+    for (Expr.Var var : vars) {
+      String name = var.name.value;
+      int kind = kinds.get(name);
+      if (kind == FREE) {
+        var.kind = Expr.Var.CELL;
+        var.slot = slots.get(name);
+        var.free = true;
+      } else if (kind == Expr.Var.LOCAL) {
+        var.kind = cellNames.contains(name) ? Expr.Var.CELL : Expr.Var.LOCAL;
+        var.slot = slots.get(name);
+      } else {
+        var.kind = kind;
+      }
+    }
+    for (Scope child : children) {
+      child.allocate();
+    }
+  }
+
+  // --------------------------------------------------------------------------------
+
+  /** Returns the closure for a function or class of this scope created in the given frame. */
+  Obj[] closure(Frame f) {
+    Obj[] closure = new Obj[outer.length];
+    for (int i = 0; i < closure.length; i++) {
+      closure[i] = f.slots[outer[i]];
+    }
+    return closure;
+  }
+
+  /** Returns the error to raise if the local or free variable in the given slot has no value. */
+  PythonException unbound(int slot) {
+    for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+      if (entry.getValue() == slot) {
+        return Expr.Var.unbound(Python.intern(entry.getKey()), freeNames.contains(entry.getKey()));
+      }
+    }
+    throw new IllegalArgumentException("slot " + slot);
+  }
+
+  /** Initializes the cells of the given frame of this scope after its parameters have been bound. */
+  void enter(Frame f, Obj[] closure) {
+    Obj[] slots = f.slots;
+    for (int slot : cells) {
+      slots[slot] = new Cell(slots[slot]);
+    }
+    for (int i = 0; i < frees.length; i++) {
+      slots[frees[i]] = closure[i];
+    }
+  }
+}
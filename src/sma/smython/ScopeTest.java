@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ScopeTest {
+  private static Suite parse(String source) {
+    return new Parser(new Scanner(source)).parseFileInput();
+  }
+
+  private static Stmt.FuncDef def(Suite suite, int index) {
+    return (Stmt.FuncDef) suite.stmts.get(index);
+  }
+
+  /** Returns the variable of the first statement of the given suite, which must be "return var". */
+  private static Expr.Var returned(Suite suite) {
+    return (Expr.Var) ((Stmt.Return) suite.stmts.get(0)).exprList.exprs.get(0);
+  }
+
+  @Test
+  public void moduleNames() {
+    Suite suite = parse("a = 1\na\n");
+    Expr.Var var = (Expr.Var) ((Stmt.ExprStmt) suite.stmts.get(1)).exprList.exprs.get(0);
+    assertEquals(Expr.Var.NAME, var.kind);
+  }
+
+  @Test
+  public void localsAndGlobals() {
+    Stmt.FuncDef f = def(parse("def f(a, b):\n  return c\n  c = d\n"), 0);
+    assertEquals(3, f.scope.size);
+    Expr.Var c = returned(f.body);
+    assertEquals(Expr.Var.LOCAL, c.kind);
+    assertEquals(2, c.slot);
+    Expr.Var d = (Expr.Var) ((Stmt.Assign) f.body.stmts.get(1)).right.exprs.get(0);
+    assertEquals(Expr.Var.GLOBAL, d.kind);
+  }
+
+  @Test
+  public void globalDeclaration() {
+    Stmt.FuncDef f = def(parse("def f():\n  return a\n  global a\n  a = 1\n"), 0);
+    assertEquals(0, f.scope.size);
+    assertEquals(Expr.Var.GLOBAL, returned(f.body).kind);
+  }
+
+  @Test
+  public void cellsAndFreeVariables() {
+    Stmt.FuncDef f = def(parse("def f(a, b):\n  def g():\n    def h(): return b\n"), 0);
+    assertArrayEquals(new int[]{1}, f.scope.cells);
+    Stmt.FuncDef g = def(f.body, 0);
+    assertArrayEquals(new int[]{1}, g.scope.outer);
+    Stmt.FuncDef h = def(g.body, 0);
+    assertArrayEquals(new int[]{0}, h.scope.frees);
+    assertEquals(Expr.Var.CELL, returned(h.body).kind);
+  }
+
+  @Test
+  public void classScopesAreSkipped() {
+    Stmt.FuncDef f = def(parse("def f(a):\n  class C:\n    a = 1\n    def m(): return a\n"), 0);
+    Stmt.ClassDef c = (Stmt.ClassDef) f.body.stmts.get(0);
+    assertEquals(1, c.scope.size);
+    Stmt.FuncDef m = def(c.body, 1);
+    assertEquals(Expr.Var.CELL, returned(m.body).kind);
+  }
+
+  @Test
+  public void nonlocalDeclaration() {
+    Stmt.FuncDef f = def(parse("def f():\n  a = 1\n  def g():\n    nonlocal a\n    a = 2\n"), 0);
+    Stmt.FuncDef g = def(f.body, 1);
+    Expr.Var a = (Expr.Var) ((Stmt.Assign) g.body.stmts.get(1)).left.get(0).exprs.get(0);
+    assertEquals(Expr.Var.CELL, a.kind);
+    try {
+      parse("def f():\n  nonlocal a\n  a = 1\n");
+      fail();
+    } catch (ParserException e) {
+      assertEquals("no binding for nonlocal 'a' found", e.getMessage());
+    }
+  }
+
+  @Test
+  public void comprehensionScopes() {
+    Stmt.FuncDef f = def(parse("def f(a, x):\n  return [x + a for x in a]\n"), 0);
+    assertArrayEquals(new int[]{0}, f.scope.cells);
+    Expr.ListCompr compr = (Expr.ListCompr) ((Stmt.Return) f.body.stmts.get(0)).exprList.exprs.get(0);
+    assertEquals(2, compr.scope.size);
+    Expr.Var x = (Expr.Var) ((Expr.ComprFor) compr.compr).vars.exprs.get(0);
+    assertEquals(Expr.Var.LOCAL, x.kind);
+    assertEquals(0, x.slot);
+    assertEquals(Expr.Var.CELL, ((Expr.Var) ((Expr.ComprFor) compr.compr).items).kind);
+  }
+
+  @Test
+  public void unsupportedYields() {
+    String[][] errors = {
+        {"def f():\n  x = 1 + (yield 2)\n", "'yield' is only supported as a statement or the right side of an assignment"},
+        {"def f(l): return [(yield x) for x in l]\n", "'yield' is only supported as a statement or the right side of an assignment"},
+        {"f = lambda: (yield)\n", "'yield' is only supported as a statement or the right side of an assignment"},
+        {"def f():\n  try: yield 1\n  finally: yield 2\n", "'yield' inside 'finally' is not supported"},
+    };
+    for (String[] error : errors) {
+      try {
+        parse(error[0]);
+        fail(error[0]);
+      } catch (ParserException e) {
+        assertEquals(error[1], e.getMessage());
+      }
+    }
+    Stmt.FuncDef f = def(parse("def f():\n  try: yield 1\n  finally: pass\n"), 0);
+    assertTrue(f.scope.generator);
+  }
+
+  @Test
+  public void lambdaParameters() {
+    Suite suite = parse("f = lambda a, b=c: a\n");
+    Expr.Lambda lambda = (Expr.Lambda) ((Stmt.Assign) suite.stmts.get(0)).right.exprs.get(0);
+    assertEquals(2, lambda.scope.size);
+    Expr.Var a = returned(lambda.body);
+    assertEquals(Expr.Var.LOCAL, a.kind);
+    assertEquals(0, a.slot);
+    assertEquals(Expr.Var.NAME, ((Expr.Var) lambda.params.params.get(1).init).kind);
+  }
+}
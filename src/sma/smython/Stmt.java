@@ -9,13 +9,41 @@ import java.util.List;
 
 /** Represents an AST statement. */
 abstract class Stmt {
-  abstract void execute(Frame f);
+  // completion codes of execute()
+  static final int NORMAL = 0;
+  static final int BREAK = 1;
+  static final int CONTINUE = 2;
+  static final int RETURN = 3;
+  static final int YIELD = 4;
+
+  /**
+   * Executes this statement and returns how it completed. If it is <code>RETURN</code> or
+   * <code>YIELD</code>, the value has been stored in the frame's <code>result</code>. Statements
+   * which can contain a "yield" save their position in the frame before returning
+   * <code>YIELD</code> and continue from there if the frame is <code>resuming</code>.
+   */
+  abstract int execute(Frame f);
+
+  /** Declares all names used by this statement to the given scope. */
+  abstract void resolve(Scope scope);
 
   Obj eval(Frame f) {
     execute(f);
     return Python.None;
   }
 
+  /** Executes the "else" suite of a loop, remembering in the given resume point if it yields. */
+  static int executeElse(Frame f, Suite elseSuite, int resume) {
+    if (elseSuite == null) {
+      return NORMAL;
+    }
+    int completion = elseSuite.execute(f);
+    if (completion == YIELD) {
+      f.resume[resume] = 1;
+    }
+    return completion;
+  }
+
   static String join(List<?> objects, Object separator) {
     StringBuilder b = new StringBuilder();
     for (Object object : objects) {
@@ -30,10 +58,12 @@ abstract class Stmt {
   static class Decorator {
     final List<String> dottedName;
     final Arglist arglist;
+    final Expr.Var var;
 
     Decorator(List<String> dottedName, Arglist arglist) {
       this.dottedName = dottedName;
       this.arglist = arglist;
+      this.var = new Expr.Var(Python.intern(dottedName.get(0)));
     }
 
     @Override
@@ -42,19 +72,22 @@ abstract class Stmt {
     }
 
     Obj eval(Frame f) {
-      Obj obj = null;
-      for (String name : dottedName) {
-        if (obj == null) {
-          obj = f.get(new Str(name));
-        } else {
-          obj = obj.getAttr(new Str(name));
-        }
+      Obj obj = var.eval(f);
+      for (int i = 1; i < dottedName.size(); i++) {
+        obj = obj.getAttr(Python.intern(dottedName.get(i)));
       }
       if (arglist != null) {
-        obj = obj.call(f, arglist.eval(f));
+        obj = arglist.call(f, obj);
       }
       return obj;
     }
+
+    void resolve(Scope scope) {
+      var.resolve(scope);
+      if (arglist != null) {
+        arglist.resolve(scope);
+      }
+    }
   }
 
   static class Break extends Stmt {
@@ -63,8 +96,11 @@ abstract class Stmt {
       return "Break";
     }
 
-    void execute(Frame f) {
-      throw Python.breakException;
+    int execute(Frame f) {
+      return BREAK;
+    }
+
+    void resolve(Scope scope) {
     }
   }
 
@@ -74,8 +110,11 @@ abstract class Stmt {
       return "Continue";
     }
 
-    void execute(Frame f) {
-      throw Python.continueException;
+    int execute(Frame f) {
+      return CONTINUE;
+    }
+
+    void resolve(Scope scope) {
     }
   }
 
@@ -86,8 +125,13 @@ abstract class Stmt {
       this.exprList = exprList;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
       // TODO delete all target expressions from Frame
+      return NORMAL;
+    }
+
+    void resolve(Scope scope) {
+      exprList.resolveTarget(scope);
     }
 
     @Override
@@ -97,7 +141,11 @@ abstract class Stmt {
   }
 
   static class Pass extends Stmt {
-    void execute(Frame f) {
+    int execute(Frame f) {
+      return NORMAL;
+    }
+
+    void resolve(Scope scope) {
     }
 
     @Override
@@ -113,9 +161,13 @@ abstract class Stmt {
       this.exprList = exprList;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
       f.result = exprList.eval(f);
-      throw Python.returnException;
+      return RETURN;
+    }
+
+    void resolve(Scope scope) {
+      exprList.resolve(scope);
     }
 
     @Override
@@ -125,6 +177,8 @@ abstract class Stmt {
   }
 
   static class Raise extends Stmt {
+    private static final Python.Str CAUSE = Python.intern("__cause__");
+
     final Expr exception;
     final Expr from;
 
@@ -133,8 +187,27 @@ abstract class Stmt {
       this.from = from;
     }
 
-    void execute(Frame f) {
-      throw new UnsupportedOperationException();
+    int execute(Frame f) {
+      if (exception == null) {
+        if (f.exception == null) {
+          throw Python.error(Python.RuntimeError, "No active exception to reraise");
+        }
+        throw f.exception;
+      }
+      PythonException e = PythonException.of(f, exception.eval(f));
+      if (from != null) {
+        e.value.setAttr(CAUSE, from.eval(f));
+      }
+      throw e;
+    }
+
+    void resolve(Scope scope) {
+      if (exception != null) {
+        exception.resolve(scope);
+      }
+      if (from != null) {
+        from.resolve(scope);
+      }
     }
 
     @Override
@@ -150,8 +223,17 @@ abstract class Stmt {
       this.expr = expr;
     }
 
-    void execute(Frame f) {
-      throw new UnsupportedOperationException();
+    int execute(Frame f) {
+      if (f.resuming) {
+        f.resuming = false;
+        return NORMAL;
+      }
+      f.result = ((Expr.Yield) expr).value(f);
+      return YIELD;
+    }
+
+    void resolve(Scope scope) {
+      ((Expr.Yield) expr).resolveYield(scope);
     }
 
     @Override
@@ -167,10 +249,16 @@ abstract class Stmt {
       this.dottedNames = dottedNames;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
       throw new UnsupportedOperationException();
     }
 
+    void resolve(Scope scope) {
+      for (DottedName dottedName : dottedNames) {
+        scope.bind(dottedName.alias != null ? dottedName.alias : dottedName.dottedName.get(0));
+      }
+    }
+
     @Override
     public String toString() {
       return "Import" + dottedNames;
@@ -203,10 +291,16 @@ abstract class Stmt {
       this.importNames = importNames;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
       throw new UnsupportedOperationException();
     }
 
+    void resolve(Scope scope) {
+      for (NameAlias nameAlias : importNames) {
+        scope.bind(nameAlias.alias != null ? nameAlias.alias : nameAlias.name);
+      }
+    }
+
     @Override
     public String toString() {
       String s = "";
@@ -242,7 +336,14 @@ abstract class Stmt {
       this.names = names;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
+      return NORMAL;
+    }
+
+    void resolve(Scope scope) {
+      for (String name : names) {
+        scope.declareGlobal(name);
+      }
     }
 
     @Override
@@ -258,7 +359,14 @@ abstract class Stmt {
       this.names = names;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
+      return NORMAL;
+    }
+
+    void resolve(Scope scope) {
+      for (String name : names) {
+        scope.declareNonlocal(name);
+      }
     }
 
     @Override
@@ -276,9 +384,17 @@ abstract class Stmt {
       this.message = message;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
       if (!test.eval(f).truish()) {
-        throw new AssertionError(message.eval(f));
+        throw message != null ? Python.error(Python.AssertionError, message.eval(f)) : Python.error(Python.AssertionError);
+      }
+      return NORMAL;
+    }
+
+    void resolve(Scope scope) {
+      test.resolve(scope);
+      if (message != null) {
+        message.resolve(scope);
       }
     }
 
@@ -297,12 +413,18 @@ abstract class Stmt {
       this.right = right;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
       left.set(f, op(left.eval(f), right.eval(f)));
+      return NORMAL;
     }
 
     abstract Obj op(Obj a, Obj b);
 
+    void resolve(Scope scope) {
+      left.resolveTarget(scope);
+      right.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return getClass().getSimpleName() + "(" + left + ", " + right + ")";
@@ -432,17 +554,41 @@ abstract class Stmt {
   static class Assign extends Stmt {
     final List<ExprList> left;
     final ExprList right;
+    private final Expr.Yield yield;
 
     Assign(List<ExprList> left, ExprList right) {
       this.left = left;
       this.right = right;
+      this.yield = right.exprs.size() == 1 && right.exprs.get(0) instanceof Expr.Yield ?
+          (Expr.Yield) right.exprs.get(0) : null;
     }
 
-    void execute(Frame f) {
-      Obj value = right.eval(f);
+    int execute(Frame f) {
+      Obj value;
+      if (yield == null) {
+        value = right.eval(f);
+      } else if (f.resuming) {
+        f.resuming = false;
+        value = f.sent;
+      } else {
+        f.result = yield.value(f);
+        return YIELD;
+      }
       for (ExprList expr : left) {
         expr.set(f, value);
       }
+      return NORMAL;
+    }
+
+    void resolve(Scope scope) {
+      if (yield != null) {
+        yield.resolveYield(scope);
+      } else {
+        right.resolve(scope);
+      }
+      for (ExprList exprList : left) {
+        exprList.resolveTarget(scope);
+      }
     }
 
     @Override
@@ -459,8 +605,9 @@ abstract class Stmt {
       this.exprList = exprList;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
       exprList.eval(f);
+      return NORMAL;
     }
 
     @Override
@@ -468,6 +615,10 @@ abstract class Stmt {
       return exprList.eval(f);
     }
 
+    void resolve(Scope scope) {
+      exprList.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "Expr" + exprList;
@@ -478,6 +629,7 @@ abstract class Stmt {
     final Expr testExpr;
     final Suite thenSuite;
     final Suite elseSuite;
+    int resume;
 
     If(Expr testExpr, Suite thenSuite, Suite elseSuite) {
       this.testExpr = testExpr;
@@ -485,11 +637,26 @@ abstract class Stmt {
       this.elseSuite = elseSuite;
     }
 
-    void execute(Frame f) {
-      if (testExpr.eval(f).truish()) {
-        thenSuite.execute(f);
+    int execute(Frame f) {
+      boolean then = f.resuming ? f.resume[resume] != 0 : testExpr.eval(f).truish();
+      int completion;
+      if (then) {
+        completion = thenSuite.execute(f);
       } else {
-        elseSuite.execute(f);
+        completion = elseSuite != null ? elseSuite.execute(f) : NORMAL;
+      }
+      if (completion == YIELD) {
+        f.resume[resume] = then ? 1 : 0;
+      }
+      return completion;
+    }
+
+    void resolve(Scope scope) {
+      resume = scope.newResumePoint();
+      testExpr.resolve(scope);
+      thenSuite.resolve(scope);
+      if (elseSuite != null) {
+        elseSuite.resolve(scope);
       }
     }
 
@@ -503,6 +670,7 @@ abstract class Stmt {
     final Expr testExpr;
     final Suite bodySuite;
     final Suite elseSuite;
+    int resume;
 
     While(Expr testExpr, Suite bodySuite, Suite elseSuite) {
       this.testExpr = testExpr;
@@ -510,20 +678,34 @@ abstract class Stmt {
       this.elseSuite = elseSuite;
     }
 
-    void execute(Frame f) {
-      while (testExpr.eval(f).truish()) {
-        try {
-          bodySuite.execute(f);
-        } catch (RuntimeException e) {
-          if (e == Python.breakException) {
-            return;
+    int execute(Frame f) {
+      if (!f.resuming || f.resume[resume] == 0) {
+        boolean resuming = f.resuming;
+        while (resuming || testExpr.eval(f).truish()) {
+          resuming = false;
+          int completion = bodySuite.execute(f);
+          if (completion == BREAK) {
+            return NORMAL;
           }
-          if (e != Python.continueException) {
-            throw e;
+          if (completion == YIELD) {
+            f.resume[resume] = 0;
+            return YIELD;
+          }
+          if (completion == RETURN) {
+            return RETURN;
           }
         }
       }
-      elseSuite.execute(f);
+      return executeElse(f, elseSuite, resume);
+    }
+
+    void resolve(Scope scope) {
+      resume = scope.newResumePoint();
+      testExpr.resolve(scope);
+      bodySuite.resolve(scope);
+      if (elseSuite != null) {
+        elseSuite.resolve(scope);
+      }
     }
 
     @Override
@@ -537,6 +719,7 @@ abstract class Stmt {
     final ExprList items;
     final Suite bodySuite;
     final Suite elseSuite;
+    int resume;
 
     For(ExprList names, ExprList items, Suite bodySuite, Suite elseSuite) {
       this.names = names;
@@ -545,24 +728,77 @@ abstract class Stmt {
       this.elseSuite = elseSuite;
     }
 
-    void execute(Frame f) {
-      Python.Obj iter = items.eval(f).iter();
-      Python.Obj next = iter.next();
-      while (next != null) {
-        names.set(f, next);
-        try {
-          bodySuite.execute(f);
-        } catch (RuntimeException e) {
-          if (e == Python.breakException) {
-            return;
+    int execute(Frame f) {
+      if (!f.resuming || f.resume[resume] == 0) {
+        boolean resuming = f.resuming;
+        Obj iter;
+        if (resuming) {
+          iter = (Obj) f.iterators[resume];
+        } else {
+          Obj iterable = items.eval(f);
+          if (iterable instanceof Python.Range) {
+            return executeRange(f, (Python.Range) iterable);
+          }
+          iter = iterable.iter();
+        }
+        while (true) {
+          if (!resuming) {
+            Obj next = iter.next();
+            if (next == null) {
+              break;
+            }
+            names.set(f, next);
+          }
+          resuming = false;
+          int completion = bodySuite.execute(f);
+          if (completion == BREAK) {
+            return NORMAL;
           }
-          if (e != Python.continueException) {
-            throw e;
+          if (completion == YIELD) {
+            f.resume[resume] = 0;
+            f.iterators[resume] = iter;
+            return YIELD;
           }
+          if (completion == RETURN) {
+            return RETURN;
+          }
+        }
+      }
+      return executeElse(f, elseSuite, resume);
+    }
+
+    /**
+     * Loops over a range with a primitive counter instead of an iterator. If the body yields, the
+     * remaining range is saved as an iterator for the generic loop to resume with.
+     */
+    private int executeRange(Frame f, Python.Range range) {
+      int stop = range.stop, step = range.step;
+      for (long i = range.start; step > 0 ? i < stop : i > stop; i += step) {
+        names.set(f, Python.Int((int) i));
+        int completion = bodySuite.execute(f);
+        if (completion == BREAK) {
+          return NORMAL;
+        }
+        if (completion == YIELD) {
+          f.resume[resume] = 0;
+          f.iterators[resume] = new Python.RangeIterator(i + step, stop, step);
+          return YIELD;
+        }
+        if (completion == RETURN) {
+          return RETURN;
         }
-        next = iter.next();
       }
-      elseSuite.execute(f);
+      return executeElse(f, elseSuite, resume);
+    }
+
+    void resolve(Scope scope) {
+      resume = scope.newResumePoint();
+      items.resolve(scope);
+      names.resolveTarget(scope);
+      bodySuite.resolve(scope);
+      if (elseSuite != null) {
+        elseSuite.resolve(scope);
+      }
     }
 
     @Override
@@ -572,10 +808,16 @@ abstract class Stmt {
   }
 
   static class Try extends Stmt {
+    // resume states, followed by one per "except" clause
+    private static final int BODY = 0;
+    private static final int ELSE = 1;
+    private static final int HANDLER = 2;
+
     final Suite bodySuite;
     final List<Except> exceptList;
     final Suite elseSuite;
     final Suite finallySuite;
+    int resume;
 
     Try(Suite bodySuite, List<Except> exceptList, Suite elseSuite, Suite finallySuite) {
       this.bodySuite = bodySuite;
@@ -584,25 +826,96 @@ abstract class Stmt {
       this.finallySuite = finallySuite;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
+      int completion = NORMAL;
+      boolean suspended = false;
+      PythonException exception = null;
       try {
-        boolean doElse = false;
-        try {
-          bodySuite.execute(f);
-          doElse = elseSuite != null;
-        } catch (RuntimeException e) {
-          for (Except ex : exceptList) {
-            // TODO find the matching Except clause
-            ex.clause.eval(f);
+        int state = f.resuming ? f.resume[resume] : BODY;
+        if (state == BODY) {
+          try {
+            completion = bodySuite.execute(f);
+            if (completion == NORMAL && elseSuite != null) {
+              state = ELSE;
+            }
+          } catch (PythonException e) {
+            int i = match(f, e);
+            if (i == -1) {
+              throw e;
+            }
+            Except except = exceptList.get(i);
+            if (except.var != null) {
+              except.var.set(f, e.value);
+            }
+            state = HANDLER + i;
+            exception = e;
+            completion = handle(f, except, e);
           }
+        } else if (state >= HANDLER) {
+          exception = (PythonException) f.iterators[resume];
+          f.iterators[resume] = null;
+          completion = handle(f, exceptList.get(state - HANDLER), exception);
         }
-        if (doElse) {
-          elseSuite.execute(f);
+        if (state == ELSE) {
+          completion = elseSuite.execute(f);
         }
+        if (completion == YIELD) {
+          f.resume[resume] = state;
+          if (state >= HANDLER) {
+            f.iterators[resume] = exception; // for a bare "raise" after resuming the handler
+          }
+          suspended = true;
+        }
+      } finally {
+        if (finallySuite != null && !suspended) {
+          int finallyCompletion = finallySuite.execute(f);
+          if (finallyCompletion != NORMAL) {
+            return finallyCompletion; // like in Python, this discards a pending exception
+          }
+        }
+      }
+      return completion;
+    }
+
+    /** Executes the given clause's suite while the given exception is the one being handled. */
+    private static int handle(Frame f, Except except, PythonException e) {
+      PythonException handled = f.exception;
+      f.exception = e;
+      try {
+        return except.suite.execute(f);
       } finally {
-        if (finallySuite != null) {
-          finallySuite.execute(f);
+        f.exception = handled;
+      }
+    }
+
+    /** Returns the index of the first "except" clause matching the given exception or -1. */
+    private int match(Frame f, PythonException e) {
+      for (int i = 0, size = exceptList.size(); i < size; i++) {
+        if (exceptList.get(i).matches(f, e.type())) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    void resolve(Scope scope) {
+      resume = scope.newResumePoint();
+      bodySuite.resolve(scope);
+      for (Except except : exceptList) {
+        except.resolve(scope);
+      }
+      if (elseSuite != null) {
+        elseSuite.resolve(scope);
+      }
+      if (finallySuite != null) {
+        // a suspended "finally" would have to keep the pending exception or return, so reject it
+        boolean generator = scope.generator;
+        scope.generator = false;
+        finallySuite.resolve(scope);
+        if (scope.generator) {
+          throw new ParserException("'yield' inside 'finally' is not supported");
         }
+        scope.generator = generator;
       }
     }
 
@@ -618,11 +931,89 @@ abstract class Stmt {
     final Expr clause;
     final String name;
     final Suite suite;
+    final Expr.Var var;
+    // inline cache of the last match; immutable, so it is published through this one field
+    private Match cache;
 
     Except(Expr clause, String name, Suite suite) {
       this.clause = clause;
       this.name = name;
       this.suite = suite;
+      this.var = name != null ? new Expr.Var(Python.intern(name)) : null;
+    }
+
+    /** Returns whether this clause handles exceptions of the given class. */
+    boolean matches(Frame f, Python.Type type) {
+      if (clause == null) {
+        return true;
+      }
+      Python.Obj c = clause.eval(f);
+      Match cache = this.cache;
+      if (cache != null && cache.type == type && cache.isFor(c)) {
+        return cache.match;
+      }
+      boolean match = matches(c, type);
+      this.cache = new Match(c, type, match);
+      return match;
+    }
+
+    /**
+     * The result of matching a class against the objects a clause evaluated to. A tuple clause
+     * creates a new tuple on each evaluation, so its elements are remembered instead of the tuple.
+     */
+    private static final class Match {
+      final Python.Obj[] clauses;
+      final Python.Type type;
+      final boolean match;
+
+      Match(Python.Obj clause, Python.Type type, boolean match) {
+        this.clauses = clause instanceof Python.List
+            ? ((Python.List) clause).values.toArray(new Python.Obj[0])
+            : new Python.Obj[]{clause};
+        this.type = type;
+        this.match = match;
+      }
+
+      /** Returns whether the clause evaluated to the same objects; <code>A</code> and <code>(A,)</code> match alike. */
+      boolean isFor(Python.Obj clause) {
+        if (clause instanceof Python.List) {
+          List<Python.Obj> values = ((Python.List) clause).values;
+          if (values.size() != clauses.length) {
+            return false;
+          }
+          for (int i = 0; i < clauses.length; i++) {
+            if (values.get(i) != clauses[i]) {
+              return false;
+            }
+          }
+          return true;
+        }
+        return clauses.length == 1 && clauses[0] == clause;
+      }
+    }
+
+    private static boolean matches(Python.Obj clause, Python.Type type) {
+      if (clause instanceof Python.List) {
+        boolean match = false;
+        for (Python.Obj c : ((Python.List) clause).values) {
+          match |= matches(c, type);
+        }
+        return match;
+      }
+      if (clause instanceof Python.Type && ((Python.Type) clause).isSubclassOf(Python.BaseException)) {
+        return type.isSubclassOf((Python.Type) clause);
+      }
+      throw Python.error(Python.TypeError, "catching classes that do not inherit from BaseException is not allowed");
+    }
+
+    void resolve(Scope scope) {
+      if (clause != null) {
+        clause.resolve(scope);
+      }
+      if (var != null) {
+        var.resolveTarget(scope);
+      }
+      suite.resolve(scope);
     }
 
     @Override
@@ -645,19 +1036,29 @@ abstract class Stmt {
       this.bodySuite = bodySuite;
     }
 
-    void execute(Frame f) {
-      Python.Obj obj = expr.eval(f);
-      if (binding != null) {
-        binding.set(f, obj);
+    int execute(Frame f) {
+      if (!f.resuming) {
+        Python.Obj obj = expr.eval(f);
+        if (binding != null) {
+          binding.set(f, obj);
+        }
+        // TODO call __enter__
       }
-      // TODO call __enter__
       try {
-        bodySuite.execute(f);
+        return bodySuite.execute(f);
       } finally {
-        // TODO call __exit__
+        // TODO call __exit__ unless suspended
       }
     }
 
+    void resolve(Scope scope) {
+      expr.resolve(scope);
+      if (binding != null) {
+        binding.resolveTarget(scope);
+      }
+      bodySuite.resolve(scope);
+    }
+
     @Override
     public String toString() {
       return "With(" + expr + (binding == null ? "" : ", " + binding) + ", " + bodySuite + ")";
@@ -668,26 +1069,48 @@ abstract class Stmt {
     final Str name;
     final Params params;
     final Suite body;
+    final Expr.Var var;
     List<Decorator> decorators;
+    Scope scope;
 
-    FuncDef(String name, Params params, Suite body) {
-      this.name = new Str(name);
+    FuncDef(Str name, Params params, Suite body) {
+      this.name = name;
       this.params = params;
       this.body = body;
+      this.var = new Expr.Var(name);
     }
 
     void setDecorators(List<Decorator> decorators) {
       this.decorators = decorators;
     }
 
-    void execute(Frame f) {
-      Obj func = new Func(name, params, body, f.globals);
+    int execute(Frame f) {
+      var.set(f, define(f));
+      return NORMAL;
+    }
+
+    /** Creates the function object and applies all decorators. */
+    Obj define(Frame f) {
+      Obj func = new Func(name, params, body, f.globals, scope, scope.closure(f), params.defaults(f));
       if (decorators != null) {
         for (Decorator decorator : decorators) {
           func = decorator.eval(f).call(f, func);
         }
       }
-      f.set(name, func);
+      return func;
+    }
+
+    void resolve(Scope scope) {
+      if (decorators != null) {
+        for (Decorator decorator : decorators) {
+          decorator.resolve(scope);
+        }
+      }
+      params.resolve(scope);
+      var.resolveTarget(scope);
+      this.scope = scope.newScope(Scope.FUNCTION);
+      params.declare(this.scope);
+      body.resolve(this.scope);
     }
 
     @Override
@@ -704,26 +1127,48 @@ abstract class Stmt {
     final Str name;
     final Arglist arglist;
     final Suite body;
+    final Expr.Var var;
     List<Decorator> decorators;
+    Scope scope;
 
-    ClassDef(String name, Arglist arglist, Suite body) {
-      this.name = new Str(name);
+    ClassDef(Str name, Arglist arglist, Suite body) {
+      this.name = name;
       this.arglist = arglist;
       this.body = body;
+      this.var = new Expr.Var(name);
     }
 
     void setDecorators(List<Decorator> decorators) {
       this.decorators = decorators;
     }
 
-    void execute(Frame f) {
+    int execute(Frame f) {
+      Obj[] bases = arglist.eval(f);
       Dict dict = new Dict();
-      body.execute(new Frame(dict, f.globals));
-      Obj type = new Type(name, arglist.eval(f), dict);
-      for (Decorator decorator : decorators) {
-        type = decorator.eval(f).call(f, type);
+      Frame frame = new Frame(dict, f.globals, new Obj[scope.size]);
+      frame.name = name;
+      scope.enter(frame, scope.closure(f));
+      body.execute(frame);
+      Obj type = new Type(name, bases, dict);
+      if (decorators != null) {
+        for (Decorator decorator : decorators) {
+          type = decorator.eval(f).call(f, type);
+        }
+      }
+      var.set(f, type);
+      return NORMAL;
+    }
+
+    void resolve(Scope scope) {
+      if (decorators != null) {
+        for (Decorator decorator : decorators) {
+          decorator.resolve(scope);
+        }
       }
-      f.set(name, type);
+      arglist.resolve(scope);
+      var.resolveTarget(scope);
+      this.scope = scope.newScope(Scope.CLASS);
+      body.resolve(this.scope);
     }
 
     @Override
@@ -3,31 +3,85 @@
  */
 package sma.smython;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
-/** Represents a sequence of statements as part of the AST. */
-class Suite {
+/**
+ * Represents a sequence of statements as part of the AST. The suite also knows the line of each
+ * statement, so that nodes need not store positions; a <code>PythonException</code> passing
+ * through records the suite and the index of the failed statement for its traceback.
+ */
+public class Suite {
+  private static final int[] NO_LINES = new int[0];
+
   final List<Stmt> stmts = new ArrayList<Stmt>();
+  /** The 1-based line of each statement, 0 if unknown. */
+  private int[] lines = NO_LINES;
+  int resume;
 
   void add(Stmt stmt) {
+    add(stmt, 0);
+  }
+
+  void add(Stmt stmt, int line) {
+    int size = stmts.size();
+    if (size == lines.length) {
+      lines = Arrays.copyOf(lines, size + 4);
+    }
+    lines[size] = line;
     stmts.add(stmt);
   }
 
-  void execute(Frame f) {
-    for (Stmt stmt : stmts) {
-      stmt.execute(f);
+  /** Returns the line of the statement with the given index, 0 if unknown. */
+  int line(int index) {
+    return lines[index];
+  }
+
+  /**
+   * Executes all statements until one doesn't complete normally and returns its completion code.
+   * In a generator, remembers the statement which yielded and continues with it when resumed.
+   */
+  int execute(Frame f) {
+    int i = f.resuming ? f.resume[resume] : 0;
+    try {
+      for (int size = stmts.size(); i < size; i++) {
+        int completion = stmts.get(i).execute(f);
+        if (completion != Stmt.NORMAL) {
+          if (completion == Stmt.YIELD) {
+            f.resume[resume] = i;
+          }
+          return completion;
+        }
+      }
+    } catch (PythonException e) {
+      e.at(f, this, i);
+      throw e;
     }
+    return Stmt.NORMAL;
   }
 
   Python.Obj eval(Frame f) {
     Python.Obj result = Python.None;
-    for (Stmt stmt : stmts) {
-      result = stmt.eval(f);
+    int i = 0;
+    try {
+      for (int size = stmts.size(); i < size; i++) {
+        result = stmts.get(i).eval(f);
+      }
+    } catch (PythonException e) {
+      e.at(f, this, i);
+      throw e;
     }
     return result;
   }
 
+  void resolve(Scope scope) {
+    resume = scope.newResumePoint();
+    for (Stmt stmt : stmts) {
+      stmt.resolve(scope);
+    }
+  }
+
   @Override
   public String toString() {
     return "Suite" + stmts;
@@ -53,24 +53,16 @@ public class SyntaxTest {
 
     @Override
     protected void runTest() throws Throwable {
-      parse(read(file));
-    }
-
-    private static String read(File file) throws IOException {
-      Reader r = new InputStreamReader(new FileInputStream(file), "utf-8");
-      StringBuilder b = new StringBuilder();
-      char[] buf = new char[4096];
-      int len = r.read(buf);
-      while (len != -1) {
-        b.append(buf, 0, len);
-        len = r.read(buf);
+      Reader r = ParseService.open(file);
+      try {
+        parse(r);
+      } finally {
+        r.close();
       }
-      r.close();
-      return b.toString();
     }
 
-    private static void parse(String source) throws Exception {
-      Parser parser = new Parser(new Scanner(source + "\n"));
+    private static void parse(Reader source) throws Exception {
+      Parser parser = new Parser(new Scanner(source));
       try {
         parser.parseFileInput();
       } catch (Exception e) {
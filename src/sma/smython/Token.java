@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009, Stefan Matthias Aust. All rights reserved.
+ */
+package sma.smython;
+
+/**
+ * Defines the token kinds returned by the scanner as dense integers so that the parser can use
+ * <code>switch</code> and <code>==</code> instead of comparing strings. <code>toString(int)</code>
+ * returns the traditional string form which is used in error messages and tests.
+ */
+public final class Token {
+  public static final int END = 0;
+  public static final int NEWLINE = 1;
+  public static final int INDENT = 2;
+  public static final int DEDENT = 3;
+  public static final int NAME = 4;
+  public static final int INT = 5;
+  public static final int FLOAT = 6;
+  public static final int STR = 7;
+
+  // delimiters
+  public static final int LPAR = 8;
+  public static final int RPAR = 9;
+  public static final int LSQB = 10;
+  public static final int RSQB = 11;
+  public static final int LBRACE = 12;
+  public static final int RBRACE = 13;
+  public static final int COLON = 14;
+  public static final int SEMI = 15;
+  public static final int COMMA = 16;
+  public static final int DOT = 17;
+  public static final int ELLIPSIS = 18;
+  public static final int RARROW = 19;
+  public static final int AT = 20;
+
+  // operators
+  public static final int PLUS = 21;
+  public static final int MINUS = 22;
+  public static final int STAR = 23;
+  public static final int SLASH = 24;
+  public static final int DOUBLESLASH = 25;
+  public static final int PERCENT = 26;
+  public static final int DOUBLESTAR = 27;
+  public static final int AMPER = 28;
+  public static final int VBAR = 29;
+  public static final int CIRCUMFLEX = 30;
+  public static final int TILDE = 31;
+  public static final int LEFTSHIFT = 32;
+  public static final int RIGHTSHIFT = 33;
+  public static final int LESS = 34;
+  public static final int GREATER = 35;
+  public static final int LESSEQUAL = 36;
+  public static final int GREATEREQUAL = 37;
+  public static final int EQEQUAL = 38;
+  public static final int NOTEQUAL = 39;
+
+  // assignment operators
+  public static final int EQUAL = 40;
+  public static final int PLUSEQUAL = 41;
+  public static final int MINEQUAL = 42;
+  public static final int STAREQUAL = 43;
+  public static final int SLASHEQUAL = 44;
+  public static final int DOUBLESLASHEQUAL = 45;
+  public static final int PERCENTEQUAL = 46;
+  public static final int DOUBLESTAREQUAL = 47;
+  public static final int AMPEREQUAL = 48;
+  public static final int VBAREQUAL = 49;
+  public static final int CIRCUMFLEXEQUAL = 50;
+  public static final int LEFTSHIFTEQUAL = 51;
+  public static final int RIGHTSHIFTEQUAL = 52;
+
+  // keywords
+  public static final int AND = 53;
+  public static final int AS = 54;
+  public static final int ASSERT = 55;
+  public static final int BREAK = 56;
+  public static final int CLASS = 57;
+  public static final int CONTINUE = 58;
+  public static final int DEF = 59;
+  public static final int DEL = 60;
+  public static final int ELIF = 61;
+  public static final int ELSE = 62;
+  public static final int EXCEPT = 63;
+  public static final int FINALLY = 64;
+  public static final int FOR = 65;
+  public static final int FROM = 66;
+  public static final int GLOBAL = 67;
+  public static final int IF = 68;
+  public static final int IMPORT = 69;
+  public static final int IN = 70;
+  public static final int IS = 71;
+  public static final int LAMBDA = 72;
+  public static final int NONLOCAL = 73;
+  public static final int NOT = 74;
+  public static final int OR = 75;
+  public static final int PASS = 76;
+  public static final int RAISE = 77;
+  public static final int RETURN = 78;
+  public static final int TRY = 79;
+  public static final int WHILE = 80;
+  public static final int WITH = 81;
+  public static final int YIELD = 82;
+  public static final int NONE = 83;
+  public static final int TRUE = 84;
+  public static final int FALSE = 85;
+
+  private static final String[] NAMES = {
+      "END", "NEWLINE", "INDENT", "DEDENT", "NAME", "INT", "FLOAT", "STR",
+      "(", ")", "[", "]", "{", "}", ":", ";", ",", ".", "...", "->", "@",
+      "+", "-", "*", "/", "//", "%", "**", "&", "|", "^", "~", "<<", ">>", "<", ">", "<=", ">=", "==", "!=",
+      "=", "+=", "-=", "*=", "/=", "//=", "%=", "**=", "&=", "|=", "^=", "<<=", ">>=",
+      "and", "as", "assert", "break", "class", "continue", "def", "del", "elif", "else", "except", "finally",
+      "for", "from", "global", "if", "import", "in", "is", "lambda", "nonlocal", "not", "or", "pass", "raise",
+      "return", "try", "while", "with", "yield", "None", "True", "False"
+  };
+
+  private Token() {
+  }
+
+  /** Returns the string form of the given token kind, e.g. "NAME", "+=" or "if". */
+  public static String toString(int kind) {
+    return NAMES[kind];
+  }
+}
@@ -210,9 +210,9 @@ Suite[Expr(ListConstr[Lit(1), Lit(2)])]
 >>> [1, 2,]
 Suite[Expr(ListConstr[Lit(1), Lit(2)])]
 >>> [a*a for a in items]
-Suite[Expr(ListCompr(Mul(Var(a), Var(a)) for [Var(a)] in Var(items)))]
+Suite[Expr(ListCompr(Mul(Var(a), Var(a)) for (Var(a)) in Var(items)))]
 >>> [a*a for a in items if 1]
-Suite[Expr(ListCompr(Mul(Var(a), Var(a)) for [Var(a)] in Var(items) if Lit(1)))]
+Suite[Expr(ListCompr(Mul(Var(a), Var(a)) for (Var(a)) in Var(items) if Lit(1)))]
 >>> [for a in b]
 SyntaxError
 >>> [a for a]
@@ -238,9 +238,9 @@ SyntaxError
 >>> {a: 1, b:}
 SyntaxError
 >>> {a: a+1 for a in items}
-Suite[Expr(DictCompr(Var(a), Add(Var(a), Lit(1)) for [Var(a)] in Var(items)))]
+Suite[Expr(DictCompr(Var(a), Add(Var(a), Lit(1)) for (Var(a)) in Var(items)))]
 >>> {a: a+1 for a in items if 1}
-Suite[Expr(DictCompr(Var(a), Add(Var(a), Lit(1)) for [Var(a)] in Var(items) if Lit(1)))]
+Suite[Expr(DictCompr(Var(a), Add(Var(a), Lit(1)) for (Var(a)) in Var(items) if Lit(1)))]
 >>> {for a in b}
 SyntaxError
 >>> {a: 1 for a}
@@ -260,9 +260,9 @@ Suite[Expr(SetConstr[Lit(1), Lit(2)])]
 >>> {1, 2,}
 Suite[Expr(SetConstr[Lit(1), Lit(2)])]
 >>> {a for a in items}
-Suite[Expr(SetCompr(Var(a) for [Var(a)] in Var(items)))]
+Suite[Expr(SetCompr(Var(a) for (Var(a)) in Var(items)))]
 >>> {a for a in items if 1}
-Suite[Expr(SetCompr(Var(a) for [Var(a)] in Var(items) if Lit(1)))]
+Suite[Expr(SetCompr(Var(a) for (Var(a)) in Var(items) if Lit(1)))]
 >>> {for a in b}
 SyntaxError
 >>> {a for a}
@@ -274,11 +274,11 @@ SyntaxError
 
 # complex comprehensions
 >>> [a + b for a in items1 for b in items2]
-Suite[Expr(ListCompr(Add(Var(a), Var(b)) for [Var(a)] in Var(items1) for [Var(b)] in Var(items2)))]
+Suite[Expr(ListCompr(Add(Var(a), Var(b)) for (Var(a)) in Var(items1) for (Var(b)) in Var(items2)))]
 >>> {a for a in items if 1 if 2}
-Suite[Expr(SetCompr(Var(a) for [Var(a)] in Var(items) if Lit(1) if Lit(2)))]
+Suite[Expr(SetCompr(Var(a) for (Var(a)) in Var(items) if Lit(1) if Lit(2)))]
 >>> (a for a in items if lambda: 2)
-Suite[Expr(GeneratorCompr(Var(a) for [Var(a)] in Var(items) if Lambda([], Lit(2))))]
+Suite[Expr(GeneratorCompr(Var(a) for (Var(a)) in Var(items) if Lambda([], Lit(2))))]
 
 # yield expression
 >>> (yield), (yield 1), (yield 1,), (yield 1, 2,)
@@ -296,9 +296,9 @@ Suite[Expr(TupleConstr[Lit(1), Lit(2)])]
 
 # generators
 >>> (a+1 for a in items)
-Suite[Expr(GeneratorCompr(Add(Var(a), Lit(1)) for [Var(a)] in Var(items)))]
+Suite[Expr(GeneratorCompr(Add(Var(a), Lit(1)) for (Var(a)) in Var(items)))]
 >>> (a+1 for a in items if 1)
-Suite[Expr(GeneratorCompr(Add(Var(a), Lit(1)) for [Var(a)] in Var(items) if Lit(1)))]
+Suite[Expr(GeneratorCompr(Add(Var(a), Lit(1)) for (Var(a)) in Var(items) if Lit(1)))]
 >>> (for a in b)
 SyntaxError
 >>> (a for a)
@@ -310,7 +310,7 @@ SyntaxError
 
 # subscripts
 >>> a[1]
-Suite[Expr(Index(Var(a), [Lit(1)]))]
+Suite[Expr(Index(Var(a), (Lit(1))))]
 >>> a[1,]
 Suite[Expr(Index(Var(a), [Lit(1)]))]
 >>> a[1, 2]
@@ -318,41 +318,41 @@ Suite[Expr(Index(Var(a), [Lit(1), Lit(2)]))]
 >>> a[1, 2,]
 Suite[Expr(Index(Var(a), [Lit(1), Lit(2)]))]
 >>> a[0][1]
-Suite[Expr(Index(Index(Var(a), [Lit(0)]), [Lit(1)]))]
+Suite[Expr(Index(Index(Var(a), (Lit(0))), (Lit(1))))]
 
 >>> a[:]
-Suite[Expr(Index(Var(a), [:]))]
+Suite[Expr(Index(Var(a), (:)))]
 >>> a[::]
-Suite[Expr(Index(Var(a), [:]))]
+Suite[Expr(Index(Var(a), (:)))]
 >>> a[1:]
-Suite[Expr(Index(Var(a), [Lit(1):]))]
+Suite[Expr(Index(Var(a), (Lit(1):)))]
 >>> a[1::]
-Suite[Expr(Index(Var(a), [Lit(1):]))]
+Suite[Expr(Index(Var(a), (Lit(1):)))]
 >>> a[:1]
-Suite[Expr(Index(Var(a), [:Lit(1)]))]
+Suite[Expr(Index(Var(a), (:Lit(1))))]
 >>> a[:1:]
-Suite[Expr(Index(Var(a), [:Lit(1)]))]
+Suite[Expr(Index(Var(a), (:Lit(1))))]
 >>> a[::2]
-Suite[Expr(Index(Var(a), [::Lit(2)]))]
+Suite[Expr(Index(Var(a), (::Lit(2))))]
 >>> a[:1:2]
-Suite[Expr(Index(Var(a), [:Lit(1):Lit(2)]))]
+Suite[Expr(Index(Var(a), (:Lit(1):Lit(2))))]
 >>> a[0::2]
-Suite[Expr(Index(Var(a), [Lit(0)::Lit(2)]))]
+Suite[Expr(Index(Var(a), (Lit(0)::Lit(2))))]
 >>> a[0:1:2]
-Suite[Expr(Index(Var(a), [Lit(0):Lit(1):Lit(2)]))]
+Suite[Expr(Index(Var(a), (Lit(0):Lit(1):Lit(2))))]
 >>> a[0:1]
-Suite[Expr(Index(Var(a), [Lit(0):Lit(1)]))]
+Suite[Expr(Index(Var(a), (Lit(0):Lit(1))))]
 >>> a[0:1:]
-Suite[Expr(Index(Var(a), [Lit(0):Lit(1)]))]
+Suite[Expr(Index(Var(a), (Lit(0):Lit(1))))]
 
 >>> a[1, 1:, :1, 1:2, 3:...]
 Suite[Expr(Index(Var(a), [Lit(1), Lit(1):, :Lit(1), Lit(1):Lit(2), Lit(3):Lit(Ellipsis)]))]
 
 # subscripts in assigments
 >>> a[0] = 1
-Suite[Assign((Index(Var(a), [Lit(0)])), (Lit(1)))]
+Suite[Assign((Index(Var(a), (Lit(0)))), (Lit(1)))]
 >>> for a[1:] in items: pass
-Suite[For([Index(Var(a), [Lit(1):])], (Var(items)), Suite[Pass])]
+Suite[For((Index(Var(a), (Lit(1):))), (Var(items)), Suite[Pass])]
 
 # attribute access
 >>> a.b
@@ -376,7 +376,7 @@ Suite[Expr(Call(Call(Var(a), []), []))]
 >>> (a+1)()()
 Suite[Expr(Call(Call(Add(Var(a), Lit(1)), []), []))]
 >>> a[1]()()
-Suite[Expr(Call(Call(Index(Var(a), [Lit(1)]), []), []))]
+Suite[Expr(Call(Call(Index(Var(a), (Lit(1))), []), []))]
 >>> (a.b())()
 Suite[Expr(Call(Call(Attr(Var(a), b), []), []))]
 
@@ -408,7 +408,7 @@ Suite[Expr(Call(Var(a), [**Var(x)]))]
 Suite[Expr(Call(Var(a), [*Var(x), **Var(y)]))]
 
 >>> a(x, x+1 for x in items)
-Suite[Expr(Call(Var(a), [Var(x), GeneratorCompr(Add(Var(x), Lit(1)) for [Var(x)] in Var(items))]))]
+Suite[Expr(Call(Var(a), [Var(x), GeneratorCompr(Add(Var(x), Lit(1)) for (Var(x)) in Var(items))]))]
 
 >>> a([a]=1)
 SyntaxError
@@ -216,7 +216,7 @@ Suite[Assign((Var(a)), (Or(Lit(1), Lit(2))))]
 >>> a = b, = c, d = d
 Suite[Assign((Var(a)), [Var(b)], [Var(c), Var(d)], (Var(d)))]
 >>> a[0], b.c, = *d = e
-Suite[Assign([Index(Var(a), [Lit(0)]), Attr(Var(b), c)], (Star(Var(d))), (Var(e)))]
+Suite[Assign([Index(Var(a), (Lit(0))), Attr(Var(b), c)], (Star(Var(d))), (Var(e)))]
 >>> a = yield 1 = yield 2
 SyntaxError
 
@@ -333,7 +333,7 @@ Suite[While(Lit(1), Suite[Pass], Suite[Pass, Pass])]
 
 # for statement (single items)
 >>> for a in items: pass
-Suite[For([Var(a)], (Var(items)), Suite[Pass])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass])]
 >>> for a, in items: pass
 Suite[For([Var(a)], (Var(items)), Suite[Pass])]
 >>> for a, b in items: pass
@@ -343,46 +343,46 @@ Suite[For([Var(a), Var(b)], (Var(items)), Suite[Pass])]
 
 # for statement (multiple items)
 >>> for a in 1,: pass
-Suite[For([Var(a)], [Lit(1)], Suite[Pass])]
+Suite[For((Var(a)), [Lit(1)], Suite[Pass])]
 >>> for a in 1, 2: pass
-Suite[For([Var(a)], [Lit(1), Lit(2)], Suite[Pass])]
+Suite[For((Var(a)), [Lit(1), Lit(2)], Suite[Pass])]
 >>> for a in 1, 2,: pass
-Suite[For([Var(a)], [Lit(1), Lit(2)], Suite[Pass])]
+Suite[For((Var(a)), [Lit(1), Lit(2)], Suite[Pass])]
 
 # for statement (suite alterations)
 >>> for a in items:
 ...   pass
-Suite[For([Var(a)], (Var(items)), Suite[Pass])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass])]
 >>> for a in items: pass; break
-Suite[For([Var(a)], (Var(items)), Suite[Pass, Break])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass, Break])]
 >>> for a in items:
 ...   pass; break
-Suite[For([Var(a)], (Var(items)), Suite[Pass, Break])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass, Break])]
 >>> for a in items:
 ...   pass
 ...   break
-Suite[For([Var(a)], (Var(items)), Suite[Pass, Break])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass, Break])]
 
 # for/else statement
 >>> for a in items: pass
 ... else: pass
-Suite[For([Var(a)], (Var(items)), Suite[Pass], Suite[Pass])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass], Suite[Pass])]
 >>> for a in items: pass
 ... else:
 ...   pass
-Suite[For([Var(a)], (Var(items)), Suite[Pass], Suite[Pass])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass], Suite[Pass])]
 >>> for a in items: pass
 ... else: pass; pass
-Suite[For([Var(a)], (Var(items)), Suite[Pass], Suite[Pass, Pass])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass], Suite[Pass, Pass])]
 >>> for a in items: pass
 ... else:
 ...   pass; pass
-Suite[For([Var(a)], (Var(items)), Suite[Pass], Suite[Pass, Pass])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass], Suite[Pass, Pass])]
 >>> for a in items: pass
 ... else:
 ...   pass
 ...   pass
-Suite[For([Var(a)], (Var(items)), Suite[Pass], Suite[Pass, Pass])]
+Suite[For((Var(a)), (Var(items)), Suite[Pass], Suite[Pass, Pass])]
 
 # try/except statement (try suite alternations)
 >>> try: pass